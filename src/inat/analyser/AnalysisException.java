@@ -14,6 +14,7 @@ import inat.exceptions.InatException;
 public class AnalysisException extends InatException {
 
 	private static final long serialVersionUID = 8207531416480612466L;
+	private LevelResult partialResult = null; //What the analysis had produced before it was stopped (if anything)
 
 	/**
 	 * Constructor with detail message and cause.
@@ -33,4 +34,25 @@ public class AnalysisException extends InatException {
 	public AnalysisException(String message) {
 		super(message);
 	}
+
+	/**
+	 * Constructor with detail message and the part of the result computed
+	 * before the analysis was stopped.
+	 * 
+	 * @param message the detail message
+	 * @param partialResult the partial result (can be null)
+	 */
+	public AnalysisException(String message, LevelResult partialResult) {
+		super(message);
+		this.partialResult = partialResult;
+	}
+
+	/**
+	 * Returns the part of the result computed before the analysis was stopped.
+	 * 
+	 * @return the partial result, or null if there is none
+	 */
+	public LevelResult getPartialResult() {
+		return this.partialResult;
+	}
 }
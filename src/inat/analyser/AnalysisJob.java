@@ -0,0 +1,214 @@
+package inat.analyser;
+
+import inat.util.Metrics;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Vector;
+
+/**
+ * Keeps track of the resources used by an analysis (external processes, the threads
+ * reading their output, temporary files) so that, when the user cancels it, everything
+ * can be released at once instead of waiting for the processes to end on their own.
+ * A job can span more than one analysis (e.g., all the runs of an average): the analysers
+ * add their resources when they start using them, and remove them when they are done.
+ * Other parts of the program (e.g., the scheduler of an analysis server) can ask to be
+ * notified when the job is cancelled, in order to release their own resources.
+ * The job also adds up the time spent in each phase of its analyses (see Metrics).
+ */
+public class AnalysisJob {
+	private volatile boolean cancelled = false; //Set when the job is cancelled: it is never reset
+	private Vector<Process> processes = new Vector<Process>(); //The processes currently running for this job
+	private Vector<Thread> threads = new Vector<Thread>(); //The threads currently working for this job (not including the one that started the job)
+	private Vector<File> temporaryFiles = new Vector<File>(); //The files to be deleted when the job is cancelled
+	private Vector<Runnable> cancelListeners = new Vector<Runnable>(); //Called (once) when the job is cancelled
+	private Map<String, Long> times = new LinkedHashMap<String, Long>(); //Phase of the analysis -> total microseconds spent in it
+	private volatile Runnable yieldHandler = null; //Called at the yield points of the analysis (see yieldPoint)
+
+	/**
+	 * Cancel the job: kill all its processes, interrupt its threads, delete its
+	 * temporary files and notify the cancel listeners. Calling it more than once
+	 * has no effect.
+	 */
+	public void cancel() {
+		Vector<Process> processesToKill;
+		Vector<Thread> threadsToStop;
+		Vector<File> filesToDelete;
+		Vector<Runnable> listeners;
+		synchronized (this) {
+			if (cancelled) return;
+			cancelled = true;
+			processesToKill = new Vector<Process>(processes);
+			threadsToStop = new Vector<Thread>(threads);
+			filesToDelete = new Vector<File>(temporaryFiles);
+			listeners = new Vector<Runnable>(cancelListeners);
+			processes.clear();
+			threads.clear();
+			temporaryFiles.clear();
+			cancelListeners.clear();
+		}
+		for (Process p : processesToKill) {
+			kill(p);
+		}
+		for (Thread t : threadsToStop) {
+			t.interrupt();
+		}
+		for (File f : filesToDelete) {
+			f.delete();
+		}
+		for (Runnable r : listeners) {
+			try {
+				r.run();
+			} catch (Exception ex) {
+				System.err.println("Error while cancelling a job: " + ex);
+			}
+		}
+	}
+
+	/**
+	 * Kill the given process, closing its streams so that nobody remains blocked
+	 * reading from them.
+	 */
+	private static void kill(Process p) {
+		p.destroy();
+		try {
+			p.getInputStream().close();
+			p.getErrorStream().close();
+			p.getOutputStream().close();
+		} catch (Exception ex) {
+			//we did our best
+		}
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Add a process to the job. If the job has already been cancelled, the process
+	 * is killed immediately.
+	 * @param p The process
+	 * @return true if the process was added, false if the job was already cancelled
+	 */
+	public boolean addProcess(Process p) {
+		synchronized (this) {
+			if (!cancelled) {
+				processes.add(p);
+				return true;
+			}
+		}
+		kill(p);
+		return false;
+	}
+
+	public synchronized void removeProcess(Process p) {
+		processes.remove(p);
+	}
+
+	/**
+	 * Add a thread to the job: it will be interrupted if the job is cancelled.
+	 * If the job has already been cancelled, the thread is interrupted immediately.
+	 * @param t The thread
+	 */
+	public void addThread(Thread t) {
+		synchronized (this) {
+			if (!cancelled) {
+				threads.add(t);
+				return;
+			}
+		}
+		t.interrupt();
+	}
+
+	public synchronized void removeThread(Thread t) {
+		threads.remove(t);
+	}
+
+	/**
+	 * Add a temporary file to the job: it will be deleted if the job is cancelled.
+	 * The analyser using the file is still responsible for deleting it when it
+	 * has finished using it.
+	 * @param f The file
+	 */
+	public void addTemporaryFile(File f) {
+		synchronized (this) {
+			if (!cancelled) {
+				temporaryFiles.add(f);
+				return;
+			}
+		}
+		f.delete();
+	}
+
+	/**
+	 * Delete the given temporary file and remove it from the job.
+	 * @param f The file
+	 */
+	public void deleteTemporaryFile(File f) {
+		synchronized (this) {
+			temporaryFiles.remove(f);
+		}
+		f.delete();
+	}
+
+	/**
+	 * Add a listener to be called when the job is cancelled. If the job has already
+	 * been cancelled, the listener is called immediately.
+	 * @param r The listener
+	 */
+	public void addCancelListener(Runnable r) {
+		synchronized (this) {
+			if (!cancelled) {
+				cancelListeners.add(r);
+				return;
+			}
+		}
+		r.run();
+	}
+
+	public synchronized void removeCancelListener(Runnable r) {
+		cancelListeners.remove(r);
+	}
+
+	/**
+	 * Set what to do at the yield points of the analysis.
+	 * @param handler The handler (null to do nothing)
+	 */
+	public void setYieldHandler(Runnable handler) {
+		this.yieldHandler = handler;
+	}
+
+	/**
+	 * Called by the analysers between two runs, where the analysis can be
+	 * suspended without losing any work: the yield handler (if any) can use
+	 * the current thread for something more urgent before returning.
+	 */
+	public void yieldPoint() {
+		Runnable handler = yieldHandler;
+		if (handler != null && !cancelled) {
+			handler.run();
+		}
+	}
+
+	/**
+	 * Add the time spent in a phase of the analysis, and record it in the
+	 * program-wide Metrics.
+	 * @param phase The phase (one of the durations defined in Metrics)
+	 * @param micros The time spent, in microseconds
+	 */
+	public void addTime(String phase, long micros) {
+		synchronized (this) {
+			Long total = times.get(phase);
+			times.put(phase, (total == null ? 0 : total) + micros);
+		}
+		Metrics.get().record(phase, micros);
+	}
+
+	/**
+	 * Returns the total time (microseconds) spent by the job in each phase of its analyses.
+	 */
+	public synchronized Map<String, Long> getTimes() {
+		return new LinkedHashMap<String, Long>(times);
+	}
+}
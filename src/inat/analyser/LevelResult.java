@@ -37,7 +37,40 @@ public interface LevelResult {
 	 */
 	public List<Double> getTimeIndices();
 	
+	/**
+	 * Reads the levels of a substrate at increasing times, continuing each time
+	 * from where the previous read stopped, instead of searching from the start
+	 * as {@link LevelResult#getConcentration(String, double)} does.
+	 */
+	public interface Cursor {
+		/**
+		 * Returns the level at the given time (which must not be smaller than the
+		 * one of the previous call).
+		 * 
+		 * @param time the time index to do a look up for
+		 * @return the level of concentration, or NaN if there is no data up to that time
+		 */
+		public double getConcentration(double time);
+	}
+	
+	/**
+	 * Returns a cursor to read the levels of the given substrate in time order.
+	 * 
+	 * @param id the id of the substrate
+	 * @return the cursor, positioned before the first data point
+	 */
+	public Cursor getCursor(String id);
+	
 	public boolean isEmpty();
 	
 	public LevelResult filter(Vector<String> acceptedNames);
+	
+	/**
+	 * Returns what the analysis which produced this result has cost.
+	 * 
+	 * @return the resource usage, or null if it was not measured
+	 */
+	public ResourceUsage getResourceUsage();
+	
+	public void setResourceUsage(ResourceUsage usage);
 }
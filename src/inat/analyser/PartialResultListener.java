@@ -0,0 +1,24 @@
+package inat.analyser;
+
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * Receives the points of a simulation trace while the trace is still being
+ * computed, so that the result can be shown before the analysis is over.
+ * Points are published in batches: each batch contains only the points added
+ * since the previous one, with the same structure used by the level results
+ * (reactant id -> (time -> level)).
+ * Notice that the listener is called from the thread parsing the analyser
+ * output, not from the Swing event dispatch thread.
+ */
+public interface PartialResultListener {
+	/**
+	 * A new batch of points is available.
+	 *
+	 * @param newPoints the points added to the trace since the last batch, in model time units
+	 * @param currentTime the time reached by the simulation so far
+	 * @param timeTo the time at which the simulation will end
+	 */
+	public void partialResultAvailable(Map<String, SortedMap<Double, Double>> newPoints, int currentTime, int timeTo);
+}
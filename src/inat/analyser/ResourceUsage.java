@@ -0,0 +1,176 @@
+package inat.analyser;
+
+import inat.model.Entity;
+import inat.model.Model;
+import inat.model.Property;
+import inat.util.Table;
+
+import java.io.Serializable;
+
+/**
+ * What an analysis has cost: how long the verifyta processes have run, how much
+ * processor time, memory and I/O they have used, together with the size of the
+ * model which was analysed. The figures are measured from /proc (see ProcessSampler):
+ * where they cannot be measured, they are -1.
+ * The usage of the runs of an average is the sum of the usages of each run (the
+ * peak memory is the maximum).
+ */
+public class ResourceUsage implements Serializable {
+	private static final long serialVersionUID = -2807345816124390375L;
+
+	private int runs = 0; //How many times verifyta was run
+	private long wallTime = 0, //ms
+				 cpuTime = -1, //ms, user + system
+				 peakMemory = -1, //KB, the largest resident set of a verifyta process
+				 bytesRead = -1,
+				 bytesWritten = -1;
+	private final int reactants, reactions;
+	private final long tableCells; //The total number of cells in the tables of the model (the time tables of the reactions)
+
+	/**
+	 * Start measuring the analysis of a model.
+	 *
+	 * @param m the model
+	 */
+	public ResourceUsage(Model m) {
+		this.reactants = m.getReactants().size();
+		this.reactions = m.getReactions().size();
+		long cells = 0;
+		for (Entity e : m.getReactions()) {
+			for (Property p : e.getProperties()) {
+				if (p.isNull() || !p.isA(Table.class)) continue;
+				Table t = p.as(Table.class);
+				if (t.getColumnCount() > 0) {
+					cells += (long)t.getRowCount() * t.getColumnCount();
+				}
+			}
+		}
+		this.tableCells = cells;
+	}
+
+	/**
+	 * Copy another usage.
+	 */
+	public ResourceUsage(ResourceUsage other) {
+		synchronized (other) {
+			this.runs = other.runs;
+			this.wallTime = other.wallTime;
+			this.cpuTime = other.cpuTime;
+			this.peakMemory = other.peakMemory;
+			this.bytesRead = other.bytesRead;
+			this.bytesWritten = other.bytesWritten;
+			this.reactants = other.reactants;
+			this.reactions = other.reactions;
+			this.tableCells = other.tableCells;
+		}
+	}
+
+	/**
+	 * Add the measurements of a verifyta run.
+	 *
+	 * @param wallTime how long the process has run (ms)
+	 * @param cpuTime the processor time it has used (ms), -1 if unknown
+	 * @param peakMemory its peak resident set (KB), -1 if unknown
+	 * @param bytesRead how many bytes it has read, -1 if unknown
+	 * @param bytesWritten how many bytes it has written, -1 if unknown
+	 */
+	public synchronized void addRun(long wallTime, long cpuTime, long peakMemory, long bytesRead, long bytesWritten) {
+		this.runs++;
+		this.wallTime += wallTime;
+		this.cpuTime = sum(this.cpuTime, cpuTime);
+		this.peakMemory = Math.max(this.peakMemory, peakMemory);
+		this.bytesRead = sum(this.bytesRead, bytesRead);
+		this.bytesWritten = sum(this.bytesWritten, bytesWritten);
+	}
+
+	/**
+	 * Add the runs measured by another usage (e.g., a run of the same average).
+	 */
+	public void add(ResourceUsage other) {
+		synchronized (other) {
+			if (other.runs == 0) return;
+			synchronized (this) {
+				this.runs += other.runs;
+				this.wallTime += other.wallTime;
+				this.cpuTime = sum(this.cpuTime, other.cpuTime);
+				this.peakMemory = Math.max(this.peakMemory, other.peakMemory);
+				this.bytesRead = sum(this.bytesRead, other.bytesRead);
+				this.bytesWritten = sum(this.bytesWritten, other.bytesWritten);
+			}
+		}
+	}
+
+	private static long sum(long a, long b) {
+		if (a < 0) return b;
+		if (b < 0) return a;
+		return a + b;
+	}
+
+	public synchronized int getRuns() {
+		return runs;
+	}
+
+	public synchronized long getWallTime() {
+		return wallTime;
+	}
+
+	public synchronized long getCpuTime() {
+		return cpuTime;
+	}
+
+	public synchronized long getPeakMemory() {
+		return peakMemory;
+	}
+
+	public synchronized long getBytesRead() {
+		return bytesRead;
+	}
+
+	public synchronized long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	public int getReactants() {
+		return reactants;
+	}
+
+	public int getReactions() {
+		return reactions;
+	}
+
+	public long getTableCells() {
+		return tableCells;
+	}
+
+	private static String seconds(long ms) {
+		return String.format("%.1f s", ms / 1000.0);
+	}
+
+	private static String megabytes(long bytes) {
+		return String.format("%.1f MB", bytes / (1024.0 * 1024.0));
+	}
+
+	/**
+	 * A line describing the usage, to be shown to the user.
+	 */
+	@Override
+	public synchronized String toString() {
+		StringBuilder b = new StringBuilder();
+		if (runs == 0) {
+			b.append("verifyta not run");
+		} else {
+			b.append(runs + (runs == 1 ? " verifyta run: " : " verifyta runs: ") + seconds(wallTime));
+			if (cpuTime >= 0) {
+				b.append(" (CPU " + seconds(cpuTime) + ")");
+			}
+			if (peakMemory >= 0) {
+				b.append(", peak memory " + megabytes(peakMemory * 1024));
+			}
+			if (bytesRead >= 0 && bytesWritten >= 0) {
+				b.append(", I/O " + megabytes(bytesRead) + " read / " + megabytes(bytesWritten) + " written");
+			}
+		}
+		b.append("; model: " + reactants + " reactants, " + reactions + " reactions, " + tableCells + " table cells");
+		return b.toString();
+	}
+}
@@ -16,6 +16,9 @@ public class SMCResult implements Serializable {
 	private double confidence, //The confidence value (example: 0.95 means that we have 95% of confidence)
 				   lowerBound, //The numerical result is represented as a couple [lowerBound, upperBound], defining the interval in which the result of the query will lay with the probability given by the confidence value.
 				   upperBound;
+	
+	private boolean cached = false; //Tells us if the result comes from a previous analysis (see SMCResultCache) instead of a new call to UPPAAL
+	private ResourceUsage resourceUsage = null; //What the analysis has cost (null if not measured)
 
 	/**
 	 * Build a boolean query result
@@ -56,6 +59,22 @@ public class SMCResult implements Serializable {
 		return this.booleanResult;
 	}
 	
+	public boolean isCached() {
+		return this.cached;
+	}
+	
+	public void setCached(boolean cached) {
+		this.cached = cached;
+	}
+	
+	public ResourceUsage getResourceUsage() {
+		return this.resourceUsage;
+	}
+	
+	public void setResourceUsage(ResourceUsage resourceUsage) {
+		this.resourceUsage = resourceUsage;
+	}
+	
 	public String toString() {
 		if (isBoolean) {
 			return (booleanResult?"TRUE":"FALSE") + " with confidence " + confidence;
@@ -0,0 +1,178 @@
+package inat.analyser.uppaal;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+
+/**
+ * Measures the resources used by an external process (verifyta): processor time
+ * (from /proc/[pid]/stat), peak resident memory (VmHWM in /proc/[pid]/status) and
+ * I/O (rchar and wchar in /proc/[pid]/io), reading them every SAMPLE_INTERVAL ms
+ * while the process runs. Once the process has ended its /proc entry is gone, so
+ * what is used in the last interval can be missed. Where /proc is not available
+ * (or we cannot find the pid of the process), nothing is measured.
+ */
+class ProcessSampler {
+	private static final long SAMPLE_INTERVAL = 100; //ms
+	private static final long MS_PER_CLOCK_TICK = 10; //The times in /proc are in units of USER_HZ, which is 100 on Linux
+
+	private final File statFile, //null if we cannot measure anything
+					   statusFile,
+					   ioFile;
+	private volatile long cpuTime = -1, //The last measured processor time (ms), user + system
+						  peakMemory = -1, //KB
+						  bytesRead = -1, //Everything read or written by the process, also through the page cache
+						  bytesWritten = -1;
+	private Thread sampler = null;
+
+	/**
+	 * Start sampling the given process.
+	 *
+	 * @param process the process (just started)
+	 */
+	ProcessSampler(Process process) {
+		int pid = pidOf(process);
+		File stat = pid > 0 ? new File("/proc/" + pid + "/stat") : null;
+		this.statFile = (stat != null && stat.exists()) ? stat : null;
+		this.statusFile = pid > 0 ? new File("/proc/" + pid + "/status") : null;
+		this.ioFile = pid > 0 ? new File("/proc/" + pid + "/io") : null;
+		if (statFile == null) return;
+		sample();
+		sampler = new Thread("Sampler of process " + pid) {
+			@Override
+			public void run() {
+				while (!isInterrupted()) {
+					try {
+						Thread.sleep(SAMPLE_INTERVAL);
+					} catch (InterruptedException ex) {
+						return;
+					}
+					if (!sample()) return; //the process is over
+				}
+			}
+		};
+		sampler.setDaemon(true);
+		sampler.start();
+	}
+
+	/**
+	 * Find the pid of a process (the field is not public before Java 9).
+	 *
+	 * @return the pid, or -1 if we cannot find it
+	 */
+	static int pidOf(Process process) {
+		try {
+			Method pid = Process.class.getMethod("pid"); //Java 9 and later
+			return ((Number) pid.invoke(process)).intValue();
+		} catch (Exception ex) {
+			//try the old way
+		}
+		try {
+			Field pid = process.getClass().getDeclaredField("pid");
+			pid.setAccessible(true);
+			return pid.getInt(process);
+		} catch (Exception ex) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Read the processor time, memory and I/O of the process.
+	 *
+	 * @return false if the process is not there anymore
+	 */
+	private boolean sample() {
+		try {
+			BufferedReader in = new BufferedReader(new FileReader(statFile));
+			String line;
+			try {
+				line = in.readLine();
+			} finally {
+				in.close();
+			}
+			if (line == null) return false;
+			//the name of the program (2nd field) is in parentheses and can contain spaces: we start counting after it
+			String[] fields = line.substring(line.lastIndexOf(')') + 2).split(" ");
+			long ticks = Long.parseLong(fields[11]) + Long.parseLong(fields[12]); //utime and stime (14th and 15th fields)
+			cpuTime = ticks * MS_PER_CLOCK_TICK;
+		} catch (IOException ex) {
+			return false;
+		} catch (RuntimeException ex) { //unexpected format
+			return false;
+		}
+		long value = readField(statusFile, "VmHWM:"); //the kernel keeps the peak for us
+		if (value >= 0) {
+			peakMemory = value;
+		}
+		value = readField(ioFile, "rchar:");
+		if (value >= 0) {
+			bytesRead = value;
+		}
+		value = readField(ioFile, "wchar:");
+		if (value >= 0) {
+			bytesWritten = value;
+		}
+		return true;
+	}
+
+	/**
+	 * Read a "name: value [unit]" line from a file in /proc.
+	 *
+	 * @return the value, or -1 if it cannot be read (e.g., /proc/[pid]/io is not readable)
+	 */
+	private static long readField(File file, String name) {
+		try {
+			BufferedReader in = new BufferedReader(new FileReader(file));
+			try {
+				String line;
+				while ((line = in.readLine()) != null) {
+					if (line.startsWith(name)) {
+						return Long.parseLong(line.substring(name.length()).trim().split("\\s+")[0]);
+					}
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException ex) {
+			//not available
+		} catch (RuntimeException ex) { //unexpected format
+			//not available
+		}
+		return -1;
+	}
+
+	/**
+	 * Stop sampling (the process has ended).
+	 */
+	void stop() {
+		if (sampler != null) {
+			sampler.interrupt();
+			sample(); //if the process has not been collected yet
+		}
+	}
+
+	/**
+	 * Returns the processor time used by the process (ms), or -1 if it could not be measured.
+	 */
+	long getCpuTime() {
+		return cpuTime;
+	}
+
+	/**
+	 * Returns the peak resident memory of the process (KB), or -1 if it could not be measured.
+	 */
+	long getPeakMemory() {
+		return peakMemory;
+	}
+
+	long getBytesRead() {
+		return bytesRead;
+	}
+
+	long getBytesWritten() {
+		return bytesWritten;
+	}
+}
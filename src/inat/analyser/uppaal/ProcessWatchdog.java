@@ -0,0 +1,85 @@
+package inat.analyser.uppaal;
+
+/**
+ * Kills an external process (verifyta) which runs for too long or uses too much memory.
+ * The memory is the resident set measured by a ProcessSampler: where it cannot be measured,
+ * only the time limit is enforced here (the launcher also gives the process a ulimit, where
+ * it can).
+ */
+class ProcessWatchdog {
+	private static final long CHECK_INTERVAL = 200; //ms
+
+	private final Process process;
+	private final ProcessSampler sampler;
+	private final long timeLimit, //ms, 0 for no limit
+					   memoryLimit; //KB, 0 for no limit
+	private volatile String violation = null; //Which limit the process has exceeded (null if none)
+	private Thread watchdog = null;
+
+	/**
+	 * Start watching the given process.
+	 *
+	 * @param process the process (just started)
+	 * @param sampler the sampler measuring the memory of the process
+	 * @param timeLimit the longest time (ms) the process can run (0 for no limit)
+	 * @param memoryLimit the maximum resident memory (KB) of the process (0 for no limit)
+	 */
+	ProcessWatchdog(Process process, ProcessSampler sampler, long timeLimit, long memoryLimit) {
+		this.process = process;
+		this.sampler = sampler;
+		this.timeLimit = timeLimit;
+		this.memoryLimit = memoryLimit;
+		if (timeLimit <= 0 && memoryLimit <= 0) return;
+		final long startTime = System.currentTimeMillis();
+		watchdog = new Thread("Watchdog of verifyta") {
+			@Override
+			public void run() {
+				while (!isInterrupted()) {
+					try {
+						Thread.sleep(CHECK_INTERVAL);
+					} catch (InterruptedException ex) {
+						return;
+					}
+					if (check(System.currentTimeMillis() - startTime)) return;
+				}
+			}
+		};
+		watchdog.setDaemon(true);
+		watchdog.start();
+	}
+
+	/**
+	 * Kill the process if it has exceeded a limit.
+	 *
+	 * @param elapsed how long (ms) the process has been running
+	 * @return true if the process has been killed
+	 */
+	private boolean check(long elapsed) {
+		if (timeLimit > 0 && elapsed > timeLimit) {
+			violation = "exceeded the time limit of " + (timeLimit / 1000) + " s";
+		} else if (memoryLimit > 0 && sampler.getPeakMemory() > memoryLimit) {
+			violation = "exceeded the memory limit of " + (memoryLimit / 1024) + " MB";
+		} else {
+			return false;
+		}
+		process.destroy();
+		return true;
+	}
+
+	/**
+	 * Stop watching (the process has ended).
+	 */
+	void stop() {
+		if (watchdog != null) {
+			watchdog.interrupt();
+		}
+	}
+
+	/**
+	 * Returns which limit the process has exceeded (e.g. "exceeded the time limit of 60 s"),
+	 * or null if we have not killed it.
+	 */
+	String getViolation() {
+		return violation;
+	}
+}
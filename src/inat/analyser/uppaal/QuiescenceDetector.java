@@ -0,0 +1,115 @@
+package inat.analyser.uppaal;
+
+import inat.model.Model;
+import inat.model.Property;
+import inat.model.Reactant;
+import inat.model.Reaction;
+import inat.util.Table;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Vector;
+
+/**
+ * Tells whether a given state (i.e., a set of activity levels) of a model is quiescent,
+ * meaning that no reaction can change any activity level from that state on.
+ * A reaction cannot change anything if its time table contains INFINITE_TIME for the
+ * current levels of its reactants, or if it would only push its reactant beyond the
+ * bounds (0 or the number of levels), where the UPPAAL model keeps the level unchanged.
+ * As the time tables depend only on the activity levels, once a quiescent state is reached
+ * the simulation cannot produce anything new, and we can stop it and extrapolate the result.
+ * The same check, applied to the initial levels, tells us that there is no need to start
+ * verifyta at all.
+ */
+public class QuiescenceDetector {
+	private static final int INFINITE_TIME = VariablesModel.INFINITE_TIME;
+
+	private Vector<String> reactantIds = new Vector<String>(), //For each enabled reaction, the id of the reactant whose level is changed
+						   catalystIds = new Vector<String>(); //For each enabled reaction, the id of the catalyst (null for mono-reactions)
+	private Vector<Table> times = new Vector<Table>(); //For each enabled reaction, the table of lower bounds for the reaction times
+	private Vector<Integer> increments = new Vector<Integer>(); //For each enabled reaction, the delta it applies to its reactant
+	private Map<String, Integer> maxLevels = new HashMap<String, Integer>(); //The number of levels of each reactant involved in a reaction
+	private boolean usable = true; //false if the model misses some information we need: in that case we never say that a state is quiescent
+
+	public QuiescenceDetector(Model m) {
+		for (Reaction r : m.getReactions()) {
+			if (!r.get(Model.Properties.ENABLED).as(Boolean.class)) continue;
+			String type = r.get(Model.Properties.REACTION_TYPE).as(String.class);
+			String reactantId = r.get(Model.Properties.REACTANT).as(String.class),
+				   catalystId = null;
+			if (Model.Properties.BI_REACTION.equals(type)) {
+				catalystId = r.get(Model.Properties.CATALYST).as(String.class);
+			} else if (!Model.Properties.MONO_REACTION.equals(type)) {
+				usable = false;
+				return;
+			}
+			Property property = r.get(Model.Properties.TIMES_LOWER);
+			if (property == null) {
+				property = r.get(Model.Properties.TIMES);
+			}
+			Property increment = r.get(Model.Properties.INCREMENT);
+			if (property == null || property.isNull() || increment == null || increment.isNull()
+				|| !readMaxLevel(m, reactantId) || (catalystId != null && !readMaxLevel(m, catalystId))) {
+				usable = false;
+				return;
+			}
+			reactantIds.add(reactantId);
+			catalystIds.add(catalystId);
+			times.add(property.as(Table.class));
+			increments.add(increment.as(Integer.class));
+		}
+	}
+
+	private boolean readMaxLevel(Model m, String reactantId) {
+		Reactant r = m.getReactant(reactantId);
+		if (r == null) return false;
+		Property levels = r.get(Model.Properties.NUMBER_OF_LEVELS);
+		if (levels == null || levels.isNull()) return false;
+		maxLevels.put(reactantId, levels.as(Integer.class));
+		return true;
+	}
+
+	/**
+	 * Tell whether the given state is quiescent.
+	 * @param levels The activity levels of the reactants (not rescaled: the values are the
+	 * ones used inside the UPPAAL model)
+	 * @return true if no reaction can change any activity level starting from the given state.
+	 * If we are not sure (e.g., a level is missing from the given state), we answer false.
+	 */
+	public boolean isQuiescent(Map<String, Integer> levels) {
+		if (!usable) return false;
+		for (int i = 0; i < reactantIds.size(); i++) {
+			Integer level = levels.get(reactantIds.get(i));
+			if (level == null) return false;
+			int column = 0;
+			if (catalystIds.get(i) != null) {
+				Integer catalystLevel = levels.get(catalystIds.get(i));
+				if (catalystLevel == null) return false;
+				column = catalystLevel;
+			}
+			Table t = times.get(i);
+			if (level < 0 || level >= t.getRowCount() || column < 0 || column >= t.getColumnCount()) return false;
+			if (t.get(level, column) == INFINITE_TIME) continue;
+			int maxLevel = maxLevels.get(reactantIds.get(i)),
+				newLevel = Math.max(0, Math.min(maxLevel, level + increments.get(i)));
+			if (newLevel != level) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Tell whether the initial state of the model is quiescent: in that case, the
+	 * activity levels will remain the initial ones for the whole simulation.
+	 * @param m The model (the same given in the constructor)
+	 * @return true if no reaction can change any activity level
+	 */
+	public boolean isInitialStateQuiescent(Model m) {
+		Map<String, Integer> levels = new HashMap<String, Integer>();
+		for (Reactant r : m.getReactants()) {
+			Property initialLevel = r.get(Model.Properties.INITIAL_LEVEL);
+			if (initialLevel == null || initialLevel.isNull()) continue;
+			levels.put(r.getId(), initialLevel.as(Integer.class));
+		}
+		return isQuiescent(levels);
+	}
+}
@@ -1,8 +1,11 @@
 package inat.analyser.uppaal;
 
 import inat.analyser.AnalysisException;
+import inat.analyser.AnalysisJob;
+import inat.analyser.ResourceUsage;
 import inat.cytoscape.RunAction;
 import inat.model.Model;
+import inat.util.Metrics;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -21,12 +24,22 @@ public class ResultAverager {
 	public static final String STD_DEV = "_stddev"; //NOTICE: it needs to be lowercase, because elsewhere we assume it is so. We also assume that it starts with "_"
 	private TaskMonitor monitor = null; //If we are operating via the user interface, we can show the point at which we are with the simulations
 	private RunAction runAction = null; //If we are operating via the user interface, this will tell us if the user has requested that we cancel the simulations
+	private AnalysisJob job = null; //If not null, all the simulation runs belong to this job, and stop as soon as it is cancelled
 	
 	public ResultAverager(TaskMonitor monitor, RunAction runAction) {
 		this.monitor = monitor;
 		this.runAction = runAction;
 	}
 	
+	/**
+	 * Set the job to which the simulation runs belong. When the job is cancelled,
+	 * the run in progress is killed and no other run is started.
+	 * @param job The job
+	 */
+	public void setJob(AnalysisJob job) {
+		this.job = job;
+	}
+	
 	/**
 	 * Analyse the given model, with a reachability query E<> (globalTime > timeTo) (with timeTo given),
 	 * and produce a result showing the average activity levels of all reactants in the model during the simulation
@@ -42,14 +55,21 @@ public class ResultAverager {
 	public SimpleLevelResult analyzeAverage(Model m, int timeTo, int nRuns, boolean computeStdDev) throws AnalysisException, Exception {
 		Vector<SimpleLevelResult> results = new Vector<SimpleLevelResult>(nRuns);
 		UppaalModelAnalyserFasterConcrete analyzer = new UppaalModelAnalyserFasterConcrete(monitor, runAction);
+		if (job != null) {
+			analyzer.setJob(job);
+		}
 		for (int i=0;i<nRuns;i++) {
-			if (runAction != null && runAction.needToStop()) {
+			if (i > 0 && job != null) {
+				job.yieldPoint(); //e.g., a server can use our slot for a more urgent analysis
+			}
+			if ((runAction != null && runAction.needToStop()) || (job != null && job.isCancelled())) {
 				throw new AnalysisException("User interrupted");
 			}
 			if (monitor != null) {
 				monitor.setPercentCompleted((int)((double)i / nRuns * 100));
 			}
 			System.err.print((i+1));
+			analyzer.setProgressShare(i, nRuns);
 			results.add((SimpleLevelResult)(analyzer.analyze(m, timeTo)));
 		}
 		return average(results, computeStdDev);
@@ -70,6 +90,7 @@ public class ResultAverager {
 	 */
 	public SimpleLevelResult average(Vector<SimpleLevelResult> results, boolean computeStdDev) throws Exception {
 		if (results.isEmpty()) throw new Exception("Empty result set");
+		long startNanos = System.nanoTime();
 		Map<String, SortedMap<Double, Double>> result = new HashMap<String, SortedMap<Double, Double>>();
 		Set<String> reactantIds = results.firstElement().getReactantIds();
 		
@@ -116,8 +137,31 @@ public class ResultAverager {
 			if (computeStdDev) result.get(k + STD_DEV).put(finalTime, stdDev);
 		}
 		
-		
-		return new SimpleLevelResult(result);
+		if (job != null) {
+			job.addTime(Metrics.AVERAGING, Metrics.microsSince(startNanos));
+		} else {
+			Metrics.get().record(Metrics.AVERAGING, Metrics.microsSince(startNanos));
+		}
+		SimpleLevelResult averageResult = new SimpleLevelResult(result);
+		averageResult.setResourceUsage(totalUsage(results));
+		return averageResult;
+	}
+	
+	/**
+	 * Returns the sum of the resource usages of the given results (null if none of them has it).
+	 */
+	private static ResourceUsage totalUsage(Vector<SimpleLevelResult> results) {
+		ResourceUsage total = null;
+		for (SimpleLevelResult l : results) {
+			ResourceUsage usage = l.getResourceUsage();
+			if (usage == null) continue;
+			if (total == null) {
+				total = new ResourceUsage(usage);
+			} else {
+				total.add(usage);
+			}
+		}
+		return total;
 	}
 	
 }
@@ -0,0 +1,167 @@
+package inat.analyser.uppaal;
+
+import inat.analyser.ResourceUsage;
+import inat.util.BinaryEncoding;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.ObjectStreamException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Compact binary encoding of the series of a SimpleLevelResult.
+ * A simulation run produces integer times and small integer levels, which change
+ * little from one point to the next: in this case both are written as the difference
+ * from the previous point, in a variable number of bytes (usually one). The series
+ * containing non-integer values (e.g., averages and standard deviations) are written
+ * as plain doubles. The encoded result is compressed when it is large.
+ * This is how a SimpleLevelResult travels over RMI (see {@link Wire}): the default
+ * serialization of maps of boxed doubles is many times larger and slower.
+ */
+public class ResultCodec {
+	private static final int VERSION = 1;
+	private static final int INTEGER_TIMES = 1, INTEGER_VALUES = 2; //Flags telling us how a series is encoded
+	private static final int COMPRESSION_THRESHOLD = 4096; //Results encoded in at least this number of bytes are compressed
+
+	/**
+	 * Writes the series of a result.
+	 *
+	 * @param levels the series, divided by reactant
+	 * @param out the output
+	 * @throws IOException if the output fails
+	 */
+	public static void write(Map<String, SortedMap<Double, Double>> levels, DataOutput out) throws IOException {
+		out.writeByte(VERSION);
+		BinaryEncoding.writeVarInt(out, levels.size());
+		for (Map.Entry<String, SortedMap<Double, Double>> series : levels.entrySet()) {
+			SortedMap<Double, Double> points = series.getValue();
+			int flags = INTEGER_TIMES | INTEGER_VALUES;
+			for (Map.Entry<Double, Double> point : points.entrySet()) {
+				if (!isInteger(point.getKey())) {
+					flags &= ~INTEGER_TIMES;
+				}
+				if (!isInteger(point.getValue())) {
+					flags &= ~INTEGER_VALUES;
+				}
+			}
+			out.writeUTF(series.getKey());
+			out.writeByte(flags);
+			BinaryEncoding.writeVarInt(out, points.size());
+			long previousTime = 0, previousValue = 0;
+			for (Map.Entry<Double, Double> point : points.entrySet()) {
+				double time = point.getKey(), value = point.getValue();
+				if ((flags & INTEGER_TIMES) != 0) {
+					BinaryEncoding.writeSignedVarLong(out, (long) time - previousTime);
+					previousTime = (long) time;
+				} else {
+					out.writeDouble(time);
+				}
+				if ((flags & INTEGER_VALUES) != 0) {
+					BinaryEncoding.writeSignedVarLong(out, (long) value - previousValue);
+					previousValue = (long) value;
+				} else {
+					out.writeDouble(value);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads the series written by {@link #write(Map, DataOutput)}.
+	 *
+	 * @param in the input
+	 * @return the series, divided by reactant
+	 * @throws IOException if the input fails or is not a result
+	 */
+	public static Map<String, SortedMap<Double, Double>> read(DataInput in) throws IOException {
+		int version = in.readUnsignedByte();
+		if (version != VERSION) {
+			throw new IOException("Unknown result encoding version " + version);
+		}
+		int nSeries = BinaryEncoding.readVarInt(in);
+		Map<String, SortedMap<Double, Double>> levels = new HashMap<String, SortedMap<Double, Double>>();
+		for (int i = 0; i < nSeries; i++) {
+			String id = in.readUTF();
+			int flags = in.readUnsignedByte();
+			int nPoints = BinaryEncoding.readVarInt(in);
+			SortedMap<Double, Double> points = new TreeMap<Double, Double>();
+			long time = 0, value = 0;
+			for (int j = 0; j < nPoints; j++) {
+				double t, v;
+				if ((flags & INTEGER_TIMES) != 0) {
+					time += BinaryEncoding.readSignedVarLong(in);
+					t = time;
+				} else {
+					t = in.readDouble();
+				}
+				if ((flags & INTEGER_VALUES) != 0) {
+					value += BinaryEncoding.readSignedVarLong(in);
+					v = value;
+				} else {
+					v = in.readDouble();
+				}
+				points.put(t, v);
+			}
+			levels.put(id, points);
+		}
+		return levels;
+	}
+
+	/**
+	 * Tells whether a double is an integer which survives the round trip through a long
+	 * (-0.0 does not, so it is written as a double).
+	 */
+	private static boolean isInteger(double d) {
+		return Math.abs(d) < (1L << 52) && Double.doubleToLongBits(d) == Double.doubleToLongBits((double) (long) d);
+	}
+
+	/**
+	 * What is actually serialized in place of a SimpleLevelResult.
+	 */
+	public static class Wire implements Externalizable {
+		private static final long serialVersionUID = -2305412838011297546L;
+		private Map<String, SortedMap<Double, Double>> levels;
+		private ResourceUsage resourceUsage;
+
+		public Wire() {
+			//needed by Externalizable
+		}
+
+		Wire(Map<String, SortedMap<Double, Double>> levels, ResourceUsage resourceUsage) {
+			this.levels = levels;
+			this.resourceUsage = resourceUsage;
+		}
+
+		@Override
+		public void writeExternal(ObjectOutput out) throws IOException {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream data = new DataOutputStream(bytes);
+			write(levels, data);
+			data.close();
+			BinaryEncoding.writeBlock(out, bytes.toByteArray(), COMPRESSION_THRESHOLD);
+			out.writeObject(resourceUsage); //small: no need to encode it ourselves
+		}
+
+		@Override
+		public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+			levels = read(new DataInputStream(BinaryEncoding.readBlock(in)));
+			resourceUsage = (ResourceUsage) in.readObject();
+		}
+
+		private Object readResolve() throws ObjectStreamException {
+			SimpleLevelResult result = new SimpleLevelResult(levels);
+			result.setResourceUsage(resourceUsage);
+			return result;
+		}
+	}
+}
@@ -0,0 +1,223 @@
+package inat.analyser.uppaal;
+
+import inat.InatBackend;
+import inat.analyser.SMCResult;
+import inat.model.Model;
+import inat.model.ModelHasher;
+import inat.util.Metrics;
+import inat.util.XmlConfiguration;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps the results of the SMC queries on disk, so that asking again the same
+ * query on the same model gives the answer immediately instead of running UPPAAL again.
+ * A result is identified by the canonical hash of the model (see ModelHasher), the
+ * normalized query and the engine that computed it (the confidence settings are those of
+ * the engine, so a different verifyta or a different server gives a different key).
+ * The results are kept in a directory which survives the end of the program
+ * (XmlConfiguration.SMC_CACHE_KEY), whose total size is limited (XmlConfiguration.SMC_CACHE_SIZE_KEY,
+ * in KB): when the limit is exceeded, the least recently used results are removed.
+ */
+public class SMCResultCache {
+	private static final String FILE_EXTENSION = ".smc";
+	private static final long DEFAULT_SIZE = 1024; //KB
+	private static final Pattern SPACES = Pattern.compile("\\s+"),
+								 USELESS_SPACES = Pattern.compile(" (?=[^A-Za-z0-9_])|(?<=[^A-Za-z0-9_]) "); //The spaces which do not separate two words
+	private static SMCResultCache instance = null;
+
+	private final File directory; //Where we keep the results
+	private final long maxSize; //The maximum total size (in bytes) of the result files
+
+	/**
+	 * Returns the SMC result cache configured in the INAT configuration file.
+	 *
+	 * @return the SMC result cache
+	 */
+	public static synchronized SMCResultCache get() {
+		if (instance == null) {
+			XmlConfiguration configuration = InatBackend.get().configuration();
+			String path = configuration.get(XmlConfiguration.SMC_CACHE_KEY, null);
+			long size = DEFAULT_SIZE;
+			try {
+				size = Long.parseLong(configuration.get(XmlConfiguration.SMC_CACHE_SIZE_KEY, "" + DEFAULT_SIZE).trim());
+			} catch (NumberFormatException ex) {
+				System.err.println("Unable to understand the size of the SMC result cache: using " + DEFAULT_SIZE + " KB");
+			}
+			File directory = path != null ? new File(path) : new File(new File(System.getProperty("user.home"), ".inat"), "smc-cache");
+			instance = new SMCResultCache(directory, size * 1024);
+		}
+		return instance;
+	}
+
+	/**
+	 * Create a SMC result cache.
+	 *
+	 * @param directory where to keep the results
+	 * @param maxSize the maximum total size (in bytes) of the results
+	 */
+	public SMCResultCache(File directory, long maxSize) {
+		this.directory = directory;
+		this.directory.mkdirs();
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Normalize a UPPAAL query, so that queries differing only in the spacing
+	 * are recognized as the same query.
+	 *
+	 * @param query the query
+	 * @return the normalized query
+	 */
+	public static String normalizeQuery(String query) {
+		String result = SPACES.matcher(query.trim()).replaceAll(" ");
+		return USELESS_SPACES.matcher(result).replaceAll("");
+	}
+
+	/**
+	 * Look for the result of a query already answered.
+	 *
+	 * @param m the model
+	 * @param query the query (already translated in UPPAAL time units and reactant identifiers)
+	 * @param engine identifies the engine used to answer the query (e.g., the path of verifyta, or the address of the server)
+	 * @return the result (marked as cached), or null if the query was never answered
+	 */
+	public SMCResult lookup(Model m, String query, String engine) {
+		SMCResult result = find(m, query, engine);
+		Metrics.get().increment(result != null ? Metrics.SMC_CACHE_HITS : Metrics.SMC_CACHE_MISSES);
+		return result;
+	}
+
+	private SMCResult find(Model m, String query, String engine) {
+		String key = getKey(m, query, engine);
+		File file = getFile(key);
+		if (!file.exists()) {
+			return null;
+		}
+		try {
+			ObjectInputStream in = new ObjectInputStream(new FileInputStream(file));
+			try {
+				if (!key.equals(in.readObject())) {
+					return null; //a different query with the same file name: we keep the file, as it is just as good as ours
+				}
+				SMCResult result = (SMCResult)in.readObject();
+				result.setCached(true);
+				file.setLastModified(System.currentTimeMillis()); //the date of last use tells us which results to evict first
+				return result;
+			} finally {
+				in.close();
+			}
+		} catch (Exception ex) {
+			System.err.println("Unable to read the cached SMC result " + file.getAbsolutePath() + ": " + ex);
+			file.delete();
+			return null;
+		}
+	}
+
+	/**
+	 * Remember the result of a query, replacing any previous result for the same query.
+	 *
+	 * @param m the model
+	 * @param query the query (already translated in UPPAAL time units and reactant identifiers)
+	 * @param engine identifies the engine used to answer the query
+	 * @param result the result given by the engine
+	 */
+	public void store(Model m, String query, String engine, SMCResult result) {
+		String key = getKey(m, query, engine);
+		File file = getFile(key),
+			 temporary = new File(directory, file.getName() + "." + Thread.currentThread().getId() + ".tmp"); //so that nobody reads a half-written result
+		try {
+			ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(temporary));
+			try {
+				out.writeObject(key);
+				out.writeObject(result);
+			} finally {
+				out.close();
+			}
+			synchronized (this) {
+				file.delete();
+				if (!temporary.renameTo(file)) {
+					throw new IOException("cannot rename " + temporary.getAbsolutePath());
+				}
+				evict();
+			}
+		} catch (IOException ex) {
+			System.err.println("Unable to save the SMC result in " + file.getAbsolutePath() + ": " + ex);
+			temporary.delete();
+		}
+	}
+
+	/**
+	 * Forget the result of a query.
+	 *
+	 * @param m the model
+	 * @param query the query (already translated in UPPAAL time units and reactant identifiers)
+	 * @param engine identifies the engine used to answer the query
+	 */
+	public void invalidate(Model m, String query, String engine) {
+		getFile(getKey(m, query, engine)).delete();
+	}
+
+	/**
+	 * Forget all the results.
+	 */
+	public synchronized void clear() {
+		File[] files = directory.listFiles();
+		if (files == null) return;
+		for (File f : files) {
+			if (f.getName().endsWith(FILE_EXTENSION)) {
+				f.delete();
+			}
+		}
+	}
+
+	/**
+	 * Remove the least recently used results until the total size is under the limit.
+	 */
+	private void evict() {
+		File[] files = directory.listFiles();
+		if (files == null) return;
+		long totalSize = 0;
+		for (File f : files) {
+			totalSize += f.length();
+		}
+		if (totalSize <= maxSize) return;
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File f1, File f2) {
+				long d1 = f1.lastModified(), d2 = f2.lastModified();
+				return d1 < d2 ? -1 : (d1 > d2 ? 1 : 0);
+			}
+		});
+		for (File f : files) {
+			if (totalSize <= maxSize) break;
+			if (!f.getName().endsWith(FILE_EXTENSION)) continue;
+			long length = f.length();
+			if (f.delete()) {
+				totalSize -= length;
+			}
+		}
+	}
+
+	private static String getKey(Model m, String query, String engine) {
+		return ModelHasher.hash(m) + "\n" + normalizeQuery(query) + "\n" + engine;
+	}
+
+	/**
+	 * The name of the file starts with the hash of the model, so that all the
+	 * results about a model are close to each other. The rest of the key is
+	 * stored in the file, to recognize the (unlikely) collisions.
+	 */
+	private File getFile(String key) {
+		String modelHash = key.substring(0, key.indexOf('\n'));
+		return new File(directory, modelHash + "-" + Integer.toHexString(key.hashCode()) + FILE_EXTENSION);
+	}
+}
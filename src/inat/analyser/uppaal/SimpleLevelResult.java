@@ -1,17 +1,19 @@
 package inat.analyser.uppaal;
 
 import inat.analyser.LevelResult;
+import inat.analyser.ResourceUsage;
 
+import java.io.ObjectStreamException;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.SortedMap;
-import java.util.SortedSet;
-import java.util.TreeSet;
 import java.util.Vector;
 import java.util.Map.Entry;
 
@@ -24,6 +26,7 @@ import java.util.Map.Entry;
 public class SimpleLevelResult implements LevelResult, Serializable {
 	private static final long serialVersionUID = 5440819034905472745L;
 	Map<String, SortedMap<Double, Double>> levels;
+	private ResourceUsage resourceUsage = null;
 
 	/**
 	 * @param levels the levels to enter
@@ -32,6 +35,15 @@ public class SimpleLevelResult implements LevelResult, Serializable {
 		this.levels = levels;
 	}
 
+	/**
+	 * Serialize the result in the compact encoding of {@link ResultCodec}.
+	 * 
+	 * @return the object to serialize in our place
+	 */
+	private Object writeReplace() throws ObjectStreamException {
+		return new ResultCodec.Wire(this.levels, this.resourceUsage);
+	}
+
 	@Override
 	public double getConcentration(String id, double time) {
 		assert this.levels.containsKey(id) : "Can not retrieve level for unknown identifier.";
@@ -53,6 +65,26 @@ public class SimpleLevelResult implements LevelResult, Serializable {
 		return data.get(exactTime);
 	}
 
+	@Override
+	public Cursor getCursor(String id) {
+		assert this.levels.containsKey(id) : "Can not retrieve level for unknown identifier.";
+
+		final Iterator<Entry<Double, Double>> data = this.levels.get(id).entrySet().iterator();
+		return new Cursor() {
+			private Entry<Double, Double> next = data.hasNext() ? data.next() : null;
+			private double level = Double.NaN;
+
+			@Override
+			public double getConcentration(double time) {
+				while (next != null && next.getKey() <= time) {
+					level = next.getValue();
+					next = data.hasNext() ? data.next() : null;
+				}
+				return level;
+			}
+		};
+	}
+
 	@Override
 	public String toString() {
 		StringBuilder b = new StringBuilder();
@@ -68,13 +100,27 @@ public class SimpleLevelResult implements LevelResult, Serializable {
 
 	@Override
 	public List<Double> getTimeIndices() {
-		SortedSet<Double> accumulator = new TreeSet<Double>();
-
+		// the times are sorted as plain doubles: much faster than adding them to a TreeSet on long results
+		int total = 0;
 		for (SortedMap<Double, Double> e : this.levels.values()) {
-			accumulator.addAll(e.keySet());
+			total += e.size();
 		}
+		double[] times = new double[total];
+		int n = 0;
+		for (SortedMap<Double, Double> e : this.levels.values()) {
+			for (Double t : e.keySet()) {
+				times[n++] = t;
+			}
+		}
+		Arrays.sort(times);
 
-		return new ArrayList<Double>(accumulator);
+		List<Double> result = new ArrayList<Double>();
+		for (int i = 0; i < n; i++) {
+			if (i == 0 || Double.compare(times[i], times[i - 1]) != 0) {
+				result.add(times[i]);
+			}
+		}
+		return result;
 	}
 
 	@Override
@@ -82,6 +128,16 @@ public class SimpleLevelResult implements LevelResult, Serializable {
 		return Collections.unmodifiableSet(this.levels.keySet());
 	}
 
+	@Override
+	public ResourceUsage getResourceUsage() {
+		return resourceUsage;
+	}
+
+	@Override
+	public void setResourceUsage(ResourceUsage resourceUsage) {
+		this.resourceUsage = resourceUsage;
+	}
+
 	@Override
 	public boolean isEmpty() {
 		return levels.isEmpty();
@@ -96,6 +152,7 @@ public class SimpleLevelResult implements LevelResult, Serializable {
 			lev.put(s, m);
 		}
 		SimpleLevelResult res = new SimpleLevelResult(lev);
+		res.setResourceUsage(resourceUsage);
 		return res;
 	}
 }
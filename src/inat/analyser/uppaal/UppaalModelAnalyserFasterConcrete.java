@@ -3,20 +3,23 @@ package inat.analyser.uppaal;
 
 import inat.InatBackend;
 import inat.analyser.AnalysisException;
+import inat.analyser.AnalysisJob;
 import inat.analyser.LevelResult;
 import inat.analyser.ModelAnalyser;
+import inat.analyser.PartialResultListener;
+import inat.analyser.ResourceUsage;
 import inat.analyser.SMCResult;
 import inat.cytoscape.RunAction;
 import inat.model.Model;
 import inat.model.Property;
 import inat.model.Reactant;
+import inat.util.Metrics;
 import inat.util.XmlConfiguration;
 
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileWriter;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.HashMap;
@@ -43,11 +46,18 @@ import cytoscape.task.TaskMonitor;
 public class UppaalModelAnalyserFasterConcrete implements ModelAnalyser<LevelResult> {
 	
 	public static double TIME_SCALE = 0.2; //the factor by which time values are mutiplied before being output on the .csv file (it answers the question "how many real-life minutes does a time unit of the model represent?")
+	private static final String QUERY_FILE_NAME = "query.q", //The names of the files in the workspace of each analysis (the model file comes from the UppaalModelCache)
+								OUTPUT_FILE_NAME = "result.output";
+	private static final long PARTIAL_RESULT_INTERVAL = 250; //Minimum number of milliseconds between two batches of partial results sent to the partialResultListener
 	
 	private String verifytaPath, verifytaSMCPath;//, tracerPath; //The paths to the tools used in the analysis
 	private TaskMonitor monitor; //The reference to the Monitor in which to show the progress of the task
-	private RunAction runAction; //We can ask this one whether the user has asked us to cancel the computation
-	private int taskStatus = 0; //Used to define the current status of the analysis task. 0 = still running, 1 = process completed, 2 = user pressed Cancel
+	private RunAction runAction; //If we are operating via the user interface, this one gives us the job to which our processes belong, so that they are killed when the user presses Cancel
+	private AnalysisJob job = null; //The job to which our processes, threads and temporary files belong. If null, we use the one of runAction (or a new one for each analysis)
+	private PartialResultListener partialResultListener = null; //If not null, it receives the points of the trace while verifyta is still computing it
+	private int progressRunIndex = 0, progressNRuns = 1; //When we are one of a series of runs (see ResultAverager), the progress shown on the monitor takes into account also the other runs
+	private long timeLimit = 0, //The longest time (ms) a verifyta process can run (0 for no limit)
+				 memoryLimit = 0; //The maximum memory (KB) a verifyta process can use (0 for no limit)
 	
 	public UppaalModelAnalyserFasterConcrete(TaskMonitor monitor, RunAction runAction) {
 		XmlConfiguration configuration = InatBackend.get().configuration();
@@ -56,6 +66,93 @@ public class UppaalModelAnalyserFasterConcrete implements ModelAnalyser<LevelRes
 		this.runAction = runAction;
 		this.verifytaPath = configuration.get(XmlConfiguration.VERIFY_KEY);
 		this.verifytaSMCPath = configuration.get(XmlConfiguration.VERIFY_SMC_KEY);
+		try {
+			this.timeLimit = Long.parseLong(configuration.get(XmlConfiguration.VERIFYTA_TIME_LIMIT_KEY, "0").trim()) * 1000;
+			this.memoryLimit = Long.parseLong(configuration.get(XmlConfiguration.VERIFYTA_MEMORY_LIMIT_KEY, "0").trim()) * 1024;
+		} catch (NumberFormatException ex) {
+			System.err.println("Unable to understand the limits for verifyta: not using any");
+		}
+	}
+	
+	/**
+	 * The shell commands which give the limits to the verifyta process (as a backup of the
+	 * ProcessWatchdog): processor time a little over the time limit, and virtual memory.
+	 * @return the commands, to be put before the "exec" of verifyta
+	 */
+	private String ulimitCommands() {
+		StringBuilder commands = new StringBuilder();
+		if (timeLimit > 0) {
+			commands.append("ulimit -t " + (timeLimit / 1000 + 1) + " 2>/dev/null; ");
+		}
+		if (memoryLimit > 0) {
+			commands.append("ulimit -v " + memoryLimit + " 2>/dev/null; ");
+		}
+		return commands.toString();
+	}
+	
+	/**
+	 * Describe the limits under which verifyta runs, e.g. " (at most 60 s, 512 MB)".
+	 */
+	private String limitsDescription() {
+		StringBuilder description = new StringBuilder();
+		if (timeLimit > 0) {
+			description.append((timeLimit / 1000) + " s");
+		}
+		if (memoryLimit > 0) {
+			if (description.length() > 0) {
+				description.append(", ");
+			}
+			description.append((memoryLimit / 1024) + " MB");
+		}
+		return " (at most " + description + ")";
+	}
+	
+	/**
+	 * Describe the memory limit, if any, as a possible reason for the failure of verifyta.
+	 */
+	private String memoryLimitHint() {
+		if (memoryLimit <= 0) return "";
+		return " (verifyta can use at most " + (memoryLimit / 1024) + " MB of memory)\n";
+	}
+	
+	/**
+	 * Set the job to which the analyses belong: when the job is cancelled, the running
+	 * verifyta process is killed, the threads reading its output are interrupted and the
+	 * temporary files are deleted.
+	 * @param job The job
+	 */
+	public void setJob(AnalysisJob job) {
+		this.job = job;
+	}
+	
+	private AnalysisJob getJob() {
+		if (job != null) {
+			return job;
+		}
+		if (runAction != null && runAction.getCurrentJob() != null) {
+			return runAction.getCurrentJob();
+		}
+		return new AnalysisJob();
+	}
+	
+	/**
+	 * Set the listener to which the points of a simulation trace are published
+	 * (in batches) while the trace is being parsed. Use null to stop publishing.
+	 * @param partialResultListener The listener
+	 */
+	public void setPartialResultListener(PartialResultListener partialResultListener) {
+		this.partialResultListener = partialResultListener;
+	}
+	
+	/**
+	 * Tell the analyser that the next run is the runIndex-th of a series of nRuns runs,
+	 * so that the percentage shown on the monitor refers to the whole series.
+	 * @param runIndex The index of the next run (starting from 0)
+	 * @param nRuns The total number of runs
+	 */
+	public void setProgressShare(int runIndex, int nRuns) {
+		this.progressRunIndex = runIndex;
+		this.progressNRuns = nRuns;
 	}
 	
 	public static boolean areWeUnderWindows() {
@@ -75,31 +172,21 @@ public class UppaalModelAnalyserFasterConcrete implements ModelAnalyser<LevelRes
 	 */
 	public SMCResult analyzeSMC(Model m, String probabilisticQuery) throws AnalysisException {
 		SMCResult result = null;
+		ResourceUsage usage = new ResourceUsage(m);
+		AnalysisJob job = getJob();
+		Workspace workspace = null;
+		File modelFile = null;
+		Process proc = null;
 		try {
-			final String uppaalModel = new VariablesModelSMC().transform(m);
-			
-			File modelFile = File.createTempFile("inat", ".xml");
-			final String prefix = modelFile.getAbsolutePath().replace(".xml", "");
-			File queryFile = new File(prefix + ".q");
-			
-			// write out strings to file
-			FileWriter modelFileOut = new FileWriter(modelFile);
-			modelFileOut.append(uppaalModel);
-			modelFileOut.close();
-			modelFile.deleteOnExit();
-			
-			FileWriter queryFileOut = new FileWriter(queryFile);
-			queryFileOut.append(probabilisticQuery);
-			queryFileOut.close();
-			queryFile.deleteOnExit();
+			// write out strings to file (the workspace is deleted with all its files as soon as we are done)
+			workspace = WorkspaceManager.get().createWorkspace(job);
+			modelFile = UppaalModelCache.get().acquireModelFile(m, workspace); //the same model is transformed only once
+			File queryFile = workspace.writeFile(QUERY_FILE_NAME, probabilisticQuery);
 	
 			String nomeFileModello = modelFile.getAbsolutePath(),
 				   nomeFileQuery = queryFile.getAbsolutePath(),
-				   nomeFileOutput = nomeFileModello.substring(0, nomeFileModello.indexOf(".")) + ".output";
-			File fileOutput = new File(nomeFileOutput);
-			fileOutput.deleteOnExit();
+				   nomeFileOutput = workspace.getFile(OUTPUT_FILE_NAME).getAbsolutePath();
 						
-			//the following string is used in order to make sure that the name of .xtr output files is unique even when we are called by an application which is multi-threaded itself (it supposes of course that the input file is unique =))
 			String[] cmd = new String[3];
 			
 			if (areWeUnderWindows()) {
@@ -115,54 +202,33 @@ public class UppaalModelAnalyserFasterConcrete implements ModelAnalyser<LevelRes
 				}
 				cmd[0] = "bash";
 				cmd[1] = "-c";
-				cmd[2] = verifytaSMCPath;				
+				cmd[2] = ulimitCommands() + "exec " + verifytaSMCPath; //exec makes verifyta take the place of bash, so that when we kill the process we really kill verifyta
 			}
 			cmd[2] += " \"" + nomeFileModello + "\" \"" + nomeFileQuery + "\" > \"" + nomeFileOutput + "\" 2>&1";
 			Runtime rt = Runtime.getRuntime();
-			long startTime = System.currentTimeMillis();
-			final Process proc = rt.exec(cmd);
-			if (runAction != null) {
-				taskStatus = 0;
-				new Thread() { //wait for the process to end correctly
-					@Override
-					public void run() {
-						try {
-							proc.waitFor();
-						} catch (InterruptedException ex) {
-							taskStatus = 2;
-						}
-						taskStatus = 1;
-					}
-				}.start();
-				new Thread() { //wait for the process to end by user cancellation
-					@Override
-					public void run() {
-						while (taskStatus == 0) {
-							if (runAction.needToStop()) {
-								taskStatus = 2;
-								return;
-							}
-							try {
-								Thread.sleep(500);
-							} catch (InterruptedException e) {
-								
-							}
-						}
-					}
-				}.start();
-				while (taskStatus == 0) {
-					Thread.sleep(100);
-				}
-				if (taskStatus == 2) { //the process has been cancelled: we need to exit
-					throw new AnalysisException("User interrupted");
-				}
-			} else {
-				try {
-					proc.waitFor();
-				} catch (InterruptedException ex){
-					proc.destroy();
-					throw new Exception("Interrupted (1)");
-				}
+			long startTime = System.currentTimeMillis(),
+				 startNanos = System.nanoTime();
+			proc = rt.exec(cmd);
+			if (!job.addProcess(proc)) { //the job was cancelled while we were preparing the files
+				throw new AnalysisException("User interrupted");
+			}
+			ProcessSampler sampler = new ProcessSampler(proc);
+			ProcessWatchdog watchdog = new ProcessWatchdog(proc, sampler, timeLimit, memoryLimit);
+			try {
+				proc.waitFor();
+			} catch (InterruptedException ex){
+				proc.destroy();
+				throw new Exception("Interrupted (1)");
+			} finally {
+				watchdog.stop();
+				recordProcessTimes(job, startNanos, sampler, usage);
+			}
+			if (job.isCancelled()) { //the process has been killed because the user cancelled the job: we need to exit
+				throw new AnalysisException("User interrupted");
+			}
+			if (watchdog.getViolation() != null) {
+				Metrics.get().increment(Metrics.VERIFYTA_LIMITS_EXCEEDED);
+				throw new AnalysisException("The analysis was stopped: verifyta " + watchdog.getViolation());
 			}
 			long endTime = System.currentTimeMillis();
 			System.err.println("\tUPPAAL analysis of " + nomeFileModello + " took " + RunAction.timeDifferenceFormat(startTime, endTime));
@@ -175,6 +241,7 @@ public class UppaalModelAnalyserFasterConcrete implements ModelAnalyser<LevelRes
 					errorBuilder.append(line + "\n");
 				}
 				errorBuilder.append(" (current directory: " + new File(".").getAbsolutePath() + ")\n");
+				errorBuilder.append(memoryLimitHint());
 				throw new Exception(errorBuilder.toString());
 			}
 			//N B: it is responsibility of the caller to close all streams when the process is done!!!
@@ -183,19 +250,40 @@ public class UppaalModelAnalyserFasterConcrete implements ModelAnalyser<LevelRes
 			proc.getOutputStream().close();
 			
 			startTime = System.currentTimeMillis();
-			result = new UppaalModelAnalyserFasterConcrete.VariablesInterpreterConcrete(monitor).analyseSMC(m, new FileInputStream(nomeFileOutput));
+			long parseStartNanos = System.nanoTime();
+			FileInputStream outputStream = new FileInputStream(nomeFileOutput);
+			try {
+				result = new UppaalModelAnalyserFasterConcrete.VariablesInterpreterConcrete(monitor).analyseSMC(m, outputStream);
+			} finally {
+				outputStream.close();
+			}
+			job.addTime(Metrics.TRACE_PARSE, Metrics.microsSince(parseStartNanos));
 			endTime = System.currentTimeMillis();
 			System.err.println("\tParsing the result produced by UPPAAL took " + RunAction.timeDifferenceFormat(startTime, endTime));
 			
-			new File(nomeFileOutput).delete();
-			
+		} catch (AnalysisException e) {
+			throw e;
 		} catch (Exception e) {
+			if (job.isCancelled()) {
+				throw new AnalysisException("User interrupted");
+			}
 			throw new AnalysisException("Error during analysis", e);
+		} finally {
+			if (proc != null) {
+				job.removeProcess(proc);
+			}
+			if (modelFile != null) {
+				UppaalModelCache.get().releaseModelFile(modelFile);
+			}
+			if (workspace != null) {
+				workspace.close();
+			}
 		}
 		
 		if (result == null) {
 			throw new AnalysisException("Error during analysis: empty result");
 		}
+		result.setResourceUsage(usage);
 		
 		return result;
 	}
@@ -221,24 +309,27 @@ public class UppaalModelAnalyserFasterConcrete implements ModelAnalyser<LevelRes
 	 */
 	public LevelResult analyze(final Model m, final int timeTo) throws AnalysisException {
 		LevelResult result = null;
+		ResourceUsage usage = new ResourceUsage(m);
+		if (new QuiescenceDetector(m).isInitialStateQuiescent(m)) { //no reaction can ever happen: the result is known without asking UPPAAL
+			result = constantResult(m, timeTo);
+			if (result != null) {
+				System.err.println("\tThe initial state is quiescent: no need to call UPPAAL");
+				result.setResourceUsage(usage);
+				return result;
+			}
+		}
+		AnalysisJob job = getJob();
+		Workspace workspace = null;
+		File modelFile = null;
+		Process runningProcess = null;
+		Thread parser = null;
 		try {
-			final String uppaalModel = new VariablesModelSMC().transform(m);
 			final String uppaalQuery = "E<> (globalTime > " + timeTo + ")";
 			
-			File modelFile = File.createTempFile("inat", ".xml");
-			final String prefix = modelFile.getAbsolutePath().replace(".xml", "");
-			File queryFile = new File(prefix + ".q");
-	
-			// write out strings to file
-			FileWriter modelFileOut = new FileWriter(modelFile);
-			modelFileOut.append(uppaalModel);
-			modelFileOut.close();
-			modelFile.deleteOnExit();
-			
-			FileWriter queryFileOut = new FileWriter(queryFile);
-			queryFileOut.append(uppaalQuery);
-			queryFileOut.close();
-			queryFile.deleteOnExit();
+			// write out strings to file (the workspace is deleted with all its files as soon as we are done)
+			workspace = WorkspaceManager.get().createWorkspace(job);
+			modelFile = UppaalModelCache.get().acquireModelFile(m, workspace); //the same model is transformed only once (e.g., in all the runs of an average)
+			File queryFile = workspace.writeFile(QUERY_FILE_NAME, uppaalQuery);
 	
 			String nomeFileModello = modelFile.getAbsolutePath(),
 				   nomeFileQuery = queryFile.getAbsolutePath();
@@ -259,7 +350,7 @@ public class UppaalModelAnalyserFasterConcrete implements ModelAnalyser<LevelRes
 				}
 				cmd[0] = "bash";
 				cmd[1] = "-c";
-				cmd[2] = verifytaPath;				
+				cmd[2] = ulimitCommands() + "exec " + verifytaPath; //exec makes verifyta take the place of bash, so that when we kill the process we really kill verifyta
 			}
 			cmd[2] += " -t0 -o2 \"" + nomeFileModello + "\" \"" + nomeFileQuery + "\"";
 			Runtime rt = Runtime.getRuntime();
@@ -267,10 +358,20 @@ public class UppaalModelAnalyserFasterConcrete implements ModelAnalyser<LevelRes
 				monitor.setStatus("Analysing model with UPPAAL.");
 			}
 			System.err.print("\tUPPAAL analysis of " + nomeFileModello);
+			final long startNanos = System.nanoTime();
 			final Process proc = rt.exec(cmd);
+			runningProcess = proc;
+			if (!job.addProcess(proc)) { //the job was cancelled while we were preparing the files
+				System.err.println(" was interrupted by the user");
+				throw new AnalysisException("User interrupted");
+			}
+			ProcessSampler sampler = new ProcessSampler(proc);
+			ProcessWatchdog watchdog = new ProcessWatchdog(proc, sampler, timeLimit, memoryLimit);
+			final AnalysisJob parserJob = job;
 			final Vector<LevelResult> resultVector = new Vector<LevelResult>(1); //this has no other reason than to hack around the fact that an internal class needs to have all variables it uses declared as final
 			final Vector<Exception> errors = new Vector<Exception>(); //same reason as above
-			new Thread() {
+			final Vector<Boolean> stoppedEarly = new Vector<Boolean>(1); //same reason as above
+			parser = new Thread() {
 				@Override
 				public void run() {
 					try {
@@ -278,62 +379,54 @@ public class UppaalModelAnalyserFasterConcrete implements ModelAnalyser<LevelRes
 							proc.getInputStream().close();
 							proc.getOutputStream().close();
 						}
-						resultVector.add(new UppaalModelAnalyserFasterConcrete.VariablesInterpreterConcrete(monitor).analyse(m, proc.getErrorStream(), timeTo));
+						VariablesInterpreterConcrete interpreter = new UppaalModelAnalyserFasterConcrete.VariablesInterpreterConcrete(monitor);
+						LevelResult parsed = interpreter.analyse(m, proc.getErrorStream(), timeTo);
+						parserJob.addTime(Metrics.TRACE_PARSE, Metrics.microsSince(startNanos)); //the trace is parsed while verifyta produces it
+						if (interpreter.isStoppedEarly()) { //the simulation has reached a quiescent state: what verifyta would still compute is of no interest
+							stoppedEarly.add(true);
+							proc.destroy();
+						}
+						resultVector.add(parsed);
 					} catch (Exception e) {
 						errors.add(e);
+						proc.destroy(); //nobody reads the output of verifyta anymore: it would block on a full pipe, and we would wait for it forever
 					}
 				}
-			}.start();
-			if (runAction != null) {
-				taskStatus = 0;
-				new Thread() { //wait for the process to end correctly
-					@Override
-					public void run() {
-						try {
-							proc.waitFor();
-						} catch (InterruptedException ex) {
-							taskStatus = 2;
-						}
-						taskStatus = 1;
-					}
-				}.start();
-				new Thread() { //wait for the process to end by user cancellation
-					@Override
-					public void run() {
-						while (taskStatus == 0) {
-							if (runAction.needToStop()) {
-								taskStatus = 2;
-								return;
-							}
-							try {
-								Thread.sleep(500);
-							} catch (InterruptedException e) {
-								
-							}
-						}
-					}
-				}.start();
-				while (taskStatus == 0) {
-					Thread.sleep(100);
-				}
-				if (taskStatus == 2) {
-					System.err.println(" was interrupted by the user");
-					proc.destroy();
-					throw new AnalysisException("User interrupted");
-				}
-				while (resultVector.isEmpty()) { //if the verifyta process is completed, we may still need to wait for the analysis thread to complete
-					Thread.sleep(100);
-				}
-			} else {
-				try {
-					proc.waitFor();
-				} catch (InterruptedException ex){
-					proc.destroy();
-					throw new Exception("Interrupted (1)");
+			};
+			job.addThread(parser);
+			parser.start();
+			try {
+				proc.waitFor();
+				watchdog.stop();
+				recordProcessTimes(job, startNanos, sampler, usage);
+				sampler = null;
+				parser.join(); //if the verifyta process is completed, we may still need to wait for the analysis thread to complete
+			} catch (InterruptedException ex){
+				proc.destroy();
+				throw new Exception("Interrupted (1)");
+			} finally {
+				watchdog.stop();
+				if (sampler != null) {
+					recordProcessTimes(job, startNanos, sampler, usage);
 				}
-				while (resultVector.isEmpty()) { //if the verifyta process is completed, we may still need to wait for the analysis thread to complete
-					Thread.sleep(100);
+			}
+			if (job.isCancelled()) { //the process has been killed because the user cancelled the job
+				System.err.println(" was interrupted by the user");
+				throw new AnalysisException("User interrupted");
+			}
+			String violation = watchdog.getViolation();
+			if (violation == null && (timeLimit > 0 || memoryLimit > 0) && proc.exitValue() != 0 && stoppedEarly.isEmpty() && errors.isEmpty()) {
+				//the ulimit can kill verifyta before the watchdog notices: the trace we parsed up to then has been padded up to timeTo, so it cannot be taken as a result
+				violation = "exited with code " + proc.exitValue() + " while running under its limits" + limitsDescription();
+			}
+			if (violation != null) {
+				System.err.println(" was stopped: verifyta " + violation);
+				Metrics.get().increment(Metrics.VERIFYTA_LIMITS_EXCEEDED);
+				LevelResult partial = resultVector.isEmpty() ? null : cutAtLastState(resultVector.firstElement(), timeTo);
+				if (partial != null) {
+					partial.setResourceUsage(usage);
 				}
+				throw new AnalysisException("The simulation was stopped: verifyta " + violation + (partial != null ? " (the partial trace reaches time " + partial.getTimeIndices().get(partial.getTimeIndices().size() - 1) + ")" : ""), partial);
 			}
 			if (!errors.isEmpty()) {
 				Exception ex = errors.firstElement();
@@ -356,6 +449,7 @@ public class UppaalModelAnalyserFasterConcrete implements ModelAnalyser<LevelRes
 					errorBuilder.append(line + "\n");
 				}
 				errorBuilder.append(" (current directory: " + new File(".").getAbsolutePath() + ")\n");
+				errorBuilder.append(memoryLimitHint());
 				throw new Exception(errorBuilder.toString());
 			} else {
 				result = resultVector.firstElement();
@@ -365,17 +459,117 @@ public class UppaalModelAnalyserFasterConcrete implements ModelAnalyser<LevelRes
 			proc.getInputStream().close();
 			proc.getOutputStream().close();
 			
+		} catch (AnalysisException e) {
+			throw e;
 		} catch (Exception e) {
+			if (job.isCancelled()) {
+				throw new AnalysisException("User interrupted");
+			}
 			throw new AnalysisException("Error during analysis: " + e.getMessage(), e);
+		} finally {
+			if (runningProcess != null) {
+				job.removeProcess(runningProcess);
+			}
+			if (parser != null) {
+				job.removeThread(parser);
+			}
+			if (modelFile != null) {
+				UppaalModelCache.get().releaseModelFile(modelFile);
+			}
+			if (workspace != null) {
+				workspace.close();
+			}
 		}
 		
 		if (result == null || result.isEmpty()) {
 			throw new AnalysisException("Error during analysis: empty result");
 		}
+		result.setResourceUsage(usage);
 		
 		return result;
 	}
 	
+	/**
+	 * Record how long verifyta has run, and how much processor time, memory and I/O it has used.
+	 * @param job The job to which the run belongs
+	 * @param startNanos When verifyta was started (System.nanoTime())
+	 * @param sampler The sampler of the verifyta process
+	 * @param usage Where to add the figures of the run (they go also in the Metrics)
+	 */
+	private static void recordProcessTimes(AnalysisJob job, long startNanos, ProcessSampler sampler, ResourceUsage usage) {
+		long wallTime = Metrics.microsSince(startNanos);
+		job.addTime(Metrics.VERIFYTA_WALL_TIME, wallTime);
+		sampler.stop();
+		long cpuTime = sampler.getCpuTime();
+		if (cpuTime >= 0) {
+			job.addTime(Metrics.VERIFYTA_CPU_TIME, cpuTime * 1000);
+		}
+		if (sampler.getPeakMemory() >= 0) {
+			Metrics.get().record(Metrics.VERIFYTA_PEAK_MEMORY, sampler.getPeakMemory());
+		}
+		if (sampler.getBytesRead() >= 0 && sampler.getBytesWritten() >= 0) {
+			Metrics.get().record(Metrics.VERIFYTA_IO, (sampler.getBytesRead() + sampler.getBytesWritten()) / 1024);
+		}
+		usage.addRun(wallTime / 1000, cpuTime, sampler.getPeakMemory(), sampler.getBytesRead(), sampler.getBytesWritten());
+	}
+	
+	/**
+	 * Remove from a trace interrupted by the ProcessWatchdog the points which the parser
+	 * adds at timeTo (the parser does not know that the trace was interrupted), so that
+	 * the trace ends with the last state produced by verifyta.
+	 * @param result The trace
+	 * @param timeTo The time the simulation should have reached
+	 * @return The trace up to the last state read, or null if the trace is empty
+	 */
+	private static LevelResult cutAtLastState(LevelResult result, int timeTo) {
+		if (result == null || result.isEmpty()) return null;
+		double lastTime = -1;
+		for (Double t : result.getTimeIndices()) {
+			if (t < timeTo) {
+				lastTime = Math.max(lastTime, t);
+			}
+		}
+		if (lastTime < 0) return null;
+		Map<String, SortedMap<Double, Double>> levels = new HashMap<String, SortedMap<Double, Double>>();
+		for (String id : result.getReactantIds()) {
+			SortedMap<Double, Double> values = new TreeMap<Double, Double>();
+			values.putAll(((SimpleLevelResult)result).levels.get(id).headMap(lastTime));
+			values.put(lastTime, result.getConcentration(id, lastTime));
+			levels.put(id, values);
+		}
+		return new SimpleLevelResult(levels);
+	}
+	
+	/**
+	 * Build the result of a simulation in which no reaction can happen:
+	 * all reactants keep their initial activity levels up to timeTo.
+	 * @param m The model
+	 * @param timeTo The length of the simulation
+	 * @return The result, or null if some reactant misses the information
+	 * needed to compute its (rescaled) level
+	 */
+	private LevelResult constantResult(Model m, int timeTo) {
+		Map<String, SortedMap<Double, Double>> levels = new HashMap<String, SortedMap<Double, Double>>();
+		Property maxLevelsProperty = m.getProperties().get(Model.Properties.NUMBER_OF_LEVELS);
+		if (maxLevelsProperty == null || maxLevelsProperty.isNull()) return null;
+		int maxNumberOfLevels = maxLevelsProperty.as(Integer.class);
+		for (Reactant r : m.getReactants()) {
+			if (!r.get(Model.Properties.ENABLED).as(Boolean.class)) continue; //only enabled reactants are in the UPPAAL model, and so in the result
+			Property nLvl = r.get(Model.Properties.NUMBER_OF_LEVELS),
+					 initialLevel = r.get(Model.Properties.INITIAL_LEVEL);
+			if (nLvl == null || nLvl.isNull() || initialLevel == null || initialLevel.isNull()) return null;
+			double level = initialLevel.as(Integer.class) / (double)nLvl.as(Integer.class) * maxNumberOfLevels;
+			SortedMap<Double, Double> values = new TreeMap<Double, Double>();
+			values.put(0.0, level);
+			values.put((double)timeTo, level);
+			levels.put(r.getId(), values);
+		}
+		if (levels.isEmpty()) return null;
+		if (partialResultListener != null) {
+			partialResultListener.partialResultAvailable(levels, timeTo, timeTo);
+		}
+		return new SimpleLevelResult(levels);
+	}
 	
 	//This is slightly different from the "official" one in the sense that it reads data directly from the input stream. This way, we don't have to read the whole stream to a string (with the consequent waste of memory) before giving an input to the interpreter
 	public class VariablesInterpreterConcrete {
@@ -384,11 +578,22 @@ public class UppaalModelAnalyserFasterConcrete implements ModelAnalyser<LevelRes
 		private static final String ALIAS = Model.Properties.ALIAS;
 		private static final String NUMBER_OF_LEVELS = Model.Properties.NUMBER_OF_LEVELS;
 		private TaskMonitor monitor = null;
+		private boolean stoppedEarly = false; //true if the last trace we analysed reached a quiescent state, and we stopped reading it there
 		
 		public VariablesInterpreterConcrete(TaskMonitor monitor) {
 			this.monitor = monitor;
 		}
 		
+		/**
+		 * Tell whether the last call to analyse stopped reading the trace before its end,
+		 * because the simulation had reached a state from which no activity level can change.
+		 * In that case, the process producing the trace can be stopped.
+		 * @return true if the trace was not read to the end
+		 */
+		public boolean isStoppedEarly() {
+			return stoppedEarly;
+		}
+		
 
 		/**
 		 * Analyse the UPPAAL output from a Statistical Model Checking query
@@ -531,6 +736,8 @@ public class UppaalModelAnalyserFasterConcrete implements ModelAnalyser<LevelRes
 		 */
 		public LevelResult analyse(Model m, InputStream output, int timeTo) throws Exception {
 			long startTime = System.currentTimeMillis();
+			stoppedEarly = false;
+			QuiescenceDetector quiescence = new QuiescenceDetector(m);
 			
 			Map<String, SortedMap<Double, Double>> levels = new HashMap<String, SortedMap<Double, Double>>();
 
@@ -538,7 +745,9 @@ public class UppaalModelAnalyserFasterConcrete implements ModelAnalyser<LevelRes
 			String line = null;
 			Pattern globalTimePattern = Pattern.compile("globalTime[=][0-9]+");
 			Pattern statePattern = Pattern.compile("[A-Za-z0-9_]+[' ']*[=][' ']*[0-9]+");
-			int time = 0;
+			int time = 0, lastPercent = -1;
+			long lastPublished = System.currentTimeMillis();
+			Map<String, SortedMap<Double, Double>> newPoints = new HashMap<String, SortedMap<Double, Double>>(); //the points not yet sent to the partialResultListener
 			int maxNumberOfLevels = m.getProperties().get(NUMBER_OF_LEVELS).as(Integer.class);
 			HashMap<String, Double> numberOfLevels = new HashMap<String, Double>();
 
@@ -593,9 +802,10 @@ public class UppaalModelAnalyserFasterConcrete implements ModelAnalyser<LevelRes
 				if (levels.containsKey(r.getId())) {
 					double initialLevel = r.get(INITIAL_LEVEL).as(Integer.class);
 					initialLevel = initialLevel / (double)nLvl * (double)maxNumberOfLevels; //of course, the initial "concentration" itself needs to be rescaled correctly
-					levels.get(r.getId()).put(0.0, initialLevel);
+					putLevel(levels, newPoints, r.getId(), 0.0, initialLevel);
 				}
 			}
+			newPoints = publishPartialResult(newPoints, time, timeTo);
 			
 			long endTime = System.currentTimeMillis();
 			System.err.println(" took " + RunAction.timeDifferenceFormat(startTime, endTime));
@@ -605,7 +815,7 @@ public class UppaalModelAnalyserFasterConcrete implements ModelAnalyser<LevelRes
 				monitor.setStatus("Analysing UPPAAL output trace.");
 			}
 			
-			String oldLine = null;
+			Map<String, Integer> oldLevels = null; //the activity levels in the last state we have seen at the current time: they are recorded when the time advances
 			while ((line = br.readLine()) != null) {
 				/*while (line != null && !line.contains("inform_reacting")) {
 					line = br.readLine();
@@ -618,8 +828,9 @@ public class UppaalModelAnalyserFasterConcrete implements ModelAnalyser<LevelRes
 				br.readLine(); //as said before, the "State:" string ends with \n, so we need to read the next line in order to get the actual state data
 				line = br.readLine(); //and the line after that contains only the states of the processes, while we are interested in variable values, which are in the 3rd line
 				Matcher timeMatcher = globalTimePattern.matcher(line);
-				if (oldLine == null)
-					oldLine = line;
+				Map<String, Integer> lineLevels = readLevels(line, statePattern); //each state is read only once, both to record it and to check whether it is quiescent
+				if (oldLevels == null)
+					oldLevels = lineLevels;
 				if (timeMatcher.find()) {
 					String value = (timeMatcher.group().split("=")[1]);
 					int newTime = -1;
@@ -640,37 +851,28 @@ public class UppaalModelAnalyserFasterConcrete implements ModelAnalyser<LevelRes
 					if (time < newTime) {
 						time = newTime;
 						// we now know the time
-						Matcher stateMatcher = statePattern.matcher(oldLine);
-						String s = null;
-						while (stateMatcher.find()) {
-							s = stateMatcher.group();
-							if (s.contains("_nonofficial") || s.contains("counter") || s.contains("metro"))
-								continue;
-							String reactantId = null;
-							if (s.indexOf(' ') >= 0 && s.indexOf(' ') < s.indexOf('=')) {
-								reactantId = s.substring(0, s.indexOf(' '));
-							} else {
-								reactantId = s.substring(0, s.indexOf('='));
-							}
-							if (reactantId.equals("c") || reactantId.equals("globalTime") || reactantId.equals("r") || reactantId.equals("r1") || reactantId.equals("r2") || numberOfLevels.get(reactantId) == null) continue; //we check whether it is a private variable
-							// we can determine the level of activation
-							int level = Integer.valueOf(s.substring(s.indexOf("=") + 1).trim());
-							if (numberOfLevels.get(reactantId) != maxNumberOfLevels) {
-								level = (int)(level / (double)numberOfLevels.get(reactantId) * (double)maxNumberOfLevels);
-							}
-							
-							SortedMap<Double, Double> rMap = levels.get(reactantId);
-							if (rMap.get(rMap.lastKey()) != level) {
-								if (rMap.lastKey() < time - 1) { //We use this piece to explicitly keep a level constant when it is not varying (i.e., the graph will never contain non-vertical,non-horizontal lines)
-									rMap.put((double)(time - 1), rMap.get(rMap.lastKey()));
-								}
-								
-								rMap.put((double)time, (double)level);
+						recordState(oldLevels, time, levels, newPoints, numberOfLevels, maxNumberOfLevels);
+						oldLevels = lineLevels;
+						if (monitor != null && timeTo > 0) {
+							int percent = (int)((progressRunIndex * 100L + 100L * Math.min(time, timeTo) / timeTo) / progressNRuns);
+							if (percent != lastPercent) {
+								monitor.setPercentCompleted(percent);
+								lastPercent = percent;
 							}
 						}
-						oldLine = line;
+						if (System.currentTimeMillis() - lastPublished >= PARTIAL_RESULT_INTERVAL) {
+							newPoints = publishPartialResult(newPoints, time, timeTo);
+							lastPublished = System.currentTimeMillis();
+						}
 					} else if (newTime == time) {
-						oldLine = line;
+						oldLevels = lineLevels;
+					}
+					if (quiescence.isQuiescent(lineLevels)) { //no reaction can change anything from now on: the levels will stay the same until timeTo
+						if (time < timeTo) { //we record the state where the next advance of time would have put it, so that it does not take the place of the last change
+							recordState(lineLevels, time + 1, levels, newPoints, numberOfLevels, maxNumberOfLevels);
+						}
+						stoppedEarly = true;
+						break;
 					}
 				} else {
 					throw new AnalysisException("New state without globalTime. Offending line: \"" + line + "\"");
@@ -681,14 +883,100 @@ public class UppaalModelAnalyserFasterConcrete implements ModelAnalyser<LevelRes
 				for (String reactantName : levels.keySet()) {
 					SortedMap<Double, Double> values = levels.get(reactantName);
 					double lastValue = values.get(values.lastKey());
-					values.put((double)timeTo, lastValue);
+					putLevel(levels, newPoints, reactantName, timeTo, lastValue);
 				}
 			//}
+			publishPartialResult(newPoints, timeTo, timeTo);
 			
 			endTime = System.currentTimeMillis();
 			System.err.println("\tParsing the result produced by UPPAAL took " + RunAction.timeDifferenceFormat(startTime, endTime));
 			
 			return new SimpleLevelResult(levels);
 		}
+		
+		/**
+		 * Read the activity levels of the reactants from a line of the trace describing a state.
+		 * Private variables of the UPPAAL model are not taken into account.
+		 * @param stateLine The line containing the variable values
+		 * @param statePattern The pattern matching a variable assignment
+		 * @return The map reactant id -> activity level (not rescaled)
+		 */
+		private Map<String, Integer> readLevels(String stateLine, Pattern statePattern) {
+			Map<String, Integer> result = new HashMap<String, Integer>();
+			Matcher stateMatcher = statePattern.matcher(stateLine);
+			String s = null;
+			while (stateMatcher.find()) {
+				s = stateMatcher.group();
+				if (s.contains("_nonofficial") || s.contains("counter") || s.contains("metro"))
+					continue;
+				String reactantId = null;
+				if (s.indexOf(' ') >= 0 && s.indexOf(' ') < s.indexOf('=')) {
+					reactantId = s.substring(0, s.indexOf(' '));
+				} else {
+					reactantId = s.substring(0, s.indexOf('='));
+				}
+				if (reactantId.equals("c") || reactantId.equals("globalTime") || reactantId.equals("r") || reactantId.equals("r1") || reactantId.equals("r2")) continue; //we check whether it is a private variable
+				result.put(reactantId, Integer.valueOf(s.substring(s.indexOf("=") + 1).trim()));
+			}
+			return result;
+		}
+		
+		/**
+		 * Add to the result the activity levels of a state (as given by readLevels), at the given time.
+		 * A new point is added to a series only if the level has changed.
+		 */
+		private void recordState(Map<String, Integer> stateLevels, int time, Map<String, SortedMap<Double, Double>> levels, Map<String, SortedMap<Double, Double>> newPoints, Map<String, Double> numberOfLevels, int maxNumberOfLevels) {
+			for (String reactantId : stateLevels.keySet()) {
+				if (numberOfLevels.get(reactantId) == null) continue;
+				// we can determine the level of activation
+				int level = stateLevels.get(reactantId);
+				if (numberOfLevels.get(reactantId) != maxNumberOfLevels) {
+					level = (int)(level / (double)numberOfLevels.get(reactantId) * (double)maxNumberOfLevels);
+				}
+				
+				SortedMap<Double, Double> rMap = levels.get(reactantId);
+				if (rMap.get(rMap.lastKey()) != level) {
+					if (rMap.lastKey() < time - 1) { //We use this piece to explicitly keep a level constant when it is not varying (i.e., the graph will never contain non-vertical,non-horizontal lines)
+						putLevel(levels, newPoints, reactantId, time - 1, rMap.get(rMap.lastKey()));
+					}
+					
+					putLevel(levels, newPoints, reactantId, time, level);
+				}
+			}
+		}
+		
+		/**
+		 * Add a point to the series of the given reactant, remembering it also among
+		 * the points which still need to be sent to the partialResultListener.
+		 * @param levels The complete result
+		 * @param newPoints The points not yet published
+		 * @param reactantId The reactant whose series we are updating
+		 * @param time The time of the new point
+		 * @param level The activity level of the reactant at that time
+		 */
+		private void putLevel(Map<String, SortedMap<Double, Double>> levels, Map<String, SortedMap<Double, Double>> newPoints, String reactantId, double time, double level) {
+			levels.get(reactantId).put(time, level);
+			if (partialResultListener == null) return;
+			SortedMap<Double, Double> series = newPoints.get(reactantId);
+			if (series == null) {
+				series = new TreeMap<Double, Double>();
+				newPoints.put(reactantId, series);
+			}
+			series.put(time, level);
+		}
+		
+		/**
+		 * Send the points collected since the last batch to the partialResultListener (if any).
+		 * @param newPoints The points to be published
+		 * @param time The time reached by the simulation
+		 * @param timeTo The time at which the simulation ends
+		 * @return The (empty) map where to collect the points for the next batch. The listener
+		 * is free to keep the map it has been given.
+		 */
+		private Map<String, SortedMap<Double, Double>> publishPartialResult(Map<String, SortedMap<Double, Double>> newPoints, int time, int timeTo) {
+			if (partialResultListener == null || newPoints.isEmpty()) return newPoints;
+			partialResultListener.partialResultAvailable(newPoints, time, timeTo);
+			return new HashMap<String, SortedMap<Double, Double>>();
+		}
 	}
 }
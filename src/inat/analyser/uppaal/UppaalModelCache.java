@@ -0,0 +1,396 @@
+package inat.analyser.uppaal;
+
+import inat.InatBackend;
+import inat.analyser.AnalysisJob;
+import inat.model.Model;
+import inat.model.ModelHasher;
+import inat.util.Metrics;
+import inat.util.XmlConfiguration;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the UPPAAL models generated by VariablesModelSMC, so that analysing the same model
+ * more than once (e.g., the runs of an average, parameter sweeps which revisit a configuration,
+ * different requests to the same server) does not need to transform it and write it again.
+ * Models are identified by their canonical hash (see ModelHasher) and by the version of
+ * the transformation, so that the files written by an older version of the program are not used.
+ * The cache has two levels: the text of the most recently used models is kept in memory,
+ * and the model files are kept on disk (in the workspace root, so usually on tmpfs), where
+ * verifyta can read them directly. Both levels are LRU, the first bounded by the number
+ * of models (XmlConfiguration.MODEL_CACHE_ENTRIES_KEY), the second by the total size of the
+ * files (XmlConfiguration.MODEL_CACHE_SIZE_KEY, in MB). A file which is being used by an
+ * analysis is never removed: acquireModelFile must always be followed by releaseModelFile.
+ * The directory of the files is shared by all the INAT processes on the machine (e.g., an
+ * analysis server and the Cytoscape plugin): while a file is in use, we keep a shared lock
+ * on it, and a file is evicted only by who can lock it exclusively.
+ */
+public class UppaalModelCache {
+	private static final String DIRECTORY_NAME = "inat-model-cache", //The directory (under the workspace root) containing the model files
+								FILE_EXTENSION = ".xml";
+	private static final int DEFAULT_ENTRIES = 16;
+	private static final long DEFAULT_SIZE = 64; //MB
+	private static final int TRANSFORMER_VERSION = 1; //Increase it whenever VariablesModelSMC changes the models it produces: the files of the previous versions will not be used, and will be evicted in time
+	private static UppaalModelCache instance = null;
+
+	private final File directory; //Where we keep the model files
+	private final int maxEntries; //How many model texts we keep in memory
+	private final long maxSize; //The maximum total size (in bytes) of the model files on disk. If 0, model files are not cached
+	private final LinkedHashMap<String, String> texts; //hash -> UPPAAL model text, in LRU order
+	private final Map<File, Integer> inUse = new HashMap<File, Integer>(); //How many analyses are using each model file
+	private final Map<File, FileLock> locks = new HashMap<File, FileLock>(); //The shared lock we hold on each model file in use, so that other processes do not evict it
+	private int hits = 0, misses = 0; //Statistics: how many times we could avoid the transformation of the model
+
+	/**
+	 * Returns the model cache configured in the INAT configuration file.
+	 *
+	 * @return the model cache
+	 */
+	public static synchronized UppaalModelCache get() {
+		if (instance == null) {
+			XmlConfiguration configuration = InatBackend.get().configuration();
+			int entries = DEFAULT_ENTRIES;
+			long size = DEFAULT_SIZE;
+			try {
+				entries = Integer.parseInt(configuration.get(XmlConfiguration.MODEL_CACHE_ENTRIES_KEY, "" + DEFAULT_ENTRIES).trim());
+				size = Long.parseLong(configuration.get(XmlConfiguration.MODEL_CACHE_SIZE_KEY, "" + DEFAULT_SIZE).trim());
+			} catch (NumberFormatException ex) {
+				System.err.println("Unable to understand the size of the model cache: using the default values");
+			}
+			instance = new UppaalModelCache(new File(WorkspaceManager.get().getRootDirectory(), DIRECTORY_NAME), entries, size * 1024 * 1024);
+		}
+		return instance;
+	}
+
+	/**
+	 * Create a model cache.
+	 *
+	 * @param directory where to keep the model files
+	 * @param maxEntries how many model texts to keep in memory
+	 * @param maxSize the maximum total size (in bytes) of the model files. Use 0 to avoid keeping model files
+	 */
+	public UppaalModelCache(File directory, final int maxEntries, long maxSize) {
+		this.directory = directory;
+		this.directory.mkdirs();
+		this.maxEntries = maxEntries;
+		this.maxSize = maxSize;
+		this.texts = new LinkedHashMap<String, String>(16, 0.75f, true) {
+			private static final long serialVersionUID = 2906473094574407035L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+				return size() > UppaalModelCache.this.maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * Returns the UPPAAL model for the given model, transforming it only if we do not
+	 * have it already.
+	 *
+	 * @param m the model
+	 * @return the UPPAAL model text
+	 */
+	public String getModelText(Model m) {
+		return getModelText(m, key(m), null);
+	}
+
+	/**
+	 * Returns the key of the given model in the cache (also the name of its model file).
+	 */
+	private static String key(Model m) {
+		return ModelHasher.hash(m) + "-" + TRANSFORMER_VERSION;
+	}
+
+	/**
+	 * Count a hit or a miss, here and in the program-wide Metrics.
+	 */
+	private void count(boolean hit) {
+		synchronized (this) {
+			if (hit) {
+				hits++;
+			} else {
+				misses++;
+			}
+		}
+		Metrics.get().increment(hit ? Metrics.MODEL_CACHE_HITS : Metrics.MODEL_CACHE_MISSES);
+	}
+
+	/**
+	 * Record the time spent in a phase, in the job (if any) or directly in the Metrics.
+	 */
+	private static void addTime(AnalysisJob job, String phase, long startNanos) {
+		if (job != null) {
+			job.addTime(phase, Metrics.microsSince(startNanos));
+		} else {
+			Metrics.get().record(phase, Metrics.microsSince(startNanos));
+		}
+	}
+
+	private String getModelText(Model m, String key, AnalysisJob job) {
+		synchronized (this) {
+			String text = texts.get(key);
+			if (text != null) {
+				count(true);
+				return text;
+			}
+		}
+		String text = null;
+		File file = getFile(key);
+		if (file.exists()) {
+			FileChannel channel = null;
+			synchronized (this) {
+				if (pin(file)) { //so that the file is not evicted while we read it
+					channel = locks.get(file).channel();
+				}
+			}
+			if (channel != null) {
+				try {
+					text = read(channel); //through the locked channel: closing another descriptor of the file would release our lock on it
+				} catch (IOException ex) {
+					text = null; //we will simply generate it again
+				} finally {
+					releaseModelFile(file);
+				}
+			}
+		}
+		count(text != null);
+		if (text == null) {
+			long startNanos = System.nanoTime();
+			text = new VariablesModelSMC().transform(m);
+			addTime(job, Metrics.MODEL_TRANSFORM, startNanos);
+		}
+		synchronized (this) {
+			texts.put(key, text);
+		}
+		return text;
+	}
+
+	/**
+	 * Returns a file containing the UPPAAL model for the given model. The file is not
+	 * removed from the cache until releaseModelFile is called.
+	 * If model files are not cached, a new file is written in the given workspace.
+	 *
+	 * @param m the model
+	 * @param workspace the workspace of the analysis which needs the model file
+	 * @return the file containing the UPPAAL model
+	 * @throws IOException if the file could not be written
+	 */
+	public File acquireModelFile(Model m, Workspace workspace) throws IOException {
+		String key = key(m);
+		AnalysisJob job = workspace.getJob();
+		if (maxSize <= 0) {
+			return writeInWorkspace(m, key, workspace);
+		}
+		File file = getFile(key);
+		synchronized (this) {
+			if (file.exists() && pin(file)) {
+				count(true);
+				file.setLastModified(System.currentTimeMillis()); //the date of last use tells us which files to evict first
+				return file;
+			}
+		}
+		String text = getModelText(m, key, job);
+		long startNanos = System.nanoTime();
+		File temporary = File.createTempFile(key + ".", ".tmp", directory); //we write in a temporary file and then rename it, so that nobody reads a half-written file
+		FileWriter out = new FileWriter(temporary);
+		try {
+			out.append(text);
+		} finally {
+			out.close();
+		}
+		addTime(job, Metrics.MODEL_FILE_WRITE, startNanos);
+		synchronized (this) {
+			if (!inUse.containsKey(file) && !file.exists() //if someone else has written the same file before us, we do not replace it: it may be in use (and locked)
+					&& !temporary.renameTo(file) && !file.exists()) {
+				temporary.delete();
+				throw new IOException("Unable to write the model file " + file.getAbsolutePath());
+			}
+			temporary.delete();
+			if (pin(file)) {
+				evict();
+				return file;
+			}
+		}
+		return writeInWorkspace(m, key, workspace); //another process has evicted the file before we could lock it
+	}
+
+	/**
+	 * Write the model file in the workspace of the analysis, outside of the cache.
+	 */
+	private File writeInWorkspace(Model m, String key, Workspace workspace) throws IOException {
+		String text = getModelText(m, key, workspace.getJob());
+		long startNanos = System.nanoTime();
+		File file = workspace.writeFile(key + FILE_EXTENSION, text);
+		addTime(workspace.getJob(), Metrics.MODEL_FILE_WRITE, startNanos);
+		return file;
+	}
+
+	/**
+	 * Tell the cache that the given model file is no longer used by an analysis.
+	 *
+	 * @param file the file obtained from acquireModelFile
+	 */
+	public synchronized void releaseModelFile(File file) {
+		Integer count = inUse.get(file);
+		if (count == null) return; //not a cached file: it is deleted with its workspace
+		if (count <= 1) {
+			inUse.remove(file);
+			unlock(locks.remove(file));
+		} else {
+			inUse.put(file, count - 1);
+		}
+	}
+
+	public synchronized int getHits() {
+		return hits;
+	}
+
+	public synchronized int getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Mark the given file as used by one more analysis. The first time, we lock the file
+	 * (shared), so that the other processes do not evict it. We never wait for the lock,
+	 * as we hold the monitor of the cache.
+	 *
+	 * @return false if the file does not exist anymore (another process has evicted it),
+	 *         or another process is evicting it right now
+	 */
+	private boolean pin(File file) {
+		Integer count = inUse.get(file);
+		if (count == null) {
+			FileLock lock = null;
+			try {
+				FileChannel channel = new RandomAccessFile(file, "r").getChannel();
+				try {
+					lock = channel.tryLock(0, Long.MAX_VALUE, true); //null if another process holds the exclusive lock to evict the file
+				} catch (OverlappingFileLockException ex) { //another cache of this program holds the file
+					return false;
+				} finally {
+					if (lock == null) {
+						channel.close();
+					}
+				}
+			} catch (IOException ex) {
+				return false;
+			}
+			if (lock == null) {
+				return false;
+			}
+			if (!file.exists()) { //evicted just before we locked it
+				unlock(lock);
+				return false;
+			}
+			locks.put(file, lock);
+		}
+		inUse.put(file, count == null ? 1 : count + 1);
+		return true;
+	}
+
+	/**
+	 * Release the given lock and close its file.
+	 */
+	private static void unlock(FileLock lock) {
+		if (lock == null) return;
+		try {
+			lock.release();
+			lock.channel().close();
+		} catch (IOException ex) {
+			//the lock goes away with the file anyway
+		}
+	}
+
+	/**
+	 * Delete the given model file, unless another process is using it.
+	 *
+	 * @return true if the file was deleted
+	 */
+	private static boolean deleteIfUnused(File file) {
+		FileLock lock = null;
+		try {
+			FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+			try {
+				lock = channel.tryLock();
+			} catch (OverlappingFileLockException ex) { //another cache of this program holds the file
+				return false;
+			} finally {
+				if (lock == null) {
+					channel.close();
+				}
+			}
+		} catch (IOException ex) {
+			return false;
+		}
+		if (lock == null) return false; //some other process has it locked
+		boolean deleted = file.delete(); //while we hold the lock, nobody can start using the file
+		unlock(lock);
+		return deleted || file.delete(); //some systems do not delete open files
+	}
+
+	/**
+	 * Remove the least recently used model files which are not in use,
+	 * until the total size of the files is under the limit.
+	 */
+	private void evict() {
+		File[] files = directory.listFiles();
+		if (files == null) return;
+		long totalSize = 0;
+		for (File f : files) {
+			totalSize += f.length();
+		}
+		if (totalSize <= maxSize) return;
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File f1, File f2) {
+				long d1 = f1.lastModified(), d2 = f2.lastModified();
+				return d1 < d2 ? -1 : (d1 > d2 ? 1 : 0);
+			}
+		});
+		for (File f : files) {
+			if (totalSize <= maxSize) break;
+			if (inUse.containsKey(f) || f.getName().endsWith(".tmp")) continue;
+			long length = f.length();
+			if (deleteIfUnused(f)) {
+				totalSize -= length;
+			}
+		}
+	}
+
+	private File getFile(String key) {
+		return new File(directory, key + FILE_EXTENSION);
+	}
+
+	/**
+	 * Read a model file (written with the default charset, by a FileWriter) from its channel,
+	 * without closing it.
+	 */
+	private static String read(FileChannel channel) throws IOException {
+		long size = channel.size();
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException("Model file too large: " + size + " bytes");
+		}
+		ByteBuffer bytes = ByteBuffer.allocate((int) size);
+		while (bytes.hasRemaining()) {
+			if (channel.read(bytes, bytes.position()) < 0) {
+				throw new IOException("Model file truncated while reading it");
+			}
+		}
+		bytes.flip();
+		return Charset.defaultCharset().decode(bytes).toString();
+	}
+}
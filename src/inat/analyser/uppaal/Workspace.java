@@ -0,0 +1,110 @@
+package inat.analyser.uppaal;
+
+import inat.analyser.AnalysisJob;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * The working directory of a single analysis, obtained from the WorkspaceManager.
+ * All the files written here are deleted with the directory when the workspace
+ * is closed (which should always happen in a finally block), or when the job
+ * the workspace is attached to is cancelled.
+ */
+public class Workspace {
+	private final WorkspaceManager manager; //The manager which created us
+	private final File directory; //Where our files are
+	private boolean closed = false;
+	private long writtenSize = 0; //The bytes written in our files with writeFile
+	private AnalysisJob job = null; //The job we are attached to (if any)
+	private Runnable cancelListener = null; //Closes the workspace when the job is cancelled
+
+	Workspace(WorkspaceManager manager, File directory) {
+		this.manager = manager;
+		this.directory = directory;
+	}
+
+	void attachTo(AnalysisJob job) {
+		this.job = job;
+		this.cancelListener = new Runnable() {
+			public void run() {
+				close();
+			}
+		};
+		job.addCancelListener(cancelListener);
+	}
+
+	AnalysisJob getJob() {
+		return job;
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	synchronized long getWrittenSize() {
+		return writtenSize;
+	}
+
+	/**
+	 * Returns a file in this workspace (for example, to be written by an external tool).
+	 *
+	 * @param name the name of the file
+	 * @return the file
+	 */
+	public File getFile(String name) {
+		return new File(directory, name);
+	}
+
+	/**
+	 * Write the given content to a file in this workspace.
+	 *
+	 * @param name the name of the file
+	 * @param content what to write in the file
+	 * @return the file
+	 * @throws IOException if the file could not be written, or the workspaces have run out of space
+	 */
+	public File writeFile(String name, String content) throws IOException {
+		byte[] bytes = content.getBytes(Charset.defaultCharset()); //as a FileWriter would write it
+		synchronized (this) {
+			if (closed) {
+				throw new IOException("The workspace " + directory.getAbsolutePath() + " has already been deleted");
+			}
+			manager.reserve(bytes.length);
+		}
+		File f = getFile(name);
+		long previousSize = f.length(); //0 if the file is new
+		try {
+			OutputStream out = new FileOutputStream(f);
+			try {
+				out.write(bytes);
+			} finally {
+				out.close();
+			}
+		} finally {
+			long added = f.length() - previousSize; //what is actually on disk, also if the writing failed halfway
+			synchronized (this) {
+				writtenSize += added;
+			}
+			manager.written(bytes.length, added);
+		}
+		return f;
+	}
+
+	/**
+	 * Delete the workspace with all its files. Calling it more than once has no effect.
+	 */
+	public void close() {
+		synchronized (this) {
+			if (closed) return;
+			closed = true;
+		}
+		if (job != null) {
+			job.removeCancelListener(cancelListener);
+		}
+		manager.release(this);
+	}
+}
@@ -0,0 +1,227 @@
+package inat.analyser.uppaal;
+
+import inat.InatBackend;
+import inat.analyser.AnalysisJob;
+import inat.util.XmlConfiguration;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Gives each analysis its own working directory (a Workspace), where the UPPAAL model,
+ * the query and the output are written. The directory is deleted as soon as the analysis
+ * ends (or its job is cancelled), so that nothing accumulates in the temporary directory
+ * or in the delete-on-exit list of a long-running JVM (e.g., the UPPAALServer).
+ * All workspaces are created under a configurable root directory (XmlConfiguration.WORKSPACE_KEY),
+ * which by default is /dev/shm (when present), so that model files never touch the disk.
+ * As the space in /dev/shm is memory, the total size of the files in the workspaces
+ * is limited (XmlConfiguration.WORKSPACE_MAX_SIZE_KEY, in MB): the files written in the
+ * workspaces are counted as they are written, and the whole directory is measured again
+ * each time we look for abandoned workspaces, so that also the files written by external
+ * tools and by other JVMs count. Workspaces left behind by crashed JVMs are periodically removed.
+ */
+public class WorkspaceManager {
+	private static final String DIRECTORY_NAME = "inat-workspaces", //The name of the directory we create under the root to contain all the workspaces
+								TMPFS_ROOT = "/dev/shm"; //Where we prefer to put our files, if it is there
+	private static final long DEFAULT_MAX_SIZE = 256, //MB
+							  SWEEP_INTERVAL = 10 * 60 * 1000, //How often we look for abandoned workspaces (ms)
+							  ORPHAN_AGE = 24 * 60 * 60 * 1000; //When we cannot tell whether the JVM owning a workspace is alive, we consider the workspace abandoned if it is older than this (ms)
+	private static WorkspaceManager instance = null;
+
+	private final File baseDirectory; //The directory containing all workspaces
+	private final long maxSize; //The maximum number of bytes which can be in all the workspaces together
+	private final String owner; //Identifies this JVM in the names of the workspaces it creates
+	private long usedSize = 0; //The bytes in all the workspaces: measured at the last sweep, then updated as files are written and workspaces deleted
+	private int counter = 0; //Used to give a unique name to each workspace
+	private Set<File> activeWorkspaces = new HashSet<File>(); //The directories of the workspaces currently in use by this JVM
+	private Timer sweeper = null;
+
+	/**
+	 * Returns the workspace manager configured in the INAT configuration file.
+	 *
+	 * @return the workspace manager
+	 */
+	public static synchronized WorkspaceManager get() {
+		if (instance == null) {
+			XmlConfiguration configuration = InatBackend.get().configuration();
+			String root = configuration.get(XmlConfiguration.WORKSPACE_KEY, null);
+			long maxSize = DEFAULT_MAX_SIZE;
+			try {
+				maxSize = Long.parseLong(configuration.get(XmlConfiguration.WORKSPACE_MAX_SIZE_KEY, "" + DEFAULT_MAX_SIZE).trim());
+			} catch (NumberFormatException ex) {
+				System.err.println("Unable to understand the maximum size of the workspaces: using " + DEFAULT_MAX_SIZE + " MB");
+			}
+			instance = new WorkspaceManager(root != null ? new File(root) : defaultRoot(), maxSize * 1024 * 1024);
+		}
+		return instance;
+	}
+
+	private static File defaultRoot() {
+		File tmpfs = new File(TMPFS_ROOT);
+		if (tmpfs.isDirectory() && tmpfs.canWrite()) {
+			return tmpfs;
+		}
+		return new File(System.getProperty("java.io.tmpdir"));
+	}
+
+	/**
+	 * Create a workspace manager, removing the workspaces abandoned by other (dead) JVMs.
+	 *
+	 * @param root the directory under which the workspaces will be created
+	 * @param maxSize the maximum number of bytes to be in all the workspaces together
+	 */
+	public WorkspaceManager(File root, long maxSize) {
+		this.baseDirectory = new File(root, DIRECTORY_NAME);
+		this.baseDirectory.mkdirs();
+		this.maxSize = maxSize;
+		this.owner = ManagementFactory.getRuntimeMXBean().getName().replaceAll("[^A-Za-z0-9@._]", "_"); //pid@hostname
+		sweepOrphans();
+		sweeper = new Timer("INAT workspace sweeper", true);
+		sweeper.schedule(new TimerTask() {
+			@Override
+			public void run() {
+				sweepOrphans();
+			}
+		}, SWEEP_INTERVAL, SWEEP_INTERVAL);
+	}
+
+	/**
+	 * Returns the root directory under which the workspaces are created. Other
+	 * temporary data (e.g., caches) can be kept there too.
+	 *
+	 * @return the root directory
+	 */
+	public File getRootDirectory() {
+		return baseDirectory.getParentFile();
+	}
+
+	/**
+	 * Create a new workspace. If a job is given, the workspace is deleted as soon
+	 * as the job is cancelled.
+	 *
+	 * @param job the job using the workspace (can be null)
+	 * @return the new workspace
+	 * @throws IOException if the directory could not be created
+	 */
+	public Workspace createWorkspace(AnalysisJob job) throws IOException {
+		File directory;
+		synchronized (this) {
+			directory = new File(baseDirectory, owner + "-" + (++counter));
+			activeWorkspaces.add(directory); //before creating it, so that the sweeper does not take it for an orphan
+		}
+		if (!directory.mkdirs() && !directory.isDirectory()) {
+			synchronized (this) {
+				activeWorkspaces.remove(directory);
+			}
+			throw new IOException("Unable to create the working directory " + directory.getAbsolutePath());
+		}
+		Workspace workspace = new Workspace(this, directory);
+		if (job != null) {
+			workspace.attachTo(job);
+		}
+		return workspace;
+	}
+
+	/**
+	 * Reserve space for a file to be written in a workspace.
+	 *
+	 * @param bytes the size of the file (in bytes, as it will be written)
+	 * @throws IOException if the space would exceed the configured maximum
+	 */
+	synchronized void reserve(long bytes) throws IOException {
+		if (usedSize + bytes > maxSize) {
+			throw new IOException("Not enough space for the analysis files in " + baseDirectory.getAbsolutePath() + " (limit: " + (maxSize / 1024 / 1024) + " MB, in use: " + (usedSize / 1024 / 1024) + " MB)");
+		}
+		usedSize += bytes;
+	}
+
+	/**
+	 * Tell that a file for which space was reserved has been written (or could not be),
+	 * and how much the workspace has actually grown.
+	 *
+	 * @param reserved the space which was reserved for the file
+	 * @param bytes how many bytes the file has added on disk
+	 */
+	synchronized void written(long reserved, long bytes) {
+		usedSize += bytes - reserved;
+	}
+
+	/**
+	 * Delete the directory of a workspace.
+	 *
+	 * @param workspace the workspace which is no longer needed
+	 */
+	void release(Workspace workspace) {
+		delete(workspace.getDirectory());
+		synchronized (this) {
+			activeWorkspaces.remove(workspace.getDirectory());
+			usedSize = Math.max(0, usedSize - workspace.getWrittenSize()); //the files written there by external tools are forgotten at the next sweep
+		}
+	}
+
+	/**
+	 * Remove the workspaces which are not used by anyone anymore: the ones created
+	 * by this JVM and not active, and the ones of other JVMs which are not running
+	 * anymore. The space used by the workspaces is then measured again.
+	 */
+	public void sweepOrphans() {
+		File[] directories = baseDirectory.listFiles();
+		if (directories == null) return;
+		String host = owner.substring(owner.indexOf('@') + 1);
+		boolean canCheckProcesses = new File("/proc/self").exists();
+		for (File directory : directories) {
+			String name = directory.getName();
+			int separator = name.lastIndexOf('-');
+			if (separator < 0) continue; //not one of ours
+			String directoryOwner = name.substring(0, separator);
+			boolean orphan;
+			if (directoryOwner.equals(owner)) {
+				synchronized (this) {
+					orphan = !activeWorkspaces.contains(directory);
+				}
+			} else if (canCheckProcesses && directoryOwner.endsWith("@" + host)) {
+				String pid = directoryOwner.substring(0, directoryOwner.indexOf('@'));
+				orphan = !new File("/proc/" + pid).exists();
+			} else {
+				orphan = System.currentTimeMillis() - directory.lastModified() > ORPHAN_AGE;
+			}
+			if (orphan) {
+				delete(directory);
+			}
+		}
+		long size = sizeOf(baseDirectory); //outside the monitor: the workspaces can keep on writing their files meanwhile
+		synchronized (this) {
+			usedSize = size;
+		}
+	}
+
+	/**
+	 * Returns the total size of the files in the given directory (or of the given file).
+	 */
+	private static long sizeOf(File f) {
+		File[] children = f.listFiles();
+		if (children == null) {
+			return f.length();
+		}
+		long size = 0;
+		for (File child : children) {
+			size += sizeOf(child);
+		}
+		return size;
+	}
+
+	private static void delete(File f) {
+		File[] children = f.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		f.delete();
+	}
+}
@@ -97,6 +97,7 @@ public class InatPlugin extends CytoscapePlugin {
 		final Box serverBox = new Box(BoxLayout.Y_AXIS);
 		final JTextField serverName = new JTextField("my.server.com"),
 				   serverPort = new JFormattedTextField("1234");
+		serverName.setToolTipText("The server to use. To share the runs of an average between more servers, list them separated by commas (host or host:port).");
 		remoteUppaal.addChangeListener(new ChangeListener() {
 			@Override
 			public void stateChanged(ChangeEvent e) {
@@ -157,6 +158,8 @@ public class InatPlugin extends CytoscapePlugin {
 		timeTo.setToolTipText("Plot activity levels up to this time point (real-life MINUTES).");
 		nSimulationRuns.setToolTipText("Number of simulations of which to show the average. NO statistical guarantees!");
 		smcFormula.setToolTipText("Give an answer to this probabilistic query (times in real-life MINUTES).");
+		final JCheckBox reuseSMCResults = new JCheckBox("Reuse the result of a previous analysis");
+		reuseSMCResults.setToolTipText("If the same query was already answered on the same model, show that answer. Uncheck to analyse again (the previous answer is replaced).");
 		normalUppaal.addChangeListener(new ChangeListener() {
 			@Override
 			public void stateChanged(ChangeEvent e) {
@@ -166,12 +169,14 @@ public class InatPlugin extends CytoscapePlugin {
 					nSimulationRuns.setEnabled(computeAverage.isSelected());
 					computeStdDev.setEnabled(computeAverage.isSelected());
 					smcFormula.setEnabled(false);
+					reuseSMCResults.setEnabled(false);
 				} else {
 					timeTo.setEnabled(false);
 					computeAverage.setEnabled(false);
 					nSimulationRuns.setEnabled(false);
 					computeStdDev.setEnabled(false);
 					smcFormula.setEnabled(true);
+					reuseSMCResults.setEnabled(true);
 				}
 			}
 		});
@@ -196,6 +201,8 @@ public class InatPlugin extends CytoscapePlugin {
 		computeStdDev.setSelected(false);
 		nSimulationRuns.setEnabled(false);
 		smcFormula.setEnabled(false);
+		reuseSMCResults.setEnabled(false);
+		reuseSMCResults.setSelected(true);
 		Box modelCheckingBox = new Box(BoxLayout.Y_AXIS);
 		final Box normalBox = new Box(BoxLayout.Y_AXIS);
 		Box smcBox = new Box(BoxLayout.X_AXIS);
@@ -219,6 +226,9 @@ public class InatPlugin extends CytoscapePlugin {
 		normalBox.add(stdDevBox);
 		smcBox.add(smcUppaal);
 		smcBox.add(smcFormula);
+		Box reuseSMCResultsBox = new Box(BoxLayout.X_AXIS);
+		reuseSMCResultsBox.add(reuseSMCResults);
+		reuseSMCResultsBox.add(Box.createGlue());
 		normalUppaal.setOpaque(true);
 		final ComponentTitledBorder border2 = new ComponentTitledBorder(normalUppaal, normalBox, BorderFactory.createEtchedBorder());
 		smcUppaal.addChangeListener(new ChangeListener() {
@@ -230,6 +240,7 @@ public class InatPlugin extends CytoscapePlugin {
 		normalBox.setBorder(border2);
 		modelCheckingBox.add(normalBox);
 		modelCheckingBox.add(smcBox);
+		modelCheckingBox.add(reuseSMCResultsBox);
 		buttons.add(modelCheckingBox);
 		
 		Box buttonsBox = new Box(BoxLayout.Y_AXIS);
@@ -278,7 +289,7 @@ public class InatPlugin extends CytoscapePlugin {
 		});
 
 		//The "Analyse network" button: perform the requested analysis on the current network with the given parameters
-		JButton runButton = new JButton(new RunAction(plugin, remoteUppaal, serverName, serverPort, smcUppaal, timeTo, nSimulationRuns, computeStdDev, smcFormula));
+		JButton runButton = new JButton(new RunAction(plugin, remoteUppaal, serverName, serverPort, smcUppaal, timeTo, nSimulationRuns, computeStdDev, smcFormula, reuseSMCResults));
 		//buttons.add(runButton);
 		Box runButtonBox = new Box(BoxLayout.X_AXIS);
 		runButtonBox.add(Box.createGlue());
@@ -1,17 +1,23 @@
 package inat.cytoscape;
 
 import inat.analyser.LevelResult;
+import inat.analyser.PartialResultListener;
+import inat.analyser.ResourceUsage;
 import inat.analyser.uppaal.ResultAverager;
 import inat.graph.Graph;
 import inat.model.Model;
+import inat.model.Reactant;
 
 import java.awt.BorderLayout;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.SortedMap;
 import java.util.Vector;
 
+import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JSlider;
+import javax.swing.SwingUtilities;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 
@@ -23,12 +29,16 @@ import cytoscape.data.CyAttributes;
  * 
  * @author Brend Wanders
  */
-public class InatResultPanel extends JPanel implements ChangeListener {
+public class InatResultPanel extends JPanel implements ChangeListener, PartialResultListener {
 
 	private static final long serialVersionUID = -163756255393221954L;
 	private final Model model; //The model from which the results were obtained
-	private final LevelResult result; //Contains the results to be shown in this panel
+	private LevelResult result; //Contains the results to be shown in this panel (null while we are still showing partial results)
 	private JSlider slider; //The slider to allow the user to choose a moment in the simulation time, which will be reflected on the network window as node colors, indicating the corresponding reactant activity level.
+	private final Graph g; //The graph showing the series of the result
+	private final JLabel usageLabel; //Tells what the analysis has cost (see ResourceUsage)
+	private final double scale; //The factor to translate model time units into minutes
+	private final Map<String, String> liveSeriesNameMapping; //Used to name the series while showing partial results
 
 	/**
 	 * The panel constructor.
@@ -40,20 +50,78 @@ public class InatResultPanel extends JPanel implements ChangeListener {
 		super(new BorderLayout(), true);
 		this.model = model;
 		this.result = result;
+		this.scale = scale;
+		this.liveSeriesNameMapping = null;
 
+		this.slider = createSlider((int)(double)(result.getTimeIndices().get(result.getTimeIndices().size() - 1)));
+		this.usageLabel = createUsageLabel();
+		this.g = new Graph();
+		showResult();
+		this.add(g, BorderLayout.CENTER);
+	}
+	
+	/**
+	 * Build a panel which will show the partial results of a simulation while it is
+	 * still running (see {@link #partialResultAvailable(Map, int, int)}). When the simulation
+	 * is over, the complete result is given with {@link #setResult(LevelResult)}.
+	 * 
+	 * @param model the model this panel uses
+	 * @param timeTo the time at which the simulation will end
+	 * @param scale the factor to translate model time units into minutes
+	 */
+	public InatResultPanel(Model model, int timeTo, double scale) {
+		super(new BorderLayout(), true);
+		this.model = model;
+		this.result = null;
+		this.scale = scale;
+		this.liveSeriesNameMapping = new HashMap<String, String>();
+		for (Reactant r : model.getReactants()) {
+			if (!r.get(Model.Properties.PLOTTED).as(Boolean.class)) continue;
+			String name = r.get(Model.Properties.ALIAS).as(String.class);
+			if (name == null) {
+				name = r.get(Model.Properties.REACTANT_NAME).as(String.class);
+			}
+			this.liveSeriesNameMapping.put(r.getId(), name);
+		}
+
+		this.slider = createSlider(timeTo);
+		this.slider.setEnabled(false); //we cannot show the activity levels on the network until we have the complete result
+		this.usageLabel = createUsageLabel();
+		this.g = new Graph();
+		this.g.setXSeriesName("Time (min)");
+		if (!model.getProperties().get(Model.Properties.NUMBER_OF_LEVELS).isNull()) {
+			int nLevels = model.getProperties().get(Model.Properties.NUMBER_OF_LEVELS).as(Integer.class);
+			this.g.declareMaxYValue(nLevels);
+			this.g.setDrawArea(0, (int)(scale * timeTo), 0, nLevels);
+		}
+		this.add(g, BorderLayout.CENTER);
+	}
+	
+	private JSlider createSlider(int maxTime) {
 		JPanel sliderPanel = new JPanel(new BorderLayout());
-		this.slider = new JSlider();
-		this.slider.setOrientation(JSlider.HORIZONTAL);
-		this.slider.setMinimum(0);
-		this.slider.setMaximum((int)(double)(result.getTimeIndices().get(result.getTimeIndices().size() - 1)));
-		this.slider.setValue(0);
-		this.slider.getModel().addChangeListener(this);
+		JSlider newSlider = new JSlider();
+		newSlider.setOrientation(JSlider.HORIZONTAL);
+		newSlider.setMinimum(0);
+		newSlider.setMaximum(maxTime);
+		newSlider.setValue(0);
+		newSlider.getModel().addChangeListener(this);
 
-		sliderPanel.add(this.slider, BorderLayout.CENTER);
+		sliderPanel.add(newSlider, BorderLayout.CENTER);
 
 		this.add(sliderPanel, BorderLayout.SOUTH);
-
-		Graph g = new Graph();
+		return newSlider;
+	}
+	
+	private JLabel createUsageLabel() {
+		JLabel label = new JLabel(" ");
+		this.add(label, BorderLayout.NORTH);
+		return label;
+	}
+	
+	/**
+	 * Plot the current result on the graph
+	 */
+	private void showResult() {
 		//We map reactant IDs to their corresponding aliases (canonical names, i.e., the names displayed to the user in the network window), so that
 		//we will be able to use graph series names consistent with what the user has chosen.
 		Map<String, String> seriesNameMapping = new HashMap<String, String>();
@@ -82,6 +150,11 @@ public class InatResultPanel extends JPanel implements ChangeListener {
 		}
 		g.parseLevelResult(result.filter(filteredSeriesNames), seriesNameMapping, scale); //Add all series to the graph, using the mapping we built here to "translate" the names into the user-defined ones.
 		g.setXSeriesName("Time (min)");
+		ResourceUsage usage = result.getResourceUsage();
+		if (usage != null) {
+			usageLabel.setText(usage.toString());
+			usageLabel.setToolTipText(usage.toString()); //the panel may be too narrow to show all of it
+		}
 
 		if (!model.getProperties().get(Model.Properties.NUMBER_OF_LEVELS).isNull()) { //if we find a maximum value for activity levels, we declare it to the graph, so that other added graphs (such as experimental data) will be automatically rescaled to match us
 			int nLevels = model.getProperties().get(Model.Properties.NUMBER_OF_LEVELS).as(Integer.class);
@@ -89,7 +162,41 @@ public class InatResultPanel extends JPanel implements ChangeListener {
 			double maxTime = scale * result.getTimeIndices().get(result.getTimeIndices().size()-1);
 			g.setDrawArea(0, (int)maxTime, 0, nLevels); //This is done because the graph automatically computes the area to be shown based on minimum and maximum values for X and Y, including StdDev. So, if the StdDev of a particular series (which represents an average) in a particular point is larger that the value of that series in that point, the minimum y value would be negative. As this is not very nice to see, I decided that we will recenter the graph to more strict bounds instead.
 		}
-		this.add(g, BorderLayout.CENTER);
+	}
+	
+	/**
+	 * Add the points of a simulation which is still running to the graph.
+	 * Can be called from any thread.
+	 */
+	@Override
+	public void partialResultAvailable(final Map<String, SortedMap<Double, Double>> newPoints, int currentTime, int timeTo) {
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				if (result != null) return; //the complete result has already arrived: no need for partial results
+				Map<String, SortedMap<Double, Double>> plotted = new HashMap<String, SortedMap<Double, Double>>();
+				for (String r : newPoints.keySet()) {
+					if (liveSeriesNameMapping.containsKey(r)) {
+						plotted.put(r, newPoints.get(r));
+					}
+				}
+				g.appendPoints(plotted, liveSeriesNameMapping, scale);
+			}
+		});
+	}
+	
+	/**
+	 * Replace the partial results shown until now with the complete result.
+	 * Must be called from the event dispatch thread.
+	 * 
+	 * @param result the complete result of the simulation
+	 */
+	public void setResult(LevelResult result) {
+		this.result = result;
+		this.slider.setMaximum((int)(double)(result.getTimeIndices().get(result.getTimeIndices().size() - 1)));
+		this.slider.setEnabled(true);
+		g.reset();
+		showResult();
+		g.repaint();
 	}
 
 	/**
@@ -100,6 +207,7 @@ public class InatResultPanel extends JPanel implements ChangeListener {
 	 */
 	@Override
 	public void stateChanged(ChangeEvent e) {
+		if (this.result == null) return; //we are still showing partial results
 		final int t = this.slider.getValue();
 		CyAttributes nodeAttributes = Cytoscape.getNodeAttributes();
 		final int levels = this.model.getProperties().get(Model.Properties.NUMBER_OF_LEVELS).as(Integer.class); //at this point, all levels have already been rescaled to the maximum (= the number of levels of the model), so we use it as a reference for the number of levels to show on the network nodes 
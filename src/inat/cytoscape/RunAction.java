@@ -2,9 +2,12 @@ package inat.cytoscape;
 
 import giny.model.Edge;
 import giny.model.Node;
+import inat.InatBackend;
+import inat.analyser.AnalysisJob;
 import inat.analyser.LevelResult;
 import inat.analyser.SMCResult;
 import inat.analyser.uppaal.ResultAverager;
+import inat.analyser.uppaal.SMCResultCache;
 import inat.analyser.uppaal.UppaalModelAnalyserFasterConcrete;
 import inat.analyser.uppaal.VariablesModel;
 import inat.exceptions.InatException;
@@ -13,10 +16,15 @@ import inat.model.Reactant;
 import inat.model.Reaction;
 import inat.model.Scenario;
 import inat.model.ScenarioMono;
+import inat.network.JobStatus;
+import inat.network.JobStatusListener;
+import inat.network.ServerCluster;
 import inat.network.UPPAALClient;
 import inat.util.Table;
+import inat.util.XmlConfiguration;
 
 import java.awt.BorderLayout;
+import java.awt.Container;
 import java.awt.Dimension;
 import java.awt.GridLayout;
 import java.awt.event.ActionEvent;
@@ -83,18 +91,20 @@ public class RunAction extends CytoscapeAction {
 	private int timeTo = 1200; //The default number of UPPAAL time units until which a simulation will run
 	private double scale = 0.2; //The time scale representing the number of real-life minutes represented by a single UPPAAL time unit
 	private JRadioButton remoteUppaal, smcUppaal; //The RadioButtons telling us whether we use a local or a remote engine, and whether we use the Statistical Model Checking or the "normal" engine
-	private JCheckBox computeStdDev; //Whether to compute the standard deviation when computing the average of a series of runs (if average of N runs is requested)
+	private JCheckBox computeStdDev, //Whether to compute the standard deviation when computing the average of a series of runs (if average of N runs is requested)
+					  reuseSMCResults; //Whether to answer a SMC query with the result of a previous analysis of the same query on the same model (if we have it)
 	private JFormattedTextField timeToFormula, nSimulationRuns; //Up to which point in time (real-life minutes) the simulation(s) will run, and the number of simulations (if average of N runs is requested)
 	private JTextField serverName, serverPort, smcFormula; //The name of the server, and the corresponding port, in the case we use a remote engine. The text inserted by the user for the SMC formula. Notice that this formula will need to be changed so that it will be compliant with the UPPAAL time scale, and reactant names
 	private boolean needToStop; //Whether the user has pressed the Cancel button on the TaskMonitor while we were running an analysis process
 	private RunAction meStesso; //Myself
+	private AnalysisJob currentJob = null; //The job of the analysis currently running: cancelling it kills the UPPAAL processes at once
 	
 	/**
 	 * Constructor.
 	 * 
 	 * @param plugin the plugin we should use
 	 */
-	public RunAction(InatPlugin plugin, JRadioButton remoteUppaal, JTextField serverName, JTextField serverPort, JRadioButton smcUppaal, JFormattedTextField timeToFormula, JFormattedTextField nSimulationRuns, JCheckBox computeStdDev, JTextField smcFormula) {
+	public RunAction(InatPlugin plugin, JRadioButton remoteUppaal, JTextField serverName, JTextField serverPort, JRadioButton smcUppaal, JFormattedTextField timeToFormula, JFormattedTextField nSimulationRuns, JCheckBox computeStdDev, JTextField smcFormula, JCheckBox reuseSMCResults) {
 		super("Analyse network");
 		this.remoteUppaal = remoteUppaal;
 		this.serverName = serverName;
@@ -104,6 +114,7 @@ public class RunAction extends CytoscapeAction {
 		this.nSimulationRuns = nSimulationRuns;
 		this.computeStdDev = computeStdDev;
 		this.smcFormula = smcFormula;
+		this.reuseSMCResults = reuseSMCResults;
 		this.meStesso = this;
 	}
 	
@@ -182,6 +193,15 @@ public class RunAction extends CytoscapeAction {
 		return this.needToStop;
 	}
 
+	/**
+	 * Returns the job of the analysis currently running (or of the last one).
+	 * 
+	 * @return the job
+	 */
+	public AnalysisJob getCurrentJob() {
+		return this.currentJob;
+	}
+
 	private class RunTask implements Task {
 
 		private static final String TIMES_U = Model.Properties.TIMES_UPPER;
@@ -199,12 +219,16 @@ public class RunAction extends CytoscapeAction {
 		@Override
 		public void halt() {
 			needToStop = true;
+			if (currentJob != null) {
+				currentJob.cancel();
+			}
 		}
 
 		@Override
 		public void run() {
 			try {
 				needToStop = false;
+				currentJob = new AnalysisJob();
 				
 				this.monitor.setStatus("Creating model representation");
 				this.monitor.setPercentCompleted(0);
@@ -220,10 +244,31 @@ public class RunAction extends CytoscapeAction {
 			} catch (InterruptedException e) {
 				this.monitor.setException(e, "Analysis cancelled by the user.");
 			} catch (Exception e) {
-				this.monitor.setException(e, "An error occurred while analysing the network.");
+				if (currentJob != null && currentJob.isCancelled()) {
+					this.monitor.setException(e, "Analysis cancelled by the user.");
+				} else {
+					this.monitor.setException(e, "An error occurred while analysing the network.");
+				}
 			}
 		}
 		
+		/**
+		 * While we wait for the server to answer, show where our request is in its queue,
+		 * and then how much of it has been analysed.
+		 * @return The listener to give to the UPPAALClient
+		 */
+		private JobStatusListener showServerStatus() {
+			return new JobStatusListener() {
+				@Override
+				public void jobStatusChanged(JobStatus status) {
+					monitor.setStatus(status.toString());
+					if (status.getState() == JobStatus.State.RUNNING && status.getProgress() >= 0) {
+						monitor.setPercentCompleted(status.getProgress());
+					}
+				}
+			};
+		}
+		
 		/**
 		 * Translate the SMC formula into UPPAAL time units, reactant names
 		 * and give it to the analyser. Show the result in a message window.
@@ -271,19 +316,41 @@ public class RunAction extends CytoscapeAction {
 			this.monitor.setStatus("Analysing model with UPPAAL");
 			this.monitor.setPercentCompleted(-1);
 
-			// analyse model
+			// analyse model (unless we already know the answer)
 			final SMCResult result;
-			
+			String engine; //The confidence settings are the ones of the engine, so results obtained with different engines are kept separate
 			if (remoteUppaal.isSelected()) {
-				UPPAALClient client = new UPPAALClient(serverName.getText(), Integer.parseInt(serverPort.getText()));
-				result = client.analyzeSMC(model, probabilisticFormula);
+				engine = "server " + serverName.getText() + ":" + serverPort.getText();
+			} else {
+				engine = "verifyta " + InatBackend.get().configuration().get(XmlConfiguration.VERIFY_SMC_KEY);
+			}
+			SMCResultCache cache = SMCResultCache.get();
+			SMCResult cachedResult = null;
+			if (reuseSMCResults.isSelected()) {
+				cachedResult = cache.lookup(model, probabilisticFormula, engine);
+			} else {
+				cache.invalidate(model, probabilisticFormula, engine);
+			}
+			
+			if (cachedResult != null) {
+				result = cachedResult;
+			} else if (remoteUppaal.isSelected()) {
+				ServerCluster servers = new ServerCluster(serverName.getText(), Integer.parseInt(serverPort.getText()));
+				result = servers.analyzeSMC(model, probabilisticFormula, currentJob, showServerStatus());
 			} else {
 				result = new UppaalModelAnalyserFasterConcrete(monitor, meStesso).analyzeSMC(model, probabilisticFormula);
 			}
+			if (cachedResult == null) {
+				cache.store(model, probabilisticFormula, engine, result);
+			}
 			
 			SwingUtilities.invokeLater(new Runnable() {
 				public void run() {
-					JOptionPane.showMessageDialog(Cytoscape.getDesktop(), result.toString(), "Result", JOptionPane.INFORMATION_MESSAGE);
+					if (result.isCached()) {
+						JOptionPane.showMessageDialog(Cytoscape.getDesktop(), result.toString() + "\n(cached: this query was already answered on the same model)", "Result (cached)", JOptionPane.INFORMATION_MESSAGE);
+					} else {
+						JOptionPane.showMessageDialog(Cytoscape.getDesktop(), result.toString() + (result.getResourceUsage() != null ? "\n" + result.getResourceUsage() : ""), "Result", JOptionPane.INFORMATION_MESSAGE);
+					}
 				}
 			});
 			
@@ -329,9 +396,10 @@ public class RunAction extends CytoscapeAction {
 
 			// analyse model
 			final LevelResult result;
+			InatResultPanel liveViewer = null; //If we show the simulation while it is running, this is where we do it
 			
 			if (remoteUppaal.isSelected()) {
-				UPPAALClient client = new UPPAALClient(serverName.getText(), Integer.parseInt(serverPort.getText()));
+				ServerCluster servers = new ServerCluster(serverName.getText(), Integer.parseInt(serverPort.getText())); //the user can give more than one server
 				int nSims = 1;
 				if (nSimulationRuns.isEnabled()) {
 					try {
@@ -342,8 +410,32 @@ public class RunAction extends CytoscapeAction {
 				} else {
 					nSims = 1;
 				}
-				monitor.setStatus("Forwarding the request to the server " + serverName.getText() + ":" + serverPort.getText());
-				result = client.analyze(model, timeTo, nSims, computeStdDev.isSelected());
+				if (nSims > 1 && servers.getClients().size() > 1) { //the runs are shared between the servers
+					monitor.setStatus("Sharing the runs between " + servers.getClients().size() + " servers");
+					result = servers.analyzeAverage(model, timeTo, nSims, computeStdDev.isSelected(), currentJob, monitor);
+				} else {
+					UPPAALClient client = servers.getLeastLoaded();
+					monitor.setStatus("Forwarding the request to the server " + client.getServerName());
+					InatResultPanel viewer = null;
+					if (nSims <= 1) { //the server sends us the trace while it computes it
+						viewer = new InatResultPanel(model, timeTo, scale);
+						final InatResultPanel newViewer = viewer;
+						SwingUtilities.invokeLater(new Runnable() {
+							public void run() {
+								showResultPanel(newViewer);
+							}
+						});
+						liveViewer = viewer;
+					}
+					try {
+						result = client.analyze(model, timeTo, nSims, computeStdDev.isSelected(), currentJob, showServerStatus(), viewer);
+					} catch (Exception ex) { //the run has failed or was cancelled: the live panel would remain there empty
+						if (viewer != null) {
+							closeResultPanel(viewer);
+						}
+						throw ex;
+					}
+				}
 			} else {
 				//ModelAnalyser<LevelResult> analyzer = new UppaalModelAnalyser(new VariablesInterpreter(), new VariablesModel());
 				//result = analyzer.analyze(model, timeTo);
@@ -356,71 +448,122 @@ public class RunAction extends CytoscapeAction {
 					}
 					result = new ResultAverager(monitor, meStesso).analyzeAverage(model, timeTo, nSims, computeStdDev.isSelected());
 				} else {
-					result = new UppaalModelAnalyserFasterConcrete(monitor, meStesso).analyze(model, timeTo);
+					UppaalModelAnalyserFasterConcrete analyzer = new UppaalModelAnalyserFasterConcrete(monitor, meStesso);
+					final InatResultPanel viewer = new InatResultPanel(model, timeTo, scale);
+					analyzer.setPartialResultListener(viewer); //the trace is shown while verifyta is still computing it
+					SwingUtilities.invokeLater(new Runnable() {
+						public void run() {
+							showResultPanel(viewer);
+						}
+					});
+					liveViewer = viewer;
+					try {
+						result = analyzer.analyze(model, timeTo);
+					} catch (Exception ex) { //the run has failed or was cancelled: the live panel would remain there empty
+						closeResultPanel(viewer);
+						throw ex;
+					}
 				}
 			}
 			
 			/*CsvWriter csvWriter = new CsvWriter();
 			csvWriter.writeCsv("/tmp/test.csv", model, result);*/
 			
+			if (result.getResourceUsage() != null) {
+				System.err.println("Resources used: " + result.getResourceUsage());
+			}
 			if (result.getReactantIds().isEmpty()) {
+				if (liveViewer != null) {
+					closeResultPanel(liveViewer);
+				}
 				throw new Exception("No reactants selected for plot, or no reactants present in the result");
+			} else if (liveViewer != null) {
+				final InatResultPanel viewer = liveViewer;
+				SwingUtilities.invokeLater(new Runnable() {
+					public void run() {
+						viewer.setResult(result);
+					}
+				});
 			} else {
 				SwingUtilities.invokeLater(new Runnable() {
 					public void run() {
-						final CytoPanel p = Cytoscape.getDesktop().getCytoPanel(SwingConstants.EAST);
+						showResultPanel(new InatResultPanel(model, result, scale));
+					}
+				});
+			}
+		}
+		
+		/**
+		 * Remove from the right-side panel of Cytoscape a result panel shown with showResultPanel.
+		 * Can be called from any thread: the panel is removed after it has been shown.
+		 * @param resultViewer The panel to be removed
+		 */
+		private void closeResultPanel(final InatResultPanel resultViewer) {
+			SwingUtilities.invokeLater(new Runnable() {
+				public void run() {
+					Container container = resultViewer.getParent();
+					if (container != null) {
+						Cytoscape.getDesktop().getCytoPanel(SwingConstants.EAST).remove(container);
+					}
+				}
+			});
+		}
+		
+		/**
+		 * Add the given result panel to the right-side panel of Cytoscape, making sure
+		 * that the panel is visible. Must be called from the event dispatch thread.
+		 * @param resultViewer The panel to be shown
+		 */
+		private void showResultPanel(InatResultPanel resultViewer) {
+			final CytoPanel p = Cytoscape.getDesktop().getCytoPanel(SwingConstants.EAST);
 	
-						// JFrame frame = new JFrame("Inat result viewer");
-						// frame.setLayout(new BorderLayout());
-						InatResultPanel resultViewer = new InatResultPanel(model, result, scale);
-						// frame.add(resultViewer, BorderLayout.CENTER);
-						// frame.setLocationRelativeTo(Cytoscape.getDesktop());
-						// frame.pack();
-						// frame.setSize(new Dimension(800, 600));
-						// frame.setVisible(true);
+			// JFrame frame = new JFrame("Inat result viewer");
+			// frame.setLayout(new BorderLayout());
+			// frame.add(resultViewer, BorderLayout.CENTER);
+			// frame.setLocationRelativeTo(Cytoscape.getDesktop());
+			// frame.pack();
+			// frame.setSize(new Dimension(800, 600));
+			// frame.setVisible(true);
 	
-						final JPanel container = new JPanel(new BorderLayout(2, 2));
-						container.add(resultViewer, BorderLayout.CENTER);
-						JPanel buttons = new JPanel(new GridLayout(1, 4, 2, 2));
+			final JPanel container = new JPanel(new BorderLayout(2, 2));
+			container.add(resultViewer, BorderLayout.CENTER);
+			JPanel buttons = new JPanel(new GridLayout(1, 4, 2, 2));
 	
-						JButton close = new JButton(new AbstractAction("Close") {
-							private static final long serialVersionUID = 4327349309742276633L;
+			JButton close = new JButton(new AbstractAction("Close") {
+				private static final long serialVersionUID = 4327349309742276633L;
 	
-							@Override
-							public void actionPerformed(ActionEvent e) {
-								p.remove(container);
-							}
-						});
+				@Override
+				public void actionPerformed(ActionEvent e) {
+					p.remove(container);
+				}
+			});
 	
-						buttons.add(close);
-						container.add(buttons, BorderLayout.NORTH);
+			buttons.add(close);
+			container.add(buttons, BorderLayout.NORTH);
 	
-						p.add("INAT Results", container);
+			p.add("INAT Results", container);
 	
-						if (p.getState().equals(CytoPanelState.HIDE)) {
-							CytoPanelImp p1 = (CytoPanelImp)Cytoscape.getDesktop().getCytoPanel(SwingConstants.WEST);
-							CyNetworkView p2 = Cytoscape.getCurrentNetworkView();
-							CytoPanelImp p3 = (CytoPanelImp)Cytoscape.getDesktop().getCytoPanel(SwingConstants.SOUTH);
-							Dimension d = Cytoscape.getDesktop().getSize();
-							if (!p1.getState().equals(CytoPanelState.HIDE)) {
-								d.width -= p1.getWidth();
-							}
-							if (p2 != null) {
-								d.width -= Cytoscape.getDesktop().getNetworkViewManager().getInternalFrame(p2).getWidth();
-							}
-							if (!p3.getState().equals(CytoPanelState.HIDE)) {
-								d.height -= p3.getHeight();
-							}
-							((CytoPanelImp)p).setPreferredSize(d);
-							((CytoPanelImp)p).setMaximumSize(d);
-							((CytoPanelImp)p).setSize(d);
-							p.setState(CytoPanelState.DOCK);
-						}
-						
-						p.setSelectedIndex(p.getCytoPanelComponentCount() - 1);
-					}
-				});
+			if (p.getState().equals(CytoPanelState.HIDE)) {
+				CytoPanelImp p1 = (CytoPanelImp)Cytoscape.getDesktop().getCytoPanel(SwingConstants.WEST);
+				CyNetworkView p2 = Cytoscape.getCurrentNetworkView();
+				CytoPanelImp p3 = (CytoPanelImp)Cytoscape.getDesktop().getCytoPanel(SwingConstants.SOUTH);
+				Dimension d = Cytoscape.getDesktop().getSize();
+				if (!p1.getState().equals(CytoPanelState.HIDE)) {
+					d.width -= p1.getWidth();
+				}
+				if (p2 != null) {
+					d.width -= Cytoscape.getDesktop().getNetworkViewManager().getInternalFrame(p2).getWidth();
+				}
+				if (!p3.getState().equals(CytoPanelState.HIDE)) {
+					d.height -= p3.getHeight();
+				}
+				((CytoPanelImp)p).setPreferredSize(d);
+				((CytoPanelImp)p).setMaximumSize(d);
+				((CytoPanelImp)p).setSize(d);
+				p.setState(CytoPanelState.DOCK);
 			}
+			
+			p.setSelectedIndex(p.getCytoPanelComponentCount() - 1);
 		}
 
 		@Override
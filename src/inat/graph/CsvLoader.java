@@ -0,0 +1,271 @@
+package inat.graph;
+
+import inat.util.DecimalParser;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Loads a csv file of series (the first column is the x value, each other column a series)
+ * into arrays of doubles. The file is memory-mapped and split at line boundaries in chunks,
+ * which are parsed in parallel; the columns of the chunks are then put one after the other.
+ * As when reading the file line by line, a cell which is empty (or only blanks) means that
+ * the series has no point on that line, and the data end at the first line shorter than 2
+ * characters.
+ */
+public class CsvLoader {
+	private static final int MIN_CHUNK_SIZE = 4 << 20, //Smaller files are parsed in a single chunk
+							 MAX_CHUNK_SIZE = 256 << 20; //Each chunk is mapped separately, so files larger than 2GB can be read too
+
+	private final String xSeriesName;
+	private final String[] names;
+	private final double[][] xs, ys;
+
+	/**
+	 * Load a csv file.
+	 *
+	 * @param file the file
+	 * @throws IOException if the file cannot be read, or is empty
+	 * @throws NumberFormatException if a cell is not a number
+	 */
+	public CsvLoader(File file) throws IOException {
+		FileInputStream stream = new FileInputStream(file);
+		try {
+			FileChannel channel = stream.getChannel();
+			long size = channel.size();
+			byte[] header = readLine(channel, 0);
+			if (header == null) {
+				throw new IOException("Error: the file " + file + " is empty!");
+			}
+			int headerLength = header.length > 0 && header[header.length - 1] == '\r' ? header.length - 1 : header.length;
+			List<String> headers = new ArrayList<String>();
+			for (String h : new String(header, 0, headerLength).split(",")) { //empty names are skipped, as StringTokenizer did
+				if (h.length() > 0) headers.add(h.replace('\"', ' '));
+			}
+			if (headers.isEmpty()) {
+				throw new IOException("Error: the file " + file + " has no column names!");
+			}
+			xSeriesName = headers.get(0);
+			names = headers.subList(1, headers.size()).toArray(new String[headers.size() - 1]);
+
+			//Split the data in chunks, each ending at the end of a line
+			int nThreads = Runtime.getRuntime().availableProcessors();
+			long dataStart = Math.min(size, header.length + 1),
+				 chunkSize = Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, (size - dataStart) / (nThreads * 4) + 1));
+			List<long[]> chunks = new ArrayList<long[]>();
+			for (long start = dataStart; start < size;) {
+				long end = Math.min(size, start + chunkSize);
+				if (end < size) {
+					byte[] rest = readLine(channel, end);
+					end = Math.min(size, end + (rest == null ? 0 : rest.length + 1));
+				}
+				chunks.add(new long[] { start, end });
+				start = end;
+			}
+
+			List<Chunk> parsed = new ArrayList<Chunk>(chunks.size());
+			if (chunks.size() == 1) {
+				parsed.add(new Chunk(channel, chunks.get(0)[0], chunks.get(0)[1], names.length).call());
+			} else if (chunks.size() > 1) {
+				ExecutorService pool = Executors.newFixedThreadPool(Math.min(nThreads, chunks.size()));
+				try {
+					List<Future<Chunk>> results = new ArrayList<Future<Chunk>>(chunks.size());
+					for (long[] c : chunks) {
+						results.add(pool.submit(new Chunk(channel, c[0], c[1], names.length)));
+					}
+					for (Future<Chunk> result : results) {
+						parsed.add(result.get());
+					}
+				} catch (InterruptedException ex) {
+					throw new IOException("Interrupted while reading " + file);
+				} catch (ExecutionException ex) {
+					Throwable cause = ex.getCause();
+					if (cause instanceof IOException) throw (IOException) cause;
+					if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+					throw new IOException("Could not read " + file + ": " + cause);
+				} finally {
+					pool.shutdown();
+				}
+			}
+
+			//Put the chunks together, up to the first chunk which contains the end of the data
+			xs = new double[names.length][];
+			ys = new double[names.length][];
+			for (int col = 0; col < names.length; col++) {
+				int length = 0;
+				for (Chunk c : parsed) {
+					length += c.lengths[col];
+					if (c.ended) break;
+				}
+				xs[col] = new double[length];
+				ys[col] = new double[length];
+				int position = 0;
+				for (Chunk c : parsed) {
+					System.arraycopy(c.xs[col], 0, xs[col], position, c.lengths[col]);
+					System.arraycopy(c.ys[col], 0, ys[col], position, c.lengths[col]);
+					position += c.lengths[col];
+					c.xs[col] = c.ys[col] = null; //so that we do not need twice the memory
+					if (c.ended) break;
+				}
+			}
+		} finally {
+			stream.close();
+		}
+	}
+
+	/**
+	 * Returns the bytes of the line starting at the given position (without the line terminator),
+	 * or null if the position is at the end of the file.
+	 */
+	private static byte[] readLine(FileChannel channel, long position) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+		byte[] line = new byte[0];
+		while (true) {
+			buffer.clear();
+			int n = channel.read(buffer, position + line.length);
+			if (n <= 0) {
+				return line.length == 0 ? null : line;
+			}
+			byte[] bytes = buffer.array();
+			for (int i = 0; i < n; i++) {
+				if (bytes[i] == '\n') {
+					line = Arrays.copyOf(line, line.length + i);
+					System.arraycopy(bytes, 0, line, line.length - i, i);
+					return line;
+				}
+			}
+			int old = line.length;
+			line = Arrays.copyOf(line, old + n);
+			System.arraycopy(bytes, 0, line, old, n);
+		}
+	}
+
+	/**
+	 * The name of the first column (the x values).
+	 */
+	public String getXSeriesName() {
+		return xSeriesName;
+	}
+
+	/**
+	 * The names of the series (the columns after the first).
+	 */
+	public String[] getNames() {
+		return names;
+	}
+
+	/**
+	 * The x values of the points of a series.
+	 */
+	public double[] getX(int series) {
+		return xs[series];
+	}
+
+	/**
+	 * The y values of the points of a series.
+	 */
+	public double[] getY(int series) {
+		return ys[series];
+	}
+
+	/**
+	 * Parses a part of the file (made of whole lines) into columns.
+	 */
+	private static class Chunk implements Callable<Chunk> {
+		private final FileChannel channel;
+		private final long start, end;
+		final double[][] xs, ys;
+		final int[] lengths;
+		boolean ended = false; //The data end in this chunk (a line shorter than 2 characters)
+
+		Chunk(FileChannel channel, long start, long end, int nSeries) {
+			this.channel = channel;
+			this.start = start;
+			this.end = end;
+			this.xs = new double[nSeries][];
+			this.ys = new double[nSeries][];
+			this.lengths = new int[nSeries];
+			int capacity = (int) Math.min(1 << 16, (end - start) / (4 * (nSeries + 1)) + 16); //a first guess at the number of lines
+			for (int i = 0; i < nSeries; i++) {
+				xs[i] = new double[capacity];
+				ys[i] = new double[capacity];
+			}
+		}
+
+		@Override
+		public Chunk call() throws IOException {
+			MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+			CharSequence text = DecimalParser.asText(map);
+			int limit = map.limit(), lineStart = 0;
+			while (lineStart < limit) {
+				int lineEnd = lineStart;
+				while (lineEnd < limit && map.get(lineEnd) != '\n') lineEnd++;
+				int contentEnd = lineEnd;
+				if (contentEnd > lineStart && map.get(contentEnd - 1) == '\r') contentEnd--;
+				if (contentEnd - lineStart < 2) {
+					ended = true;
+					break;
+				}
+				parseLine(map, text, lineStart, contentEnd);
+				lineStart = lineEnd + 1;
+			}
+			return this;
+		}
+
+		private void parseLine(ByteBuffer map, CharSequence text, int from, int to) {
+			int fieldStart = from;
+			while (fieldStart < to && map.get(fieldStart) == ',') fieldStart++; //as with StringTokenizer, empty fields before the x value are skipped
+			int fieldEnd = indexOf(map, ',', fieldStart, to);
+			double x = DecimalParser.parseDouble(text, fieldStart, fieldEnd);
+			for (int series = 0; fieldEnd < to; series++) {
+				fieldStart = fieldEnd + 1;
+				fieldEnd = indexOf(map, ',', fieldStart, to);
+				if (isBlank(map, fieldStart, fieldEnd)) continue; //there could be one of the series which does not have a point in this line: we skip it
+				if (series >= xs.length) {
+					throw new NumberFormatException("A line has more values than there are columns: " + string(map, from, to));
+				}
+				double y = DecimalParser.parseDouble(text, fieldStart, fieldEnd);
+				int n = lengths[series];
+				if (n == xs[series].length) {
+					xs[series] = Arrays.copyOf(xs[series], n * 2);
+					ys[series] = Arrays.copyOf(ys[series], n * 2);
+				}
+				xs[series][n] = x;
+				ys[series][n] = y;
+				lengths[series] = n + 1;
+			}
+		}
+	}
+
+	private static int indexOf(ByteBuffer map, char c, int from, int to) {
+		while (from < to && map.get(from) != c) from++;
+		return from;
+	}
+
+	private static boolean isBlank(ByteBuffer map, int from, int to) {
+		for (int i = from; i < to; i++) {
+			if (map.get(i) > ' ') return false;
+		}
+		return true;
+	}
+
+	private static String string(ByteBuffer map, int from, int to) {
+		byte[] bytes = new byte[to - from];
+		for (int i = from; i < to; i++) {
+			bytes[i - from] = map.get(i);
+		}
+		return new String(bytes);
+	}
+}
@@ -25,13 +25,30 @@ public class FileUtils {
 	 * null if the user has selected no file/closed the dialog
 	 */
 	public static String open(final String fileType, final String description, Component parent) {
+		return openAnyOf(fileType == null ? null : new String[] {fileType}, description, parent);
+	}
+	
+	/**
+	 * Show the File Chooser dialog, listing the files of any of the given types
+	 * @param fileTypes The file types (ex. ".csv", ".txt"). null to list all files
+	 * @param description The description of the file types
+	 * @param parent The parent Component (typically a window. null is ok)
+	 * @return The complete (absoluite) path of the file selected by the user, or
+	 * null if the user has selected no file/closed the dialog
+	 */
+	public static String openAnyOf(final String[] fileTypes, final String description, Component parent) {
 		JFileChooser chooser = new JFileChooser(currentDirectory);
-		if (fileType != null) {
+		if (fileTypes != null) {
 			chooser.setFileFilter(new FileFilter() {
 				public boolean accept(File pathName) {
-					if (pathName.getAbsolutePath().endsWith(fileType) || pathName.isDirectory()) {
+					if (pathName.isDirectory()) {
 						return true;
 					}
+					for (String fileType : fileTypes) {
+						if (pathName.getAbsolutePath().endsWith(fileType)) {
+							return true;
+						}
+					}
 					return false;
 				}
 	
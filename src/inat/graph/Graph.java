@@ -1,6 +1,8 @@
 package inat.graph;
 
 import inat.analyser.LevelResult;
+import inat.serializer.BinaryResultFile;
+import inat.util.CsvOutput;
 
 import java.awt.BasicStroke;
 import java.awt.Color;
@@ -24,33 +26,39 @@ import java.awt.event.MouseMotionListener;
 import java.awt.event.MouseWheelEvent;
 import java.awt.event.MouseWheelListener;
 import java.awt.image.BufferedImage;
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.text.DecimalFormat;
-import java.text.DecimalFormatSymbols;
-import java.util.Locale;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
-import java.util.StringTokenizer;
+import java.util.SortedMap;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import javax.swing.JFrame;
 import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JPopupMenu;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 
 public class Graph extends JPanel implements MouseListener, MouseMotionListener, MouseWheelListener, ActionListener, ComponentListener {
 	private static final long serialVersionUID = 8185951065715897260L;
 	private static final String AUTOGRAPH_WINDOW_TITLE = "AutoGraph", //If we are a window, this will be our (lame) title
-								OPEN_LABEL = "Add data from CSV...",
+								OPEN_LABEL = "Add data from CSV or result file...",
 								SAVE_LABEL = "Save as PNG...",
 								EXPORT_VISIBLE_LABEL = "Export visible as CSV...",
+								EXPORT_RESULT_LABEL = "Export visible as result file...",
 								CLEAR_LABEL = "Clear Data",
 								INTERVAL_LABEL = "Graph interval...",
 								ZOOM_RECTANGLE_LABEL = "Zoom rectangle",
@@ -58,6 +66,7 @@ public class Graph extends JPanel implements MouseListener, MouseMotionListener,
 								CLOSE_LABEL = "Close",
 								CSV_FILE_EXTENSION = ".csv",
 								CSV_FILE_DESCRIPTION = "CSV file",
+								RESULT_FILE_DESCRIPTION = "Result file",
 								DEFAULT_CSV_FILE = "/local/schivos/Data_0-240_TNF100.csv", //"/local/schivos/aData1_0-1440_normalized_MK2_JNK1_IKK_with_stddev.csv", //"/local/schivos/aData1_0-1440_times5_normalized_better_onlyMK2_JNK1_IKK_con_stddev.csv",
 								CSV_IO_PROBLEM = "Problem reading the CSV file!",
 								GENERIC_ERROR_S = "There has been a problem: ",
@@ -67,6 +76,10 @@ public class Graph extends JPanel implements MouseListener, MouseMotionListener,
 	private static final java.awt.Color BACKGROUND_COLOR = Color.WHITE, FOREGROUND_COLOR = Color.BLACK, DISABLED_COLOR = Color.LIGHT_GRAY; //The colors for the background, the axis and the (possibly disabled) series names
 	private boolean needRedraw = true; //If true: redraw all the graph. If false: use the saved image graph and redraw only legend
 	private	BufferedImage bufferedImage = null; //The image where we save the graph once drawn
+	private static final int RENDERER_KEEP_ALIVE = 10; //The thread drawing the graph stops after this many seconds without work
+	private ThreadPoolExecutor renderer = null; //The (single) thread which draws the graph in the background
+	private Future<BufferedImage> rendering = null; //The drawing in progress (or the last one)
+	private int renderGeneration = 0; //Increased each time we start drawing: only the images of the last drawing are shown
 	
 	private Vector<Series> data = null; //the Series plotted in the graph
 	private Vector<String> selectedColumns = null; //the names of the Series to be shown (all others are hidden)
@@ -84,6 +97,8 @@ public class Graph extends JPanel implements MouseListener, MouseMotionListener,
 	private int oldLegendX = 0, oldLegendY = 0; //Used to move the legend
 	private int SCALA = 1; //used to implement some kind of "zooming" (see the events related to mouse wheel)
 	private final int BORDER_X = 25, BORDER_Y = 25; //width of the border around the graph area (in pixel). Notice that it is scaled with SCALA, like all other constants for the drawing
+	private static final int LIVE_REPAINT_INTERVAL = 500; //When points are appended to the series while a simulation is running, we repaint at most once every this many milliseconds
+	private Timer liveRepaintTimer = null; //Used to throttle the repaints when appending points
 	
 	public Graph() {
 		data = new Vector<Series>();
@@ -97,6 +112,7 @@ public class Graph extends JPanel implements MouseListener, MouseMotionListener,
 		JMenuItem open = new JMenuItem(OPEN_LABEL);
 		JMenuItem save = new JMenuItem(SAVE_LABEL);
 		JMenuItem export = new JMenuItem(EXPORT_VISIBLE_LABEL);
+		JMenuItem exportResult = new JMenuItem(EXPORT_RESULT_LABEL);
 		JMenuItem clear = new JMenuItem(CLEAR_LABEL);
 		JMenuItem newInterval = new JMenuItem(INTERVAL_LABEL);
 		JMenuItem zoomRectangle = new JMenuItem(ZOOM_RECTANGLE_LABEL);
@@ -105,6 +121,7 @@ public class Graph extends JPanel implements MouseListener, MouseMotionListener,
 		open.addActionListener(this);
 		save.addActionListener(this);
 		export.addActionListener(this);
+		exportResult.addActionListener(this);
 		clear.addActionListener(this);
 		newInterval.addActionListener(this);
 		zoomRectangle.addActionListener(this);
@@ -113,6 +130,7 @@ public class Graph extends JPanel implements MouseListener, MouseMotionListener,
 		popupMenu.add(open);
 		popupMenu.add(save);
 		popupMenu.add(export);
+		popupMenu.add(exportResult);
 		popupMenu.add(clear);
 		popupMenu.add(newInterval);
 		popupMenu.add(zoomRectangle);
@@ -148,18 +166,22 @@ public class Graph extends JPanel implements MouseListener, MouseMotionListener,
 	/*
 	 * Add a new Series with title of the kind Series 0, Series 1, ...
 	 */
-	private void addSeries(P[] series) {
-		data.add(new Series(series));
+	private Series addSeries(double[] xs, double[] ys) {
+		Series s = new Series(xs, ys);
+		data.add(s);
+		return s;
 	}
 	
 	/*
 	 * Add a new series with given title
 	 */
-	private void addSeries(P[] series, String name) {
+	private Series addSeries(double[] xs, double[] ys, String name) {
 		if (name == null) {
-			addSeries(series);
+			return addSeries(xs, ys);
 		} else {
-			data.add(new Series(series, scale, name));
+			Series s = new Series(xs, ys, scale, name);
+			data.add(s);
+			return s;
 		}
 	}
 	
@@ -328,6 +350,11 @@ public class Graph extends JPanel implements MouseListener, MouseMotionListener,
 	 * Draw axes, arrow points, ticks and label X axis with the label found in the first column of the CSV datafile
 	 */
 	public void drawAxes(Graphics2D g, Rectangle bounds) {
+		drawAxes(g, bounds, scale, SCALA, xSeriesName);
+	}
+	
+	//the parameters are copies of our fields, so that the axes can be drawn on another thread
+	private void drawAxes(Graphics2D g, Rectangle bounds, Scale scale, int SCALA, String xSeriesName) {
 		FontMetrics fm = g.getFontMetrics();
 		g.setPaint(FOREGROUND_COLOR);
 		g.drawLine(bounds.x - 10 * SCALA, bounds.height + bounds.y, bounds.x + bounds.width + 10 * SCALA, bounds.height + bounds.y);
@@ -438,80 +465,44 @@ public class Graph extends JPanel implements MouseListener, MouseMotionListener,
 		g.setStroke(oldStroke);
 	}
 	
+	/*
+	 * The graph (series and axes) is drawn on a background thread into a new image, which is then shown here.
+	 * Until it is ready, we show the previous image (stretched to the current size). If drawing everything
+	 * takes long, a coarse version is shown first. The legend and the zoom rectangle are drawn directly.
+	 */
 	public void paint(Graphics g1) {
 		Graphics2D g = (Graphics2D)g1;
-		Graphics2D gBackground;
 		if (needRedraw) {
-			bufferedImage = new BufferedImage(this.getWidth(), this.getHeight(), BufferedImage.TYPE_INT_RGB);
-			gBackground = bufferedImage.createGraphics();
-		} else {
-			gBackground = (Graphics2D)g1;
+			startRendering();
 		}
 		Font oldFont = g.getFont();
 		Font newFont = new Font(oldFont.getName(), oldFont.getStyle(), oldFont.getSize() * SCALA);
 		g.setFont(newFont);
-		gBackground.setFont(newFont);
-
-		//if (!movingLegend) {
-			g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-			gBackground.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-		//}
+		g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
 		
-		//g.clearRect(0, 0, this.getWidth(), this.getHeight());
-		gBackground.setPaint(BACKGROUND_COLOR);
 		Rectangle bounds = new Rectangle(this.getBounds());
 		bounds.x = bounds.y = 0; //we don't care where we are inside our containing object: we only need the width and height of the drawing area. The starting x and y are of course 0.
-		if (needRedraw) {
-			gBackground.fill(bounds);
+		if (bufferedImage != null) {
+			//g.drawImage(bufferedImage, 0, 0, this);
+			g.drawImage(bufferedImage, 0, 0, this.getWidth(), this.getHeight(), null);
+		} else {
+			g.setPaint(BACKGROUND_COLOR);
+			g.fill(bounds);
 		}
 		
 		FontMetrics fm = g.getFontMetrics();
 		maxLabelLength = 0;
 		bounds.setBounds(bounds.x + BORDER_X * SCALA, bounds.y + BORDER_Y * SCALA, bounds.width - 2 * BORDER_X * SCALA, bounds.height - 2 * BORDER_Y * SCALA);
-		
-		resetCol();
-		Stroke oldStroke = gBackground.getStroke();
-		gBackground.setStroke(new BasicStroke(2 * SCALA));
-		Stroke fineStroke = new BasicStroke(1 * SCALA);
 		for (Series series : data) {
-			if (series.isSlave()) continue; //first plot all masters, then all slaves: this way we are sure that the master has set all it needs and the slave can lazily copy the same settings
-			
-			if (needRedraw) {
-				if (series.getColor() == null || series.getChangeColor()) {
-					if (!series.getChangeColor()) {
-						gBackground.setPaint(nextCol());
-					} else {
-						gBackground.setPaint(randomCol());
-						series.setChangeColor(false);
-					}
-				} else {
-					gBackground.setPaint(series.getColor());
-				}
-				series.plot(gBackground, bounds);
-				if (series.isMaster()) {
-					series.getSlave().plot(gBackground, bounds);
-				}
-			}
-			
+			if (series.isSlave()) continue;
 			double labelLength = fm.stringWidth(series.getName());
 			if (labelLength > maxLabelLength) {
 				maxLabelLength = labelLength;
 			}
 		}
 		
-		g.setStroke(fineStroke);
-		gBackground.setStroke(fineStroke);
-		
-		if (needRedraw) {
-			drawAxes(gBackground, bounds);
-		}
-		
-		if (needRedraw) {
-			needRedraw = false;
-		}
-		
-		//g.drawImage(bufferedImage, 0, 0, this);
-		g.drawImage(bufferedImage, 0, 0, this.getWidth(), this.getHeight(), null);
+		Stroke oldStroke = g.getStroke();
+		g.setStroke(new BasicStroke(1 * SCALA));
 		
 		if (legendBounds == null || !customLegendPosition) {
 			int nGraphs = 0;
@@ -533,6 +524,144 @@ public class Graph extends JPanel implements MouseListener, MouseMotionListener,
 		g.setFont(oldFont);
 	}
 	
+	/*
+	 * Start drawing the graph in the background, cancelling the drawing still in progress (if any).
+	 * The colors of the series are chosen here, and the series are copied as they are now, so that
+	 * they can be changed while we draw them.
+	 */
+	private void startRendering() {
+		final int width = this.getWidth(), height = this.getHeight();
+		if (width <= 0 || height <= 0) return; //we will draw when we have a size
+		needRedraw = false;
+		if (rendering != null) {
+			rendering.cancel(true);
+		}
+		final int generation = ++renderGeneration;
+		Font font = this.getFont();
+		final Font newFont = new Font(font.getName(), font.getStyle(), font.getSize() * SCALA);
+		final int scala = SCALA;
+		final Rectangle bounds = new Rectangle(BORDER_X * SCALA, BORDER_Y * SCALA, width - 2 * BORDER_X * SCALA, height - 2 * BORDER_Y * SCALA);
+		
+		resetCol();
+		final Vector<Series.Snapshot> snapshots = new Vector<Series.Snapshot>();
+		boolean preview = false;
+		for (Series series : data) {
+			if (series.isSlave()) continue; //first plot all masters, then all slaves: this way we are sure that the master has set all it needs and the slave can lazily copy the same settings
+			
+			Color color;
+			if (series.getColor() == null || series.getChangeColor()) {
+				if (!series.getChangeColor()) {
+					color = nextCol();
+				} else {
+					color = randomCol();
+					series.setChangeColor(false);
+				}
+			} else {
+				color = series.getColor();
+			}
+			if (series.getEnabled()) { //a hidden series keeps the color it had
+				series.setColor(color);
+			}
+			snapshots.add(series.snapshot(bounds));
+			if (series.isMaster()) {
+				Series.Snapshot slave = series.getSlave().snapshot(bounds);
+				snapshots.add(slave);
+				preview = preview || slave.isCoarseFaster(bounds);
+			}
+		}
+		final Scale axesScale = new Scale(scale);
+		final String xName = xSeriesName;
+		final boolean showPreview = preview;
+		
+		if (renderer == null) {
+			renderer = new ThreadPoolExecutor(1, 1, RENDERER_KEEP_ALIVE, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "Graph renderer");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			renderer.allowCoreThreadTimeOut(true);
+		}
+		rendering = renderer.submit(new Callable<BufferedImage>() {
+			public BufferedImage call() {
+				Thread.interrupted(); //an interruption meant for the previous drawing could have arrived after it had finished
+				if (showPreview) {
+					show(render(width, height, bounds, snapshots, axesScale, scala, xName, newFont, true), generation);
+				}
+				BufferedImage image = render(width, height, bounds, snapshots, axesScale, scala, xName, newFont, false);
+				show(image, generation);
+				return image;
+			}
+		});
+	}
+	
+	/*
+	 * Draw the series and the axes on a new image. Returns null if the drawing was cancelled (the thread was interrupted)
+	 */
+	private BufferedImage render(int width, int height, Rectangle bounds, Vector<Series.Snapshot> snapshots, Scale axesScale, int scala, String xName, Font font, boolean coarse) {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = image.createGraphics();
+		try {
+			g.setFont(font);
+			g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+			g.setPaint(BACKGROUND_COLOR);
+			g.fillRect(0, 0, width, height);
+			g.setStroke(new BasicStroke(2 * scala));
+			for (Series.Snapshot snapshot : snapshots) {
+				if (snapshot.getColor() != null) {
+					g.setPaint(snapshot.getColor());
+				}
+				snapshot.plot(g, bounds, coarse);
+				if (Thread.currentThread().isInterrupted()) return null;
+			}
+			g.setStroke(new BasicStroke(1 * scala));
+			drawAxes(g, bounds, axesScale, scala, xName);
+		} finally {
+			g.dispose();
+		}
+		return image;
+	}
+	
+	/*
+	 * Show the given image (from the background thread), if no other drawing has been started since
+	 */
+	private void show(final BufferedImage image, final int generation) {
+		if (image == null) return;
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				if (generation == renderGeneration) {
+					bufferedImage = image;
+					repaint();
+				}
+			}
+		});
+	}
+	
+	/*
+	 * Wait for the drawing in progress (if any) to be finished, and show its result.
+	 * Used when we need the complete graph immediately (e.g., to save it as an image)
+	 */
+	private void finishRendering() {
+		if (needRedraw) {
+			startRendering();
+		}
+		if (rendering == null) return;
+		try {
+			BufferedImage image = rendering.get();
+			if (image != null) {
+				bufferedImage = image;
+			}
+		} catch (CancellationException ex) {
+			//a newer drawing has been started: we keep what we have
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException ex) {
+			System.err.println(GENERIC_ERROR_S + ex.getCause());
+			ex.getCause().printStackTrace();
+		}
+	}
+	
 	/*public void paint(Graphics g1) {
 		Graphics2D g = (Graphics2D)g1;
 		Font oldFont = g.getFont();
@@ -611,82 +740,27 @@ public class Graph extends JPanel implements MouseListener, MouseMotionListener,
 	 * Add a new set of Series from a given LevelResult, marking the given ones as shown
 	 */
 	public void parseLevelResult(LevelResult result, Map<String, String> seriesNameMapping, double xScale, Vector<String> selectedColumns) {
-		boolean mustRescaleYValues = false; //if we find a column whose name is equal to my constant MAX_Y_STRING, two things can happen:
-											//1. maxYValue == null, then we update its value with the (only) value present in this special column
-											//2. maxYValue != null, then we rescale the y values of all the series we find in this csv file to the value of maxYValue,
-											//   using maxYValue/valueInTheSpecialColumn as scale factor.
-											//The mustRescaleYValues is used to signal the fact that we are in the second case
-		if (selectedColumns != null) {
-			this.selectedColumns.addAll(selectedColumns);
-		}
-		String[] graphNames = result.getReactantIds().toArray(new String[] {""});
-		int nColonne = graphNames.length;
-		Vector<Vector<P>> grafici = new Vector<Vector<P>>(nColonne);
+		String[] ids = result.getReactantIds().toArray(new String[] {""});
+		List<Double> times = result.getTimeIndices();
+		String[] graphNames = new String[ids.length];
+		double[][] xs = new double[ids.length][], ys = new double[ids.length][];
 		xSeriesName = null;
-		for (int i=0;i<nColonne;i++) {
-			graphNames[i] = graphNames[i].replace('\"',' ');
-			if (graphNames[i].toLowerCase().contains(MAX_Y_STRING.toLowerCase()) && maxYValue != null) {
-				mustRescaleYValues = true;
-			}
-			grafici.add(new Vector<P>());
-		}
-		for (double xValue : result.getTimeIndices()) {
-			for (int i=0;i<nColonne;i++) {
-				grafici.elementAt(i).add(new P(xValue * xScale, result.getConcentration(graphNames[i], xValue)));
-			}
-		}
-		
-		if (!mustRescaleYValues) {
-								 //With reference to the two cases listed at the start of the function, this means that we are either in case 1 (and thus we simply need to
-								 // get a value for maxYValue), or we are in a "normal" case, where the MAX_X_STRING was not found as a column header. In both cases,
-								 // we don't need to rescale the y values of all graphs, which will be simply added to the set of existing series.
-			for (int i=0;i<graphNames.length;i++) {
-				P[] grafico = new P[1];
-				grafico = grafici.elementAt(i).toArray(grafico);
-				if (grafico != null && grafico.length > 1) {
-					addSeries(grafico, graphNames[i]);
-				} else if (graphNames[i].equals(MAX_Y_STRING)) {
-					//the y value is the value under this column, the x value is ALWAYS FOR EVERY GRAPH the value of the first column on the same line
-					maxYValue = grafico[0].y;
-				}
-			}
-		} else { //We are in case 2
-			int indexForOtherMaxY = -1;
-			double scaleFactor = 0;
-			for (int i=0;i<graphNames.length;i++) {
-				if (graphNames[i].equals(MAX_Y_STRING)) {
-					indexForOtherMaxY = i;
-					scaleFactor = maxYValue / grafici.elementAt(i).elementAt(0).y;
-					break;
-				}
-			}
-			for (int i=0;i<graphNames.length;i++) {
-				if (i == indexForOtherMaxY) continue;
-				P[] grafico = new P[1];
-				grafico = grafici.elementAt(i).toArray(grafico);
-				if (grafico != null && grafico.length > 1) {
-					for (P p : grafico) { //before adding the graph data, we update it by rescaling the y values
-						p.y *= scaleFactor;
-					}
-					addSeries(grafico, graphNames[i]);
-				}
-			}
-		}
-		
-		for (Series s : data) {
-			if (s.getName().toLowerCase().trim().endsWith(Series.SLAVE_SUFFIX)) {
-				for (Series s2 : data) {
-					if (s2.getName().trim().equals(s.getName().trim().substring(0, s.getName().toLowerCase().trim().lastIndexOf(Series.SLAVE_SUFFIX)))) {
-						s.setMaster(s2);
-					}
-				}
-			}
-			if (this.selectedColumns.size() > 0 && !this.selectedColumns.contains(s.getName())) {
-				s.setEnabled(false);
-			} else {
-				s.setEnabled(true);
+		for (int i=0;i<ids.length;i++) {
+			graphNames[i] = ids[i].replace('\"',' ');
+			LevelResult.Cursor cursor = result.getCursor(ids[i]);
+			double[] x = new double[times.size()], y = new double[times.size()];
+			int n = 0;
+			for (double xValue : times) {
+				double level = cursor.getConcentration(xValue);
+				if (Double.isNaN(level)) continue; //the reactant has no data yet at this time
+				x[n] = xValue * xScale;
+				y[n] = level;
+				n++;
 			}
+			xs[i] = n == x.length ? x : Arrays.copyOf(x, n);
+			ys[i] = n == y.length ? y : Arrays.copyOf(y, n);
 		}
+		addColumns(graphNames, xs, ys, selectedColumns);
 		
 		//Set the names for all masters only
 		for (Series s : data) {
@@ -700,8 +774,55 @@ public class Graph extends JPanel implements MouseListener, MouseMotionListener,
 				s.setName(s.getMaster().getName() + Series.SLAVE_SUFFIX);
 			}
 		}
-		customLegendPosition = false;
-		needRedraw = true;
+	}
+	
+	/*
+	 * Append the given points (reactant id -> (time -> level)) to the corresponding Series,
+	 * creating the Series that are not there yet. This is used to show a simulation trace
+	 * while it is still being computed: the points are expected to come after the ones already
+	 * present, and the graph is repainted at most once every LIVE_REPAINT_INTERVAL ms.
+	 * Must be called from the event dispatch thread.
+	 */
+	public void appendPoints(Map<String, SortedMap<Double, Double>> newPoints, Map<String, String> seriesNameMapping, double xScale) {
+		for (String id : newPoints.keySet()) {
+			SortedMap<Double, Double> values = newPoints.get(id);
+			if (values.isEmpty()) continue;
+			double[] xs = new double[values.size()], ys = new double[values.size()];
+			int i = 0;
+			for (Map.Entry<Double, Double> e : values.entrySet()) {
+				xs[i] = e.getKey() * xScale;
+				ys[i] = e.getValue();
+				i++;
+			}
+			String name = seriesNameMapping.get(id);
+			if (name == null) {
+				name = id;
+			}
+			Series series = null;
+			for (Series s : data) {
+				if (s.getName().equals(name)) {
+					series = s;
+					break;
+				}
+			}
+			if (series == null) {
+				addSeries(xs, ys, name);
+			} else {
+				series.appendData(xs, ys);
+			}
+		}
+		if (liveRepaintTimer == null) {
+			liveRepaintTimer = new Timer(LIVE_REPAINT_INTERVAL, new ActionListener() {
+				public void actionPerformed(ActionEvent e) {
+					needRedraw = true;
+					repaint();
+				}
+			});
+			liveRepaintTimer.setRepeats(false);
+		}
+		if (!liveRepaintTimer.isRunning()) {
+			liveRepaintTimer.start();
+		}
 	}
 	
 	/*
@@ -715,6 +836,63 @@ public class Graph extends JPanel implements MouseListener, MouseMotionListener,
 	 * Add a new set of Series from a given CSV file, marking the given ones as shown
 	 */
 	public void parseCSV(String fileName, Vector<String> selectedColumns) throws FileNotFoundException, IOException {
+		CsvLoader csv = new CsvLoader(new File(fileName)); //the file is parsed in parallel, directly into arrays of x and y values
+		xSeriesName = csv.getXSeriesName(); //il primo  la X (tempo)
+		String[] graphNames = csv.getNames();
+		double[][] xs = new double[graphNames.length][], ys = new double[graphNames.length][];
+		for (int i=0;i<graphNames.length;i++) {
+			xs[i] = csv.getX(i);
+			ys[i] = csv.getY(i);
+		}
+		addColumns(graphNames, xs, ys, selectedColumns);
+	}
+	
+	/*
+	 * Add a new set of Series from a given binary result file (see BinaryResultFile), marking all as shown
+	 */
+	public void parseResultFile(String fileName) throws IOException {
+		parseResultFile(fileName, null);
+	}
+	
+	/*
+	 * Add a new set of Series from a given binary result file (see BinaryResultFile), marking the given ones as shown.
+	 * The file is memory-mapped and its columns decoded directly into arrays of x and y values, so that
+	 * even large results are reopened almost instantly.
+	 */
+	public void parseResultFile(String fileName, Vector<String> selectedColumns) throws IOException {
+		BinaryResultFile result = BinaryResultFile.read(new File(fileName));
+		xSeriesName = result.getXSeriesName().length() > 0 ? result.getXSeriesName() : null;
+		String[] graphNames = result.getNames();
+		double[][] xs = new double[graphNames.length][], ys = new double[graphNames.length][];
+		for (int i=0;i<graphNames.length;i++) {
+			xs[i] = result.getX(i);
+			ys[i] = result.getY(i);
+		}
+		Series[] added = addColumns(graphNames, xs, ys, selectedColumns);
+		for (int i=0;i<added.length;i++) { //the file tells us which series are the slaves of which other, also when their names do not
+			int master = result.getMaster(i);
+			if (added[i] != null && master >= 0 && added[master] != null) {
+				added[i].setMaster(added[master]);
+			}
+		}
+	}
+	
+	/*
+	 * Add a new set of Series from a given file, which can be a binary result file or a CSV file, marking all as shown
+	 */
+	public void parseFile(String fileName) throws FileNotFoundException, IOException {
+		if (BinaryResultFile.isResultFile(new File(fileName))) {
+			parseResultFile(fileName);
+		} else {
+			parseCSV(fileName);
+		}
+	}
+	
+	/*
+	 * Add the Series read from a file (one for each column of x and y values), marking the given ones as shown.
+	 * Returns the Series added for each column (null for the columns that were not added)
+	 */
+	private Series[] addColumns(String[] graphNames, double[][] xs, double[][] ys, Vector<String> selectedColumns) {
 		boolean mustRescaleYValues = false; //if we find a column whose name is equal to my constant MAX_Y_STRING, two things can happen:
 											//1. maxYValue == null, then we update its value with the (only) value present in this special column
 											//2. maxYValue != null, then we rescale the y values of all the series we find in this csv file to the value of maxYValue,
@@ -723,39 +901,11 @@ public class Graph extends JPanel implements MouseListener, MouseMotionListener,
 		if (selectedColumns != null) {
 			this.selectedColumns.addAll(selectedColumns);
 		}
-		File f = new File(fileName);
-		BufferedReader is = new BufferedReader(new FileReader(f));
-		String firstLine = is.readLine();
-		if (firstLine == null) {
-			throw new IOException("Error: the file " + fileName + " is empty!");
-		}
-		StringTokenizer tritatutto = new StringTokenizer(firstLine, ",");
-		int nColonne = tritatutto.countTokens();
-		String[] graphNames = new String[nColonne - 1];
-		Vector<Vector<P>> grafici = new Vector<Vector<P>>(graphNames.length);
-		xSeriesName = tritatutto.nextToken().replace('\"', ' '); //il primo  la X (tempo)
+		Series[] added = new Series[graphNames.length];
 		for (int i=0;i<graphNames.length;i++) {
-			graphNames[i] = tritatutto.nextToken();
-			graphNames[i] = graphNames[i].replace('\"',' ');
 			if (graphNames[i].toLowerCase().contains(MAX_Y_STRING.toLowerCase()) && maxYValue != null) {
 				mustRescaleYValues = true;
 			}
-			grafici.add(new Vector<P>());
-		}
-		while (true) {
-			String result = is.readLine();
-			if (result == null || result.length() < 2) {
-				break;
-			}
-			StringTokenizer rigaSpezzata = new StringTokenizer(result, ",");
-			String s = rigaSpezzata.nextToken();
-			double xValue = Double.parseDouble(s); //here s can't be null (differently from below) because there is absolutely no sense in not giving the x value for the entire line
-			int lungRiga = rigaSpezzata.countTokens();
-			for (int i=0;i<lungRiga;i++) {
-				s = rigaSpezzata.nextToken();
-				if (s == null || s.trim().length() < 1) continue; //there could be one of the series which does not have a point in this line: we skip it
-				grafici.elementAt(i).add(new P(xValue, Double.parseDouble(s)));
-			}
 		}
 		
 		if (!mustRescaleYValues) {
@@ -763,13 +913,11 @@ public class Graph extends JPanel implements MouseListener, MouseMotionListener,
 								 // get a value for maxYValue), or we are in a "normal" case, where the MAX_X_STRING was not found as a column header. In both cases,
 								 // we don't need to rescale the y values of all graphs, which will be simply added to the set of existing series.
 			for (int i=0;i<graphNames.length;i++) {
-				P[] grafico = new P[1];
-				grafico = grafici.elementAt(i).toArray(grafico);
-				if (grafico != null && grafico.length > 1) {
-					addSeries(grafico, graphNames[i]);
-				} else if (graphNames[i].equals(MAX_Y_STRING)) {
+				if (ys[i].length > 1) {
+					added[i] = addSeries(xs[i], ys[i], graphNames[i]);
+				} else if (graphNames[i].equals(MAX_Y_STRING) && ys[i].length > 0) {
 					//the y value is the value under this column, the x value is ALWAYS FOR EVERY GRAPH the value of the first column on the same line
-					maxYValue = grafico[0].y;
+					maxYValue = ys[i][0];
 				}
 			}
 		} else { //We are in case 2
@@ -778,19 +926,17 @@ public class Graph extends JPanel implements MouseListener, MouseMotionListener,
 			for (int i=0;i<graphNames.length;i++) {
 				if (graphNames[i].equals(MAX_Y_STRING)) {
 					indexForOtherMaxY = i;
-					scaleFactor = maxYValue / grafici.elementAt(i).elementAt(0).y;
+					scaleFactor = maxYValue / ys[i][0];
 					break;
 				}
 			}
 			for (int i=0;i<graphNames.length;i++) {
 				if (i == indexForOtherMaxY) continue;
-				P[] grafico = new P[1];
-				grafico = grafici.elementAt(i).toArray(grafico);
-				if (grafico != null && grafico.length > 1) {
-					for (P p : grafico) { //before adding the graph data, we update it by rescaling the y values
-						p.y *= scaleFactor;
+				if (ys[i].length > 1) {
+					for (int j=0;j<ys[i].length;j++) { //before adding the graph data, we update it by rescaling the y values
+						ys[i][j] *= scaleFactor;
 					}
-					addSeries(grafico, graphNames[i]);
+					added[i] = addSeries(xs[i], ys[i], graphNames[i]);
 				}
 			}
 		}
@@ -811,60 +957,86 @@ public class Graph extends JPanel implements MouseListener, MouseMotionListener,
 		}
 		customLegendPosition = false;
 		needRedraw = true;
+		return added;
 	}
 	
 	/*
 	 * Export to a CSV file only the Series that are currently visible
 	 */
 	public void exportVisible(String fileName) throws FileNotFoundException, IOException {
-		BufferedWriter out = new BufferedWriter(new FileWriter(fileName));
-		out.write(xSeriesName + ",");
-		P[][] points = new P[data.size()][];
-		int[] indices = new int[data.size()];
-		boolean[] finished = new boolean[data.size()];
-		int nFinished = 0;
-		for (int i=0;i<data.size();i++) { //we use only the enabled series
-			if (data.elementAt(i).getEnabled()) {
+		CsvOutput out = new CsvOutput(new File(fileName));
+		try {
+			out.write(xSeriesName + ",");
+			Series[] points = new Series[data.size()];
+			int[] indices = new int[data.size()];
+			boolean[] finished = new boolean[data.size()];
+			int nFinished = 0;
+			for (int i=0;i<data.size();i++) { //we use only the enabled series
+				if (data.elementAt(i).getEnabled()) {
+					finished[i] = false;
+				} else {
+					finished[i] = true;
+					nFinished++;
+				}
+			}
+			for (int i=0;i<data.size();i++) {
+				if (finished[i]) continue;
+				out.write(data.elementAt(i).getName() + ",");
+				points[i] = data.elementAt(i);
+				indices[i] = 0;
 				finished[i] = false;
-			} else {
-				finished[i] = true;
-				nFinished++;
 			}
-		}
-		for (int i=0;i<data.size();i++) {
-			if (finished[i]) continue;
-			out.write(data.elementAt(i).getName() + ",");
-			points[i] = data.elementAt(i).getData();
-			indices[i] = 0;
-			finished[i] = false;
-		}
-		out.newLine();
-		//at every cycle, output the minimum x value, and then output all values for which this min x is their x value. the others output an empty space
-		//(they will be skipped by my csv parser, and thus we will obtain the exact same graph as the one displayed)
-		DecimalFormat formatter = new DecimalFormat("#.####", new DecimalFormatSymbols(Locale.US));
-		while (nFinished < finished.length) {
-			double minX = Double.NaN;
-			for (int i=0;i<points.length;i++) {
-				if (!finished[i] && (Double.isNaN(minX) || minX > points[i][indices[i]].x)) {
-					minX = points[i][indices[i]].x;
+			out.newLine();
+			//at every cycle, output the minimum x value, and then output all values for which this min x is their x value. the others output an empty space
+			//(they will be skipped by my csv parser, and thus we will obtain the exact same graph as the one displayed)
+			while (nFinished < finished.length) {
+				double minX = Double.NaN;
+				for (int i=0;i<points.length;i++) {
+					if (!finished[i] && (Double.isNaN(minX) || minX > points[i].getX(indices[i]))) {
+						minX = points[i].getX(indices[i]);
+					}
 				}
-			}
-			out.write(formatter.format(minX) + ",");
-			for (int i=0;i<points.length;i++) {
-				if (!finished[i] && points[i][indices[i]].x == minX) {
-					out.write(formatter.format(points[i][indices[i]].y) + ",");
-					indices[i]++; //this datum has been used, so we can go to the next
-					if (indices[i] == points[i].length) {
-						finished[i] = true;
-						nFinished++;
+				out.write(minX).write(',');
+				for (int i=0;i<points.length;i++) {
+					if (!finished[i] && points[i].getX(indices[i]) == minX) {
+						out.write(points[i].getY(indices[i])).write(',');
+						indices[i]++; //this datum has been used, so we can go to the next
+						if (indices[i] == points[i].size()) {
+							finished[i] = true;
+							nFinished++;
+						}
+					} else {
+						if (data.elementAt(i).getEnabled()) out.write(" ,");
 					}
-				} else {
-					if (data.elementAt(i).getEnabled()) out.write(" ,");
 				}
+				out.newLine();
 			}
-			out.newLine();
+		} finally {
+			out.close();
 		}
-		out.close();
+	}
+	
+	/*
+	 * Export to a binary result file (see BinaryResultFile) only the Series that are currently visible
+	 */
+	public void exportVisibleResult(String fileName) throws IOException {
+		Vector<Series> visible = new Vector<Series>();
+		for (Series s : data) {
+			if (s.getEnabled()) {
+				visible.add(s);
+			}
+		}
+		String[] names = new String[visible.size()];
+		int[] masters = new int[visible.size()];
+		double[][] xs = new double[visible.size()][], ys = new double[visible.size()][];
+		for (int i=0;i<visible.size();i++) {
+			Series s = visible.elementAt(i);
+			names[i] = s.getName();
+			masters[i] = s.isSlave() ? visible.indexOf(s.getMaster()) : -1;
+			xs[i] = Arrays.copyOf(s.getXs(), s.size());
+			ys[i] = Arrays.copyOf(s.getYs(), s.size());
+		}
+		new BinaryResultFile(xSeriesName == null ? "" : xSeriesName, names, masters, xs, ys).write(new File(fileName));
 	}
 	
 	/*
@@ -917,7 +1089,7 @@ public class Graph extends JPanel implements MouseListener, MouseMotionListener,
 		Graph g = new Graph();
 		g.reset();
 		try {
-			g.parseCSV(csvFile.getAbsolutePath());
+			g.parseFile(csvFile.getAbsolutePath());
 		} catch (Exception e) {
 			System.err.println(CSV_IO_PROBLEM);
 			e.printStackTrace();
@@ -962,7 +1134,7 @@ public class Graph extends JPanel implements MouseListener, MouseMotionListener,
 			g = new Graph();
 		}
 		try {
-			g.parseCSV(csvFile.getAbsolutePath());
+			g.parseFile(csvFile.getAbsolutePath());
 		} catch (Exception e) {
 			System.err.println(CSV_IO_PROBLEM);
 			e.printStackTrace();
@@ -1125,9 +1297,10 @@ public class Graph extends JPanel implements MouseListener, MouseMotionListener,
 	
 	/*
 	 * Possible menu options:
-	 * - OPEN: add the set of Series contained in a given CSV file
+	 * - OPEN: add the set of Series contained in a given CSV or binary result file
 	 * - SAVE to PNG: save the content of the window in a PNG image file
 	 * - EXPORT VISIBLE: save the data of all visible Series in a CSV file
+	 * - EXPORT RESULT: save the data of all visible Series in a binary result file (much smaller and faster to open again)
 	 * - CLEAR: reset the graph, clearing all drawings and Series
 	 * - INTERVAL: change the minimum and maximum values for X and Y (a rough zooming feature)
 	 * - CLOSE: closes the graph window (when available)
@@ -1137,10 +1310,10 @@ public class Graph extends JPanel implements MouseListener, MouseMotionListener,
 		if (source instanceof JMenuItem) {
 			JMenuItem menu = (JMenuItem)source;
 			if (menu.getText().equals(OPEN_LABEL)) {
-				String fileName = FileUtils.open(CSV_FILE_EXTENSION, CSV_FILE_DESCRIPTION, this);
+				String fileName = FileUtils.openAnyOf(new String[] {CSV_FILE_EXTENSION, BinaryResultFile.EXTENSION}, CSV_FILE_DESCRIPTION + " or " + RESULT_FILE_DESCRIPTION.toLowerCase(), this);
 				if (fileName != null) {
 					try {
-						this.parseCSV(fileName);
+						this.parseFile(fileName);
 						needRedraw = true;
 						this.repaint();
 					} catch (Exception ex) {
@@ -1149,7 +1322,11 @@ public class Graph extends JPanel implements MouseListener, MouseMotionListener,
 					}
 				}
 			} else if (menu.getText().equals(SAVE_LABEL)) {
-				FileUtils.saveToPNG(this);
+				String fileName = FileUtils.save(".png", "PNG image", this);
+				if (fileName != null) {
+					finishRendering(); //only now: while the user chooses the file, the drawing goes on and the window keeps being repainted
+					FileUtils.saveToPNG(this, fileName);
+				}
 			} else if (menu.getText().equals(EXPORT_VISIBLE_LABEL)) {
 				String fileName = FileUtils.save(CSV_FILE_EXTENSION, CSV_FILE_DESCRIPTION, this);
 				if (fileName != null) {
@@ -1160,6 +1337,16 @@ public class Graph extends JPanel implements MouseListener, MouseMotionListener,
 						ex.printStackTrace();
 					}
 				}
+			} else if (menu.getText().equals(EXPORT_RESULT_LABEL)) {
+				String fileName = FileUtils.save(BinaryResultFile.EXTENSION, RESULT_FILE_DESCRIPTION, this);
+				if (fileName != null) {
+					try {
+						this.exportVisibleResult(fileName);
+					} catch (Exception ex) {
+						System.err.println(GENERIC_ERROR_S + ex);
+						ex.printStackTrace();
+					}
+				}
 			} else if (menu.getText().equals(CLEAR_LABEL)) {
 				this.reset();
 				needRedraw = true;
@@ -0,0 +1,168 @@
+package inat.graph;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+/**
+ * A level-of-detail pyramid of the points of a series, used to draw it in a time which depends
+ * on the number of pixels and not on the number of points.
+ * At level k, the points are divided in buckets of 2^k consecutive points, and for each bucket
+ * we keep the minimum and maximum y. When the series is drawn, we choose the level at which a
+ * bucket is about as wide as a pixel: all the lines between the points of such a bucket fall in
+ * the same pixel column, so they are drawn as a single vertical line from the minimum to the
+ * maximum. The buckets which turn out to be wider (where the points are sparse) are drawn with
+ * the buckets of the level below, down to the single points.
+ * Only the points in the visible x range are considered (found with a binary search).
+ */
+class MinMaxPyramid {
+	private double[][] min = new double[0][], max = new double[0][]; //min[k - 1][b] is the minimum y of the points b * 2^k .. (b + 1) * 2^k - 1
+	private int nPoints = 0; //The number of points we have computed the pyramid for
+	private boolean sorted = true; //Whether the x values are increasing (otherwise we cannot search the visible range, and draw all the points)
+
+	//The state while drawing
+	private Graphics2D g;
+	private double[] xs, ys;
+	private Rectangle bounds;
+	private double scaleX, scaleY, minX, minY;
+	private int from, to, previousX, previousY;
+	private boolean hasPrevious;
+
+	/**
+	 * Bring the pyramid up to date with the given points. The points we already had must not have
+	 * changed (the new ones are appended at the end): only the buckets containing new points are computed.
+	 * Only the first n values of the arrays are points of the series.
+	 */
+	void update(double[] xs, double[] ys, int n) {
+		if (n < nPoints) { //the series was replaced: start again
+			min = max = new double[0][];
+			nPoints = 0;
+			sorted = true;
+		}
+		if (n == nPoints) return;
+		for (int i = Math.max(1, nPoints); i < n && sorted; i++) {
+			if (!(xs[i] >= xs[i - 1])) sorted = false;
+		}
+		int levels = 0;
+		while ((n - 1) >> (levels + 1) > 0) levels++; //the last level has 2 buckets: the top is not needed
+		if (levels > min.length) {
+			min = Arrays.copyOf(min, levels);
+			max = Arrays.copyOf(max, levels);
+		}
+		for (int k = 1; k <= levels; k++) {
+			double[] levelMin = min[k - 1], levelMax = max[k - 1];
+			int nBuckets = ((n - 1) >> k) + 1,
+				first = levelMin == null ? 0 : nPoints >> k; //the first bucket which has changed (all of them, for a new level)
+			if (levelMin == null || levelMin.length < nBuckets) {
+				int capacity = Math.max(nBuckets, levelMin == null ? 0 : levelMin.length * 2);
+				levelMin = min[k - 1] = levelMin == null ? new double[capacity] : Arrays.copyOf(levelMin, capacity);
+				levelMax = max[k - 1] = levelMax == null ? new double[capacity] : Arrays.copyOf(levelMax, capacity);
+			}
+			for (int b = first; b < nBuckets; b++) {
+				int left = 2 * b, right = 2 * b + 1;
+				if (k == 1) {
+					double y1 = ys[left], y2 = right < n ? ys[right] : y1;
+					levelMin[b] = Math.min(y1, y2);
+					levelMax[b] = Math.max(y1, y2);
+				} else {
+					double[] belowMin = min[k - 2], belowMax = max[k - 2];
+					boolean hasRight = right <= (n - 1) >> (k - 1);
+					levelMin[b] = hasRight ? Math.min(belowMin[left], belowMin[right]) : belowMin[left];
+					levelMax[b] = hasRight ? Math.max(belowMax[left], belowMax[right]) : belowMax[left];
+				}
+			}
+		}
+		nPoints = n;
+	}
+
+	boolean isSorted() {
+		return sorted;
+	}
+
+	/**
+	 * Draw the lines between the given points (the ones for which the pyramid is up to date),
+	 * as Series.plot would draw them one by one.
+	 */
+	void plot(Graphics2D g, double[] xs, double[] ys, int n, Rectangle bounds, double scaleX, double scaleY, double minX, double maxX, double minY) {
+		if (n < 2) return;
+		this.g = g;
+		this.xs = xs;
+		this.ys = ys;
+		this.bounds = bounds;
+		this.scaleX = scaleX;
+		this.scaleY = scaleY;
+		this.minX = minX;
+		this.minY = minY;
+		this.hasPrevious = false;
+		from = 0;
+		to = n - 1;
+		if (sorted) { //we take also the last point before and the first after the visible range, for the lines going out of the graph
+			from = Math.max(0, firstIndexFrom(xs, n, minX) - 1);
+			to = Math.min(n - 1, firstIndexFrom(xs, n, Math.nextUp(maxX)));
+		}
+		double pointsPerPixel = (to - from + 1) / (double) Math.max(1, bounds.width);
+		int level = 0; //if the x values are not increasing, the points of a bucket are not between its first and last one: we draw all of them
+		while (sorted && level < min.length && (1 << (level + 1)) <= pointsPerPixel) level++;
+		for (int b = from >> level; b <= to >> level; b++) {
+			plotBucket(level, b);
+		}
+		this.g = null;
+		this.xs = this.ys = null;
+	}
+
+	private void plotBucket(int level, int b) {
+		int first = Math.max(from, b << level),
+			last = Math.min(to, ((b + 1) << level) - 1);
+		if (first > last) return;
+		if (level == 0) {
+			lineTo(pixelX(xs[first]), pixelY(ys[first]));
+			return;
+		}
+		int firstX = pixelX(xs[first]),
+			lastX = pixelX(xs[last]);
+		boolean whole = first == b << level && last == ((b + 1) << level) - 1; //the buckets at the edges of the visible range are partly outside
+		if (whole && Math.abs(lastX - firstX) <= 1) {
+			lineTo(firstX, pixelY(ys[first]));
+			g.drawLine(firstX, pixelY(max[level - 1][b]), firstX, pixelY(min[level - 1][b]));
+			previousX = lastX;
+			previousY = pixelY(ys[last]);
+		} else {
+			plotBucket(level - 1, 2 * b);
+			plotBucket(level - 1, 2 * b + 1);
+		}
+	}
+
+	private void lineTo(int x, int y) {
+		if (hasPrevious) {
+			g.drawLine(previousX, previousY, x, y);
+		}
+		previousX = x;
+		previousY = y;
+		hasPrevious = true;
+	}
+
+	private int pixelX(double x) {
+		return (int)(bounds.x + scaleX * (x - minX));
+	}
+
+	private int pixelY(double y) {
+		return (int)(bounds.y + bounds.height - scaleY * (y - minY));
+	}
+
+	/**
+	 * Binary search for the first of the n points whose x is at least the given one (n if there is none).
+	 * The x values of the points must be increasing.
+	 */
+	static int firstIndexFrom(double[] xs, int n, double x) {
+		int low = 0, high = n;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (xs[mid] < x) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+}
@@ -1,10 +0,0 @@
-package inat.graph;
-import java.awt.geom.Point2D;
-
-public class P extends Point2D.Double {
-	private static final long serialVersionUID = 4869738541632700629L;
-
-	public P(double x, double y) {
-		super(x, y);
-	}
-}
\ No newline at end of file
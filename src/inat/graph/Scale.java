@@ -21,6 +21,16 @@ public class Scale {
 		//nothing
 	}
 	
+	//a copy of the given scale, which does not change when the original does
+	public Scale(Scale other) {
+		this.maxX = other.maxX;
+		this.maxY = other.maxY;
+		this.minX = other.minX;
+		this.minY = other.minY;
+		this.scaleX = other.scaleX;
+		this.scaleY = other.scaleY;
+	}
+	
 	//reset the scales
 	public void reset() {
 		maxX = maxY = minX = minY = Double.NaN;
@@ -67,19 +77,21 @@ public class Scale {
 		this.minY = minY;
 	}
 
-	public void addData(P[] data) {
-		for (int i=0; i < data.length; i++) {
-			if (Double.isNaN(maxX) || maxX < data[i].x){
-				maxX = data[i].x;
+	//include the points from..to-1 of the given series in the ranges
+	public void addData(double[] xs, double[] ys, int from, int to) {
+		for (int i=from; i < to; i++) {
+			double x = xs[i], y = ys[i];
+			if (Double.isNaN(maxX) || maxX < x){
+				maxX = x;
 			}
-			if (Double.isNaN(maxY) || maxY < data[i].y) {
-				maxY = data[i].y;
+			if (Double.isNaN(maxY) || maxY < y) {
+				maxY = y;
 			}
-			if (Double.isNaN(minX) || minX > data[i].x) {
-				minX = data[i].x;
+			if (Double.isNaN(minX) || minX > x) {
+				minX = x;
 			}
-			if (Double.isNaN(minY) || minY > data[i].y) {
-				minY = data[i].y;
+			if (Double.isNaN(minY) || minY > y) {
+				minY = y;
 			}
 		}
 	}
@@ -8,6 +8,7 @@ import java.awt.Graphics2D;
 import java.awt.Polygon;
 import java.awt.Rectangle;
 import java.awt.geom.Point2D;
+import java.util.Arrays;
 
 /**
  * Represents a series of points (x,y) with a title.
@@ -20,7 +21,8 @@ import java.awt.geom.Point2D;
 public class Series {
 	protected static int seriesCounter = 0;
 	
-	private P[] data = null;
+	private double[] xs = new double[0], ys = new double[0]; //the points are (xs[i], ys[i]) for i < size: the arrays can be longer, so that appending points does not copy them every time
+	private int size = 0;
 	private String name = "";
 	private boolean enabled = true;
 	private Scale scale = null;
@@ -31,17 +33,24 @@ public class Series {
 	private boolean changeColor = false;
 	private enum BarsState {NOT_SHOWN, ONLY_BARS, ONLY_SHADING, BOTH};
 	private BarsState barsState = BarsState.ONLY_BARS; //valid only if this Series is a slave. Tells to show the vertical error bars
+	private final MinMaxPyramid pyramid = new MinMaxPyramid(); //min/max envelopes of the points, so that drawing takes a time proportional to the pixels and not to the points
 	
-	public Series(P[] data) {
-		this(data, new Scale());
+	public Series(double[] xs, double[] ys) {
+		this(xs, ys, new Scale());
 	}
 	
-	public Series(P[] data, Scale scale) {
-		this(data, scale, "Series " + (++seriesCounter)); 
+	public Series(double[] xs, double[] ys, Scale scale) {
+		this(xs, ys, scale, "Series " + (++seriesCounter)); 
 	}
 	
-	public Series(P[] data, Scale scale, String name) {
-		this.data = data;
+	//the series uses the given arrays (which must have the same length) without copying them
+	public Series(double[] xs, double[] ys, Scale scale, String name) {
+		if (xs.length != ys.length) {
+			throw new IllegalArgumentException("The series " + name + " has " + xs.length + " x values and " + ys.length + " y values");
+		}
+		this.xs = xs;
+		this.ys = ys;
+		this.size = xs.length;
 		this.setScale(scale);
 		this.name = name;
 	}
@@ -49,16 +58,16 @@ public class Series {
 	public void setScale(Scale scale) {
 		this.scale = scale;
 		if (!isSlave()) {
-			this.scale.addData(data);
+			this.scale.addData(xs, ys, 0, size);
 		} else {
-			P[] dataLow = new P[data.length];
-			P[] dataHigh = new P[data.length];
-			for (int i=0;i<data.length;i++) {
-				dataLow[i] = new P(data[i].x, master.data[i].y - data[i].y);
-				dataHigh[i] = new P(data[i].x, master.data[i].y + data[i].y);
+			double[] low = new double[size];
+			double[] high = new double[size];
+			for (int i=0;i<size;i++) {
+				low[i] = master.ys[i] - ys[i];
+				high[i] = master.ys[i] + ys[i];
 			}
-			this.scale.addData(dataLow);
-			this.scale.addData(dataHigh);
+			this.scale.addData(xs, low, 0, size);
+			this.scale.addData(xs, high, 0, size);
 		}
 	}
 	
@@ -74,8 +83,43 @@ public class Series {
 		this.name = name;
 	}
 	
-	public P[] getData() {
-		return this.data;
+	//the number of points
+	public int size() {
+		return this.size;
+	}
+	
+	public double getX(int i) {
+		return this.xs[i];
+	}
+	
+	public double getY(int i) {
+		return this.ys[i];
+	}
+	
+	//the x values of the points. Only the first size() values are valid, and the array must not be changed
+	public double[] getXs() {
+		return this.xs;
+	}
+	
+	//the y values of the points. Only the first size() values are valid, and the array must not be changed
+	public double[] getYs() {
+		return this.ys;
+	}
+
+	//add the given points at the end of the series (used to show a simulation while it is still running). The points are expected to come after the ones we already have
+	public void appendData(double[] newXs, double[] newYs) {
+		int n = newXs.length;
+		if (size + n > xs.length) { //we leave room for the next points, so that a series which grows by a few points at a time is not copied every time
+			int capacity = Math.max(size + n, xs.length * 2);
+			xs = Arrays.copyOf(xs, capacity);
+			ys = Arrays.copyOf(ys, capacity);
+		}
+		System.arraycopy(newXs, 0, xs, size, n);
+		System.arraycopy(newYs, 0, ys, size, n);
+		if (!isSlave()) {
+			this.scale.addData(xs, ys, size, size + n);
+		}
+		size += n;
 	}
 	
 	public void setSlave(Series s) {
@@ -141,6 +185,14 @@ public class Series {
 		return this.myColor;
 	}
 	
+	//the color of the series (and of its slave, if any)
+	public void setColor(Color color) {
+		this.myColor = color;
+		if (slave != null) {
+			slave.myColor = color;
+		}
+	}
+	
 	public void changeErrorBars() {
 		BarsState[] states = BarsState.values();
 		int idx = 0;
@@ -159,146 +211,204 @@ public class Series {
 	}
 	
 	public void plot(Graphics2D g, Rectangle bounds) {
-		scale.computeScale(bounds);
-		double scaleX = scale.getXScale(),
-			   scaleY = scale.getYScale(),
-			   minX = scale.getMinX(),
-			   minY = scale.getMinY();
+		Snapshot snapshot = snapshot(bounds);
 		if (!enabled) return;
-		
 		if (isSlave()) {
 			myColor = master.myColor;
-			P[] masterData = master.getData();
-			P vecchio = null;
-			int i = 0;
-			Color c = g.getColor();
-			if (barsState.equals(BarsState.ONLY_SHADING) || barsState.equals(BarsState.BOTH)) { //Draw standard deviation as shading
-				for (P punto : data) {
-					if (punto.y < 1e-7) {
-						vecchio = punto;
-						continue;
-					}
-					for (;i<masterData.length && masterData[i].x<punto.x;i++);
-					if (i < masterData.length) {
-						if (i > 0) {
-							float[] hsb = Color.RGBtoHSB(c.getRed(), c.getGreen(), c.getBlue(), null);
-							Color c1 = Color.getHSBColor(hsb[0], hsb[1]/3, hsb[2]);
-								  //c2 = Color.getHSBColor(hsb[0], hsb[1]*3/2, hsb[2]);
-							float[] rgb = c1.getRGBComponents(null);
-							Color c3 = new Color(rgb[0], rgb[1], rgb[2], 0.5f);
-							rgb = c.getRGBColorComponents(null);
-							Color c4 = new Color(rgb[0], rgb[1], rgb[2], 0.6f);
-							/*g.setColor(Color.getHSBColor(hsb[0], hsb[1]/4, hsb[2]));
-							g.drawLine((int)(bounds.x + scaleX * (masterData[i-1].x - minX)), (int)(bounds.y + bounds.height - scaleY * (masterData[i-1].y - vecchio.y - minY)),
-									   (int)(bounds.x + scaleX * (masterData[i].x - minX)), (int)(bounds.y + bounds.height - scaleY * (masterData[i].y - punto.y - minY)));
-							g.drawLine((int)(bounds.x + scaleX * (masterData[i-1].x - minX)), (int)(bounds.y + bounds.height - scaleY * (masterData[i-1].y + vecchio.y - minY)),
-									   (int)(bounds.x + scaleX * (masterData[i].x - minX)), (int)(bounds.y + bounds.height - scaleY * (masterData[i].y + punto.y - minY)));*/
-							/*Polygon grayedError = new Polygon();
-							grayedError.addPoint((int)(bounds.x + scaleX * (masterData[i-1].x - minX)), (int)(bounds.y + bounds.height - scaleY * (masterData[i-1].y - vecchio.y - minY)));
-							grayedError.addPoint((int)(bounds.x + scaleX * (masterData[i].x - minX)), (int)(bounds.y + bounds.height - scaleY * (masterData[i].y - punto.y - minY)));
-							grayedError.addPoint((int)(bounds.x + scaleX * (masterData[i].x - minX)), (int)(bounds.y + bounds.height - scaleY * (masterData[i].y + punto.y - minY)));
-							grayedError.addPoint((int)(bounds.x + scaleX * (masterData[i-1].x - minX)), (int)(bounds.y + bounds.height - scaleY * (masterData[i-1].y + vecchio.y - minY)));
-							g.setPaint(new GradientPaint(new Point2D.Float((int)(bounds.x + scaleX * (masterData[i-1].x - minX)), (int)(bounds.y + bounds.height - scaleY * (masterData[i-1].y - vecchio.y - minY))), c3, new Point2D.Float((int)(bounds.x + scaleX * (masterData[i].x - minX)), (int)(bounds.y + bounds.height - scaleY * (masterData[i].y + punto.y - minY))), c4));
-							g.fill(grayedError);*/
-							/*Polygon error1 = new Polygon();
-							error1.addPoint((int)(bounds.x + scaleX * (masterData[i-1].x - minX)), (int)(bounds.y + bounds.height - scaleY * (masterData[i-1].y - minY)));
-							error1.addPoint((int)(bounds.x + scaleX * (masterData[i].x - minX)), (int)(bounds.y + bounds.height - scaleY * (masterData[i].y - minY)));
-							error1.addPoint((int)(bounds.x + scaleX * (masterData[i].x - minX)), (int)(bounds.y + bounds.height - scaleY * (masterData[i].y - punto.y - minY)));
-							error1.addPoint((int)(bounds.x + scaleX * (masterData[i-1].x - minX)), (int)(bounds.y + bounds.height - scaleY * (masterData[i-1].y - vecchio.y - minY)));
-							g.drawLine((int)(bounds.x + scaleX * (masterData[i-1].x + masterData[i].x) / 2.0 - minX), (int)(bounds.y + bounds.height - scaleY * (masterData[i-1].y + masterData[i].y) / 2.0 - minY), (int)(bounds.x + scaleX * (masterData[i-1].x + masterData[i].x) / 2.0 - minX), (int)(bounds.y + bounds.height - scaleY * (masterData[i-1].y - vecchio.y + masterData[i].y - punto.y) / 2.0 - minY));
-							g.setPaint(new GradientPaint((float)(bounds.x + scaleX * (masterData[i-1].x + masterData[i].x) / 2.0 - minX), (float)(bounds.y + bounds.height - scaleY * (masterData[i-1].y + masterData[i].y) / 2.0 - minY), c, (float)(bounds.x + scaleX * (masterData[i-1].x + masterData[i].x) / 2.0 - minX), (float)(bounds.y + bounds.height - scaleY * (masterData[i-1].y - vecchio.y + masterData[i].y - punto.y) / 2.0 - minY), c4));
-							g.fill(error1);*/
-							
-							//I would like to make it simpler, so that it does not negatively influence performances, but I have no time..
-							double maxY = Math.max(vecchio.y, punto.y);
-							Point2D.Float A = new Point2D.Float((float)(bounds.x + scaleX * (masterData[i-1].x - minX)), (float)(bounds.y + bounds.height - scaleY * (masterData[i-1].y + maxY - minY))),
-										  B = new Point2D.Float((float)(bounds.x + scaleX * (masterData[i].x - minX)), (float)(bounds.y + bounds.height - scaleY * (masterData[i].y + maxY - minY))),
-										  C = new Point2D.Float((float)(bounds.x + scaleX * (masterData[i].x - minX)), (float)(bounds.y + bounds.height - scaleY * (masterData[i].y - maxY - minY))),
-										  D = new Point2D.Float((float)(bounds.x + scaleX * (masterData[i-1].x - minX)), (float)(bounds.y + bounds.height - scaleY * (masterData[i-1].y - maxY - minY))),
-										  E = new Point2D.Float((float)(bounds.x + scaleX * (masterData[i-1].x - minX)), (float)(bounds.y + bounds.height - scaleY * (masterData[i-1].y - minY))),
-										  F = new Point2D.Float((float)(bounds.x + scaleX * (masterData[i].x - minX)), (float)(bounds.y + bounds.height - scaleY * (masterData[i].y - minY))),
-										  I = new Point2D.Float((E.x + F.x) / 2.0f, (E.y + F.y) / 2.0f);
-							float Gx, Gy;
-							if (A.y != B.y) {
-								Gx = (A.x*(B.y-A.y)/(B.x-A.x) - A.y + I.x*(B.x-A.x)/(B.y-A.y) + I.y) / ((B.y-A.y)/(B.x-A.x) + (B.x-A.x)/(B.y-A.y));
-								Gy = (B.y-A.y)/(B.x-A.x) * (Gx-A.x) + A.y;
-							} else {
-								Gx = (A.x + B.x) / 2.0f;
-								Gy = A.y;
-							}
-							Point2D.Float G = new Point2D.Float(Gx, Gy);
-							float Hx, Hy;
-							if (C.y != D.y) {
-								Hx = (D.x*(C.y-D.y)/(C.x-D.x) - D.y + I.x*(C.x-D.x)/(C.y-D.y) + I.y) / ((C.y-D.y)/(C.x-D.x) + (C.x-D.x)/(C.y-D.y));
-								Hy = (C.y-D.y)/(C.x-D.x) * (Gx-D.x) + D.y;
-							} else {
-								Hx = (C.x + D.x) / 2.0f;
-								Hy = C.y;
+		} else {
+			setColor(g.getColor());
+		}
+		snapshot.plot(g, bounds, false);
+	}
+	
+	/*
+	 * Take a snapshot of the series, to draw it in the given bounds. The scale of the series is
+	 * computed for those bounds (so that the pixel coordinates can be converted back to values).
+	 * Must be called on the thread which changes the series (the event dispatch thread, for a Graph).
+	 */
+	Snapshot snapshot(Rectangle bounds) {
+		scale.computeScale(bounds);
+		return new Snapshot();
+	}
+	
+	/*
+	 * What is needed to draw the series as it is now: the points (the arrays are only appended to, so their
+	 * first size values do not change), a copy of the scale and the drawing options. A snapshot can be drawn
+	 * on another thread while points are appended or the scale changes. All the snapshots of the series of a
+	 * graph must be drawn by the same thread, because they share the pyramids of the series.
+	 */
+	class Snapshot {
+		private final double[] xs = Series.this.xs, ys = Series.this.ys, masterXs, masterYs;
+		private final int size = Series.this.size, masterSize;
+		private final MinMaxPyramid masterPyramid;
+		private final Scale scale = new Scale(Series.this.scale);
+		private final boolean enabled = Series.this.enabled;
+		private final BarsState barsState = Series.this.barsState;
+		private final Color color = myColor;
+		
+		private Snapshot() {
+			masterXs = isSlave() ? master.xs : null;
+			masterYs = isSlave() ? master.ys : null;
+			masterSize = isSlave() ? master.size : 0;
+			masterPyramid = isSlave() ? master.pyramid : null;
+		}
+		
+		//the color given to the series when the snapshot was taken
+		Color getColor() {
+			return color;
+		}
+		
+		//drawing the coarse version is much faster than drawing all the points (it is worth showing it while the full version is drawn)
+		boolean isCoarseFaster(Rectangle bounds) {
+			return enabled && masterXs != null && size > 2 * bounds.width
+				&& (barsState.equals(BarsState.ONLY_SHADING) || barsState.equals(BarsState.BOTH));
+		}
+		
+		/*
+		 * Draw the series. In the coarse version, the standard deviation of a slave is shaded using about one
+		 * point per pixel. Stops early if the thread is interrupted
+		 */
+		void plot(Graphics2D g, Rectangle bounds, boolean coarse) {
+			double scaleX = scale.getXScale(),
+				   scaleY = scale.getYScale(),
+				   minX = scale.getMinX(),
+				   minY = scale.getMinY();
+			if (!enabled) return;
+			
+			pyramid.update(xs, ys, size);
+			if (masterXs != null) {
+				double[] mx = masterXs, my = masterYs;
+				int mSize = masterSize;
+				masterPyramid.update(mx, my, mSize); //the master may be hidden, or drawn after us: its pyramid must be up to date with our snapshot of it
+				if (size == 0) return;
+				int from = 0, to = size - 1;
+				if (pyramid.isSorted() && masterPyramid.isSorted()) { //we draw only the points in the visible x range (and one more on each side)
+					from = Math.max(0, MinMaxPyramid.firstIndexFrom(xs, size, minX) - 1);
+					to = Math.min(size - 1, MinMaxPyramid.firstIndexFrom(xs, size, Math.nextUp(scale.getMaxX())));
+				}
+				int vecchio = from - 1; //the index of the previous point (-1 if there is none)
+				int step = coarse ? Math.max(1, (to - from + 1) / Math.max(1, bounds.width)) : 1; //the coarse version uses about one point per pixel
+				int i = from > 0 ? MinMaxPyramid.firstIndexFrom(mx, mSize, xs[from - 1]) : 0;
+				Color c = g.getColor();
+				if (barsState.equals(BarsState.ONLY_SHADING) || barsState.equals(BarsState.BOTH)) { //Draw standard deviation as shading
+					for (int j=from;j<=to;j+=step) {
+						if (Thread.currentThread().isInterrupted()) return;
+						if (ys[j] < 1e-7) {
+							vecchio = j;
+							continue;
+						}
+						for (;i<mSize && mx[i]<xs[j];i++);
+						if (i < mSize) {
+							if (i > 0 && vecchio >= 0) {
+								float[] hsb = Color.RGBtoHSB(c.getRed(), c.getGreen(), c.getBlue(), null);
+								Color c1 = Color.getHSBColor(hsb[0], hsb[1]/3, hsb[2]);
+									  //c2 = Color.getHSBColor(hsb[0], hsb[1]*3/2, hsb[2]);
+								float[] rgb = c1.getRGBComponents(null);
+								Color c3 = new Color(rgb[0], rgb[1], rgb[2], 0.5f);
+								rgb = c.getRGBColorComponents(null);
+								Color c4 = new Color(rgb[0], rgb[1], rgb[2], 0.6f);
+								/*g.setColor(Color.getHSBColor(hsb[0], hsb[1]/4, hsb[2]));
+								g.drawLine((int)(bounds.x + scaleX * (mx[i-1] - minX)), (int)(bounds.y + bounds.height - scaleY * (my[i-1] - ys[vecchio] - minY)),
+										   (int)(bounds.x + scaleX * (mx[i] - minX)), (int)(bounds.y + bounds.height - scaleY * (my[i] - ys[j] - minY)));
+								g.drawLine((int)(bounds.x + scaleX * (mx[i-1] - minX)), (int)(bounds.y + bounds.height - scaleY * (my[i-1] + ys[vecchio] - minY)),
+										   (int)(bounds.x + scaleX * (mx[i] - minX)), (int)(bounds.y + bounds.height - scaleY * (my[i] + ys[j] - minY)));*/
+								/*Polygon grayedError = new Polygon();
+								grayedError.addPoint((int)(bounds.x + scaleX * (mx[i-1] - minX)), (int)(bounds.y + bounds.height - scaleY * (my[i-1] - ys[vecchio] - minY)));
+								grayedError.addPoint((int)(bounds.x + scaleX * (mx[i] - minX)), (int)(bounds.y + bounds.height - scaleY * (my[i] - ys[j] - minY)));
+								grayedError.addPoint((int)(bounds.x + scaleX * (mx[i] - minX)), (int)(bounds.y + bounds.height - scaleY * (my[i] + ys[j] - minY)));
+								grayedError.addPoint((int)(bounds.x + scaleX * (mx[i-1] - minX)), (int)(bounds.y + bounds.height - scaleY * (my[i-1] + ys[vecchio] - minY)));
+								g.setPaint(new GradientPaint(new Point2D.Float((int)(bounds.x + scaleX * (mx[i-1] - minX)), (int)(bounds.y + bounds.height - scaleY * (my[i-1] - ys[vecchio] - minY))), c3, new Point2D.Float((int)(bounds.x + scaleX * (mx[i] - minX)), (int)(bounds.y + bounds.height - scaleY * (my[i] + ys[j] - minY))), c4));
+								g.fill(grayedError);*/
+								/*Polygon error1 = new Polygon();
+								error1.addPoint((int)(bounds.x + scaleX * (mx[i-1] - minX)), (int)(bounds.y + bounds.height - scaleY * (my[i-1] - minY)));
+								error1.addPoint((int)(bounds.x + scaleX * (mx[i] - minX)), (int)(bounds.y + bounds.height - scaleY * (my[i] - minY)));
+								error1.addPoint((int)(bounds.x + scaleX * (mx[i] - minX)), (int)(bounds.y + bounds.height - scaleY * (my[i] - ys[j] - minY)));
+								error1.addPoint((int)(bounds.x + scaleX * (mx[i-1] - minX)), (int)(bounds.y + bounds.height - scaleY * (my[i-1] - ys[vecchio] - minY)));
+								g.drawLine((int)(bounds.x + scaleX * (mx[i-1] + mx[i]) / 2.0 - minX), (int)(bounds.y + bounds.height - scaleY * (my[i-1] + my[i]) / 2.0 - minY), (int)(bounds.x + scaleX * (mx[i-1] + mx[i]) / 2.0 - minX), (int)(bounds.y + bounds.height - scaleY * (my[i-1] - ys[vecchio] + my[i] - ys[j]) / 2.0 - minY));
+								g.setPaint(new GradientPaint((float)(bounds.x + scaleX * (mx[i-1] + mx[i]) / 2.0 - minX), (float)(bounds.y + bounds.height - scaleY * (my[i-1] + my[i]) / 2.0 - minY), c, (float)(bounds.x + scaleX * (mx[i-1] + mx[i]) / 2.0 - minX), (float)(bounds.y + bounds.height - scaleY * (my[i-1] - ys[vecchio] + my[i] - ys[j]) / 2.0 - minY), c4));
+								g.fill(error1);*/
+								
+								//I would like to make it simpler, so that it does not negatively influence performances, but I have no time..
+								double maxY = Math.max(ys[vecchio], ys[j]);
+								Point2D.Float A = new Point2D.Float((float)(bounds.x + scaleX * (mx[i-1] - minX)), (float)(bounds.y + bounds.height - scaleY * (my[i-1] + maxY - minY))),
+											  B = new Point2D.Float((float)(bounds.x + scaleX * (mx[i] - minX)), (float)(bounds.y + bounds.height - scaleY * (my[i] + maxY - minY))),
+											  C = new Point2D.Float((float)(bounds.x + scaleX * (mx[i] - minX)), (float)(bounds.y + bounds.height - scaleY * (my[i] - maxY - minY))),
+											  D = new Point2D.Float((float)(bounds.x + scaleX * (mx[i-1] - minX)), (float)(bounds.y + bounds.height - scaleY * (my[i-1] - maxY - minY))),
+											  E = new Point2D.Float((float)(bounds.x + scaleX * (mx[i-1] - minX)), (float)(bounds.y + bounds.height - scaleY * (my[i-1] - minY))),
+											  F = new Point2D.Float((float)(bounds.x + scaleX * (mx[i] - minX)), (float)(bounds.y + bounds.height - scaleY * (my[i] - minY))),
+											  I = new Point2D.Float((E.x + F.x) / 2.0f, (E.y + F.y) / 2.0f);
+								float Gx, Gy;
+								if (A.y != B.y) {
+									Gx = (A.x*(B.y-A.y)/(B.x-A.x) - A.y + I.x*(B.x-A.x)/(B.y-A.y) + I.y) / ((B.y-A.y)/(B.x-A.x) + (B.x-A.x)/(B.y-A.y));
+									Gy = (B.y-A.y)/(B.x-A.x) * (Gx-A.x) + A.y;
+								} else {
+									Gx = (A.x + B.x) / 2.0f;
+									Gy = A.y;
+								}
+								Point2D.Float G = new Point2D.Float(Gx, Gy);
+								float Hx, Hy;
+								if (C.y != D.y) {
+									Hx = (D.x*(C.y-D.y)/(C.x-D.x) - D.y + I.x*(C.x-D.x)/(C.y-D.y) + I.y) / ((C.y-D.y)/(C.x-D.x) + (C.x-D.x)/(C.y-D.y));
+									Hy = (C.y-D.y)/(C.x-D.x) * (Gx-D.x) + D.y;
+								} else {
+									Hx = (C.x + D.x) / 2.0f;
+									Hy = C.y;
+								}
+								Point2D.Float H = new Point2D.Float(Hx, Hy);
+								Polygon error1 = new Polygon();
+								error1.addPoint((int)E.x, (int)E.y);
+								error1.addPoint((int)F.x, (int)F.y);
+								error1.addPoint((int)B.x, (int)(bounds.y + bounds.height - scaleY * (my[i] + ys[j] - minY)));
+								error1.addPoint((int)A.x, (int)(bounds.y + bounds.height - scaleY * (my[i-1] + ys[vecchio] - minY)));
+								//g.drawLine((int)I.x, (int)I.y, (int)G.x, (int)G.y);
+								//g.drawLine((int)A.x, (int)A.y, (int)B.x, (int)B.y);
+								g.setPaint(new GradientPaint(I, c4, G, c3));
+								g.fill(error1);
+								Polygon error2 = new Polygon();
+								error2.addPoint((int)E.x, (int)E.y);
+								error2.addPoint((int)F.x, (int)F.y);
+								error2.addPoint((int)C.x, (int)(bounds.y + bounds.height - scaleY * (my[i] - ys[j] - minY)));
+								error2.addPoint((int)D.x, (int)(bounds.y + bounds.height - scaleY * (my[i-1] - ys[vecchio] - minY)));
+								g.setPaint(new GradientPaint(I, c4, H, c3));
+								g.fill(error2);
 							}
-							Point2D.Float H = new Point2D.Float(Hx, Hy);
-							Polygon error1 = new Polygon();
-							error1.addPoint((int)E.x, (int)E.y);
-							error1.addPoint((int)F.x, (int)F.y);
-							error1.addPoint((int)B.x, (int)(bounds.y + bounds.height - scaleY * (masterData[i].y + punto.y - minY)));
-							error1.addPoint((int)A.x, (int)(bounds.y + bounds.height - scaleY * (masterData[i-1].y + vecchio.y - minY)));
-							//g.drawLine((int)I.x, (int)I.y, (int)G.x, (int)G.y);
-							//g.drawLine((int)A.x, (int)A.y, (int)B.x, (int)B.y);
-							g.setPaint(new GradientPaint(I, c4, G, c3));
-							g.fill(error1);
-							Polygon error2 = new Polygon();
-							error2.addPoint((int)E.x, (int)E.y);
-							error2.addPoint((int)F.x, (int)F.y);
-							error2.addPoint((int)C.x, (int)(bounds.y + bounds.height - scaleY * (masterData[i].y - punto.y - minY)));
-							error2.addPoint((int)D.x, (int)(bounds.y + bounds.height - scaleY * (masterData[i-1].y - vecchio.y - minY)));
-							g.setPaint(new GradientPaint(I, c4, H, c3));
-							g.fill(error2);
 						}
+						vecchio = j;
 					}
-					vecchio = punto;
 				}
-			}
-			g.setColor(c);
-			i = 0;
-			P lastBar = null;
-			for (P punto : data) {
-				for (;i<masterData.length && masterData[i].x<punto.x;i++);
-				if (i < masterData.length) {
-					if (barsState.equals(BarsState.ONLY_BARS) || barsState.equals(BarsState.BOTH)) { //Draw standard deviation as error bars
-						//these lines draw the vertical error bars, but if we have a lot of points the thing becomes extremely clumsy
-						if (lastBar == null || scaleX * (punto.x - lastBar.x) > 10) {
-							g.drawLine((int)(bounds.x + scaleX * (masterData[i].x - minX)), (int)(bounds.y + bounds.height - scaleY * (masterData[i].y - punto.y - minY)), 
-									(int)(bounds.x + scaleX * (masterData[i].x - minX)), (int)(bounds.y + bounds.height - scaleY * (masterData[i].y  + punto.y - minY)));
-							g.drawLine((int)(bounds.x + scaleX * (masterData[i].x - minX)) - 3, (int)(bounds.y + bounds.height - scaleY * (masterData[i].y - punto.y - minY)), 
-									(int)(bounds.x + scaleX * (masterData[i].x - minX)) + 3, (int)(bounds.y + bounds.height - scaleY * (masterData[i].y  - punto.y - minY)));
-							g.drawLine((int)(bounds.x + scaleX * (masterData[i].x - minX)) - 3, (int)(bounds.y + bounds.height - scaleY * (masterData[i].y + punto.y - minY)), 
-									(int)(bounds.x + scaleX * (masterData[i].x - minX)) + 3, (int)(bounds.y + bounds.height - scaleY * (masterData[i].y  + punto.y - minY)));
-							lastBar = punto;
+				g.setColor(c);
+				i = from > 0 ? MinMaxPyramid.firstIndexFrom(mx, mSize, xs[from - 1]) : 0;
+				int lastBar = -1;
+				boolean shading = barsState.equals(BarsState.ONLY_SHADING) || barsState.equals(BarsState.BOTH);
+				for (int j=from;j<=to;j+=step) {
+					if (Thread.currentThread().isInterrupted()) return;
+					for (;i<mSize && mx[i]<xs[j];i++);
+					if (i < mSize) {
+						if (barsState.equals(BarsState.ONLY_BARS) || barsState.equals(BarsState.BOTH)) { //Draw standard deviation as error bars
+							//these lines draw the vertical error bars, but if we have a lot of points the thing becomes extremely clumsy
+							if (lastBar < 0 || scaleX * (xs[j] - xs[lastBar]) > 10) {
+								g.drawLine((int)(bounds.x + scaleX * (mx[i] - minX)), (int)(bounds.y + bounds.height - scaleY * (my[i] - ys[j] - minY)), 
+										(int)(bounds.x + scaleX * (mx[i] - minX)), (int)(bounds.y + bounds.height - scaleY * (my[i]  + ys[j] - minY)));
+								g.drawLine((int)(bounds.x + scaleX * (mx[i] - minX)) - 3, (int)(bounds.y + bounds.height - scaleY * (my[i] - ys[j] - minY)), 
+										(int)(bounds.x + scaleX * (mx[i] - minX)) + 3, (int)(bounds.y + bounds.height - scaleY * (my[i]  - ys[j] - minY)));
+								g.drawLine((int)(bounds.x + scaleX * (mx[i] - minX)) - 3, (int)(bounds.y + bounds.height - scaleY * (my[i] + ys[j] - minY)), 
+										(int)(bounds.x + scaleX * (mx[i] - minX)) + 3, (int)(bounds.y + bounds.height - scaleY * (my[i]  + ys[j] - minY)));
+								lastBar = j;
+							}
+						}
+						if (i > 0 && shading && !coarse) { //If there was shading, we need to redraw the "master" line, which can have been partially overdrawn
+							g.drawLine((int)(bounds.x + scaleX * (mx[i-1] - minX)), (int)(bounds.y + bounds.height - scaleY * (my[i-1] - minY)),
+									   (int)(bounds.x + scaleX * (mx[i] - minX)), (int)(bounds.y + bounds.height - scaleY * (my[i] - minY)));
 						}
-					}
-					if (i > 0 && (barsState.equals(BarsState.ONLY_SHADING) || barsState.equals(BarsState.BOTH))) { //If there was shading, we need to redraw the "master" line, which can have been partially overdrawn
-						g.drawLine((int)(bounds.x + scaleX * (masterData[i-1].x - minX)), (int)(bounds.y + bounds.height - scaleY * (masterData[i-1].y - minY)),
-								   (int)(bounds.x + scaleX * (masterData[i].x - minX)), (int)(bounds.y + bounds.height - scaleY * (masterData[i].y - minY)));
 					}
 				}
-				vecchio = punto;
-			}
-		} else {
-			myColor = g.getColor();
-			if (slave != null) {
-				slave.myColor = myColor;
-			}
-			P vecchio = data[0];
-			for (int j=1;j<data.length;j++) {
-				P punto = data[j];
-				g.drawLine((int)(bounds.x + scaleX * (vecchio.x - minX)), (int)(bounds.y + bounds.height - scaleY * (vecchio.y - minY)), 
-						(int)(bounds.x + scaleX * (punto.x - minX)), (int)(bounds.y + bounds.height - scaleY * (punto.y - minY)));
-				/*g.drawString("" + punto.x + ", " + punto.y, (int)(bounds.x + scaleX * (punto.x - minX)), (int)(bounds.y + bounds.height - scaleY * (punto.y - minY)));
-				g.setColor(Color.LIGHT_GRAY);
-				g.drawLine((int)(bounds.x + scaleX * (punto.x - minX)), (int)(bounds.y + bounds.height - scaleY * (punto.y - minY)), (int)(bounds.x + scaleX * (punto.x - minX)), bounds.height + bounds.y);
-				g.drawLine((int)(bounds.x + scaleX * (punto.x - minX)), (int)(bounds.y + bounds.height - scaleY * (punto.y - minY)), bounds.x, (int)(bounds.y + bounds.height - scaleY * (punto.y - minY)));
-				g.setColor(myColor);*/
-				vecchio = punto;
+				if (shading && coarse) { //the master line is redrawn all at once, as the master draws it
+					masterPyramid.plot(g, mx, my, mSize, bounds, scaleX, scaleY, minX, scale.getMaxX(), minY);
+				}
+			} else {
+				//only the visible points, and (where there are many points per pixel) only the min/max envelope of each pixel column
+				pyramid.plot(g, xs, ys, size, bounds, scaleX, scaleY, minX, scale.getMaxX(), minY);
 			}
 		}
 	}
-}
\ No newline at end of file
+}
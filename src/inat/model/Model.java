@@ -1,5 +1,6 @@
 package inat.model;
 
+import java.io.ObjectStreamException;
 import java.io.Serializable;
 import java.util.Collection;
 import java.util.Collections;
@@ -189,4 +190,11 @@ public class Model implements Serializable {
 
 		return result.toString();
 	}
+
+	/**
+	 * A model is serialized in the compact form of ModelCodec.
+	 */
+	private Object writeReplace() throws ObjectStreamException {
+		return new ModelCodec.Wire(this);
+	}
 }
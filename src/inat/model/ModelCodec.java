@@ -0,0 +1,327 @@
+package inat.model;
+
+import inat.util.BinaryEncoding;
+import inat.util.Table;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.ObjectStreamException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary encoding of a model. All the strings (property names, identifiers,
+ * string values) are written only once, in a table at the beginning, and then referred
+ * to by their index. Tables are written column by column, each value as the difference
+ * from the previous one in a variable number of bytes, all packed in a block which is
+ * written and read at once.
+ * This is how a model travels over RMI (see {@link Wire}): the default serialization
+ * of the graph of entities, property bags and properties is many times larger.
+ */
+public class ModelCodec {
+	private static final int VERSION = 3, OLDEST_VERSION = 2; //Version 3 added DOUBLE: version 2 encodings are still read
+	private static final int NULL = 0, TABLE = 1, STRING = 2, FALSE = 3, TRUE = 4, INTEGER = 5, FLOAT = 6, DOUBLE = 7; //The types of property values (the ones Property accepts)
+	private static final int SERIALIZED = 8; //Java serialization of any other value, written for a while by version 3: never read, as it could create objects of any class
+	private static final int COMPRESSION_THRESHOLD = 4096; //Models encoded in at least this number of bytes are compressed
+
+	/**
+	 * Writes a model.
+	 *
+	 * @param m the model
+	 * @param out the output
+	 * @throws IOException if the output fails, or the model contains values we cannot encode
+	 */
+	public static void write(Model m, DataOutput out) throws IOException {
+		Map<String, Integer> strings = new HashMap<String, Integer>();
+		List<String> stringTable = new ArrayList<String>();
+		collectStrings(m.getProperties(), strings, stringTable);
+		for (Entity e : m.getReactants()) {
+			addString(e.getId(), strings, stringTable);
+			collectStrings(e.getProperties(), strings, stringTable);
+		}
+		for (Entity e : m.getReactions()) {
+			addString(e.getId(), strings, stringTable);
+			collectStrings(e.getProperties(), strings, stringTable);
+		}
+
+		out.writeByte(VERSION);
+		BinaryEncoding.writeVarInt(out, stringTable.size());
+		for (String s : stringTable) {
+			out.writeUTF(s);
+		}
+		writeProperties(m.getProperties(), strings, out);
+		BinaryEncoding.writeVarInt(out, m.getReactants().size());
+		for (Entity e : m.getReactants()) {
+			writeString(e.getId(), strings, out);
+			writeProperties(e.getProperties(), strings, out);
+		}
+		BinaryEncoding.writeVarInt(out, m.getReactions().size());
+		for (Entity e : m.getReactions()) {
+			writeString(e.getId(), strings, out);
+			writeProperties(e.getProperties(), strings, out);
+		}
+	}
+
+	/**
+	 * Reads a model written by {@link #write(Model, DataOutput)}.
+	 *
+	 * @param in the input
+	 * @return the model
+	 * @throws IOException if the input fails or is not a model
+	 */
+	public static Model read(DataInput in) throws IOException {
+		int version = in.readUnsignedByte();
+		if (version < OLDEST_VERSION || version > VERSION) {
+			throw new IOException("Unknown model encoding version " + version);
+		}
+		String[] strings = new String[BinaryEncoding.readVarInt(in)];
+		for (int i = 0; i < strings.length; i++) {
+			strings[i] = in.readUTF();
+		}
+		Model m = new Model();
+		readProperties(m.getProperties(), strings, in);
+		int nReactants = BinaryEncoding.readVarInt(in);
+		for (int i = 0; i < nReactants; i++) {
+			Reactant r = new Reactant(readString(strings, in));
+			readProperties(r.getProperties(), strings, in);
+			m.add(r);
+		}
+		int nReactions = BinaryEncoding.readVarInt(in);
+		for (int i = 0; i < nReactions; i++) {
+			Reaction r = new Reaction(readString(strings, in));
+			readProperties(r.getProperties(), strings, in);
+			m.add(r);
+		}
+		return m;
+	}
+
+	/**
+	 * Encodes a model in an array of bytes.
+	 *
+	 * @param m the model
+	 * @return the encoded model
+	 */
+	public static byte[] encode(Model m) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream data = new DataOutputStream(bytes);
+			write(m, data);
+			data.close();
+			return bytes.toByteArray();
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to encode the model", e); //we write to memory, so only an unexpected property value can get us here
+		}
+	}
+
+	/**
+	 * Decodes a model encoded by {@link #encode(Model)}. Each call returns a new model.
+	 *
+	 * @param encoded the encoded model
+	 * @return the model
+	 * @throws IOException if the bytes are not a model
+	 */
+	public static Model decode(byte[] encoded) throws IOException {
+		return read(new DataInputStream(new ByteArrayInputStream(encoded)));
+	}
+
+	private static void addString(String s, Map<String, Integer> strings, List<String> stringTable) {
+		if (s != null && !strings.containsKey(s)) {
+			strings.put(s, stringTable.size());
+			stringTable.add(s);
+		}
+	}
+
+	private static void collectStrings(PropertyBag properties, Map<String, Integer> strings, List<String> stringTable) {
+		for (Property p : properties) {
+			addString(p.getName(), strings, stringTable);
+			if (!p.isNull() && p.isA(String.class)) {
+				addString(p.as(String.class), strings, stringTable);
+			}
+		}
+	}
+
+	/**
+	 * Strings are written as their index in the string table, plus one (0 is null).
+	 */
+	private static void writeString(String s, Map<String, Integer> strings, DataOutput out) throws IOException {
+		BinaryEncoding.writeVarInt(out, s == null ? 0 : strings.get(s) + 1);
+	}
+
+	private static String readString(String[] strings, DataInput in) throws IOException {
+		int index = BinaryEncoding.readVarInt(in);
+		if (index < 0 || index > strings.length) {
+			throw new IOException("Invalid string reference " + index);
+		}
+		return index == 0 ? null : strings[index - 1];
+	}
+
+	private static void writeProperties(PropertyBag properties, Map<String, Integer> strings, DataOutput out) throws IOException {
+		int count = 0;
+		for (@SuppressWarnings("unused") Property p : properties) {
+			count++;
+		}
+		BinaryEncoding.writeVarInt(out, count);
+		for (Property p : properties) {
+			writeString(p.getName(), strings, out);
+			if (p.isNull()) {
+				out.writeByte(NULL);
+			} else if (p.isA(Table.class)) {
+				out.writeByte(TABLE);
+				writeTable(p.as(Table.class), out);
+			} else if (p.isA(String.class)) {
+				out.writeByte(STRING);
+				writeString(p.as(String.class), strings, out);
+			} else if (p.isA(Boolean.class)) {
+				out.writeByte(p.as(Boolean.class) ? TRUE : FALSE);
+			} else if (p.isA(Integer.class)) {
+				out.writeByte(INTEGER);
+				BinaryEncoding.writeSignedVarLong(out, p.as(Integer.class));
+			} else if (p.isA(Float.class)) {
+				out.writeByte(FLOAT);
+				out.writeFloat(p.as(Float.class));
+			} else if (p.isA(Double.class)) {
+				out.writeByte(DOUBLE);
+				out.writeDouble(p.as(Double.class));
+			} else {
+				throw new IOException("Unable to encode the value of the property " + p);
+			}
+		}
+	}
+
+	private static void readProperties(PropertyBag properties, String[] strings, DataInput in) throws IOException {
+		int count = BinaryEncoding.readVarInt(in);
+		for (int i = 0; i < count; i++) {
+			Property p = properties.let(readString(strings, in));
+			int type = in.readUnsignedByte();
+			switch (type) {
+				case NULL:
+					p.set(null);
+					break;
+				case TABLE:
+					p.set(readTable(in));
+					break;
+				case STRING:
+					p.set(readString(strings, in));
+					break;
+				case FALSE:
+					p.set(Boolean.FALSE);
+					break;
+				case TRUE:
+					p.set(Boolean.TRUE);
+					break;
+				case INTEGER:
+					p.set((int) BinaryEncoding.readSignedVarLong(in));
+					break;
+				case FLOAT:
+					p.set(in.readFloat());
+					break;
+				case DOUBLE:
+					p.set(in.readDouble());
+					break;
+				case SERIALIZED:
+					throw new IOException("The value of the property " + p.getName() + " is a serialized Java object, which is not accepted");
+				default:
+					throw new IOException("Unknown property type " + type);
+			}
+		}
+	}
+
+	/**
+	 * Tables are written column by column, each value as the difference from the previous one.
+	 * The values are packed in an array of bytes, preceded by its length.
+	 */
+	public static void writeTable(Table t, DataOutput out) throws IOException {
+		int cols = t.getColumnCount();
+		BinaryEncoding.writeVarInt(out, cols);
+		if (cols == 0) return;
+		int rows = t.getRowCount();
+		BinaryEncoding.writeVarInt(out, rows);
+		byte[] packed = new byte[rows * cols * 5 + 10]; //the difference between two ints takes at most 5 bytes
+		int length = 0;
+		long previous = 0;
+		for (int[] column : t) {
+			for (int value : column) {
+				length = BinaryEncoding.putSignedVarLong(packed, length, value - previous);
+				previous = value;
+			}
+		}
+		BinaryEncoding.writeVarInt(out, length);
+		out.write(packed, 0, length);
+	}
+
+	public static Table readTable(DataInput in) throws IOException {
+		int cols = BinaryEncoding.readVarInt(in);
+		int rows = cols == 0 ? 0 : BinaryEncoding.readVarInt(in);
+		if (cols < 0 || rows < 0) {
+			throw new IOException("Invalid table size " + rows + "x" + cols);
+		}
+		Table t = new Table(rows, cols);
+		if (cols == 0) return t;
+		byte[] packed = new byte[BinaryEncoding.readVarInt(in)];
+		in.readFully(packed);
+		int position = 0;
+		long value = 0;
+		try {
+			for (int col = 0; col < cols; col++) {
+				for (int row = 0; row < rows; row++) {
+					long zigzag = 0;
+					int b, shift = 0;
+					do {
+						b = packed[position++];
+						zigzag |= (long) (b & 0x7F) << shift;
+						shift += 7;
+					} while ((b & 0x80) != 0);
+					value += (zigzag >>> 1) ^ -(zigzag & 1);
+					t.set(row, col, (int) value);
+				}
+			}
+		} catch (ArrayIndexOutOfBoundsException e) {
+			throw new IOException("Truncated table");
+		}
+		return t;
+	}
+
+	/**
+	 * What is actually serialized in place of a Model.
+	 */
+	public static class Wire implements Externalizable {
+		private static final long serialVersionUID = 7204958361095719203L;
+		private Model model;
+
+		public Wire() {
+			//needed by Externalizable
+		}
+
+		Wire(Model model) {
+			this.model = model;
+		}
+
+		@Override
+		public void writeExternal(ObjectOutput out) throws IOException {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream data = new DataOutputStream(bytes);
+			write(model, data);
+			data.close();
+			BinaryEncoding.writeBlock(out, bytes.toByteArray(), COMPRESSION_THRESHOLD);
+		}
+
+		@Override
+		public void readExternal(ObjectInput in) throws IOException {
+			model = read(new DataInputStream(BinaryEncoding.readBlock(in)));
+		}
+
+		private Object readResolve() throws ObjectStreamException {
+			return model;
+		}
+	}
+}
@@ -0,0 +1,165 @@
+package inat.model;
+
+import inat.util.Table;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The differences between two models with the same reactants and reactions:
+ * the properties which were changed, added or removed (e.g., the time tables of
+ * some reactions or the initial levels of some reactants).
+ * A delta is usually much smaller than a model, so it is what we send to a server
+ * which already knows the model we started from.
+ */
+public class ModelDelta implements Serializable {
+	private static final long serialVersionUID = -3861650725590141827L;
+
+	/**
+	 * The value of a property which was removed.
+	 */
+	private static class Removed implements Serializable {
+		private static final long serialVersionUID = 4917305528611650142L;
+	}
+
+	private final Map<String, Object> modelChanges = new HashMap<String, Object>(); //Property name -> new value
+	private final Map<String, Map<String, Object>> reactantChanges = new HashMap<String, Map<String, Object>>(), //Reactant id -> (property name -> new value)
+												   reactionChanges = new HashMap<String, Map<String, Object>>(); //Reaction id -> (property name -> new value)
+
+	private ModelDelta() {
+	}
+
+	/**
+	 * Compute the changes that turn a model into another.
+	 *
+	 * @param base the model we start from
+	 * @param m the model we want to obtain
+	 * @return the changes, or null if the two models do not have the same reactants
+	 *         and reactions (in that case a delta would not be much smaller than the model)
+	 */
+	public static ModelDelta between(Model base, Model m) {
+		if (!sameIds(base.getReactants(), m.getReactants()) || !sameIds(base.getReactions(), m.getReactions())) {
+			return null;
+		}
+		ModelDelta delta = new ModelDelta();
+		compare(base.getProperties(), m.getProperties(), delta.modelChanges);
+		for (Reactant r : m.getReactants()) {
+			Map<String, Object> changes = new HashMap<String, Object>();
+			compare(base.getReactant(r.getId()).getProperties(), r.getProperties(), changes);
+			if (!changes.isEmpty()) {
+				delta.reactantChanges.put(r.getId(), changes);
+			}
+		}
+		for (Reaction r : m.getReactions()) {
+			Map<String, Object> changes = new HashMap<String, Object>();
+			compare(base.getReaction(r.getId()).getProperties(), r.getProperties(), changes);
+			if (!changes.isEmpty()) {
+				delta.reactionChanges.put(r.getId(), changes);
+			}
+		}
+		return delta;
+	}
+
+	private static boolean sameIds(Iterable<? extends Entity> entities1, Iterable<? extends Entity> entities2) {
+		Set<String> ids = new HashSet<String>();
+		for (Entity e : entities1) {
+			ids.add(e.getId());
+		}
+		int count = 0;
+		for (Entity e : entities2) {
+			if (!ids.contains(e.getId())) {
+				return false;
+			}
+			count++;
+		}
+		return count == ids.size();
+	}
+
+	private static void compare(PropertyBag base, PropertyBag bag, Map<String, Object> changes) {
+		for (Property p : bag) {
+			Object value = p.as(Object.class);
+			Property old = base.get(p.getName());
+			if (old == null || !sameValue(old.as(Object.class), value)) {
+				changes.put(p.getName(), value);
+			}
+		}
+		for (Property p : base) {
+			if (!bag.has(p.getName())) {
+				changes.put(p.getName(), new Removed());
+			}
+		}
+	}
+
+	private static boolean sameValue(Object v1, Object v2) {
+		if (v1 == null || v2 == null) {
+			return v1 == v2;
+		}
+		if (v1 instanceof Table && v2 instanceof Table) { //Table does not define equals
+			Table t1 = (Table)v1, t2 = (Table)v2;
+			if (t1.getColumnCount() != t2.getColumnCount()) return false;
+			if (t1.getColumnCount() == 0) return true;
+			if (t1.getRowCount() != t2.getRowCount()) return false;
+			for (int row = 0; row < t1.getRowCount(); row++) {
+				for (int col = 0; col < t1.getColumnCount(); col++) {
+					if (t1.get(row, col) != t2.get(row, col)) return false;
+				}
+			}
+			return true;
+		}
+		return v1.equals(v2);
+	}
+
+	/**
+	 * Apply the changes to the given model (which should be a copy of the model
+	 * this delta was computed from).
+	 *
+	 * @param m the model to change
+	 */
+	public void applyTo(Model m) {
+		apply(modelChanges, m.getProperties());
+		for (Map.Entry<String, Map<String, Object>> changes : reactantChanges.entrySet()) {
+			Reactant r = m.getReactant(changes.getKey());
+			if (r != null) {
+				apply(changes.getValue(), r.getProperties());
+			}
+		}
+		for (Map.Entry<String, Map<String, Object>> changes : reactionChanges.entrySet()) {
+			Reaction r = m.getReaction(changes.getKey());
+			if (r != null) {
+				apply(changes.getValue(), r.getProperties());
+			}
+		}
+	}
+
+	private static void apply(Map<String, Object> changes, PropertyBag bag) {
+		for (Map.Entry<String, Object> change : changes.entrySet()) {
+			if (change.getValue() instanceof Removed) {
+				bag.remove(change.getKey());
+			} else {
+				bag.let(change.getKey()).set(change.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Returns true if the two models are the same.
+	 */
+	public boolean isEmpty() {
+		return modelChanges.isEmpty() && reactantChanges.isEmpty() && reactionChanges.isEmpty();
+	}
+
+	/**
+	 * Returns how many entities (reactants and reactions, plus the model itself) were changed.
+	 */
+	public int getChangedEntities() {
+		return (modelChanges.isEmpty() ? 0 : 1) + reactantChanges.size() + reactionChanges.size();
+	}
+
+	@Override
+	public String toString() {
+		return "ModelDelta[model: " + modelChanges.keySet() + ", reactants: " + reactantChanges.keySet() + ", reactions: " + reactionChanges.keySet() + "]";
+	}
+}
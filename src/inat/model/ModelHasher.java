@@ -0,0 +1,100 @@
+package inat.model;
+
+import inat.util.Table;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Computes a canonical hash of a model: two models which would give the same analysis
+ * results have the same hash, independently of the order in which their reactants and
+ * reactions were added. Only the properties which affect the analysis are taken into
+ * account (the identifiers, the number of levels, the initial levels, the groups, the enabled flags,
+ * the reaction types, increments and time tables): changing, for example, the alias of a
+ * reactant or whether it is plotted does not change the hash.
+ * The hash can be used as key to cache anything computed from a model.
+ */
+public class ModelHasher {
+	private static final String[] MODEL_PROPERTIES = { Model.Properties.NUMBER_OF_LEVELS },
+								  REACTANT_PROPERTIES = { Model.Properties.ENABLED, Model.Properties.NUMBER_OF_LEVELS, Model.Properties.INITIAL_LEVEL, Model.Properties.GROUP },
+								  REACTION_PROPERTIES = { Model.Properties.ENABLED, Model.Properties.REACTION_TYPE, Model.Properties.REACTANT, Model.Properties.CATALYST,
+														  Model.Properties.INCREMENT, Model.Properties.TIMES_LOWER, Model.Properties.TIMES_UPPER, Model.Properties.TIMES };
+	private static final Comparator<Entity> BY_ID = new Comparator<Entity>() {
+		@Override
+		public int compare(Entity e1, Entity e2) {
+			return e1.getId().compareTo(e2.getId());
+		}
+	};
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	/**
+	 * Compute the hash of the given model.
+	 *
+	 * @param m the model
+	 * @return the hash, as a string of hexadecimal digits
+	 */
+	public static String hash(Model m) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			writeProperties(out, m.getProperties(), MODEL_PROPERTIES);
+			List<Entity> reactants = new ArrayList<Entity>(m.getReactants());
+			Collections.sort(reactants, BY_ID);
+			out.writeInt(reactants.size());
+			for (Entity r : reactants) {
+				out.writeUTF(r.getId());
+				writeProperties(out, r.getProperties(), REACTANT_PROPERTIES);
+			}
+			List<Entity> reactions = new ArrayList<Entity>(m.getReactions());
+			Collections.sort(reactions, BY_ID);
+			out.writeInt(reactions.size());
+			for (Entity r : reactions) {
+				out.writeUTF(r.getId());
+				writeProperties(out, r.getProperties(), REACTION_PROPERTIES);
+			}
+			out.close();
+			byte[] digest = MessageDigest.getInstance("SHA-1").digest(bytes.toByteArray());
+			char[] result = new char[digest.length * 2];
+			for (int i = 0; i < digest.length; i++) {
+				result[2 * i] = HEX_DIGITS[(digest[i] >> 4) & 0x0F];
+				result[2 * i + 1] = HEX_DIGITS[digest[i] & 0x0F];
+			}
+			return new String(result);
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to compute the hash of the model", e); //cannot happen: we write to memory
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException("Unable to compute the hash of the model", e); //every Java platform is required to support SHA-1
+		}
+	}
+
+	private static void writeProperties(DataOutputStream out, PropertyBag properties, String[] names) throws IOException {
+		for (String name : names) {
+			Property p = properties.get(name);
+			if (p == null || p.isNull()) {
+				out.writeByte(0);
+			} else if (p.isA(Table.class)) {
+				Table t = p.as(Table.class);
+				out.writeByte(1);
+				out.writeInt(t.getRowCount());
+				out.writeInt(t.getColumnCount());
+				for (int row = 0; row < t.getRowCount(); row++) {
+					for (int col = 0; col < t.getColumnCount(); col++) {
+						out.writeInt(t.get(row, col));
+					}
+				}
+			} else {
+				Object value = p.as(Object.class);
+				out.writeByte(2);
+				out.writeUTF(value.getClass().getSimpleName());
+				out.writeUTF(value.toString());
+			}
+		}
+	}
+}
@@ -22,7 +22,7 @@ public class Property implements Serializable {
 	 * The array of accepted types.
 	 */
 	private static final Class<?>[] acceptedTypesArray = { Table.class, String.class, Boolean.class, Integer.class,
-			Float.class };
+			Float.class, Double.class };
 
 	/**
 	 * The {@link Set} containing all accepted property types.
@@ -115,10 +115,14 @@ public class Property implements Serializable {
 	 * 
 	 * @param <T> the type of the value
 	 * @param value the value itself
+	 * @throws IllegalArgumentException if the type of the value is not one of
+	 *             the accepted {@link #TYPES}
 	 */
 	public <T> void set(T value) {
-		assert value == null || isAccepted(value.getClass()) : "Property '" + this.name + "' value type <"
-				+ value.getClass().getCanonicalName() + "> is not allowed.";
+		if (value != null && !isAccepted(value.getClass())) {
+			throw new IllegalArgumentException("Property '" + this.name + "' value type <"
+					+ value.getClass().getCanonicalName() + "> is not allowed.");
+		}
 
 		this.value = value;
 	}
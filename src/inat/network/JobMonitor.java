@@ -0,0 +1,37 @@
+package inat.network;
+
+import cytoscape.task.TaskMonitor;
+
+/**
+ * Lets the analysers running on the server report their progress as they
+ * do in the user interface: the progress is saved in the job, where the
+ * client can ask for it.
+ */
+class JobMonitor implements TaskMonitor {
+	private final ScheduledJob job;
+
+	JobMonitor(ScheduledJob job) {
+		this.job = job;
+	}
+
+	@Override
+	public void setPercentCompleted(int percent) throws IllegalArgumentException {
+		job.setProgress(percent);
+	}
+
+	@Override
+	public void setEstimatedTimeRemaining(long time) {
+	}
+
+	@Override
+	public void setException(Throwable t, String userErrorMessage) {
+	}
+
+	@Override
+	public void setException(Throwable t, String userErrorMessage, String recoveryTip) {
+	}
+
+	@Override
+	public void setStatus(String message) {
+	}
+}
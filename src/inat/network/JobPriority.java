@@ -0,0 +1,34 @@
+package inat.network;
+
+/**
+ * The priority classes of the jobs submitted to the server, from the most to the
+ * least urgent. A job is started only when no job of a more urgent class is waiting,
+ * and a job made of many runs lets the more urgent jobs use its slot between two runs.
+ */
+public enum JobPriority {
+	INTERACTIVE, //A single simulation: someone is looking at the screen waiting for it
+	SMC, //A SMC query
+	BULK, //An average of many simulations, or a run which is part of one
+	DEFERRED; //A job which would take longer than the server is willing to wait (see JobScheduler.setCostLimits): it runs only when nobody else needs the slots
+
+	/**
+	 * Returns the class of a job, based on what it does.
+	 *
+	 * @param smc whether the job is a SMC query
+	 * @param nRuns how many runs the job needs
+	 * @return the priority of the job
+	 */
+	public static JobPriority of(boolean smc, int nRuns) {
+		if (smc) {
+			return SMC;
+		}
+		return nRuns > 1 ? BULK : INTERACTIVE;
+	}
+
+	/**
+	 * Returns true if this class is more urgent than the given one.
+	 */
+	public boolean isMoreUrgentThan(JobPriority other) {
+		return ordinal() < other.ordinal();
+	}
+}
@@ -0,0 +1,528 @@
+package inat.network;
+
+import inat.util.Metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Runs the jobs submitted to the server on a fixed number of worker threads (slots),
+ * so that the machine never runs more verifyta processes than it can handle: with more
+ * processes than processors, every analysis becomes slower and the total throughput falls.
+ * The jobs are divided in priority classes (see JobPriority): a job is started only when
+ * no job of a more urgent class is waiting. Inside a class, each client has its own FIFO queue.
+ * With the FAIR policy the slots are given to the clients in turn (so that a client submitting
+ * many jobs does not starve the others), while with the FIFO policy the jobs are started in
+ * the order in which they were submitted, whoever the client.
+ * A job made of many runs (e.g., an average) gives its slot to the more urgent jobs waiting
+ * between two of its runs, so that a single simulation does not need to wait for the end of
+ * a long average. A client can be limited to a given number of running jobs while other
+ * clients are waiting (setClientQuota), and the jobs which would take too long can be deferred
+ * or rejected (setCostLimits).
+ * The scheduler also estimates how long each queued job will have to wait, based on the
+ * average duration of the verifyta runs of the jobs completed so far.
+ * Finished jobs are kept for a while (RETENTION_TIME), so that their clients can collect
+ * the results even if they lose contact with the server for some time.
+ */
+public class JobScheduler {
+	public enum Policy {
+		FIFO, //The oldest job is started first
+		FAIR //The clients take turns
+	}
+
+	private static final double SMOOTHING = 0.3; //How much the duration of the last job counts in the average duration of a verifyta run
+	private static final long RETENTION_TIME = 60 * 60 * 1000; //How long (ms) we keep a finished job, waiting for its client to take the result
+
+	private final int slots; //How many jobs can run at the same time
+	private final Policy policy;
+	private final EnumMap<JobPriority, LinkedHashMap<String, LinkedList<ScheduledJob>>> queues = new EnumMap<JobPriority, LinkedHashMap<String, LinkedList<ScheduledJob>>>(JobPriority.class); //class -> (client -> its queued jobs). The order of the clients is the order in which they will be served
+	private final List<ScheduledJob> running = new ArrayList<ScheduledJob>();
+	private final List<ScheduledJob> paused = new ArrayList<ScheduledJob>(); //The jobs which have given their slot to a more urgent job
+	private final Map<Long, ScheduledJob> jobs = new HashMap<Long, ScheduledJob>(); //All the jobs which are queued, running, or finished not long ago
+	private final List<Thread> workers = new ArrayList<Thread>();
+	private long nextId = 1;
+	private double simulationRunTime = -1, //Average duration of a simulation run (ms), -1 if we do not know it yet
+				   smcRunTime = -1; //Average duration of a SMC query (ms)
+	private int clientQuota = 0; //How many jobs a client can run at the same time while other clients are waiting (0: no limit)
+	private long deferCost = 0, //Jobs expected to take longer than this (ms) are deferred (0: no limit)
+				 maxCost = 0; //Jobs expected to take longer than this (ms) are rejected (0: no limit)
+
+	/**
+	 * Create a scheduler and start its workers.
+	 *
+	 * @param slots how many jobs can run at the same time
+	 * @param policy how to choose the next job to start
+	 */
+	public JobScheduler(int slots, Policy policy) {
+		this.slots = Math.max(1, slots);
+		this.policy = policy;
+		for (JobPriority priority : JobPriority.values()) {
+			queues.put(priority, new LinkedHashMap<String, LinkedList<ScheduledJob>>());
+		}
+		for (int i = 0; i < this.slots; i++) {
+			Thread worker = new Thread("INAT worker " + (i + 1)) {
+				@Override
+				public void run() {
+					while (true) {
+						ScheduledJob job;
+						try {
+							job = takeNext();
+						} catch (InterruptedException ex) {
+							return;
+						}
+						job.run();
+						finished(job);
+					}
+				}
+			};
+			worker.setDaemon(true);
+			workers.add(worker);
+			worker.start();
+		}
+	}
+
+	public int getSlots() {
+		return slots;
+	}
+
+	public Policy getPolicy() {
+		return policy;
+	}
+
+	/**
+	 * Limit the number of jobs of the same client running at the same time. The limit
+	 * applies only when the jobs of other clients are waiting: a client alone on the server
+	 * can use all the slots.
+	 *
+	 * @param clientQuota the maximum number of running jobs per client (0 for no limit)
+	 */
+	public synchronized void setClientQuota(int clientQuota) {
+		this.clientQuota = Math.max(0, clientQuota);
+	}
+
+	/**
+	 * Set how long a job can be expected to take (based on the average duration of the
+	 * runs of the previous jobs) before it is deferred (i.e., it runs only when no other
+	 * job is waiting) or rejected.
+	 *
+	 * @param deferCost the expected duration (ms) over which a job is deferred (0 for no limit)
+	 * @param maxCost the expected duration (ms) over which a job is rejected (0 for no limit)
+	 */
+	public synchronized void setCostLimits(long deferCost, long maxCost) {
+		this.deferCost = Math.max(0, deferCost);
+		this.maxCost = Math.max(0, maxCost);
+	}
+
+	/**
+	 * Returns how many more jobs could be started right now without waiting:
+	 * the slots not used by running jobs, minus the jobs already queued.
+	 *
+	 * @return the number of free slots (0 if jobs are waiting)
+	 */
+	public synchronized int getFreeSlots() {
+		return Math.max(0, slots - running.size() - getQueueLength());
+	}
+
+	/**
+	 * Returns how many jobs are waiting in the queues.
+	 */
+	public synchronized int getQueueLength() {
+		int queued = 0;
+		for (LinkedHashMap<String, LinkedList<ScheduledJob>> clientQueues : queues.values()) {
+			for (LinkedList<ScheduledJob> queue : clientQueues.values()) {
+				queued += queue.size();
+			}
+		}
+		return queued;
+	}
+
+	/**
+	 * Returns how many jobs are running (i.e., how many slots are in use).
+	 */
+	public synchronized int getRunningCount() {
+		return running.size();
+	}
+
+	/**
+	 * Put a job in the queue of its client, in its priority class.
+	 *
+	 * @param job the job
+	 * @return the status of the job just after its submission
+	 * @throws Exception if the job is expected to take longer than the maximum allowed
+	 */
+	public synchronized JobStatus submit(final ScheduledJob job) throws Exception {
+		purge();
+		long cost = estimatedDuration(job);
+		if (maxCost > 0 && cost > maxCost) {
+			Metrics.get().increment(Metrics.JOBS_REJECTED);
+			throw new Exception("The analysis would take about " + describeDuration(cost) + " of server time, more than the " + describeDuration(maxCost) + " allowed. Please reduce the number of runs or the simulation time.");
+		}
+		if (deferCost > 0 && cost > deferCost) {
+			job.lowerPriority(JobPriority.DEFERRED);
+			Metrics.get().increment(Metrics.JOBS_DEFERRED);
+		}
+		job.setSubmitted(nextId++);
+		job.getAnalysisJob().setYieldHandler(new Runnable() {
+			@Override
+			public void run() {
+				runMoreUrgent(job);
+			}
+		});
+		jobs.put(job.getId(), job);
+		LinkedHashMap<String, LinkedList<ScheduledJob>> clientQueues = queues.get(job.getPriority());
+		LinkedList<ScheduledJob> queue = clientQueues.get(job.getClient());
+		if (queue == null) {
+			queue = new LinkedList<ScheduledJob>();
+			clientQueues.put(job.getClient(), queue);
+		}
+		queue.add(job);
+		notifyAll();
+		return getStatus(job);
+	}
+
+	private static String describeDuration(long ms) {
+		if (ms < 2 * 60 * 1000) {
+			return Math.round(ms / 1000.0) + " s";
+		}
+		return Math.round(ms / 60000.0) + " min.";
+	}
+
+	/**
+	 * Returns a job submitted not long ago.
+	 *
+	 * @param id the identifier of the job
+	 * @return the job, or null if there is no such job (or it finished too long ago)
+	 */
+	public synchronized ScheduledJob getJob(long id) {
+		purge();
+		return jobs.get(id);
+	}
+
+	/**
+	 * Forget the jobs which have been finished for longer than RETENTION_TIME.
+	 */
+	private void purge() {
+		long now = System.currentTimeMillis();
+		for (Iterator<ScheduledJob> it = jobs.values().iterator(); it.hasNext(); ) {
+			ScheduledJob job = it.next();
+			if (job.isFinished() && now - job.getEndTime() > RETENTION_TIME) {
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Cancel a job, removing it from the queue if it was not started yet.
+	 *
+	 * @param job the job
+	 */
+	public void cancel(ScheduledJob job) {
+		synchronized (this) {
+			LinkedHashMap<String, LinkedList<ScheduledJob>> clientQueues = queues.get(job.getPriority());
+			LinkedList<ScheduledJob> queue = clientQueues.get(job.getClient());
+			if (queue != null) {
+				queue.remove(job);
+				if (queue.isEmpty()) {
+					clientQueues.remove(job.getClient());
+				}
+			}
+		}
+		job.cancel();
+	}
+
+	/**
+	 * Stop the workers. The jobs already running are cancelled, and the queued ones are never started.
+	 */
+	public void shutdown() {
+		List<ScheduledJob> toCancel = new ArrayList<ScheduledJob>();
+		synchronized (this) {
+			for (LinkedHashMap<String, LinkedList<ScheduledJob>> clientQueues : queues.values()) {
+				for (LinkedList<ScheduledJob> queue : clientQueues.values()) {
+					toCancel.addAll(queue);
+				}
+				clientQueues.clear();
+			}
+			toCancel.addAll(running);
+			toCancel.addAll(paused);
+		}
+		for (ScheduledJob job : toCancel) {
+			job.cancel();
+		}
+		for (Thread worker : workers) {
+			worker.interrupt();
+		}
+	}
+
+	/**
+	 * Returns how many jobs of the given client are running.
+	 */
+	private int runningJobs(String client) {
+		int count = 0;
+		for (ScheduledJob job : running) {
+			if (job.getClient().equals(client)) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Take the next job from the queues of the given class, according to the policy.
+	 *
+	 * @param clientQueues the queues of the class
+	 * @param respectQuota if true, the clients which have already clientQuota running jobs are skipped
+	 * @return the job (already removed from its queue), or null if there is no suitable job
+	 */
+	private ScheduledJob take(LinkedHashMap<String, LinkedList<ScheduledJob>> clientQueues, boolean respectQuota) {
+		ScheduledJob job = null;
+		String client = null;
+		for (Map.Entry<String, LinkedList<ScheduledJob>> entry : clientQueues.entrySet()) {
+			if (respectQuota && clientQuota > 0 && runningJobs(entry.getKey()) >= clientQuota) continue;
+			if (policy == Policy.FAIR) { //the first client in line
+				client = entry.getKey();
+				break;
+			}
+			if (job == null || entry.getValue().getFirst().getId() < job.getId()) {
+				job = entry.getValue().getFirst();
+				client = entry.getKey();
+			}
+		}
+		if (client == null) return null;
+		LinkedList<ScheduledJob> queue = clientQueues.remove(client);
+		job = queue.removeFirst();
+		if (!queue.isEmpty()) {
+			clientQueues.put(client, queue); //the client goes to the end of the line
+		}
+		return job;
+	}
+
+	/**
+	 * Take the next job to start, from the most urgent class which has a suitable job,
+	 * and mark it as running.
+	 *
+	 * @param moreUrgentThan only the jobs more urgent than this are taken (null to take any job)
+	 * @param respectQuota if true, the clients which have already clientQuota running jobs are skipped
+	 * @return the job, or null if there is no suitable job
+	 */
+	private ScheduledJob startNext(JobPriority moreUrgentThan, boolean respectQuota) {
+		for (JobPriority priority : JobPriority.values()) {
+			if (moreUrgentThan != null && !priority.isMoreUrgentThan(moreUrgentThan)) break;
+			ScheduledJob job;
+			while ((job = take(queues.get(priority), respectQuota)) != null) {
+				if (job.start()) { //otherwise, it was cancelled while waiting
+					running.add(job);
+					return job;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Wait for a job to be available and take it from the queues. The client quotas are
+	 * respected as long as some other client has a job waiting: no slot is left idle
+	 * because of a quota.
+	 */
+	private synchronized ScheduledJob takeNext() throws InterruptedException {
+		while (true) {
+			ScheduledJob job = startNext(null, true);
+			if (job == null) {
+				job = startNext(null, false);
+			}
+			if (job != null) {
+				return job;
+			}
+			wait();
+		}
+	}
+
+	/**
+	 * Called between two runs of a job (on the thread of its worker): while more urgent
+	 * jobs are waiting, run them in the slot of the job, which then continues.
+	 *
+	 * @param current the job which is running
+	 */
+	private void runMoreUrgent(ScheduledJob current) {
+		while (!current.isFinished()) {
+			ScheduledJob urgent;
+			synchronized (this) {
+				urgent = startNext(current.getPriority(), true);
+				if (urgent == null) return;
+				running.remove(current);
+				paused.add(current);
+			}
+			current.pause();
+			Metrics.get().increment(Metrics.JOBS_PREEMPTED);
+			try {
+				urgent.run();
+				finished(urgent);
+			} finally {
+				synchronized (this) {
+					paused.remove(current);
+					running.add(current);
+				}
+				current.resume();
+			}
+		}
+	}
+
+	/**
+	 * Free the slot of a job and update our estimation of the duration of the verifyta runs.
+	 */
+	private synchronized void finished(ScheduledJob job) {
+		running.remove(job);
+		if (job.getState() != JobStatus.State.DONE || job.getNRuns() < 1) return;
+		double runTime = (double)job.getActiveTime() / job.getNRuns();
+		if (job.isSMC()) {
+			smcRunTime = smcRunTime < 0 ? runTime : (1 - SMOOTHING) * smcRunTime + SMOOTHING * runTime;
+		} else {
+			simulationRunTime = simulationRunTime < 0 ? runTime : (1 - SMOOTHING) * simulationRunTime + SMOOTHING * runTime;
+		}
+	}
+
+	/**
+	 * Returns the order in which the queued jobs will be started, if no other job is
+	 * submitted (and without considering the client quotas).
+	 */
+	private List<ScheduledJob> dispatchOrder() {
+		List<ScheduledJob> order = new ArrayList<ScheduledJob>();
+		for (LinkedHashMap<String, LinkedList<ScheduledJob>> clientQueues : queues.values()) { //in order of priority
+			List<ScheduledJob> classOrder = new ArrayList<ScheduledJob>();
+			if (policy == Policy.FAIR) {
+				List<Iterator<ScheduledJob>> turns = new ArrayList<Iterator<ScheduledJob>>();
+				for (LinkedList<ScheduledJob> queue : clientQueues.values()) {
+					turns.add(queue.iterator());
+				}
+				boolean found = true;
+				while (found) {
+					found = false;
+					for (Iterator<ScheduledJob> turn : turns) {
+						if (turn.hasNext()) {
+							classOrder.add(turn.next());
+							found = true;
+						}
+					}
+				}
+			} else {
+				for (LinkedList<ScheduledJob> queue : clientQueues.values()) {
+					classOrder.addAll(queue);
+				}
+				Collections.sort(classOrder, new Comparator<ScheduledJob>() {
+					@Override
+					public int compare(ScheduledJob j1, ScheduledJob j2) {
+						return j1.getId() < j2.getId() ? -1 : (j1.getId() > j2.getId() ? 1 : 0);
+					}
+				});
+			}
+			order.addAll(classOrder);
+		}
+		return order;
+	}
+
+	/**
+	 * The expected duration of a single run of a job (ms), or -1 if we cannot tell.
+	 */
+	private double estimatedRunTime(ScheduledJob job) {
+		return job.isSMC() ? smcRunTime : simulationRunTime;
+	}
+
+	/**
+	 * The expected duration (ms) of a job, or -1 if we cannot tell.
+	 */
+	private long estimatedDuration(ScheduledJob job) {
+		double runTime = estimatedRunTime(job);
+		if (runTime < 0) return -1;
+		return (long)(runTime * Math.max(1, job.getNRuns()));
+	}
+
+	/**
+	 * Returns the status of a job: if it is queued, how many jobs will be started before
+	 * it, and how long it will have to wait. The waiting time is estimated by giving the jobs
+	 * ahead of it to the slots as soon as they become free. A running job with many runs and
+	 * less urgent than the job frees its slot at the end of its current run.
+	 *
+	 * @param job the job
+	 * @return the status of the job
+	 */
+	public synchronized JobStatus getStatus(ScheduledJob job) {
+		JobStatus.State state = job.getState();
+		if (state != JobStatus.State.QUEUED) {
+			return new JobStatus(job.getId(), state, -1, slots, 0, job.getProgress());
+		}
+		List<ScheduledJob> order = dispatchOrder();
+		int position = order.indexOf(job);
+		if (position < 0) { //being taken by a worker right now
+			return new JobStatus(job.getId(), state, 0, slots, 0, -1);
+		}
+		PriorityQueue<Long> freeSlots = new PriorityQueue<Long>(); //When each slot will be free
+		long now = System.currentTimeMillis(), estimatedWait = 0;
+		for (ScheduledJob r : running) {
+			long duration = estimatedDuration(r);
+			if (duration < 0) {
+				estimatedWait = -1;
+				break;
+			}
+			long remaining = Math.max(0, duration - r.getActiveTime());
+			if (r.getNRuns() > 1 && job.getPriority().isMoreUrgentThan(r.getPriority())) {
+				remaining = Math.min(remaining, (long)estimatedRunTime(r)); //it will give us its slot after the current run
+			}
+			freeSlots.add(remaining);
+		}
+		for (int i = 0; i < position && estimatedWait >= 0; i++) {
+			long duration = estimatedDuration(order.get(i));
+			if (duration < 0) {
+				estimatedWait = -1;
+				break;
+			}
+			while (freeSlots.size() < slots) {
+				freeSlots.add(0L);
+			}
+			freeSlots.add(freeSlots.poll() + duration);
+		}
+		if (estimatedWait >= 0) {
+			while (freeSlots.size() < slots) {
+				freeSlots.add(0L);
+			}
+			estimatedWait = freeSlots.poll();
+		}
+		return new JobStatus(job.getId(), state, position, slots, estimatedWait, -1);
+	}
+
+	/**
+	 * Returns the status of all the jobs of a client which are not finished yet.
+	 *
+	 * @param client the client
+	 * @return the status of the jobs (running first, then queued)
+	 */
+	public synchronized List<JobStatus> getStatus(String client) {
+		List<JobStatus> result = new ArrayList<JobStatus>();
+		for (ScheduledJob job : running) {
+			if (job.getClient().equals(client)) {
+				result.add(getStatus(job));
+			}
+		}
+		for (ScheduledJob job : paused) {
+			if (job.getClient().equals(client)) {
+				result.add(getStatus(job));
+			}
+		}
+		for (LinkedHashMap<String, LinkedList<ScheduledJob>> clientQueues : queues.values()) {
+			LinkedList<ScheduledJob> queue = clientQueues.get(client);
+			if (queue != null) {
+				for (ScheduledJob job : queue) {
+					result.add(getStatus(job));
+				}
+			}
+		}
+		return result;
+	}
+}
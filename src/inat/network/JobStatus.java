@@ -0,0 +1,88 @@
+package inat.network;
+
+import java.io.Serializable;
+
+/**
+ * The state of a job submitted to the server, as seen by the client:
+ * where the job is in the queue and how long it will probably have to wait.
+ */
+public class JobStatus implements Serializable {
+	private static final long serialVersionUID = -4187046630187313094L;
+
+	public enum State {
+		QUEUED, //Waiting for a free slot
+		RUNNING, //Being analysed
+		DONE, //The result is ready
+		FAILED, //The analysis ended with an error
+		CANCELLED //The job was cancelled before it could end
+	}
+
+	private final long jobId;
+	private final State state;
+	private final int position, //How many jobs will be started before this one (only when the job is queued)
+					  slots, //How many jobs the server can run at the same time
+					  progress; //Percentage of the analysis done (only when the job is running, -1 if we do not know)
+	private final long estimatedWait; //How many milliseconds before the job is started (-1 if we do not know)
+
+	public JobStatus(long jobId, State state, int position, int slots, long estimatedWait, int progress) {
+		this.jobId = jobId;
+		this.state = state;
+		this.position = position;
+		this.slots = slots;
+		this.estimatedWait = estimatedWait;
+		this.progress = progress;
+	}
+
+	public long getJobId() {
+		return jobId;
+	}
+
+	public State getState() {
+		return state;
+	}
+
+	public int getPosition() {
+		return position;
+	}
+
+	public int getSlots() {
+		return slots;
+	}
+
+	public long getEstimatedWait() {
+		return estimatedWait;
+	}
+
+	public int getProgress() {
+		return progress;
+	}
+
+	public boolean isFinished() {
+		return state == State.DONE || state == State.FAILED || state == State.CANCELLED;
+	}
+
+	public String toString() {
+		switch (state) {
+			case QUEUED:
+				String result = "Waiting in the server queue: " + (position == 0 ? "next to start" : position + " job" + (position != 1 ? "s" : "") + " before us");
+				if (estimatedWait >= 0) {
+					if (estimatedWait < 60000) {
+						result += " (less than a minute)";
+					} else {
+						result += " (about " + Math.round(estimatedWait / 60000.0) + " min.)";
+					}
+				}
+				return result;
+			case RUNNING:
+				return "Analysing on the server" + (progress >= 0 ? " (" + progress + "%)" : "");
+			case DONE:
+				return "Analysis done";
+			case FAILED:
+				return "Analysis failed";
+			case CANCELLED:
+				return "Analysis cancelled";
+			default:
+				return state.toString();
+		}
+	}
+}
@@ -0,0 +1,14 @@
+package inat.network;
+
+/**
+ * Is told the status of a job submitted to the server every time the client asks for it.
+ */
+public interface JobStatusListener {
+	
+	/**
+	 * The status of the job has been received from the server.
+	 * 
+	 * @param status the current status of the job
+	 */
+	public void jobStatusChanged(JobStatus status);
+}
@@ -0,0 +1,97 @@
+package inat.network;
+
+import inat.model.Model;
+import inat.model.ModelCodec;
+import inat.model.ModelDelta;
+import inat.model.ModelHasher;
+import inat.util.Metrics;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The models uploaded to the server, so that the clients can refer to them by
+ * their hash (see ModelHasher) instead of sending them again with each request.
+ * The models are kept in their encoded form (see ModelCodec), and each request
+ * gets its own copy: the analysers may change the model they are given.
+ * When the store is full, the least recently used models are forgotten: a client
+ * referring to one of them gets an UnknownModelException, and uploads it again.
+ */
+class ModelStore {
+	private final long maxSize; //The maximum total size (in bytes) of the encoded models
+	private long size = 0;
+	private final LinkedHashMap<String, byte[]> models = new LinkedHashMap<String, byte[]>(16, 0.75f, true); //In access order: the first is the least recently used
+
+	/**
+	 * @param maxSize the maximum total size (in bytes) of the models we keep
+	 */
+	ModelStore(long maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Keep the given model.
+	 *
+	 * @param m the model
+	 * @return the hash with which the model can be retrieved
+	 */
+	synchronized String put(Model m) {
+		String hash = ModelHasher.hash(m);
+		if (!models.containsKey(hash)) {
+			byte[] encoded = ModelCodec.encode(m);
+			models.put(hash, encoded);
+			size += encoded.length;
+			Metrics.get().increment(Metrics.MODELS_UPLOADED);
+			Iterator<Map.Entry<String, byte[]>> oldest = models.entrySet().iterator();
+			while (size > maxSize && models.size() > 1) { //the model we have just added is always kept
+				size -= oldest.next().getValue().length;
+				oldest.remove();
+			}
+		} else {
+			models.get(hash); //it is now the most recently used
+		}
+		return hash;
+	}
+
+	/**
+	 * Returns a new copy of the model with the given hash, with the given changes applied.
+	 *
+	 * @param hash the hash of the model
+	 * @param delta the changes to apply to the model (can be null)
+	 * @return the model
+	 * @throws UnknownModelException if we do not have (anymore) the model
+	 */
+	Model get(String hash, ModelDelta delta) throws UnknownModelException {
+		byte[] encoded;
+		synchronized (this) {
+			encoded = models.get(hash);
+		}
+		if (encoded == null) {
+			Metrics.get().increment(Metrics.MODEL_STORE_MISSES);
+			throw new UnknownModelException(hash);
+		}
+		try {
+			Model m = ModelCodec.decode(encoded);
+			if (delta != null) {
+				delta.applyTo(m);
+			}
+			return m;
+		} catch (IOException e) {
+			throw new RuntimeException("The stored model " + hash + " is corrupted", e); //we have encoded it ourselves
+		}
+	}
+
+	synchronized boolean contains(String hash) {
+		return models.containsKey(hash);
+	}
+
+	synchronized int getModelCount() {
+		return models.size();
+	}
+
+	synchronized long getSize() {
+		return size;
+	}
+}
@@ -0,0 +1,299 @@
+package inat.network;
+
+import inat.analyser.AnalysisJob;
+import inat.analyser.PartialResultListener;
+import inat.util.Metrics;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * A request made to the server, waiting in the queue of the JobScheduler or
+ * being analysed by one of its workers.
+ * While it runs, the job collects its progress and the partial results produced
+ * by the analyser, so that the client can ask for them at any time.
+ */
+public abstract class ScheduledJob implements PartialResultListener {
+	private final String client; //Who submitted the job: used to share the slots fairly between clients
+	private final String description; //What we write in the log
+	private final int nRuns; //How many verifyta runs the job needs: used to estimate how long it will take
+	private final boolean smc; //SMC queries and simulations take different times, so they are estimated separately
+	private final AnalysisJob analysisJob = new AnalysisJob(); //Allows to cancel the analysis
+	private long id = -1; //Given by the scheduler
+	private JobStatus.State state = JobStatus.State.QUEUED;
+	private Object result = null;
+	private Exception exception = null;
+	private JobPriority priority; //Decides which jobs are started first
+	private long submitTime, startTime, endTime;
+	private long pausedTime = 0, pauseStart = -1; //How long (ms) the job has been paused to let more urgent jobs run, and since when it is paused now
+	private int progress = -1; //Percentage of the analysis done (-1 if we do not know)
+	private Map<String, TreeMap<Double, Double>> partialResult = new HashMap<String, TreeMap<Double, Double>>(); //The points produced so far by the analysis (only for single simulation runs)
+
+	public ScheduledJob(String client, String description, int nRuns, boolean smc) {
+		this.client = client;
+		this.description = description;
+		this.nRuns = nRuns;
+		this.smc = smc;
+		this.priority = JobPriority.of(smc, nRuns);
+	}
+
+	/**
+	 * Perform the analysis.
+	 *
+	 * @param job the analysis job, to be given to the analysers so that the analysis can be cancelled
+	 * @return the result of the analysis
+	 * @throws Exception if the analysis fails
+	 */
+	protected abstract Object execute(AnalysisJob job) throws Exception;
+
+	/**
+	 * Run the job in the current thread (called by the worker of the scheduler).
+	 */
+	void run() {
+		Object result = null;
+		Exception exception = null;
+		try {
+			result = execute(analysisJob);
+		} catch (Exception ex) {
+			exception = ex;
+		}
+		synchronized (this) {
+			this.endTime = System.currentTimeMillis();
+			this.result = result;
+			this.exception = exception;
+			if (analysisJob.isCancelled()) {
+				state = JobStatus.State.CANCELLED;
+			} else if (exception != null) {
+				state = JobStatus.State.FAILED;
+			} else {
+				state = JobStatus.State.DONE;
+			}
+			notifyAll();
+		}
+		analysisJob.addTime(Metrics.JOB_TIME, getActiveTime() * 1000);
+		countFinished();
+	}
+
+	/**
+	 * Count the job in the Metrics, according to how it ended.
+	 */
+	private void countFinished() {
+		switch (getState()) {
+			case DONE:
+				Metrics.get().increment(Metrics.JOBS_DONE);
+				break;
+			case FAILED:
+				Metrics.get().increment(Metrics.JOBS_FAILED);
+				break;
+			case CANCELLED:
+				Metrics.get().increment(Metrics.JOBS_CANCELLED);
+				break;
+			default:
+				break;
+		}
+	}
+
+	/**
+	 * Wait for the job to end.
+	 *
+	 * @return the result of the analysis
+	 * @throws Exception the exception thrown by the analysis
+	 */
+	public synchronized Object waitForResult() throws Exception {
+		while (!isFinished()) {
+			wait();
+		}
+		if (exception != null) {
+			throw exception;
+		}
+		if (state == JobStatus.State.CANCELLED) {
+			throw new Exception("The analysis was cancelled");
+		}
+		return result;
+	}
+
+	/**
+	 * Cancel the job: if it is still in the queue, it will never be started.
+	 */
+	public void cancel() {
+		synchronized (this) {
+			if (isFinished()) return;
+			if (state == JobStatus.State.QUEUED) {
+				state = JobStatus.State.CANCELLED;
+				endTime = System.currentTimeMillis();
+				Metrics.get().increment(Metrics.JOBS_CANCELLED);
+				notifyAll();
+			}
+		}
+		analysisJob.cancel();
+	}
+
+	/**
+	 * Returns the result of the job without waiting for it.
+	 *
+	 * @return the result of the analysis, or null if the job is not finished yet
+	 * @throws Exception the exception thrown by the analysis, or an exception saying that the job was cancelled
+	 */
+	public synchronized Object getResult() throws Exception {
+		if (!isFinished()) {
+			return null;
+		}
+		return waitForResult();
+	}
+
+	/**
+	 * Called by the analyser: add the new points to the partial result.
+	 */
+	@Override
+	public synchronized void partialResultAvailable(Map<String, SortedMap<Double, Double>> newPoints, int currentTime, int timeTo) {
+		for (String id : newPoints.keySet()) {
+			TreeMap<Double, Double> points = partialResult.get(id);
+			if (points == null) {
+				points = new TreeMap<Double, Double>();
+				partialResult.put(id, points);
+			}
+			points.putAll(newPoints.get(id));
+		}
+		if (timeTo > 0) {
+			progress = (int)Math.min(100, 100.0 * currentTime / timeTo);
+		}
+	}
+
+	/**
+	 * Returns the points of the partial result which come after the given times.
+	 * The reactants do not all get their points at the same time, so each has its own.
+	 *
+	 * @param since the time of the last point already known by the client, for each reactant (all the points are returned for the reactants which are not there)
+	 * @return the new points, divided by reactant
+	 */
+	public synchronized Map<String, SortedMap<Double, Double>> getPartialResult(Map<String, Double> since) {
+		Map<String, SortedMap<Double, Double>> result = new HashMap<String, SortedMap<Double, Double>>();
+		for (String id : partialResult.keySet()) {
+			Double last = since.get(id);
+			SortedMap<Double, Double> points = last == null ? partialResult.get(id) : partialResult.get(id).tailMap(last, false);
+			if (!points.isEmpty()) {
+				result.put(id, new TreeMap<Double, Double>(points));
+			}
+		}
+		return result;
+	}
+
+	public synchronized void setProgress(int progress) {
+		this.progress = progress;
+	}
+
+	public synchronized int getProgress() {
+		return progress;
+	}
+
+	public synchronized boolean isFinished() {
+		return state == JobStatus.State.DONE || state == JobStatus.State.FAILED || state == JobStatus.State.CANCELLED;
+	}
+
+	/**
+	 * Called by the scheduler when a worker takes the job.
+	 *
+	 * @return false if the job has been cancelled in the meantime
+	 */
+	synchronized boolean start() {
+		if (state != JobStatus.State.QUEUED) return false;
+		state = JobStatus.State.RUNNING;
+		startTime = System.currentTimeMillis();
+		analysisJob.addTime(Metrics.QUEUE_WAIT, (startTime - submitTime) * 1000);
+		Metrics.get().record(Metrics.QUEUE_WAIT + " of " + priority.toString().toLowerCase() + " jobs", (startTime - submitTime) * 1000);
+		return true;
+	}
+
+	/**
+	 * Called by the scheduler when the job gives its slot to a more urgent job.
+	 */
+	synchronized void pause() {
+		pauseStart = System.currentTimeMillis();
+	}
+
+	/**
+	 * Called by the scheduler when the job gets its slot back.
+	 */
+	synchronized void resume() {
+		if (pauseStart >= 0) {
+			pausedTime += System.currentTimeMillis() - pauseStart;
+			pauseStart = -1;
+		}
+	}
+
+	/**
+	 * Returns how long (ms) the job has been using its slot: the time since its start,
+	 * without the time in which it was paused.
+	 */
+	public synchronized long getActiveTime() {
+		if (state == JobStatus.State.QUEUED || (state == JobStatus.State.CANCELLED && startTime == 0)) {
+			return 0;
+		}
+		long end = isFinished() ? endTime : System.currentTimeMillis();
+		long paused = pausedTime + (pauseStart >= 0 ? end - pauseStart : 0);
+		return end - startTime - paused;
+	}
+
+	public synchronized JobPriority getPriority() {
+		return priority;
+	}
+
+	/**
+	 * Move the job to a less urgent class (a job is never made more urgent than what it does).
+	 *
+	 * @param priority the new class. If it is more urgent than the current one, nothing changes
+	 */
+	public synchronized void lowerPriority(JobPriority priority) {
+		if (this.priority.isMoreUrgentThan(priority)) {
+			this.priority = priority;
+		}
+	}
+
+	synchronized void setSubmitted(long id) {
+		this.id = id;
+		this.submitTime = System.currentTimeMillis();
+		Metrics.get().increment(Metrics.JOBS_SUBMITTED);
+	}
+
+	public long getId() {
+		return id;
+	}
+
+	public String getClient() {
+		return client;
+	}
+
+	public String getDescription() {
+		return description;
+	}
+
+	public int getNRuns() {
+		return nRuns;
+	}
+
+	public boolean isSMC() {
+		return smc;
+	}
+
+	public AnalysisJob getAnalysisJob() {
+		return analysisJob;
+	}
+
+	public synchronized JobStatus.State getState() {
+		return state;
+	}
+
+	public synchronized long getSubmitTime() {
+		return submitTime;
+	}
+
+	public synchronized long getStartTime() {
+		return startTime;
+	}
+
+	public synchronized long getEndTime() {
+		return endTime;
+	}
+}
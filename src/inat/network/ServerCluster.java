@@ -0,0 +1,354 @@
+package inat.network;
+
+import inat.analyser.AnalysisException;
+import inat.analyser.AnalysisJob;
+import inat.analyser.LevelResult;
+import inat.analyser.SMCResult;
+import inat.analyser.uppaal.ResultAverager;
+import inat.analyser.uppaal.SimpleLevelResult;
+import inat.model.Model;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+import cytoscape.task.TaskMonitor;
+
+/**
+ * Uses a group of servers as if they were a single one. The runs of an average
+ * are taken one by one from a common pool by all the servers: each server works
+ * on as many runs at the same time as the free slots it advertises, and takes a new
+ * run as soon as it finishes one, so that faster (or less loaded) servers do more
+ * runs. A run which fails on a server goes back to the pool to be done by another
+ * server, and a server which keeps failing is not used anymore.
+ * The results of the runs are averaged as in a local analysis (see ResultAverager).
+ * The clients of the servers are kept from one cluster to the next, so that a
+ * server is sent only the changes to the model we uploaded to it last time.
+ */
+public class ServerCluster {
+	private static final int MAX_SERVER_FAILURES = 3, //After how many failures in a row we stop using a server
+							 MAX_RUN_ATTEMPTS = 3; //After how many failures of the same run we give up (the problem is probably the model, not the servers)
+	private static final long WORKERS_STOP_TIMEOUT = 10000; //How long (ms) we wait for the workers to cancel their runs on the servers when the average is over
+
+	private static final Map<String, UPPAALClient> knownClients = new HashMap<String, UPPAALClient>(); //"host:port" -> the client we used last time for that server
+
+	private final List<UPPAALClient> clients = new ArrayList<UPPAALClient>();
+
+	/**
+	 * Connect to the given servers. The servers which cannot be reached are ignored.
+	 *
+	 * @param servers the servers, as a list of "host" or "host:port" separated by commas or spaces
+	 * @param defaultPort the port to use for the servers given without port
+	 * @throws Exception if none of the servers can be reached
+	 */
+	public ServerCluster(String servers, int defaultPort) throws Exception {
+		Exception lastError = null;
+		for (String server : parseServers(servers)) {
+			String host = server;
+			int port = defaultPort;
+			int separator = server.lastIndexOf(':');
+			if (separator > 0) {
+				host = server.substring(0, separator);
+				try {
+					port = Integer.parseInt(server.substring(separator + 1));
+				} catch (NumberFormatException ex) {
+					throw new Exception("Invalid port number for the server " + server, ex);
+				}
+			}
+			try {
+				clients.add(client(host, port));
+			} catch (Exception ex) {
+				System.err.println("Unable to connect to the server " + server + ": " + ex);
+				lastError = ex;
+			}
+		}
+		if (clients.isEmpty()) {
+			throw new Exception("None of the servers " + servers + " can be reached", lastError);
+		}
+	}
+
+	/**
+	 * Returns the client for the given server: the one used by the previous clusters,
+	 * if the server still answers it, or a new one.
+	 *
+	 * @throws Exception if the server cannot be reached
+	 */
+	private static synchronized UPPAALClient client(String host, int port) throws Exception {
+		String key = host + ":" + port;
+		UPPAALClient client = knownClients.get(key);
+		if (client != null) {
+			try {
+				client.getFreeSlots();
+				return client;
+			} catch (Exception ex) {
+				knownClients.remove(key); //the server may have been restarted: we need to look it up again
+			}
+		}
+		client = new UPPAALClient(host, port);
+		knownClients.put(key, client);
+		return client;
+	}
+
+	/**
+	 * Split a list of servers.
+	 *
+	 * @param servers the servers, separated by commas, semicolons or spaces
+	 * @return the single servers
+	 */
+	public static List<String> parseServers(String servers) {
+		List<String> result = new ArrayList<String>();
+		for (String server : servers.trim().split("[,;\\s]+")) {
+			if (server.length() > 0) {
+				result.add(server);
+			}
+		}
+		return result;
+	}
+
+	public List<UPPAALClient> getClients() {
+		return clients;
+	}
+
+	/**
+	 * Returns the free slots advertised by a server, 0 if it cannot tell us.
+	 */
+	private static int freeSlots(UPPAALClient client) {
+		try {
+			return client.getFreeSlots();
+		} catch (Exception ex) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Returns the server with the most free slots.
+	 *
+	 * @return the least loaded server
+	 */
+	public UPPAALClient getLeastLoaded() {
+		UPPAALClient best = clients.get(0);
+		int bestFreeSlots = -1;
+		for (UPPAALClient client : clients) {
+			int free = freeSlots(client);
+			if (free > bestFreeSlots) {
+				best = client;
+				bestFreeSlots = free;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Answer a SMC query. The number of samples used by verifyta depends on its own
+	 * statistical parameters, so the query cannot be split between the servers:
+	 * it is sent to the least loaded server, and to the others if that one fails.
+	 *
+	 * @param m the model
+	 * @param smcQuery the query
+	 * @param job when this job is cancelled, the analysis is cancelled on the server
+	 * @param statusListener is told the status of the job on the server
+	 * @return the result of the query
+	 * @throws Exception if no server could answer
+	 */
+	public SMCResult analyzeSMC(Model m, String smcQuery, AnalysisJob job, JobStatusListener statusListener) throws Exception {
+		UPPAALClient first = getLeastLoaded();
+		List<UPPAALClient> order = new ArrayList<UPPAALClient>(clients);
+		order.remove(first);
+		order.add(0, first);
+		Exception lastError = null;
+		for (UPPAALClient client : order) {
+			try {
+				return client.analyzeSMC(m, smcQuery, job, statusListener);
+			} catch (AnalysisException ex) {
+				throw ex; //the analysis itself failed (or was cancelled): another server would not do better
+			} catch (Exception ex) {
+				System.err.println("The server " + client.getServerName() + " failed: " + ex);
+				lastError = ex;
+			}
+		}
+		throw new Exception("No server could answer the query", lastError);
+	}
+
+	/**
+	 * Compute the average of nRuns simulations, using all the servers.
+	 *
+	 * @param m the model
+	 * @param timeTo the time up to which each simulation runs
+	 * @param nRuns how many simulations to average
+	 * @param computeStdDev whether to add the standard deviation series to the result
+	 * @param job when this job is cancelled, the runs are cancelled on the servers
+	 * @param monitor shows how many runs are done (can be null)
+	 * @return the average of the runs
+	 * @throws Exception if the runs could not be completed
+	 */
+	public LevelResult analyzeAverage(final Model m, final int timeTo, final int nRuns, boolean computeStdDev, final AnalysisJob job, final TaskMonitor monitor) throws Exception {
+		final RunPool pool = new RunPool(nRuns);
+		//The runs on the servers belong to a job of their own: when it is cancelled, each worker cancels on its server the run it is following.
+		//We cancel it as soon as the average is over (because all runs are done, or one has failed too often, or the user has cancelled the analysis)
+		final AnalysisJob runsJob = new AnalysisJob();
+		Runnable cancelRuns = new Runnable() {
+			@Override
+			public void run() {
+				runsJob.cancel();
+			}
+		};
+		job.addCancelListener(cancelRuns);
+		List<Thread> workers = new ArrayList<Thread>();
+		for (final UPPAALClient client : clients) {
+			int nWorkers = Math.max(1, Math.min(nRuns, freeSlots(client))); //a server with more free slots does more runs at the same time
+			for (int i = 0; i < nWorkers; i++) {
+				Thread worker = new Thread("Runs on " + client.getServerName()) {
+					@Override
+					public void run() {
+						pool.work(client, m, timeTo, runsJob);
+					}
+				};
+				workers.add(worker);
+			}
+		}
+		pool.setWorkers(workers.size());
+		for (Thread worker : workers) {
+			runsJob.addThread(worker);
+			worker.start();
+		}
+		Vector<SimpleLevelResult> results;
+		try {
+			results = pool.waitForResults(runsJob, job, monitor);
+		} finally {
+			job.removeCancelListener(cancelRuns);
+			runsJob.cancel(); //the runs still going on the servers are of no use anymore
+			stopWorkers(workers);
+		}
+		return new ResultAverager(null, null).average(results, computeStdDev);
+	}
+
+	/**
+	 * Wait (at most WORKERS_STOP_TIMEOUT ms overall) for the workers to cancel their runs on the servers.
+	 */
+	private static void stopWorkers(List<Thread> workers) {
+		long deadline = System.currentTimeMillis() + WORKERS_STOP_TIMEOUT;
+		try {
+			for (Thread worker : workers) {
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0) break;
+				worker.join(remaining);
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * The runs still to be done, shared by the workers of all servers.
+	 */
+	private static class RunPool {
+		private final int nRuns;
+		private final LinkedList<Integer> todo = new LinkedList<Integer>(); //The indices of the runs nobody is doing
+		private final int[] attempts; //How many times we tried each run
+		private final Vector<SimpleLevelResult> results = new Vector<SimpleLevelResult>();
+		private final List<String> failedServers = new ArrayList<String>();
+		private int activeWorkers = 0;
+		private Exception fatalError = null;
+
+		public RunPool(int nRuns) {
+			this.nRuns = nRuns;
+			this.attempts = new int[nRuns];
+			for (int i = 0; i < nRuns; i++) {
+				todo.add(i);
+			}
+		}
+
+		public synchronized void setWorkers(int nWorkers) {
+			this.activeWorkers = nWorkers;
+		}
+
+		private synchronized boolean isOver(AnalysisJob job) {
+			return results.size() == nRuns || fatalError != null || job.isCancelled();
+		}
+
+		/**
+		 * Take runs from the pool and do them on the given server, until there are no more runs
+		 * or the server fails too many times.
+		 */
+		public void work(UPPAALClient client, Model m, int timeTo, AnalysisJob job) {
+			int failures = 0;
+			try {
+				while (true) {
+					Integer run;
+					synchronized (this) {
+						while (todo.isEmpty() && !isOver(job)) {
+							wait(); //a run may come back from a failed server
+						}
+						if (isOver(job)) return;
+						run = todo.removeFirst();
+						attempts[run]++;
+					}
+					try {
+						LevelResult result = client.analyze(m, timeTo, 1, false, JobPriority.BULK, job, null, null); //part of an average: the server should not treat it as a single simulation. The client follows each run as a job of its own, even if other workers share the client
+						synchronized (this) {
+							if (isOver(job)) return; //a run which ended while the average was being stopped: the results have already been used
+							results.add((SimpleLevelResult)result);
+							notifyAll();
+						}
+						failures = 0;
+					} catch (Exception ex) {
+						if (job.isCancelled()) return;
+						failures++;
+						System.err.println("Run " + (run + 1) + " failed on the server " + client.getServerName() + ": " + ex);
+						synchronized (this) {
+							if (attempts[run] >= MAX_RUN_ATTEMPTS) {
+								fatalError = new Exception("Run " + (run + 1) + " failed " + attempts[run] + " times (last time on the server " + client.getServerName() + ")", ex);
+							} else {
+								todo.addFirst(run); //someone else will try it
+							}
+							notifyAll();
+						}
+						if (failures >= MAX_SERVER_FAILURES) {
+							synchronized (this) {
+								failedServers.add(client.getServerName());
+							}
+							return;
+						}
+					}
+				}
+			} catch (InterruptedException ex) {
+				//the job was cancelled
+			} finally {
+				synchronized (this) {
+					activeWorkers--;
+					notifyAll();
+				}
+			}
+		}
+
+		/**
+		 * Wait until all the runs are done.
+		 * @param runsJob The job of the runs (given to work)
+		 * @param job The job of the whole average, cancelled by the user
+		 */
+		public synchronized Vector<SimpleLevelResult> waitForResults(AnalysisJob runsJob, AnalysisJob job, TaskMonitor monitor) throws Exception {
+			int shown = -1;
+			while (!isOver(runsJob) && !job.isCancelled()) {
+				if (activeWorkers == 0) {
+					throw new Exception("All the servers have failed (" + failedServers + "): " + results.size() + " runs out of " + nRuns + " were completed");
+				}
+				if (monitor != null && results.size() != shown) {
+					shown = results.size();
+					monitor.setStatus("Analysing on " + (activeWorkers) + " server slots: " + shown + " runs out of " + nRuns + " done");
+					monitor.setPercentCompleted((int)(100.0 * shown / nRuns));
+				}
+				wait(1000);
+			}
+			if (job.isCancelled()) {
+				throw new AnalysisException("User interrupted");
+			}
+			if (fatalError != null) {
+				throw fatalError;
+			}
+			return new Vector<SimpleLevelResult>(results);
+		}
+	}
+}
@@ -1,20 +1,47 @@
 package inat.network;
 
+import inat.analyser.AnalysisException;
+import inat.analyser.AnalysisJob;
 import inat.analyser.LevelResult;
+import inat.analyser.PartialResultListener;
 import inat.analyser.SMCResult;
 import inat.model.Model;
+import inat.model.ModelCodec;
+import inat.model.ModelDelta;
+import inat.model.ModelHasher;
+import inat.util.Metrics;
 
 import java.rmi.Naming;
+import java.rmi.RemoteException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
 
 /**
  * The class used to access the remote server.
+ * The analyses can be performed with a single (blocking) remote call, or by submitting
+ * a job and asking the server about it until it is finished: in this way the analysis
+ * can be followed and cancelled, and a temporary loss of the connection to the server
+ * does not lose the work done.
+ * When submitting, a model is uploaded only once: the following requests refer to it
+ * by its hash, and send only the changes made to it (if there are few).
  */
 public class UPPAALClient {
+	private static final long POLL_INTERVAL = 1000, //How often (ms) we ask the server about our job
+							  FIRST_POLL_INTERVAL = 100; //We start asking more often, so that short analyses do not wait for nothing
+	private static final int MAX_FAILURES = 30; //How many times in a row we can fail to contact the server before giving up on a job
 	private iUPPAALServer server = null;
+	private String serverAddress;
+	private String serverName; //host:port, to tell the user which server we are talking about
+	private Model baseModel = null; //A copy of the last model we uploaded to the server: the next models are sent as changes to it
+	private String baseModelHash = null; //The hash with which the server knows baseModel
 	
 	public UPPAALClient(String serverHost, Integer serverPort) throws Exception {
 		System.setSecurityManager(new java.rmi.RMISecurityManager());
-		server = (iUPPAALServer) Naming.lookup("rmi://" + serverHost + ":" + serverPort + "/UPPAALServer");
+		serverName = serverHost + ":" + serverPort;
+		serverAddress = "rmi://" + serverName + "/UPPAALServer";
+		server = (iUPPAALServer) Naming.lookup(serverAddress);
 	}
 	
 	public LevelResult analyze(Model m, int timeTo, int nSimulationRuns, boolean computeStdDev) throws Exception {
@@ -24,4 +51,184 @@ public class UPPAALClient {
 	public SMCResult analyzeSMC(Model m, String smcQuery) throws Exception {
 		return server.analyze(m, smcQuery);
 	}
+	
+	/**
+	 * Submit a simulation to the server and wait for its result, asking the server about
+	 * the job (at most) every POLL_INTERVAL ms.
+	 * @param job When this job is cancelled, the job on the server is cancelled too
+	 * @param statusListener Is told the status of the job on the server (can be null)
+	 * @param partialResultListener Is given the points of the simulation while it is running (can be null). Only for single simulations
+	 */
+	public LevelResult analyze(Model m, int timeTo, int nSimulationRuns, boolean computeStdDev, AnalysisJob job, JobStatusListener statusListener, PartialResultListener partialResultListener) throws Exception {
+		return analyze(m, timeTo, nSimulationRuns, computeStdDev, null, job, statusListener, partialResultListener);
+	}
+	
+	/**
+	 * As above, asking the server to treat the simulation as less urgent than it would.
+	 * @param priority The class of the job on the server (can be null to let the server choose)
+	 */
+	public LevelResult analyze(Model m, int timeTo, int nSimulationRuns, boolean computeStdDev, JobPriority priority, AnalysisJob job, JobStatusListener statusListener, PartialResultListener partialResultListener) throws Exception {
+		ModelReference model = reference(m, false);
+		long jobId;
+		try {
+			jobId = server.submit(model.hash, model.delta, timeTo, nSimulationRuns, computeStdDev, priority);
+		} catch (UnknownModelException ex) { //the server has forgotten our model
+			model = reference(m, true);
+			jobId = server.submit(model.hash, model.delta, timeTo, nSimulationRuns, computeStdDev, priority);
+		}
+		return (LevelResult)waitForResult(jobId, timeTo, job, statusListener, partialResultListener);
+	}
+	
+	/**
+	 * Submit a SMC query to the server and wait for its result, asking the server about
+	 * the job (at most) every POLL_INTERVAL ms.
+	 * @param job When this job is cancelled, the job on the server is cancelled too
+	 * @param statusListener Is told the status of the job on the server (can be null)
+	 */
+	public SMCResult analyzeSMC(Model m, String smcQuery, AnalysisJob job, JobStatusListener statusListener) throws Exception {
+		ModelReference model = reference(m, false);
+		long jobId;
+		try {
+			jobId = server.submitSMC(model.hash, model.delta, smcQuery);
+		} catch (UnknownModelException ex) { //the server has forgotten our model
+			model = reference(m, true);
+			jobId = server.submitSMC(model.hash, model.delta, smcQuery);
+		}
+		return (SMCResult)waitForResult(jobId, 0, job, statusListener, null);
+	}
+	
+	/**
+	 * A model as the server knows it: the hash of a model we have uploaded, and the changes to it.
+	 */
+	private static class ModelReference {
+		final String hash;
+		final ModelDelta delta;
+		
+		ModelReference(String hash, ModelDelta delta) {
+			this.hash = hash;
+			this.delta = delta;
+		}
+	}
+	
+	/**
+	 * Find how to refer to the given model on the server. If the model is the one we uploaded
+	 * last time, or differs from it in less than half of its reactants and reactions, we only
+	 * need to send the changes. Otherwise, the model is uploaded.
+	 * @param forceUpload upload the model anyway (the server has forgotten the one we uploaded)
+	 */
+	private synchronized ModelReference reference(Model m, boolean forceUpload) throws Exception {
+		if (!forceUpload && baseModel != null) {
+			if (ModelHasher.hash(m).equals(baseModelHash)) {
+				return new ModelReference(baseModelHash, null);
+			}
+			ModelDelta delta = ModelDelta.between(baseModel, m);
+			if (delta != null && delta.getChangedEntities() <= (m.getReactants().size() + m.getReactions().size()) / 2) {
+				return new ModelReference(baseModelHash, delta);
+			}
+		}
+		baseModelHash = server.uploadModel(m);
+		baseModel = ModelCodec.decode(ModelCodec.encode(m)); //our own copy: the caller may change the model later
+		return new ModelReference(baseModelHash, null);
+	}
+	
+	/**
+	 * Ask the server about the given job until it is finished.
+	 * If the server cannot be reached, we try to connect again, so that the
+	 * result is not lost if the problem goes away.
+	 */
+	private Object waitForResult(long jobId, int timeTo, AnalysisJob job, JobStatusListener statusListener, PartialResultListener partialResultListener) throws Exception {
+		PartialResultCursor received = new PartialResultCursor(); //Only for this job: the runs of an average on several servers advance at different rates
+		int failures = 0;
+		long pollInterval = FIRST_POLL_INTERVAL;
+		while (true) {
+			if (job != null && job.isCancelled()) {
+				try {
+					server.cancel(jobId);
+				} catch (Exception ex) {
+					//the server will throw the job away after some time anyway
+				}
+				throw new AnalysisException("User interrupted");
+			}
+			try {
+				JobStatus status = server.getStatus(jobId);
+				if (statusListener != null) {
+					statusListener.jobStatusChanged(status);
+				}
+				if (partialResultListener != null && status.getState() != JobStatus.State.QUEUED) {
+					Map<String, SortedMap<Double, Double>> newPoints = server.getPartialResult(jobId, received.lastTimes);
+					received.add(newPoints);
+					if (!newPoints.isEmpty()) {
+						partialResultListener.partialResultAvailable(newPoints, (int)received.lastTime, timeTo);
+					}
+				}
+				if (status.isFinished()) {
+					return server.getResult(jobId);
+				}
+				failures = 0;
+			} catch (RemoteException ex) {
+				failures++;
+				if (failures > MAX_FAILURES) {
+					throw new Exception("Lost the connection to the server while waiting for job " + jobId, ex);
+				}
+				System.err.println("Unable to contact the server (" + ex.getMessage() + "): trying again");
+				try {
+					server = (iUPPAALServer) Naming.lookup(serverAddress);
+				} catch (Exception e) {
+					//we will try again next time
+				}
+			}
+			try {
+				Thread.sleep(pollInterval);
+			} catch (InterruptedException ex) {
+				if (job == null || !job.isCancelled()) {
+					throw ex;
+				} //otherwise, we cancel the job on the server before leaving
+			}
+			pollInterval = Math.min(POLL_INTERVAL, 2 * pollInterval);
+		}
+	}
+	
+	/**
+	 * How far we have received the partial result of a job on the server. Each job
+	 * (each run on each server, when an average is shared between servers) has its own:
+	 * the points of a job say nothing about how far the others are.
+	 */
+	private static class PartialResultCursor {
+		final Map<String, Double> lastTimes = new HashMap<String, Double>(); //The time of the last point we have received, for each reactant
+		double lastTime = -1; //The latest of them
+		
+		void add(Map<String, SortedMap<Double, Double>> newPoints) {
+			for (Map.Entry<String, SortedMap<Double, Double>> points : newPoints.entrySet()) {
+				double last = points.getValue().lastKey();
+				lastTimes.put(points.getKey(), last);
+				lastTime = Math.max(lastTime, last);
+			}
+		}
+	}
+	
+	public int getSlots() throws Exception {
+		return server.getSlots();
+	}
+	
+	public int getFreeSlots() throws Exception {
+		return server.getFreeSlots();
+	}
+	
+	/**
+	 * Returns the measurements taken by the server about its work.
+	 */
+	public Metrics.Snapshot getMetrics() throws Exception {
+		return server.getMetrics();
+	}
+	
+	public String getServerName() {
+		return serverName;
+	}
+	
+	/**
+	 * Returns the status of our requests which are still queued or running on the server.
+	 */
+	public List<JobStatus> getQueueStatus() throws Exception {
+		return server.getQueueStatus();
+	}
 }
@@ -1,32 +1,112 @@
 package inat.network;
 
 import inat.InatBackend;
+import inat.analyser.AnalysisJob;
 import inat.analyser.LevelResult;
+import inat.analyser.ResourceUsage;
 import inat.analyser.SMCResult;
 import inat.analyser.uppaal.ResultAverager;
 import inat.analyser.uppaal.UppaalModelAnalyserFasterConcrete;
 import inat.model.Model;
+import inat.model.ModelDelta;
+import inat.util.Metrics;
+import inat.util.XmlConfiguration;
 
 import java.io.File;
 import java.rmi.Naming;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
+import java.rmi.server.RemoteServer;
+import java.rmi.server.ServerNotActiveException;
 import java.rmi.server.UnicastRemoteObject;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.Timer;
+import java.util.TimerTask;
 
 /**
  * The remote server. Implements the methods for simulation run analysis and
  * SMC analysis. Listens for remote connections on the given port.
+ * The requests are not analysed on the thread of the remote call: they are queued
+ * in a JobScheduler, which runs at most a given number of them at the same time
+ * (XmlConfiguration.SERVER_SLOTS_KEY, by default the number of processors).
+ * Clients can be limited in the number of slots they use while others wait
+ * (SERVER_CLIENT_QUOTA_KEY), and the analyses expected to take too long are deferred or
+ * refused (SERVER_DEFER_COST_KEY, SERVER_MAX_COST_KEY).
+ * The models uploaded by the clients are kept in a ModelStore
+ * (XmlConfiguration.SERVER_MODEL_STORE_SIZE_KEY, in MB).
+ * The server keeps Metrics about its work: they can be asked remotely (getMetrics), and are
+ * written to the log every XmlConfiguration.SERVER_METRICS_INTERVAL_KEY seconds.
  */
 public class UPPAALServer extends UnicastRemoteObject implements iUPPAALServer {
 	private static final long serialVersionUID = 5030971508567718530L;
-	private static final DateFormat df = new SimpleDateFormat("dd/MM/yyyy HH:mm:ss.SSS");
+	private static final ThreadLocal<DateFormat> df = new ThreadLocal<DateFormat>() { //SimpleDateFormat is not thread-safe, and we log from the RMI, worker and scheduler threads
+		@Override
+		protected DateFormat initialValue() {
+			return new SimpleDateFormat("dd/MM/yyyy HH:mm:ss.SSS");
+		}
+	};
 	private static final int DEFAULT_PORT = 1234;
+	private static final int DEFAULT_MODEL_STORE_SIZE = 64, //MB
+							 DEFAULT_METRICS_INTERVAL = 600; //s
+	private static final long MINUTE = 60 * 1000; //ms
+	private JobScheduler scheduler; //Decides when each request is analysed
+	private ModelStore modelStore; //The models uploaded by the clients
 
 	protected UPPAALServer(int port) throws RemoteException {
 		super();
+		XmlConfiguration configuration = InatBackend.get().configuration();
+		int slots = Runtime.getRuntime().availableProcessors(); //verifyta uses a single processor
+		JobScheduler.Policy policy = JobScheduler.Policy.FAIR;
+		try {
+			slots = Integer.parseInt(configuration.get(XmlConfiguration.SERVER_SLOTS_KEY, "" + slots).trim());
+		} catch (NumberFormatException ex) {
+			System.err.println("Unable to understand the number of slots: using " + slots);
+		}
+		try {
+			policy = JobScheduler.Policy.valueOf(configuration.get(XmlConfiguration.SERVER_QUEUE_POLICY_KEY, policy.toString()).trim().toUpperCase());
+		} catch (IllegalArgumentException ex) {
+			System.err.println("Unknown queue policy: using " + policy);
+		}
+		scheduler = new JobScheduler(slots, policy);
+		try {
+			scheduler.setClientQuota(Integer.parseInt(configuration.get(XmlConfiguration.SERVER_CLIENT_QUOTA_KEY, "0").trim()));
+		} catch (NumberFormatException ex) {
+			System.err.println("Unable to understand the client quota: not using any");
+		}
+		try {
+			scheduler.setCostLimits(Long.parseLong(configuration.get(XmlConfiguration.SERVER_DEFER_COST_KEY, "0").trim()) * MINUTE,
+									Long.parseLong(configuration.get(XmlConfiguration.SERVER_MAX_COST_KEY, "0").trim()) * MINUTE);
+		} catch (NumberFormatException ex) {
+			System.err.println("Unable to understand the cost limits: not using any");
+		}
+		int modelStoreSize = DEFAULT_MODEL_STORE_SIZE;
+		try {
+			modelStoreSize = Integer.parseInt(configuration.get(XmlConfiguration.SERVER_MODEL_STORE_SIZE_KEY, "" + modelStoreSize).trim());
+		} catch (NumberFormatException ex) {
+			System.err.println("Unable to understand the size of the model store: using " + modelStoreSize + " MB");
+		}
+		modelStore = new ModelStore(modelStoreSize * 1024L * 1024L);
+		registerGauges();
+		int metricsInterval = DEFAULT_METRICS_INTERVAL;
+		try {
+			metricsInterval = Integer.parseInt(configuration.get(XmlConfiguration.SERVER_METRICS_INTERVAL_KEY, "" + metricsInterval).trim());
+		} catch (NumberFormatException ex) {
+			System.err.println("Unable to understand the interval between metrics reports: using " + metricsInterval + " s");
+		}
+		if (metricsInterval > 0) {
+			new Timer("Metrics report", true).schedule(new TimerTask() {
+				@Override
+				public void run() {
+					System.out.print(Metrics.get().snapshot());
+				}
+			}, metricsInterval * 1000L, metricsInterval * 1000L);
+		}
+		System.out.println(df.get().format(new Date(System.currentTimeMillis())) + " Running at most " + scheduler.getSlots() + " analyses at the same time (" + policy + " queue)");
 		try {
 			LocateRegistry.createRegistry(port);
 			Naming.bind("rmi://localhost:" + port + "/UPPAALServer", this);
@@ -35,27 +115,246 @@ public class UPPAALServer extends UnicastRemoteObject implements iUPPAALServer {
 		}
 	}
 	
+	/**
+	 * Let the Metrics know the state of the queue and of the model store.
+	 */
+	private void registerGauges() {
+		Metrics metrics = Metrics.get();
+		metrics.registerGauge("queue length", new Metrics.Gauge() {
+			@Override
+			public long getValue() {
+				return scheduler.getQueueLength();
+			}
+		});
+		metrics.registerGauge("active slots", new Metrics.Gauge() {
+			@Override
+			public long getValue() {
+				return scheduler.getRunningCount();
+			}
+		});
+		metrics.registerGauge("slots", new Metrics.Gauge() {
+			@Override
+			public long getValue() {
+				return scheduler.getSlots();
+			}
+		});
+		metrics.registerGauge("models in the store", new Metrics.Gauge() {
+			@Override
+			public long getValue() {
+				return modelStore.getModelCount();
+			}
+		});
+		metrics.registerGauge("model store size (KB)", new Metrics.Gauge() {
+			@Override
+			public long getValue() {
+				return modelStore.getSize() / 1024;
+			}
+		});
+	}
+	
+	/**
+	 * Write in the log that a job is done, with the time spent in each phase and
+	 * the resources it has used, and add the size of its model to the Metrics.
+	 */
+	private static void logDone(long jobId, AnalysisJob analysisJob, ResourceUsage usage) {
+		System.out.println(df.get().format(new Date(System.currentTimeMillis())) + " Job " + jobId + " done (" + describeTimes(analysisJob) + ").");
+		if (usage != null) {
+			System.out.println("\t" + usage);
+			Metrics.get().record(Metrics.MODEL_TABLE_CELLS, usage.getTableCells());
+		}
+		System.out.println();
+	}
+	
+	/**
+	 * Describe the time spent by a job in each phase (in ms), for the log.
+	 */
+	private static String describeTimes(AnalysisJob analysisJob) {
+		StringBuilder description = new StringBuilder();
+		for (Map.Entry<String, Long> time : analysisJob.getTimes().entrySet()) {
+			if (description.length() > 0) {
+				description.append(", ");
+			}
+			description.append(time.getKey() + " " + (time.getValue() / 1000) + " ms");
+		}
+		return description.toString();
+	}
+	
+	/**
+	 * Identifies the client making the current remote call.
+	 */
+	private static String getClient() {
+		try {
+			return RemoteServer.getClientHost();
+		} catch (ServerNotActiveException ex) {
+			return "local";
+		}
+	}
+	
+	/**
+	 * Queue the given job.
+	 */
+	private void submit(ScheduledJob job) throws Exception {
+		JobStatus status;
+		try {
+			status = scheduler.submit(job);
+		} catch (Exception ex) {
+			System.out.println(df.get().format(new Date(System.currentTimeMillis())) + " Refused request from " + job.getClient() + " (" + job.getDescription() + "): " + ex.getMessage());
+			throw ex;
+		}
+		System.out.println(df.get().format(new Date(System.currentTimeMillis())) + " Job " + job.getId() + " from " + job.getClient() + " (" + job.getDescription() + ", " + job.getPriority().toString().toLowerCase() + "): " + status);
+	}
+	
+	/**
+	 * Queue the given job and wait for its result. If the thread of the remote call
+	 * is interrupted, the job is cancelled.
+	 */
+	private Object runScheduled(ScheduledJob job) throws Exception {
+		submit(job);
+		try {
+			return job.waitForResult();
+		} catch (InterruptedException ex) {
+			scheduler.cancel(job);
+			throw ex;
+		}
+	}
+	
+	/**
+	 * Returns the job with the given identifier, if it was submitted by the calling client.
+	 */
+	private ScheduledJob getOwnJob(long jobId) throws Exception {
+		ScheduledJob job = scheduler.getJob(jobId);
+		if (job == null || !job.getClient().equals(getClient())) {
+			throw new Exception("Unknown job " + jobId + " (the result of a finished job is kept only for a limited time)");
+		}
+		return job;
+	}
+	
+	private ScheduledJob createSimulationJob(final Model m, final int timeTo, final int nSimulationRuns, final boolean computeStdDev) {
+		return new ScheduledJob(getClient(), "simulation up to " + timeTo + (nSimulationRuns > 1 ? ", average of " + nSimulationRuns + " runs" : ""), Math.max(1, nSimulationRuns), false) {
+			@Override
+			protected Object execute(AnalysisJob analysisJob) throws Exception {
+				System.out.println(df.get().format(new Date(System.currentTimeMillis())) + " Job " + getId() + ": analysing \"normal\" model with simulation up to " + timeTo);
+				LevelResult result;
+				if (nSimulationRuns > 1) {
+					ResultAverager averager = new ResultAverager(new JobMonitor(this), null);
+					averager.setJob(analysisJob);
+					result = averager.analyzeAverage(m, timeTo, nSimulationRuns, computeStdDev);
+				} else {
+					UppaalModelAnalyserFasterConcrete analyser = new UppaalModelAnalyserFasterConcrete(new JobMonitor(this), null);
+					analyser.setJob(analysisJob);
+					analyser.setPartialResultListener(this); //the client can see the trace while it is being computed
+					result = analyser.analyze(m, timeTo);
+				}
+				logDone(getId(), analysisJob, result.getResourceUsage());
+				return result;
+			}
+		};
+	}
+	
+	private ScheduledJob createSMCJob(final Model m, final String smcQuery) {
+		return new ScheduledJob(getClient(), "SMC query " + smcQuery, 1, true) {
+			@Override
+			protected Object execute(AnalysisJob analysisJob) throws Exception {
+				System.out.println(df.get().format(new Date(System.currentTimeMillis())) + " Job " + getId() + ": analysing \"SMC\" model with query " + smcQuery);
+				UppaalModelAnalyserFasterConcrete analyser = new UppaalModelAnalyserFasterConcrete(null, null);
+				analyser.setJob(analysisJob);
+				SMCResult result = analyser.analyzeSMC(m, smcQuery);
+				logDone(getId(), analysisJob, result.getResourceUsage());
+				return result;
+			}
+		};
+	}
+	
 	@Override
 	public LevelResult analyze(Model m, int timeTo, int nSimulationRuns, boolean computeStdDev) throws Exception {
-		System.out.println(df.format(new Date(System.currentTimeMillis())) + " Analysing \"normal\" model with simulation up to " + timeTo);
-		LevelResult result;
-		if (nSimulationRuns > 1) {
-			result = new ResultAverager(null, null).analyzeAverage(m, timeTo, nSimulationRuns, computeStdDev);
-		} else {
-			result = new UppaalModelAnalyserFasterConcrete(null, null).analyze(m, timeTo);
-		}
-		System.out.println(df.format(new Date(System.currentTimeMillis())) + " Done.");
-		System.out.println();
-		return result;
+		return (LevelResult)runScheduled(createSimulationJob(m, timeTo, nSimulationRuns, computeStdDev));
 	}
 
 	@Override
 	public SMCResult analyze(Model m, String smcQuery) throws Exception {
-		System.out.println(df.format(new Date(System.currentTimeMillis())) + " Analysing \"SMC\" model with query " + smcQuery);
-		SMCResult result = new UppaalModelAnalyserFasterConcrete(null, null).analyzeSMC(m, smcQuery);
-		System.out.println(df.format(new Date(System.currentTimeMillis())) + " Done.");
-		System.out.println();
-		return result;
+		return (SMCResult)runScheduled(createSMCJob(m, smcQuery));
+	}
+	
+	@Override
+	public List<JobStatus> getQueueStatus() throws Exception {
+		return scheduler.getStatus(getClient());
+	}
+	
+	@Override
+	public int getSlots() throws Exception {
+		return scheduler.getSlots();
+	}
+	
+	@Override
+	public int getFreeSlots() throws Exception {
+		return scheduler.getFreeSlots();
+	}
+	
+	@Override
+	public long submit(Model m, int timeTo, int nSimulationRuns, boolean computeStdDev) throws Exception {
+		ScheduledJob job = createSimulationJob(m, timeTo, nSimulationRuns, computeStdDev);
+		submit(job);
+		return job.getId();
+	}
+	
+	@Override
+	public long submitSMC(Model m, String smcQuery) throws Exception {
+		ScheduledJob job = createSMCJob(m, smcQuery);
+		submit(job);
+		return job.getId();
+	}
+	
+	@Override
+	public Metrics.Snapshot getMetrics() throws Exception {
+		return Metrics.get().snapshot();
+	}
+	
+	@Override
+	public String uploadModel(Model m) throws Exception {
+		String hash = modelStore.put(m);
+		System.out.println(df.get().format(new Date(System.currentTimeMillis())) + " Model " + hash + " uploaded by " + getClient() + " (" + modelStore.getModelCount() + " models, " + (modelStore.getSize() / 1024) + " KB in the store)");
+		return hash;
+	}
+	
+	@Override
+	public long submit(String modelHash, ModelDelta delta, int timeTo, int nSimulationRuns, boolean computeStdDev, JobPriority priority) throws Exception {
+		ScheduledJob job = createSimulationJob(modelStore.get(modelHash, delta), timeTo, nSimulationRuns, computeStdDev);
+		if (priority != null) {
+			job.lowerPriority(priority);
+		}
+		submit(job);
+		return job.getId();
+	}
+	
+	@Override
+	public long submitSMC(String modelHash, ModelDelta delta, String smcQuery) throws Exception {
+		ScheduledJob job = createSMCJob(modelStore.get(modelHash, delta), smcQuery);
+		submit(job);
+		return job.getId();
+	}
+	
+	@Override
+	public JobStatus getStatus(long jobId) throws Exception {
+		return scheduler.getStatus(getOwnJob(jobId));
+	}
+	
+	@Override
+	public Map<String, SortedMap<Double, Double>> getPartialResult(long jobId, Map<String, Double> since) throws Exception {
+		return getOwnJob(jobId).getPartialResult(since);
+	}
+	
+	@Override
+	public Object getResult(long jobId) throws Exception {
+		return getOwnJob(jobId).getResult();
+	}
+	
+	@Override
+	public void cancel(long jobId) throws Exception {
+		ScheduledJob job = getOwnJob(jobId);
+		if (!job.isFinished()) {
+			System.out.println(df.get().format(new Date(System.currentTimeMillis())) + " Job " + jobId + " cancelled by the client.");
+		}
+		scheduler.cancel(job);
 	}
 	
 	public static void main(String[] args) {
@@ -74,7 +373,7 @@ public class UPPAALServer extends UnicastRemoteObject implements iUPPAALServer {
 
 			@SuppressWarnings("unused")
 			UPPAALServer server = new UPPAALServer(port);
-			System.out.println(df.format(new Date(System.currentTimeMillis())) + " Server started and listening on port " + port + ".");
+			System.out.println(df.get().format(new Date(System.currentTimeMillis())) + " Server started and listening on port " + port + ".");
 		} catch (Exception ex) {
 			System.err.println("Problems in starting server!");
 			ex.printStackTrace();
@@ -0,0 +1,20 @@
+package inat.network;
+
+/**
+ * Thrown by the server when a client refers to a model which was never uploaded,
+ * or which the server has forgotten (see ModelStore): the client needs to upload
+ * the model again.
+ */
+public class UnknownModelException extends Exception {
+	private static final long serialVersionUID = -6247718402976630751L;
+	private final String modelHash;
+
+	public UnknownModelException(String modelHash) {
+		super("The server does not know the model " + modelHash);
+		this.modelHash = modelHash;
+	}
+
+	public String getModelHash() {
+		return modelHash;
+	}
+}
@@ -2,15 +2,109 @@ package inat.network;
 import inat.analyser.LevelResult;
 import inat.analyser.SMCResult;
 import inat.model.Model;
+import inat.model.ModelDelta;
+import inat.util.Metrics;
 
 import java.rmi.Remote;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
 
 /**
- * Remotely accessible features: simulation run or SMC analysis
+ * Remotely accessible features: simulation run or SMC analysis.
+ * The analyze methods wait for the end of the analysis. The submit methods
+ * instead return immediately with the identifier of the job, which can be used
+ * to follow the analysis, get its result or cancel it: a client using them does
+ * not need to stay connected while the analysis runs.
+ * A model can be uploaded once (uploadModel) and then referred to by its hash,
+ * possibly with the few changes made to it since (a ModelDelta).
  */
 public interface iUPPAALServer extends Remote {
 	
 	public LevelResult analyze(Model m, int timeTo, int nSimulationRuns, boolean computeStdDev) throws Exception;
 	
 	public SMCResult analyze(Model m, String smcQuery) throws Exception;
+	
+	/**
+	 * Returns the status of the requests of the calling client which are
+	 * waiting in the queue or running: where they are in the queue and
+	 * how long they will have to wait.
+	 */
+	public List<JobStatus> getQueueStatus() throws Exception;
+	
+	/**
+	 * Returns how many analyses the server can run at the same time.
+	 */
+	public int getSlots() throws Exception;
+	
+	/**
+	 * Returns how many analyses the server could start right now without queueing them.
+	 */
+	public int getFreeSlots() throws Exception;
+	
+	/**
+	 * Queue a simulation (or an average of simulations) and return immediately.
+	 * @return the identifier of the job
+	 */
+	public long submit(Model m, int timeTo, int nSimulationRuns, boolean computeStdDev) throws Exception;
+	
+	/**
+	 * Queue a SMC query and return immediately.
+	 * @return the identifier of the job
+	 */
+	public long submitSMC(Model m, String smcQuery) throws Exception;
+	
+	/**
+	 * Returns the measurements taken by the server: the durations of the phases
+	 * of the analyses, the length of the queue, the cache hits, etc.
+	 */
+	public Metrics.Snapshot getMetrics() throws Exception;
+	
+	/**
+	 * Keep a model on the server, so that the next requests can refer to it by its hash.
+	 * @return the hash of the model (see ModelHasher)
+	 */
+	public String uploadModel(Model m) throws Exception;
+	
+	/**
+	 * Queue a simulation of a model already uploaded, with the given changes.
+	 * @param modelHash the hash returned by uploadModel
+	 * @param delta the changes to apply to the model (can be null)
+	 * @param priority the class of the job, if it is less urgent than what the server would choose (can be null)
+	 * @return the identifier of the job
+	 * @throws UnknownModelException if the server does not have the model: it needs to be uploaded again
+	 */
+	public long submit(String modelHash, ModelDelta delta, int timeTo, int nSimulationRuns, boolean computeStdDev, JobPriority priority) throws Exception;
+	
+	/**
+	 * Queue a SMC query on a model already uploaded, with the given changes.
+	 * @param modelHash the hash returned by uploadModel
+	 * @param delta the changes to apply to the model (can be null)
+	 * @return the identifier of the job
+	 * @throws UnknownModelException if the server does not have the model: it needs to be uploaded again
+	 */
+	public long submitSMC(String modelHash, ModelDelta delta, String smcQuery) throws Exception;
+	
+	/**
+	 * Returns the status of a job: its position in the queue, or its progress.
+	 */
+	public JobStatus getStatus(long jobId) throws Exception;
+	
+	/**
+	 * Returns the points computed so far by a (single) simulation which come
+	 * after the given times.
+	 * @param since The time of the last point the client has of each reactant (the reactants which are not there are sent whole)
+	 */
+	public Map<String, SortedMap<Double, Double>> getPartialResult(long jobId, Map<String, Double> since) throws Exception;
+	
+	/**
+	 * Returns the result of a job (a LevelResult or a SMCResult), or null if the job
+	 * is not finished yet. If the analysis failed, its exception is thrown.
+	 */
+	public Object getResult(long jobId) throws Exception;
+	
+	/**
+	 * Cancel a job, whether it is queued or running.
+	 */
+	public void cancel(long jobId) throws Exception;
 }
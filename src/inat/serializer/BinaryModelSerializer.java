@@ -0,0 +1,200 @@
+package inat.serializer;
+
+import inat.exceptions.SerializationException;
+import inat.model.Model;
+import inat.model.ModelCodec;
+import inat.util.BinaryEncoding;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+
+/**
+ * Reads and writes models in a compact binary file format, for archiving and exchanging
+ * large models: loading and saving a model with hundreds of big tables takes milliseconds
+ * instead of the seconds needed by the XML formats.
+ * A file contains:
+ * <ul>
+ * <li>the magic bytes "INATM" and the version of the file format (1 byte)</li>
+ * <li>the model as encoded by {@link ModelCodec} (string table, typed property values,
+ * tables as packed variable-length integers), in a block which can be compressed
+ * with deflate (see {@link BinaryEncoding#writeBlock})</li>
+ * <li>the CRC32 of the encoded model (4 bytes), to detect damaged files</li>
+ * </ul>
+ */
+public class BinaryModelSerializer {
+	private static final byte[] MAGIC = { 'I', 'N', 'A', 'T', 'M' };
+	private static final int FORMAT_VERSION = 1;
+	private static final int COMPRESSION_THRESHOLD = 1024; //When compressing, smaller models are stored as they are
+
+	/**
+	 * The usual extension of a binary model file.
+	 */
+	public static final String EXTENSION = ".inatm";
+
+	private final boolean compress;
+
+	/**
+	 * Constructor for a serializer which compresses the models it writes.
+	 */
+	public BinaryModelSerializer() {
+		this(true);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param compress whether the models should be compressed when written (compressed files
+	 *            are several times smaller, and take a little longer to write)
+	 */
+	public BinaryModelSerializer(boolean compress) {
+		this.compress = compress;
+	}
+
+	/**
+	 * Writes a model to the given stream. The stream is not closed.
+	 *
+	 * @param m the model
+	 * @param out the stream
+	 * @throws SerializationException if the serialization failed
+	 */
+	public void serializeModel(Model m, OutputStream out) throws SerializationException {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream encoded = new DataOutputStream(bytes);
+			ModelCodec.write(m, encoded);
+			encoded.close();
+			byte[] data = bytes.toByteArray();
+			CRC32 crc = new CRC32();
+			crc.update(data);
+
+			DataOutputStream file = new DataOutputStream(out);
+			file.write(MAGIC);
+			file.writeByte(FORMAT_VERSION);
+			BinaryEncoding.writeBlock(file, data, this.compress ? COMPRESSION_THRESHOLD : -1);
+			file.writeInt((int) crc.getValue());
+			file.flush();
+		} catch (IOException e) {
+			throw new SerializationException("Could not write the model.", e);
+		}
+	}
+
+	/**
+	 * Writes a model to a file.
+	 *
+	 * @param m the model
+	 * @param f the file
+	 * @throws SerializationException if the serialization failed
+	 */
+	public void serializeModel(Model m, File f) throws SerializationException {
+		try {
+			OutputStream out = new BufferedOutputStream(new FileOutputStream(f));
+			try {
+				this.serializeModel(m, out);
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			throw new SerializationException("Could not write the model to " + f + ".", e);
+		}
+	}
+
+	/**
+	 * Reads a model from the given stream. The stream is not closed.
+	 *
+	 * @param in the stream
+	 * @return the model
+	 * @throws SerializationException if the stream does not contain a valid model
+	 */
+	public Model deserializeModel(InputStream in) throws SerializationException {
+		return this.deserializeModel(in, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Reads a model from a stream of (at most) the given size, against which the lengths
+	 * in the stream are checked.
+	 */
+	private Model deserializeModel(InputStream in, long size) throws SerializationException {
+		try {
+			DataInputStream file = new DataInputStream(in);
+			byte[] magic = new byte[MAGIC.length];
+			file.readFully(magic);
+			if (!isMagic(magic)) {
+				throw new SerializationException("Not a binary model file.");
+			}
+			int version = file.readUnsignedByte();
+			if (version != FORMAT_VERSION) {
+				throw new SerializationException("Unsupported binary model format version " + version + " (this version of the program reads version " + FORMAT_VERSION + ").");
+			}
+			ByteArrayInputStream block = BinaryEncoding.readBlock(file, size - MAGIC.length - 1);
+			byte[] data = new byte[block.available()];
+			block.read(data);
+			CRC32 crc = new CRC32();
+			crc.update(data);
+			if (file.readInt() != (int) crc.getValue()) {
+				throw new SerializationException("The model file is damaged (wrong checksum).");
+			}
+			return ModelCodec.decode(data);
+		} catch (IOException e) {
+			throw new SerializationException("Could not read the model: " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Reads a model from a file.
+	 *
+	 * @param f the file
+	 * @return the model
+	 * @throws SerializationException if the file does not contain a valid model
+	 */
+	public Model deserializeModel(File f) throws SerializationException {
+		try {
+			InputStream in = new BufferedInputStream(new FileInputStream(f));
+			try {
+				return this.deserializeModel(in, f.length());
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			throw new SerializationException("Could not read the model from " + f + ".", e);
+		}
+	}
+
+	/**
+	 * Tells whether a file is a binary model file (looking only at its first bytes).
+	 *
+	 * @param f the file
+	 * @return true if the file starts as a binary model file
+	 */
+	public static boolean isBinaryModel(File f) {
+		try {
+			DataInputStream in = new DataInputStream(new FileInputStream(f));
+			try {
+				byte[] magic = new byte[MAGIC.length];
+				in.readFully(magic);
+				return isMagic(magic);
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	private static boolean isMagic(byte[] bytes) {
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (bytes[i] != MAGIC[i]) return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,623 @@
+package inat.serializer;
+
+import inat.analyser.LevelResult;
+import inat.analyser.uppaal.ResultAverager;
+import inat.graph.CsvLoader;
+import inat.graph.Series;
+import inat.model.Model;
+import inat.util.BinaryEncoding;
+import inat.util.CsvOutput;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * A set of result series in a compact binary columnar file format, which is much smaller than
+ * a csv file and can be reopened in the grapher almost instantly: the file is memory-mapped and
+ * each column is decoded in a single pass into arrays of x and y values.
+ * A file contains:
+ * <ul>
+ * <li>the magic bytes "INATR" and the version of the file format (1 byte)</li>
+ * <li>the header: the name of the x column and, for each series, its name and the index of
+ * its master series (the standard deviation of an average is the slave of the average)</li>
+ * <li>the time column: all the x values of the series, in increasing order</li>
+ * <li>a level column for each series. The levels of a simulation are piecewise constant,
+ * so the column contains only the points where the level changes (as the differences from
+ * the previous point of the index in the time column and of the level) and the index where
+ * the series ends. The series which do not have a point at every time (e.g., experimental
+ * data) keep all their points instead.</li>
+ * <li>the CRC32 of the header and of the columns (4 bytes), to detect damaged files</li>
+ * </ul>
+ * Each column of values is written as integer differences if all its values are decimal numbers with
+ * up to 9 decimals (as they are in a csv file): integer times and levels usually take a single byte.
+ * Other values take 8 bytes.
+ * Files can be converted to and from csv (see {@link #main(String[])}).
+ */
+public class BinaryResultFile {
+	private static final byte[] MAGIC = { 'I', 'N', 'A', 'T', 'R' };
+	private static final int FORMAT_VERSION = 1;
+	private static final int HOLD = 1; //Flag telling us that a level column is piecewise constant
+	private static final int DOUBLES = 0xFF; //A column of values which are not all decimal numbers is written as plain doubles
+	private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9 };
+	private static final String CHARSET = "UTF-8";
+
+	/**
+	 * The usual extension of a binary result file.
+	 */
+	public static final String EXTENSION = ".inatr";
+
+	private final String xSeriesName;
+	private final String[] names;
+	private final int[] masters; //The index of the master of each series, -1 if it has none
+	private final double[] times;
+	private final boolean[] hold; //Whether a series has a point at every time from its first to its last one
+	private final int[][] indices; //The indices in the time column of the points of each series (only where the level changes, for a hold series)
+	private final double[][] values;
+	private final int[] ends; //For a hold series, the index after its last point
+
+	/**
+	 * Constructor.
+	 *
+	 * @param xSeriesName the name of the x values (e.g., the time)
+	 * @param names the names of the series
+	 * @param masters for each series, the index of its master series, or -1 if it has none
+	 * @param xs the x values of each series, increasing
+	 * @param ys the y values of each series
+	 * @throws IllegalArgumentException if the x values of a series are not increasing
+	 */
+	public BinaryResultFile(String xSeriesName, String[] names, int[] masters, double[][] xs, double[][] ys) {
+		this.xSeriesName = xSeriesName;
+		this.names = names;
+		this.masters = masters;
+		for (int i = 0; i < xs.length; i++) {
+			for (int k = 1; k < xs[i].length; k++) {
+				if (!(xs[i][k] > xs[i][k - 1])) {
+					throw new IllegalArgumentException("The x values of the series " + names[i] + " are not increasing (" + xs[i][k - 1] + ", " + xs[i][k] + ")");
+				}
+			}
+		}
+
+		//The time column has all the x values. Usually most series have the same ones, so we need to merge only the different ones
+		int total = 0;
+		for (int i = 0; i < xs.length; i++) {
+			if (i == 0 || !Arrays.equals(xs[i], xs[0])) total += xs[i].length;
+		}
+		double[] allTimes = new double[total];
+		int n = 0;
+		for (int i = 0; i < xs.length; i++) {
+			if (i > 0 && Arrays.equals(xs[i], xs[0])) continue;
+			System.arraycopy(xs[i], 0, allTimes, n, xs[i].length);
+			n += xs[i].length;
+		}
+		Arrays.sort(allTimes);
+		n = 0;
+		for (int i = 0; i < allTimes.length; i++) {
+			if (i == 0 || Double.compare(allTimes[i], allTimes[n - 1]) != 0) {
+				allTimes[n++] = allTimes[i];
+			}
+		}
+		this.times = Arrays.copyOf(allTimes, n);
+
+		this.hold = new boolean[xs.length];
+		this.indices = new int[xs.length][];
+		this.values = new double[xs.length][];
+		this.ends = new int[xs.length];
+		int[] pointIndices = new int[0];
+		for (int i = 0; i < xs.length; i++) {
+			if (pointIndices.length < xs[i].length) pointIndices = new int[xs[i].length];
+			int t = 0;
+			for (int k = 0; k < xs[i].length; k++) {
+				while (Double.compare(times[t], xs[i][k]) != 0) t++;
+				pointIndices[k] = t;
+			}
+			int nPoints = xs[i].length;
+			hold[i] = nPoints > 0 && pointIndices[nPoints - 1] - pointIndices[0] == nPoints - 1;
+			if (hold[i]) {
+				int nChanges = 0;
+				for (int k = 0; k < nPoints; k++) {
+					if (k == 0 || Double.doubleToLongBits(ys[i][k]) != Double.doubleToLongBits(ys[i][k - 1])) nChanges++;
+				}
+				indices[i] = new int[nChanges];
+				values[i] = new double[nChanges];
+				nChanges = 0;
+				for (int k = 0; k < nPoints; k++) {
+					if (k == 0 || Double.doubleToLongBits(ys[i][k]) != Double.doubleToLongBits(ys[i][k - 1])) {
+						indices[i][nChanges] = pointIndices[k];
+						values[i][nChanges] = ys[i][k];
+						nChanges++;
+					}
+				}
+				ends[i] = pointIndices[nPoints - 1] + 1;
+			} else {
+				indices[i] = Arrays.copyOf(pointIndices, nPoints);
+				values[i] = Arrays.copyOf(ys[i], nPoints);
+			}
+		}
+	}
+
+	private BinaryResultFile(String xSeriesName, String[] names, int[] masters, double[] times, boolean[] hold, int[][] indices, double[][] values, int[] ends) {
+		this.xSeriesName = xSeriesName;
+		this.names = names;
+		this.masters = masters;
+		this.times = times;
+		this.hold = hold;
+		this.indices = indices;
+		this.values = values;
+		this.ends = ends;
+	}
+
+	/**
+	 * Takes the series of a result, with the same names as they would have in a csv file
+	 * written by {@link CsvWriter}.
+	 *
+	 * @param m the model to use as a base
+	 * @param r the result
+	 * @return the series of the result
+	 */
+	public static BinaryResultFile fromResult(Model m, LevelResult r) {
+		List<String> rids = new ArrayList<String>(r.getReactantIds());
+		List<Double> timeIndices = r.getTimeIndices();
+		double[] times = new double[timeIndices.size()];
+		for (int t = 0; t < times.length; t++) {
+			times[t] = timeIndices.get(t);
+		}
+		String[] names = new String[rids.size()];
+		int[] masters = new int[rids.size()];
+		double[][] xs = new double[rids.size()][], ys = new double[rids.size()][];
+		for (int i = 0; i < names.length; i++) {
+			String rid = rids.get(i);
+			names[i] = CsvWriter.columnName(m, rid);
+			masters[i] = -1;
+			if (m.getReactant(rid) == null && rid.endsWith(ResultAverager.STD_DEV)) {
+				masters[i] = rids.indexOf(rid.substring(0, rid.length() - ResultAverager.STD_DEV.length()));
+			}
+			LevelResult.Cursor cursor = r.getCursor(rid);
+			double[] levels = new double[times.length];
+			int first = 0;
+			for (int t = 0; t < times.length; t++) {
+				levels[t] = cursor.getConcentration(times[t]);
+				if (Double.isNaN(levels[t]) && first == t) first++; //no data yet
+			}
+			xs[i] = Arrays.copyOfRange(times, first, times.length);
+			ys[i] = Arrays.copyOfRange(levels, first, times.length);
+		}
+		return new BinaryResultFile("Time (min)", names, masters, xs, ys);
+	}
+
+	/**
+	 * Reads the series of a csv file. A series is the slave of another if its name is the name
+	 * of the other followed by {@link Series#SLAVE_SUFFIX}, as in the grapher.
+	 *
+	 * @param file the csv file
+	 * @return the series in the file
+	 * @throws IOException if the file cannot be read, or its x values are not increasing
+	 */
+	public static BinaryResultFile fromCsv(File file) throws IOException {
+		CsvLoader csv = new CsvLoader(file);
+		String[] names = csv.getNames();
+		int[] masters = new int[names.length];
+		double[][] xs = new double[names.length][], ys = new double[names.length][];
+		for (int i = 0; i < names.length; i++) {
+			masters[i] = -1;
+			String name = names[i].trim();
+			if (name.toLowerCase().endsWith(Series.SLAVE_SUFFIX)) {
+				String masterName = name.substring(0, name.toLowerCase().lastIndexOf(Series.SLAVE_SUFFIX));
+				for (int j = 0; j < names.length; j++) {
+					if (names[j].trim().equals(masterName)) {
+						masters[i] = j;
+					}
+				}
+			}
+			xs[i] = csv.getX(i);
+			ys[i] = csv.getY(i);
+		}
+		try {
+			return new BinaryResultFile(csv.getXSeriesName(), names, masters, xs, ys);
+		} catch (IllegalArgumentException ex) {
+			throw new IOException("Cannot convert " + file + ": " + ex.getMessage());
+		}
+	}
+
+	public String getXSeriesName() {
+		return xSeriesName;
+	}
+
+	public String[] getNames() {
+		return names;
+	}
+
+	/**
+	 * The master of a series.
+	 *
+	 * @param series the index of the series
+	 * @return the index of its master series, or -1 if it has none
+	 */
+	public int getMaster(int series) {
+		return masters[series];
+	}
+
+	/**
+	 * The x values of the points of a series.
+	 */
+	public double[] getX(int series) {
+		if (!hold[series]) {
+			double[] xs = new double[indices[series].length];
+			for (int k = 0; k < xs.length; k++) {
+				xs[k] = times[indices[series][k]];
+			}
+			return xs;
+		}
+		if (indices[series].length == 0) return new double[0];
+		return Arrays.copyOfRange(times, indices[series][0], ends[series]);
+	}
+
+	/**
+	 * The y values of the points of a series.
+	 */
+	public double[] getY(int series) {
+		if (!hold[series]) {
+			return values[series].clone();
+		}
+		int[] changes = indices[series];
+		if (changes.length == 0) return new double[0];
+		int first = changes[0];
+		double[] ys = new double[ends[series] - first];
+		for (int k = 0; k < changes.length; k++) {
+			int next = k + 1 < changes.length ? changes[k + 1] : ends[series];
+			Arrays.fill(ys, changes[k] - first, next - first, values[series][k]);
+		}
+		return ys;
+	}
+
+	/**
+	 * Writes the series to a file.
+	 *
+	 * @param file the file
+	 * @throws IOException if the file could not be written
+	 */
+	public void write(File file) throws IOException {
+		Output body = new Output();
+		body.putString(xSeriesName);
+		body.putVarLong(names.length);
+		for (int i = 0; i < names.length; i++) {
+			body.putString(names[i]);
+			body.putVarLong(masters[i] + 1);
+		}
+		body.putVarLong(times.length);
+		body.putValues(times, times.length);
+		for (int i = 0; i < names.length; i++) {
+			int nEntries = indices[i].length;
+			body.putByte(hold[i] ? HOLD : 0);
+			body.putVarLong(nEntries);
+			if (hold[i]) {
+				body.putVarLong(ends[i]);
+			}
+			int previous = 0;
+			for (int k = 0; k < nEntries; k++) {
+				body.putVarLong(indices[i][k] - previous);
+				previous = indices[i][k];
+			}
+			body.putValues(values[i], nEntries);
+		}
+		CRC32 crc = new CRC32();
+		crc.update(body.buffer, 0, body.size);
+		body.putInt((int) crc.getValue());
+
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(MAGIC);
+			out.write(FORMAT_VERSION);
+			out.write(body.buffer, 0, body.size);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Reads a binary result file. The file is memory-mapped, and each column is decoded in one pass.
+	 *
+	 * @param file the file
+	 * @return the series in the file
+	 * @throws IOException if the file could not be read, or it is not a valid result file
+	 */
+	public static BinaryResultFile read(File file) throws IOException {
+		FileInputStream stream = new FileInputStream(file);
+		try {
+			FileChannel channel = stream.getChannel();
+			long size = channel.size();
+			if (size < MAGIC.length + 1 + 4 || size > Integer.MAX_VALUE) {
+				throw new IOException("Not a result file: " + file);
+			}
+			MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			byte[] magic = new byte[MAGIC.length];
+			map.get(magic);
+			if (!Arrays.equals(magic, MAGIC)) {
+				throw new IOException("Not a result file: " + file);
+			}
+			int version = map.get() & 0xFF;
+			if (version != FORMAT_VERSION) {
+				throw new IOException("Unsupported result file format version " + version + " (this version of the program reads version " + FORMAT_VERSION + ").");
+			}
+			int bodyStart = map.position(), bodyEnd = (int) size - 4;
+			CRC32 crc = new CRC32();
+			byte[] chunk = new byte[64 * 1024];
+			ByteBuffer body = map.duplicate();
+			body.limit(bodyEnd);
+			while (body.hasRemaining()) {
+				int n = Math.min(chunk.length, body.remaining());
+				body.get(chunk, 0, n);
+				crc.update(chunk, 0, n);
+			}
+			if (map.getInt(bodyEnd) != (int) crc.getValue()) {
+				throw new IOException("The result file " + file + " is damaged (wrong checksum).");
+			}
+			body.position(bodyStart);
+			try {
+				return decode(body);
+			} catch (BufferUnderflowException ex) {
+				throw new IOException("The result file " + file + " is damaged (truncated).");
+			}
+		} finally {
+			stream.close();
+		}
+	}
+
+	private static BinaryResultFile decode(ByteBuffer in) throws IOException {
+		String xSeriesName = getString(in);
+		int nSeries = getCount(in);
+		String[] names = new String[nSeries];
+		int[] masters = new int[nSeries];
+		for (int i = 0; i < nSeries; i++) {
+			names[i] = getString(in);
+			masters[i] = getCount(in) - 1;
+			if (masters[i] >= nSeries) throw new IOException("Wrong master for the series " + names[i]);
+		}
+		int nTimes = getCount(in);
+		double[] times = getValues(in, new double[nTimes]);
+		boolean[] hold = new boolean[nSeries];
+		int[][] indices = new int[nSeries][];
+		double[][] values = new double[nSeries][];
+		int[] ends = new int[nSeries];
+		for (int i = 0; i < nSeries; i++) {
+			int flags = in.get();
+			int nEntries = getCount(in);
+			hold[i] = (flags & HOLD) != 0;
+			if (hold[i]) {
+				ends[i] = getCount(in);
+			}
+			indices[i] = new int[nEntries];
+			int index = 0;
+			for (int k = 0; k < nEntries; k++) {
+				index += getCount(in);
+				if (index >= nTimes || (k > 0 && index <= indices[i][k - 1])) throw new IOException("Wrong time index in the series " + names[i]);
+				indices[i][k] = index;
+			}
+			if (hold[i] && nEntries > 0 && (ends[i] <= index || ends[i] > nTimes)) throw new IOException("Wrong end of the series " + names[i]);
+			values[i] = getValues(in, new double[nEntries]);
+		}
+		if (in.hasRemaining()) {
+			throw new IOException("The result file is damaged (unexpected data at the end).");
+		}
+		return new BinaryResultFile(xSeriesName, names, masters, times, hold, indices, values, ends);
+	}
+
+	private static int getCount(ByteBuffer in) throws IOException {
+		long n = BinaryEncoding.getVarLong(in);
+		if (n > Integer.MAX_VALUE) throw new IOException("Wrong number in the result file: " + n);
+		return (int) n;
+	}
+
+	private static String getString(ByteBuffer in) throws IOException {
+		byte[] bytes = new byte[getCount(in)];
+		in.get(bytes);
+		return new String(bytes, CHARSET);
+	}
+
+	/**
+	 * Reads a column of values, written by {@link Output#putValues(double[], int)}.
+	 */
+	private static double[] getValues(ByteBuffer in, double[] result) throws IOException {
+		int decimals = in.get() & 0xFF;
+		if (decimals < POWERS_OF_TEN.length) {
+			double power = POWERS_OF_TEN[decimals];
+			long value = 0;
+			for (int k = 0; k < result.length; k++) {
+				value += BinaryEncoding.getSignedVarLong(in);
+				result[k] = decimals == 0 ? value : value / power;
+			}
+		} else if (decimals == DOUBLES) {
+			in.asDoubleBuffer().get(result);
+			in.position(in.position() + 8 * result.length);
+		} else {
+			throw new IOException("Unknown encoding of a column: " + decimals);
+		}
+		return result;
+	}
+
+	/**
+	 * Finds the smallest number of decimals with which all the given values can be written
+	 * as integers (value * 10^decimals) and read back exactly (-0.0, NaN and the infinities can not).
+	 *
+	 * @return the number of decimals, or -1 if the values must be written as doubles
+	 */
+	private static int decimalsOf(double[] values, int n) {
+		int decimals = 0;
+		for (int k = 0; k < n; k++) {
+			double d = values[k];
+			while (decimals < POWERS_OF_TEN.length && !isDecimal(d, decimals)) {
+				decimals++; //the values we have already checked are fine also with more decimals
+			}
+			if (decimals == POWERS_OF_TEN.length) {
+				return -1;
+			}
+		}
+		return decimals;
+	}
+
+	private static boolean isDecimal(double d, int decimals) {
+		double scaled = d * POWERS_OF_TEN[decimals];
+		if (!(Math.abs(scaled) < (1L << 52))) return false;
+		long l = Math.round(scaled);
+		double back = decimals == 0 ? l : l / POWERS_OF_TEN[decimals];
+		return Double.doubleToLongBits(back) == Double.doubleToLongBits(d);
+	}
+
+	/**
+	 * Writes the series to a csv file, with a line for each time and an empty cell where a series
+	 * has no point.
+	 *
+	 * @param file the csv file
+	 * @throws IOException if the file could not be written
+	 */
+	public void writeCsv(File file) throws IOException {
+		CsvOutput out = new CsvOutput(file);
+		try {
+			out.write(xSeriesName);
+			for (String name : names) {
+				out.write(',').write(name);
+			}
+			out.newLine();
+			int[] next = new int[names.length]; //The next entry of each column
+			for (int t = 0; t < times.length; t++) {
+				out.write(times[t]);
+				for (int i = 0; i < names.length; i++) {
+					out.write(',');
+					int k = next[i];
+					if (k < indices[i].length && indices[i][k] == t) {
+						next[i] = ++k;
+					}
+					if (hold[i] ? k > 0 && t < ends[i] : k > 0 && indices[i][k - 1] == t) {
+						out.write(values[i][k - 1]);
+					}
+				}
+				out.newLine();
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Tells whether a file is a binary result file (looking only at its first bytes).
+	 *
+	 * @param f the file
+	 * @return true if the file starts as a binary result file
+	 */
+	public static boolean isResultFile(File f) {
+		try {
+			FileInputStream in = new FileInputStream(f);
+			try {
+				byte[] magic = new byte[MAGIC.length];
+				return in.read(magic) == magic.length && Arrays.equals(magic, MAGIC);
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Converts a csv file to a binary result file, or a binary result file to csv.
+	 * Usage: BinaryResultFile &lt;input file&gt; &lt;output file&gt;
+	 */
+	public static void main(String[] args) {
+		if (args.length < 2) {
+			System.err.println("Usage: BinaryResultFile <input file> <output file>");
+			System.err.println("A binary result file is converted to csv, anything else is read as csv and converted to a binary result file.");
+			System.exit(1);
+		}
+		try {
+			File input = new File(args[0]),
+				 output = new File(args[1]);
+			long startTime = System.currentTimeMillis();
+			boolean toCsv = isResultFile(input);
+			BinaryResultFile result = toCsv ? read(input) : fromCsv(input);
+			long readTime = System.currentTimeMillis();
+			if (toCsv) {
+				result.writeCsv(output);
+			} else {
+				result.write(output);
+			}
+			long endTime = System.currentTimeMillis();
+			System.out.println("Converted " + input + " (" + input.length() + " bytes) to " + output + " (" + output.length() + " bytes): read in " + (readTime - startTime) + " ms, written in " + (endTime - readTime) + " ms.");
+		} catch (IOException ex) {
+			System.err.println("Problems in converting the results!");
+			ex.printStackTrace();
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * The bytes of a file, while we write them.
+	 */
+	private static class Output {
+		byte[] buffer = new byte[64 * 1024];
+		int size = 0;
+
+		private void ensure(int bytes) {
+			if (size + bytes > buffer.length) {
+				buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + bytes));
+			}
+		}
+
+		void putByte(int b) {
+			ensure(1);
+			buffer[size++] = (byte) b;
+		}
+
+		void putInt(int v) {
+			ensure(4);
+			for (int shift = 24; shift >= 0; shift -= 8) {
+				buffer[size++] = (byte) (v >>> shift);
+			}
+		}
+
+		void putVarLong(long v) {
+			ensure(10);
+			size = BinaryEncoding.putVarLong(buffer, size, v);
+		}
+
+		void putString(String s) throws UnsupportedEncodingException {
+			byte[] bytes = s.getBytes(CHARSET);
+			putVarLong(bytes.length);
+			ensure(bytes.length);
+			System.arraycopy(bytes, 0, buffer, size, bytes.length);
+			size += bytes.length;
+		}
+
+		/**
+		 * Writes a column of values: the number of decimals and the differences between the
+		 * values multiplied by 10^decimals if they are all decimal numbers, the plain doubles otherwise.
+		 */
+		void putValues(double[] values, int n) {
+			int decimals = decimalsOf(values, n);
+			putByte(decimals >= 0 ? decimals : DOUBLES);
+			if (decimals >= 0) {
+				ensure(10 * n);
+				double power = POWERS_OF_TEN[decimals];
+				long previous = 0;
+				for (int k = 0; k < n; k++) {
+					long value = Math.round(values[k] * power);
+					size = BinaryEncoding.putSignedVarLong(buffer, size, value - previous);
+					previous = value;
+				}
+			} else {
+				ensure(8 * n);
+				ByteBuffer.wrap(buffer, size, 8 * n).asDoubleBuffer().put(values, 0, n);
+				size += 8 * n;
+			}
+		}
+	}
+}
@@ -1,17 +1,16 @@
 package inat.serializer;
 
 import inat.analyser.LevelResult;
+import inat.analyser.uppaal.ResultAverager;
 import inat.model.Model;
 import inat.model.Property;
+import inat.model.Reactant;
+import inat.util.CsvOutput;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.text.DecimalFormat;
-import java.text.DecimalFormatSymbols;
-import java.util.Locale;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * This class is capable of writing out a {@link LevelResult} to a CSV file
@@ -44,7 +43,7 @@ public class CsvWriter {
 	 * @throws IOException if the save failed for some reason
 	 */
 	public void writeCsv(File file, Model m, LevelResult r) throws IOException {
-		BufferedWriter bw = new BufferedWriter(new FileWriter(file));
+		CsvOutput bw = new CsvOutput(file);
 
 		/*
 		Object[] zioLupoMannaro = levels.keySet().toArray();
@@ -61,15 +60,10 @@ public class CsvWriter {
 		*/
 
 		// walk over all reactants
-		Set<String> rids = r.getReactantIds();
+		List<String> rids = new ArrayList<String>(r.getReactantIds());
 		bw.write("Time (min)");
 		for (String rid : rids) {
-			// determine official name and output it
-			Property name = m.getReactant(rid).get(ALIAS); //if an alias is set, we prefer it
-			if (name == null) {
-				name = m.getReactant(rid).get(REACTANT_NAME);
-			}
-			bw.write(", " + name.as(String.class));
+			bw.write(", " + columnName(m, rid));
 		}
 		bw.newLine();
 
@@ -92,17 +86,45 @@ public class CsvWriter {
 		}
 		bw.close();
 		*/
-		DecimalFormat formatter = new DecimalFormat("#.####", new DecimalFormatSymbols(Locale.US));
-        
-		for (double t : r.getTimeIndices()) {
-			bw.write(formatter.format(t));
-			for (String rid : rids) {
-				// determine official name and output it
-				bw.write(", " + formatter.format(r.getConcentration(rid, t)));
+		// the columns are read in time order with a cursor each, instead of looking up every cell
+		LevelResult.Cursor[] columns = new LevelResult.Cursor[rids.size()];
+		for (int i = 0; i < columns.length; i++) {
+			columns[i] = r.getCursor(rids.get(i));
+		}
+		try {
+			for (double t : r.getTimeIndices()) {
+				bw.write(t);
+				for (LevelResult.Cursor column : columns) {
+					bw.write(", ").write(column.getConcentration(t));
+				}
+				bw.newLine();
 			}
-			bw.newLine();
+		} finally {
+			bw.close();
 		}
-		
-		bw.close();
+	}
+
+	/**
+	 * Determines the official name of a column of a result: the alias of the reactant
+	 * if it is set, its name otherwise (or the id, if the reactant is not in the model).
+	 * Standard deviation columns get "_StdDev" after the name of their reactant.
+	 * 
+	 * @param m the model to use as a base
+	 * @param rid the id of the column in the result
+	 * @return the name of the column
+	 */
+	static String columnName(Model m, String rid) {
+		String suffix = "";
+		String reactantId = rid;
+		if (m.getReactant(rid) == null && rid.endsWith(ResultAverager.STD_DEV)) { //the standard deviation of a reactant in an average
+			reactantId = rid.substring(0, rid.length() - ResultAverager.STD_DEV.length());
+			suffix = "_StdDev";
+		}
+		Reactant reactant = m.getReactant(reactantId);
+		Property name = reactant == null ? null : reactant.get(ALIAS); //if an alias is set, we prefer it
+		if (name == null || name.isNull()) {
+			name = reactant == null ? null : reactant.get(REACTANT_NAME);
+		}
+		return (name == null || name.isNull() ? reactantId : name.as(String.class)) + suffix;
 	}
 }
@@ -0,0 +1,45 @@
+/**
+ * 
+ */
+package inat.serializer;
+
+import inat.exceptions.SerializationException;
+import inat.util.AXPathExpression;
+import inat.util.XmlEnvironment;
+
+import javax.xml.xpath.XPathExpressionException;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+/**
+ * The {@link Double} serializer.
+ * 
+ * @author B. Wanders
+ */
+public class DoubleSerializer implements TypeSerializer<Double> {
+	/**
+	 * Value pattern.
+	 */
+	private final AXPathExpression expression = XmlEnvironment.hardcodedXPath(".");
+
+	@Override
+	public Double deserialize(Node root) throws SerializationException {
+		String value = null;
+		try {
+			value = this.expression.getString(root);
+			return new Double(value);
+		} catch (XPathExpressionException e) {
+			throw new SerializationException("Could not deserialize, expression " + this.expression.toString()
+					+ " did not match.", e);
+		} catch (NumberFormatException e) {
+			throw new SerializationException("Could not interpret value '" + value + "' as a double.", e);
+		}
+	}
+
+	@Override
+	public Node serialize(Document doc, Object value) {
+		return doc.createTextNode(value.toString());
+	}
+
+}
@@ -0,0 +1,94 @@
+package inat.serializer;
+
+import inat.exceptions.SerializationException;
+import inat.model.Model;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Converts model files between the XML format and the binary format of the {@link BinaryModelSerializer}.
+ * The format of the input file is recognised from its content, the format of the output file from its
+ * extension ({@link BinaryModelSerializer#EXTENSION} for the binary format, anything else for XML).
+ * Usage: ModelConverter &lt;input file&gt; &lt;output file&gt;
+ */
+public class ModelConverter {
+	private final BinaryModelSerializer binarySerializer = new BinaryModelSerializer();
+	private final StreamingXMLSerializer xmlSerializer = new StreamingXMLSerializer();
+
+	/**
+	 * Reads a model file, in either format.
+	 *
+	 * @param f the file
+	 * @return the model
+	 * @throws SerializationException if the file could not be read
+	 */
+	public Model load(File f) throws SerializationException {
+		if (BinaryModelSerializer.isBinaryModel(f)) {
+			return binarySerializer.deserializeModel(f);
+		}
+		try {
+			InputStream in = new BufferedInputStream(new FileInputStream(f));
+			try {
+				return xmlSerializer.deserializeModel(in);
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			throw new SerializationException("Could not read the model from " + f + ".", e);
+		}
+	}
+
+	/**
+	 * Writes a model file, in the format given by the extension of the file.
+	 *
+	 * @param m the model
+	 * @param f the file
+	 * @throws SerializationException if the file could not be written
+	 */
+	public void save(Model m, File f) throws SerializationException {
+		if (f.getName().toLowerCase().endsWith(BinaryModelSerializer.EXTENSION)) {
+			binarySerializer.serializeModel(m, f);
+			return;
+		}
+		try {
+			OutputStream out = new BufferedOutputStream(new FileOutputStream(f));
+			try {
+				xmlSerializer.serializeModel(m, out);
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			throw new SerializationException("Could not write the model to " + f + ".", e);
+		}
+	}
+
+	public static void main(String[] args) {
+		if (args.length < 2) {
+			System.err.println("Usage: ModelConverter <input file> <output file>");
+			System.err.println("The output is in the binary format if its name ends with " + BinaryModelSerializer.EXTENSION + ", in XML otherwise.");
+			System.exit(1);
+		}
+		try {
+			ModelConverter converter = new ModelConverter();
+			File input = new File(args[0]),
+				 output = new File(args[1]);
+			long startTime = System.currentTimeMillis();
+			Model m = converter.load(input);
+			long readTime = System.currentTimeMillis();
+			converter.save(m, output);
+			long endTime = System.currentTimeMillis();
+			System.out.println("Converted " + input + " (" + input.length() + " bytes) to " + output + " (" + output.length() + " bytes): read in " + (readTime - startTime) + " ms, written in " + (endTime - readTime) + " ms.");
+		} catch (SerializationException ex) {
+			System.err.println("Problems in converting the model!");
+			ex.printStackTrace();
+			System.exit(1);
+		}
+	}
+}
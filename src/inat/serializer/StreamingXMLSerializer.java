@@ -0,0 +1,305 @@
+package inat.serializer;
+
+import inat.exceptions.SerializationException;
+import inat.model.Entity;
+import inat.model.Model;
+import inat.model.Property;
+import inat.model.PropertyBag;
+import inat.model.Reactant;
+import inat.model.Reaction;
+import inat.util.Table;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Reads and writes models in the same inat-model format as the {@link XMLSerializer},
+ * but streaming the document with StAX instead of building a DOM and evaluating XPath
+ * expressions on it: loading a large model (with many big tables) is much faster and
+ * needs much less memory. A model written by one of the two serializers can be read by
+ * the other.
+ *
+ * @see XMLSerializer
+ */
+public class StreamingXMLSerializer {
+	private static final String STRING_TYPE = String.class.getCanonicalName(),
+								BOOLEAN_TYPE = Boolean.class.getCanonicalName(),
+								INTEGER_TYPE = Integer.class.getCanonicalName(),
+								FLOAT_TYPE = Float.class.getCanonicalName(),
+								DOUBLE_TYPE = Double.class.getCanonicalName(),
+								TABLE_TYPE = Table.class.getCanonicalName();
+
+	private final XMLInputFactory inputFactory;
+	private final XMLOutputFactory outputFactory;
+
+	/**
+	 * Constructor.
+	 */
+	public StreamingXMLSerializer() {
+		this.inputFactory = XMLInputFactory.newInstance();
+		this.inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false); //a model never needs external entities
+		this.inputFactory.setProperty(XMLInputFactory.IS_COALESCING, true); //the text of a value in a single event
+		this.outputFactory = XMLOutputFactory.newInstance();
+	}
+
+	/**
+	 * Writes a model to the given stream (in UTF-8). The stream is not closed.
+	 *
+	 * @param m the model
+	 * @param out the stream
+	 * @throws SerializationException if the serialization failed
+	 */
+	public void serializeModel(Model m, OutputStream out) throws SerializationException {
+		try {
+			XMLStreamWriter writer = this.outputFactory.createXMLStreamWriter(out, "UTF-8");
+			writer.writeStartDocument("UTF-8", "1.0");
+			writer.writeStartElement("inat-model");
+			this.serializeProperties(writer, m.getProperties());
+
+			writer.writeStartElement("reactants");
+			for (Reactant reactant : m.getReactants()) {
+				this.serializeEntity(writer, "reactant", reactant);
+			}
+			writer.writeEndElement();
+
+			writer.writeStartElement("reactions");
+			for (Reaction reaction : m.getReactions()) {
+				this.serializeEntity(writer, "reaction", reaction);
+			}
+			writer.writeEndElement();
+
+			writer.writeEndElement();
+			writer.writeEndDocument();
+			writer.flush();
+		} catch (XMLStreamException e) {
+			throw new SerializationException("Could not write the model.", e);
+		}
+	}
+
+	private void serializeEntity(XMLStreamWriter writer, String elementName, Entity e) throws XMLStreamException, SerializationException {
+		writer.writeStartElement(elementName);
+		writer.writeAttribute("id", e.getId());
+		this.serializeProperties(writer, e.getProperties());
+		writer.writeEndElement();
+	}
+
+	/**
+	 * Writes a {@link PropertyBag} as a &lt;properties&gt; element.
+	 */
+	private void serializeProperties(XMLStreamWriter writer, PropertyBag bag) throws XMLStreamException, SerializationException {
+		writer.writeStartElement("properties");
+		for (Property p : bag) {
+			if (p.isNull()) {
+				writer.writeEmptyElement("property");
+				writer.writeAttribute("name", p.getName());
+				continue;
+			}
+			Object value = p.as(Object.class);
+			String type = value.getClass().getCanonicalName();
+			writer.writeStartElement("property");
+			writer.writeAttribute("name", p.getName());
+			writer.writeAttribute("type", type);
+			if (type.equals(TABLE_TYPE)) {
+				this.serializeTable(writer, (Table) value);
+			} else if (type.equals(STRING_TYPE) || type.equals(BOOLEAN_TYPE) || type.equals(INTEGER_TYPE) || type.equals(FLOAT_TYPE) || type.equals(DOUBLE_TYPE)) {
+				writer.writeCharacters(value.toString());
+			} else {
+				throw new SerializationException("No specialized serializer registered for type <" + type
+						+ ">, did you forget adding your new serializer?");
+			}
+			writer.writeEndElement();
+		}
+		writer.writeEndElement();
+	}
+
+	/**
+	 * Writes a table in the dense encoding of the {@link TableSerializer}.
+	 */
+	private void serializeTable(XMLStreamWriter writer, Table t) throws XMLStreamException {
+		int cols = t.getColumnCount(),
+			rows = cols > 0 ? t.getRowCount() : 0;
+		writer.writeStartElement("table");
+		writer.writeAttribute("rows", Integer.toString(rows));
+		writer.writeAttribute("columns", Integer.toString(cols));
+		writer.writeAttribute("encoding", TableSerializer.DENSE_ENCODING);
+		for (int r = 0; r < rows; r++) {
+			writer.writeStartElement("row");
+			writer.writeCharacters(TableSerializer.encodeRow(t, r));
+			writer.writeEndElement();
+		}
+		writer.writeEndElement();
+	}
+
+	/**
+	 * Reads a model from the given stream. The stream is not closed.
+	 *
+	 * @param in the stream
+	 * @return the model
+	 * @throws SerializationException if the deserialization failed
+	 */
+	public Model deserializeModel(InputStream in) throws SerializationException {
+		Model m = new Model();
+		XMLStreamReader reader = null;
+		try {
+			reader = this.inputFactory.createXMLStreamReader(in);
+			reader.nextTag();
+			reader.require(XMLStreamConstants.START_ELEMENT, null, "inat-model");
+			while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+				String name = reader.getLocalName();
+				if (name.equals("properties")) {
+					this.deserializeProperties(reader, m.getProperties());
+				} else if (name.equals("reactants")) {
+					while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+						Reactant r = new Reactant(this.requireAttribute(reader, "id"));
+						this.deserializeEntityProperties(reader, r.getProperties());
+						m.add(r);
+					}
+				} else if (name.equals("reactions")) {
+					while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+						Reaction r = new Reaction(this.requireAttribute(reader, "id"));
+						this.deserializeEntityProperties(reader, r.getProperties());
+						m.add(r);
+					}
+				} else {
+					this.skipElement(reader);
+				}
+			}
+		} catch (XMLStreamException e) {
+			throw new SerializationException("Could not read the model: " + e.getMessage(), e);
+		} finally {
+			if (reader != null) {
+				try {
+					reader.close();
+				} catch (XMLStreamException e) {
+					//nothing to do
+				}
+			}
+		}
+		return m;
+	}
+
+	/**
+	 * Reads the &lt;properties&gt; of a reactant or a reaction, up to the end of the entity element.
+	 */
+	private void deserializeEntityProperties(XMLStreamReader reader, PropertyBag bag) throws XMLStreamException, SerializationException {
+		while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+			if (reader.getLocalName().equals("properties")) {
+				this.deserializeProperties(reader, bag);
+			} else {
+				this.skipElement(reader);
+			}
+		}
+	}
+
+	/**
+	 * Reads a &lt;properties&gt; element (the reader is on its start) into the given bag.
+	 */
+	private void deserializeProperties(XMLStreamReader reader, PropertyBag bag) throws XMLStreamException, SerializationException {
+		while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+			String name = this.requireAttribute(reader, "name");
+			String type = reader.getAttributeValue(null, "type");
+			Object value = null;
+			if (type == null) { //a null property
+				this.skipElement(reader);
+			} else if (type.equals(TABLE_TYPE)) {
+				value = this.deserializeTable(reader);
+			} else {
+				String text = reader.getElementText();
+				try {
+					if (type.equals(STRING_TYPE)) {
+						value = text;
+					} else if (type.equals(BOOLEAN_TYPE)) {
+						value = Boolean.valueOf(text);
+					} else if (type.equals(INTEGER_TYPE)) {
+						value = Integer.valueOf(text);
+					} else if (type.equals(FLOAT_TYPE)) {
+						value = Float.valueOf(text);
+					} else if (type.equals(DOUBLE_TYPE)) {
+						value = Double.valueOf(text);
+					} else {
+						throw new SerializationException("Could not find deserializer for type <" + type
+								+ ">, did the developer forget to register it?");
+					}
+				} catch (NumberFormatException e) {
+					throw new SerializationException("Could not interpret value '" + text + "' of property " + name + " as a number.", e);
+				}
+			}
+			bag.let(name).be(value);
+		}
+	}
+
+	/**
+	 * Reads the &lt;table&gt; inside a property element (in either encoding), up to the end of the property element.
+	 */
+	private Table deserializeTable(XMLStreamReader reader) throws XMLStreamException, SerializationException {
+		Table result = null;
+		while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+			if (!reader.getLocalName().equals("table")) {
+				this.skipElement(reader);
+				continue;
+			}
+			try {
+				int rows = Integer.parseInt(this.requireAttribute(reader, "rows")),
+					cols = Integer.parseInt(this.requireAttribute(reader, "columns"));
+				result = new Table(rows, cols);
+				if (TableSerializer.DENSE_ENCODING.equals(reader.getAttributeValue(null, "encoding"))) {
+					int row = 0;
+					while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+						if (row >= rows) {
+							throw new SerializationException("A table has more than the " + rows + " rows it declares.");
+						}
+						TableSerializer.decodeRow(reader.getElementText(), result, row++);
+					}
+					if (row < rows) {
+						throw new SerializationException("A table has " + row + " rows instead of the " + rows + " it declares.");
+					}
+				} else {
+					while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+						int row = Integer.parseInt(this.requireAttribute(reader, "row")),
+							col = Integer.parseInt(this.requireAttribute(reader, "column")),
+							val = Integer.parseInt(reader.getElementText().trim());
+						result.set(row, col, val);
+					}
+				}
+			} catch (NumberFormatException e) {
+				throw new SerializationException("Could not interpret an integer while deserializing a table.", e);
+			} catch (ArrayIndexOutOfBoundsException e) {
+				throw new SerializationException("A cell lies outside its table.", e);
+			}
+		}
+		if (result == null) {
+			throw new SerializationException("A table property does not contain a table.");
+		}
+		return result;
+	}
+
+	private String requireAttribute(XMLStreamReader reader, String name) throws SerializationException {
+		String value = reader.getAttributeValue(null, name);
+		if (value == null) {
+			throw new SerializationException("Element <" + reader.getLocalName() + "> has no " + name + " attribute (line " + reader.getLocation().getLineNumber() + ").");
+		}
+		return value;
+	}
+
+	/**
+	 * Skips the element on whose start the reader is, with all its content.
+	 */
+	private void skipElement(XMLStreamReader reader) throws XMLStreamException {
+		int depth = 1;
+		while (depth > 0) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				depth++;
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				depth--;
+			}
+		}
+	}
+}
@@ -4,76 +4,155 @@
 package inat.serializer;
 
 import inat.exceptions.SerializationException;
-import inat.util.AXPathExpression;
 import inat.util.Table;
-import inat.util.XmlEnvironment;
-
-import javax.xml.xpath.XPathExpressionException;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 
 /**
- * The {@link Table} serializer.
+ * The {@link Table} serializer. Tables are written in the dense encoding: a
+ * &lt;row&gt; element for each row, containing the values of the row separated by
+ * spaces, where a run of equal values is written as value*count (e.g., "-1*57").
+ * Tables written in the old sparse encoding (a &lt;cell&gt; element for each value
+ * which is not 0) are recognised by the absence of the encoding attribute.
  * 
  * @author B. Wanders
  */
 public class TableSerializer implements TypeSerializer<Table> {
 	/**
-	 * Patterns.
+	 * The value of the encoding attribute of a table in the dense encoding.
 	 */
-	private final AXPathExpression xpRows = XmlEnvironment.hardcodedXPath("./table/@rows");
-	private final AXPathExpression xpColumns = XmlEnvironment.hardcodedXPath("./table/@columns");
-
-	private final AXPathExpression xpCells = XmlEnvironment.hardcodedXPath("./table/cell");
-	private final AXPathExpression xpRow = XmlEnvironment.hardcodedXPath("@row");
-	private final AXPathExpression xpColumn = XmlEnvironment.hardcodedXPath("@column");
-	private final AXPathExpression xpText = XmlEnvironment.hardcodedXPath(".");
+	public static final String DENSE_ENCODING = "dense";
+	private static final int MIN_RUN = 3; //Shorter runs take less space written out
 
 	@Override
 	public Table deserialize(Node root) throws SerializationException {
 		Table result = null;
 		try {
-			int rows = Integer.parseInt(this.xpRows.getString(root));
-			int cols = Integer.parseInt(this.xpColumns.getString(root));
+			//The table is read walking the DOM: on a large document, each XPath evaluation takes time proportional to the whole document
+			Element table = firstChild(root, "table");
+			if (table == null) {
+				throw new SerializationException("A table property does not contain a table.");
+			}
+			int rows = Integer.parseInt(table.getAttribute("rows"));
+			int cols = Integer.parseInt(table.getAttribute("columns"));
 			result = new Table(rows, cols);
 
-			for (Node cell : this.xpCells.getNodes(root)) {
-				int row = Integer.parseInt(this.xpRow.getString(cell));
-				int col = Integer.parseInt(this.xpColumn.getString(cell));
-				int val = Integer.parseInt(this.xpText.getString(cell));
-				result.set(row, col, val);
+			boolean dense = DENSE_ENCODING.equals(table.getAttribute("encoding"));
+			int row = 0;
+			for (Node child = table.getFirstChild(); child != null; child = child.getNextSibling()) {
+				if (child.getNodeType() != Node.ELEMENT_NODE) continue;
+				if (dense && child.getNodeName().equals("row")) {
+					if (row >= rows) {
+						throw new SerializationException("A table has more than the " + rows + " rows it declares.");
+					}
+					decodeRow(child.getTextContent(), result, row++);
+				} else if (!dense && child.getNodeName().equals("cell")) {
+					Element cell = (Element) child;
+					int r = Integer.parseInt(cell.getAttribute("row"));
+					int c = Integer.parseInt(cell.getAttribute("column"));
+					int val = Integer.parseInt(cell.getTextContent().trim());
+					result.set(r, c, val);
+				}
+			}
+			if (dense && row < rows) {
+				throw new SerializationException("A table has " + row + " rows instead of the " + rows + " it declares.");
 			}
 
 		} catch (NumberFormatException e) {
 			throw new SerializationException("Could not interpret an integer while deserializing a table.", e);
-		} catch (XPathExpressionException e) {
-			throw new SerializationException("Could not evaluate XPath expression while deserializing a table.", e);
+		} catch (ArrayIndexOutOfBoundsException e) {
+			throw new SerializationException("A cell lies outside its table.", e);
 		}
 
 		return result;
 	}
 
+	private static Element firstChild(Node parent, String name) {
+		for (Node child = parent.getFirstChild(); child != null; child = child.getNextSibling()) {
+			if (child.getNodeType() == Node.ELEMENT_NODE && child.getNodeName().equals(name)) {
+				return (Element) child;
+			}
+		}
+		return null;
+	}
+
 	@Override
 	public Node serialize(Document doc, Object value) {
 		Table t = (Table) value;
+		int cols = t.getColumnCount(),
+			rows = cols > 0 ? t.getRowCount() : 0;
 		Element table = doc.createElement("table");
-		table.setAttribute("rows", "" + t.getRowCount());
-		table.setAttribute("columns", "" + t.getColumnCount());
+		table.setAttribute("rows", "" + rows);
+		table.setAttribute("columns", "" + cols);
+		table.setAttribute("encoding", DENSE_ENCODING);
 
-		for (int r = 0; r < t.getRowCount(); r++) {
-			for (int c = 0; c < t.getColumnCount(); c++) {
-				if (t.get(r, c) != 0) {
-					Element cell = doc.createElement("cell");
-					cell.setAttribute("row", "" + r);
-					cell.setAttribute("column", "" + c);
-					cell.setTextContent("" + t.get(r, c));
-					table.appendChild(cell);
-				}
-			}
+		for (int r = 0; r < rows; r++) {
+			Element row = doc.createElement("row");
+			row.setTextContent(encodeRow(t, r));
+			table.appendChild(row);
 		}
 
 		return table;
 	}
+
+	/**
+	 * Returns the text of a row in the dense encoding.
+	 * 
+	 * @param t the table
+	 * @param row the index of the row
+	 * @return the values of the row, separated by spaces, with runs written as value*count
+	 */
+	static String encodeRow(Table t, int row) {
+		StringBuilder text = new StringBuilder();
+		int cols = t.getColumnCount();
+		for (int c = 0; c < cols;) {
+			int value = t.get(row, c),
+				run = 1;
+			while (c + run < cols && t.get(row, c + run) == value) {
+				run++;
+			}
+			if (text.length() > 0) {
+				text.append(' ');
+			}
+			if (run >= MIN_RUN) {
+				text.append(value).append('*').append(run);
+				c += run;
+			} else {
+				text.append(value);
+				c++;
+			}
+		}
+		return text.toString();
+	}
+
+	/**
+	 * Reads the text of a row in the dense encoding into a table.
+	 * 
+	 * @param text the text of the row
+	 * @param t the table
+	 * @param row the index of the row
+	 * @throws SerializationException if the text is not a row of the table
+	 * @throws NumberFormatException if a value is not an integer
+	 */
+	static void decodeRow(String text, Table t, int row) throws SerializationException {
+		int cols = t.getColumnCount(),
+			col = 0;
+		for (String token : text.trim().split("\\s+")) {
+			if (token.length() == 0) continue;
+			int star = token.indexOf('*');
+			int value = Integer.parseInt(star < 0 ? token : token.substring(0, star)),
+				run = star < 0 ? 1 : Integer.parseInt(token.substring(star + 1));
+			if (run < 0 || col + run > cols) {
+				throw new SerializationException("Row " + row + " of a table has more than " + cols + " values.");
+			}
+			for (int i = 0; i < run; i++) {
+				t.set(row, col++, value);
+			}
+		}
+		if (col < cols) {
+			throw new SerializationException("Row " + row + " of a table has " + col + " values instead of " + cols + ".");
+		}
+	}
 }
@@ -33,6 +33,18 @@ public class XMLSerializer {
 	 */
 	private final Map<String, TypeSerializer<?>> typeSerializers;
 
+	/**
+	 * Patterns (compiled once: deserializing a model evaluates them for every entity).
+	 */
+	private final AXPathExpression modelProperties = XmlEnvironment.hardcodedXPath("/inat-model/properties");
+	private final AXPathExpression vertices = XmlEnvironment.hardcodedXPath("/inat-model/reactants/reactant");
+	private final AXPathExpression edges = XmlEnvironment.hardcodedXPath("/inat-model/reactions/reaction");
+	private final AXPathExpression properties = XmlEnvironment.hardcodedXPath("./properties");
+	private final AXPathExpression idAttribute = XmlEnvironment.hardcodedXPath("@id");
+	private final AXPathExpression props = XmlEnvironment.hardcodedXPath("./property");
+	private final AXPathExpression propName = XmlEnvironment.hardcodedXPath("@name");
+	private final AXPathExpression propType = XmlEnvironment.hardcodedXPath("@type");
+
 	/**
 	 * Constructor.
 	 */
@@ -42,6 +54,7 @@ public class XMLSerializer {
 		this.typeSerializers.put(Boolean.class.getCanonicalName(), new BooleanSerializer());
 		this.typeSerializers.put(Integer.class.getCanonicalName(), new IntegerSerializer());
 		this.typeSerializers.put(Float.class.getCanonicalName(), new FloatSerializer());
+		this.typeSerializers.put(Double.class.getCanonicalName(), new DoubleSerializer());
 		this.typeSerializers.put(Table.class.getCanonicalName(), new TableSerializer());
 	}
 
@@ -140,36 +153,31 @@ public class XMLSerializer {
 	}
 
 	/**
-	 * Converts an XML representation to an {@link Model}.
+	 * Converts an XML representation to an {@link Model}. For large models,
+	 * {@link StreamingXMLSerializer} reads the same format much faster.
 	 * 
 	 * @param d the document to deserialize
 	 * @return the model
 	 * @throws SerializationException if the deserialization failed
 	 */
 	public Model deserializeModel(Document d) throws SerializationException {
-		final AXPathExpression modelProperties = XmlEnvironment.hardcodedXPath("/inat-model/properties");
-		final AXPathExpression vertices = XmlEnvironment.hardcodedXPath("/inat-model/reactants/reactant");
-		final AXPathExpression edges = XmlEnvironment.hardcodedXPath("/inat-model/reactions/reaction");
-		final AXPathExpression properties = XmlEnvironment.hardcodedXPath("./properties");
-		final AXPathExpression idAttribute = XmlEnvironment.hardcodedXPath("@id");
-
 		Model m = new Model();
 		try {
 			// deserialize properties on whole model
-			this.deserializerProperties(modelProperties.getNode(d.getDocumentElement()), m.getProperties());
+			this.deserializerProperties(this.modelProperties.getNode(d.getDocumentElement()), m.getProperties());
 
 			// deserialize the vertices
-			for (Node root : vertices.getNodes(d.getDocumentElement())) {
-				String id = idAttribute.getString(root);
+			for (Node root : this.vertices.getNodes(d.getDocumentElement())) {
+				String id = this.idAttribute.getString(root);
 				Reactant v = new Reactant(id);
-				this.deserializerProperties(properties.getNode(root), v.getProperties());
+				this.deserializerProperties(this.properties.getNode(root), v.getProperties());
 				m.add(v);
 			}
 			// deserialize edges
-			for (Node root : edges.getNodes(d.getDocumentElement())) {
-				String id = idAttribute.getString(root);
+			for (Node root : this.edges.getNodes(d.getDocumentElement())) {
+				String id = this.idAttribute.getString(root);
 				Reaction e = new Reaction(id);
-				this.deserializerProperties(properties.getNode(root), e.getProperties());
+				this.deserializerProperties(this.properties.getNode(root), e.getProperties());
 				m.add(e);
 			}
 
@@ -189,19 +197,14 @@ public class XMLSerializer {
 	 * @throws SerializationException if the deserialization failed
 	 */
 	public void deserializerProperties(Node root, PropertyBag properties) throws SerializationException {
-		// compile XPaths
-		final AXPathExpression props = XmlEnvironment.hardcodedXPath("./property");
-		final AXPathExpression propName = XmlEnvironment.hardcodedXPath("@name");
-		final AXPathExpression propType = XmlEnvironment.hardcodedXPath("@type");
-
 		try {
-			for (Node n : props.getNodes(root)) {
+			for (Node n : this.props.getNodes(root)) {
 				// determine name of property
-				String name = propName.getString(n);
+				String name = this.propName.getString(n);
 				Object value = null;
 				// if the property has a type, it is non-null
-				if (propType.getBoolean(n)) {
-					String type = propType.getString(n);
+				if (this.propType.getBoolean(n)) {
+					String type = this.propType.getString(n);
 
 					// get serializer
 					TypeSerializer<?> serializer = this.typeSerializers.get(type);
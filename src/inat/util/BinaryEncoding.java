@@ -0,0 +1,234 @@
+package inat.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Helper methods for compact binary encodings: variable-length integers
+ * (small numbers take a single byte), zig-zag encoding (so that small negative
+ * numbers are small too) and optionally compressed blocks.
+ */
+public class BinaryEncoding {
+	private static final int PLAIN = 0, DEFLATED = 1; //How a block is stored
+	private static final int MAX_DEFLATE_RATIO = 1032; //Deflate cannot compress data more than this: a larger uncompressed length is not genuine
+
+	/**
+	 * Writes a non-negative number in as few bytes as possible (7 bits per byte).
+	 *
+	 * @param out the output
+	 * @param value the number to write
+	 * @throws IOException if the output fails
+	 */
+	public static void writeVarLong(DataOutput out, long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	/**
+	 * Reads a number written by {@link #writeVarLong(DataOutput, long)}.
+	 *
+	 * @param in the input
+	 * @return the number
+	 * @throws IOException if the input fails or the number is malformed
+	 */
+	public static long readVarLong(DataInput in) throws IOException {
+		long result = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = in.readUnsignedByte();
+			result |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return result;
+			}
+		}
+		throw new IOException("Malformed variable-length number");
+	}
+
+	public static void writeVarInt(DataOutput out, int value) throws IOException {
+		writeVarLong(out, value & 0xFFFFFFFFL);
+	}
+
+	public static int readVarInt(DataInput in) throws IOException {
+		return (int) readVarLong(in);
+	}
+
+	/**
+	 * Writes a (possibly negative) number, so that numbers close to 0 take few bytes.
+	 *
+	 * @param out the output
+	 * @param value the number to write
+	 * @throws IOException if the output fails
+	 */
+	public static void writeSignedVarLong(DataOutput out, long value) throws IOException {
+		writeVarLong(out, (value << 1) ^ (value >> 63));
+	}
+
+	public static long readSignedVarLong(DataInput in) throws IOException {
+		long value = readVarLong(in);
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/**
+	 * Puts a (possibly negative) number in an array of bytes, in the same format as
+	 * {@link #writeSignedVarLong(DataOutput, long)}. Packing many numbers in an array
+	 * and writing it at once is much faster than writing them one by one.
+	 *
+	 * @param buffer the array (at least 10 bytes must be free from the offset)
+	 * @param offset where to put the number
+	 * @param value the number
+	 * @return the offset after the number
+	 */
+	public static int putSignedVarLong(byte[] buffer, int offset, long value) {
+		return putVarLong(buffer, offset, (value << 1) ^ (value >> 63));
+	}
+
+	/**
+	 * Puts a non-negative number in an array of bytes, in the same format as
+	 * {@link #writeVarLong(DataOutput, long)}.
+	 *
+	 * @param buffer the array (at least 10 bytes must be free from the offset)
+	 * @param offset where to put the number
+	 * @param value the number
+	 * @return the offset after the number
+	 */
+	public static int putVarLong(byte[] buffer, int offset, long value) {
+		while ((value & ~0x7FL) != 0) {
+			buffer[offset++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buffer[offset++] = (byte) value;
+		return offset;
+	}
+
+	/**
+	 * Reads a number written by {@link #writeVarLong(DataOutput, long)} from a buffer
+	 * (e.g., a memory-mapped file), at the position of the buffer.
+	 *
+	 * @param in the buffer
+	 * @return the number
+	 * @throws IOException if the number is malformed or the buffer ends before it
+	 */
+	public static long getVarLong(ByteBuffer in) throws IOException {
+		long result = 0;
+		try {
+			for (int shift = 0; shift < 64; shift += 7) {
+				int b = in.get();
+				result |= (long) (b & 0x7F) << shift;
+				if ((b & 0x80) == 0) {
+					return result;
+				}
+			}
+		} catch (BufferUnderflowException e) {
+			throw new IOException("Truncated variable-length number");
+		}
+		throw new IOException("Malformed variable-length number");
+	}
+
+	public static long getSignedVarLong(ByteBuffer in) throws IOException {
+		long value = getVarLong(in);
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/**
+	 * Writes a block of bytes, compressing it if it is larger than the given threshold.
+	 *
+	 * @param out the output
+	 * @param data the bytes to write
+	 * @param compressionThreshold the minimum size (in bytes) for a block to be compressed. Use a negative number to never compress
+	 * @throws IOException if the output fails
+	 */
+	public static void writeBlock(DataOutput out, byte[] data, int compressionThreshold) throws IOException {
+		if (compressionThreshold >= 0 && data.length >= compressionThreshold) {
+			Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+			deflater.setInput(data);
+			deflater.finish();
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream(data.length / 2 + 16);
+			byte[] buffer = new byte[8192];
+			while (!deflater.finished()) {
+				int n = deflater.deflate(buffer);
+				compressed.write(buffer, 0, n);
+			}
+			deflater.end();
+			if (compressed.size() < data.length) {
+				out.writeByte(DEFLATED);
+				writeVarInt(out, data.length);
+				writeVarInt(out, compressed.size());
+				out.write(compressed.toByteArray());
+				return;
+			}
+		}
+		out.writeByte(PLAIN);
+		writeVarInt(out, data.length);
+		out.write(data);
+	}
+
+	/**
+	 * Reads a block written by {@link #writeBlock(DataOutput, byte[], int)}.
+	 *
+	 * @param in the input
+	 * @return a stream on the (uncompressed) bytes of the block
+	 * @throws IOException if the input fails or the block is malformed
+	 */
+	public static ByteArrayInputStream readBlock(DataInput in) throws IOException {
+		return readBlock(in, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Reads a block written by {@link #writeBlock(DataOutput, byte[], int)} from an input of
+	 * known size. The lengths in the block are checked against that size before allocating
+	 * them, so that a damaged block is reported as such instead of exhausting the memory.
+	 *
+	 * @param in the input
+	 * @param available the number of bytes left in the input (at most)
+	 * @return a stream on the (uncompressed) bytes of the block
+	 * @throws IOException if the input fails or the block is malformed
+	 */
+	public static ByteArrayInputStream readBlock(DataInput in, long available) throws IOException {
+		int kind = in.readUnsignedByte();
+		int length = readVarInt(in);
+		if (length < 0 || (kind == PLAIN && length > available)) {
+			throw new IOException("Invalid block length " + (length & 0xFFFFFFFFL));
+		}
+		byte[] data;
+		if (kind == PLAIN) {
+			data = new byte[length];
+			in.readFully(data);
+		} else if (kind == DEFLATED) {
+			int compressedLength = readVarInt(in);
+			if (compressedLength < 0 || compressedLength > available || length > compressedLength * (long) MAX_DEFLATE_RATIO) {
+				throw new IOException("Invalid compressed block length " + (compressedLength & 0xFFFFFFFFL));
+			}
+			data = new byte[length];
+			byte[] compressed = new byte[compressedLength];
+			in.readFully(compressed);
+			Inflater inflater = new Inflater();
+			inflater.setInput(compressed);
+			try {
+				int n = 0;
+				while (n < length && !inflater.finished() && !inflater.needsInput()) {
+					n += inflater.inflate(data, n, length - n);
+				}
+				if (n < length) {
+					throw new IOException("Truncated compressed block");
+				}
+			} catch (DataFormatException e) {
+				throw new IOException("Malformed compressed block: " + e.getMessage());
+			} finally {
+				inflater.end();
+			}
+		} else {
+			throw new IOException("Unknown block type " + kind);
+		}
+		return new ByteArrayInputStream(data);
+	}
+}
@@ -5,139 +5,405 @@ import java.io.*;
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 
 /**
  * This class is not currently used.
  * It takes a series of .csv files (with the same headings)
- * and produces a new .csv with the averages of the given data series
+ * and produces a new .csv with the averages of the given data series.
+ * The files are merged row by row (the first column is the time, and each file must be sorted by it),
+ * so memory does not depend on the length of the files. When there are more than GROUP_SIZE files,
+ * they are merged in groups (in parallel), each group into a temporary file with the sums of its rows,
+ * and then the temporary files are merged in the same way: this way we never keep too many files open.
  */
 //Get a series of csv files and output one csv file containing the averages of the columns of all input files
 public class CSVAverager {
+	private static final int GROUP_SIZE = 64, //How many files are merged together (and so are open at the same time in a merge)
+							 MAX_OPEN_FILES = 256; //How many files can be open at the same time by the parallel merges
 	private File[] csvFiles = null;
-	private Vector<Vector<double[]>> data = null; //the arrays of double here are of the same size of the array of headers (i.e., one of the double[] contains one line of one csv file)
-	
+
 	public CSVAverager(String dirName) {
 		this((new File(dirName)).listFiles());
 	}
-	
+
 	public CSVAverager(File[] csvFiles) {
 		this.csvFiles = csvFiles;
-		data = new Vector<Vector<double[]>>(this.csvFiles.length);
-		data.setSize(this.csvFiles.length);
 	}
-	
+
 	public void average(String outputFileName, boolean computeAlsoStdDev) throws Exception {
-		File outputFile = new File(outputFileName);
-		Vector<Vector<String>> files = new Vector<Vector<String>>();
-		String[] lines = new String[csvFiles.length];
-		files.setSize(csvFiles.length);
-		int[] fileStatus = new int[csvFiles.length];
-		final int PAUSE = 0, //non devo leggere la prossima riga: ho ancora quella vecchia da finire
-				  CONTINUE = 1, //devo leggere la prossima riga
-				  EOF = 2; //il file  gi finito: non devo leggere proprio niente
-		BufferedReader reader = null;
-		String firstLine = null; //the first line: we copy it on our output, as it should be the same for every input file
-		double[] averageRow = null,
-				 stdDevRow = null;
-		String[] columnHeaders = null;
-		for (int i=0;i<csvFiles.length;i++) {
-			reader = new BufferedReader(new FileReader(csvFiles[i]));
-			if (i == 0) {
-				firstLine = reader.readLine();
-				StringTokenizer tok = new StringTokenizer(firstLine, ",");
-				averageRow = new double[tok.countTokens()]; //this is the value of the current row which will be output on the file
-				if (computeAlsoStdDev) stdDevRow = new double[averageRow.length];
-				columnHeaders = new String[averageRow.length];
-				int idx = 0;
-				while (tok.hasMoreTokens()) {
-					columnHeaders[idx++] = tok.nextToken();
+		if (csvFiles == null || csvFiles.length < 1) {
+			throw new IOException("No input files to average");
+		}
+		String[] columnHeaders = readHeaders(csvFiles[0]);
+		int nColumns = columnHeaders.length;
+
+		//Merge the files in groups until there are few enough of them to be merged directly in the output
+		List<File> inputs = new ArrayList<File>(Arrays.asList(csvFiles));
+		boolean inputsArePartial = false; //The first level merges the csv files, the next ones the temporary files with the sums
+		int nThreads = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), MAX_OPEN_FILES / GROUP_SIZE));
+		ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+		try {
+			while (inputs.size() > GROUP_SIZE) {
+				List<Future<File>> merges = new ArrayList<Future<File>>();
+				for (int start = 0; start < inputs.size(); start += GROUP_SIZE) {
+					final List<File> group = inputs.subList(start, Math.min(start + GROUP_SIZE, inputs.size()));
+					final boolean partial = inputsArePartial;
+					final int n = nColumns;
+					final boolean stdDev = computeAlsoStdDev;
+					merges.add(pool.submit(new Callable<File>() {
+						@Override
+						public File call() throws Exception {
+							File partialFile = File.createTempFile("inat-average", ".tmp");
+							partialFile.deleteOnExit();
+							try {
+								PartialWriter writer = new PartialWriter(partialFile);
+								try {
+									merge(openSources(group, partial, n, stdDev), writer);
+								} finally {
+									writer.close();
+								}
+							} catch (Exception ex) {
+								partialFile.delete();
+								throw ex;
+							}
+							return partialFile;
+						}
+					}));
+				}
+				List<File> merged = new ArrayList<File>(merges.size());
+				Exception failure = null;
+				for (Future<File> merge : merges) { //if a merge fails, we still wait for the others, so that we can delete their files
+					try {
+						merged.add(merge.get());
+					} catch (ExecutionException ex) {
+						if (failure == null) {
+							failure = ex.getCause() instanceof Exception ? (Exception) ex.getCause() : ex;
+						}
+					}
 				}
-			} else {
-				reader.readLine();
+				if (inputsArePartial) {
+					deleteAll(inputs);
+				}
+				if (failure != null) {
+					deleteAll(merged);
+					throw failure;
+				}
+				inputs = merged;
+				inputsArePartial = true;
+			}
+		} finally {
+			pool.shutdown();
+		}
+
+		AverageWriter out = new AverageWriter(new File(outputFileName), columnHeaders, computeAlsoStdDev);
+		try {
+			merge(openSources(inputs, inputsArePartial, nColumns, computeAlsoStdDev), out);
+		} finally {
+			out.close();
+			if (inputsArePartial) {
+				deleteAll(inputs);
+			}
+		}
+	}
+
+	private static void deleteAll(List<File> files) {
+		for (File f : files) {
+			f.delete();
+		}
+	}
+
+	/**
+	 * Read the column headers from the first line of a csv file.
+	 */
+	private static String[] readHeaders(File csvFile) throws IOException {
+		BufferedReader reader = new BufferedReader(new FileReader(csvFile));
+		try {
+			String firstLine = reader.readLine();
+			if (firstLine == null) {
+				throw new IOException("The file " + csvFile + " is empty");
 			}
-			files.set(i, new Vector<String>());
-			String line = null;
-			while (true) {
-				line = reader.readLine();
-				if (line == null || line.length() < 1) break;
-				files.elementAt(i).add(line);
+			List<String> headers = new ArrayList<String>();
+			int start = 0;
+			while (start <= firstLine.length()) {
+				int end = firstLine.indexOf(',', start);
+				if (end < 0) end = firstLine.length();
+				if (end > start) headers.add(firstLine.substring(start, end));
+				start = end + 1;
 			}
+			return headers.toArray(new String[headers.size()]);
+		} finally {
 			reader.close();
-			fileStatus[i] = CONTINUE;
-		}
-		
-		BufferedWriter out = new BufferedWriter(new FileWriter(outputFile));
-		//out.write(firstLine);
-		out.write(columnHeaders[0] + ",");
-		for (int i=1;i<columnHeaders.length-1;i++) {
-			out.write(columnHeaders[i] + ",");
-			if (computeAlsoStdDev) out.write(columnHeaders[i] + "_StdDev,");
-		}
-		out.write(columnHeaders[columnHeaders.length-1]);
-		if (computeAlsoStdDev) out.write("," + columnHeaders[columnHeaders.length-1] + "_StdDev");
-		out.newLine();
-		DecimalFormat formatter = new DecimalFormat("#.####", new DecimalFormatSymbols(Locale.US));
-        
-		double[][] currentRow = new double[csvFiles.length][averageRow.length]; //this is the values of the current row of the matrix on the different files
-		boolean allFinished = false;
-		int countValid = 0;
-		while (!allFinished) { //scorriamo le righe finch non restano pi file che hanno ancora righe
-			allFinished = true;
-			countValid = 0;
-			averageRow[0] = Double.NaN;
-			for (int i=1;i<averageRow.length;i++) {
-				averageRow[i] = 0;
-				if (computeAlsoStdDev) stdDevRow[i] = 0;
-			}
-			for (int i=0;i<csvFiles.length;i++) {
-				if (fileStatus[i] == EOF) continue;
-				if (files.elementAt(i).size() == 0 || files.elementAt(i).elementAt(0) == null || files.elementAt(i).elementAt(0).length() < 1) {
-					fileStatus[i] = EOF;
-					continue;
-				}
-				if (fileStatus[i] == CONTINUE) {
-					lines[i] = files.elementAt(i).remove(0);
+		}
+	}
+
+	private static List<RowSource> openSources(List<File> files, boolean partial, int nColumns, boolean stdDev) throws IOException {
+		List<RowSource> sources = new ArrayList<RowSource>(files.size());
+		try {
+			for (File f : files) {
+				sources.add(partial ? new PartialReader(f, nColumns, stdDev) : new CsvReader(f, nColumns, stdDev));
+			}
+		} catch (IOException ex) {
+			for (RowSource s : sources) {
+				s.close();
+			}
+			throw ex;
+		}
+		return sources;
+	}
+
+	/**
+	 * Merge the rows of the given sources (closing them at the end): for each time, the sums of the rows
+	 * of all the sources which have a row at that time are given to the output.
+	 */
+	private static void merge(List<RowSource> sources, RowSink out) throws IOException {
+		PriorityQueue<RowSource> queue = new PriorityQueue<RowSource>(Math.max(1, sources.size()), new Comparator<RowSource>() {
+			@Override
+			public int compare(RowSource a, RowSource b) {
+				return Double.compare(a.time, b.time);
+			}
+		});
+		try {
+			for (RowSource s : sources) {
+				if (s.next()) {
+					queue.add(s);
+				} else {
+					s.close();
 				}
-				allFinished = false;
-				StringTokenizer tok = new StringTokenizer(lines[i], ",");
-				currentRow[i][0] = Double.parseDouble(tok.nextToken());
-				if (Double.isNaN(averageRow[0]) || currentRow[i][0] < averageRow[0]) {
-					averageRow[0] = currentRow[i][0];
-					if (computeAlsoStdDev) stdDevRow[0] = currentRow[i][0];
+			}
+			RowSource first = queue.peek();
+			if (first == null) return;
+			double[] sums = new double[first.sums.length],
+					 sumSquares = first.sumSquares == null ? null : new double[first.sumSquares.length];
+			List<RowSource> current = new ArrayList<RowSource>(sources.size());
+			while (!queue.isEmpty()) { //each source gives at most one row for each output row, as a source can have more than one row with the same time
+				double time = queue.peek().time;
+				int count = 0;
+				Arrays.fill(sums, 0);
+				if (sumSquares != null) Arrays.fill(sumSquares, 0);
+				current.clear();
+				while (!queue.isEmpty() && queue.peek().time == time) {
+					RowSource s = queue.poll();
+					count += s.count;
+					for (int j = 0; j < sums.length; j++) {
+						sums[j] += s.sums[j];
+					}
+					if (sumSquares != null) {
+						for (int j = 0; j < sumSquares.length; j++) {
+							sumSquares[j] += s.sumSquares[j];
+						}
+					}
+					current.add(s);
 				}
-				for (int j=1;j<currentRow[i].length;j++) {
-					currentRow[i][j] = Double.parseDouble(tok.nextToken());
+				out.write(time, count, sums, sumSquares);
+				for (RowSource s : current) {
+					if (s.next()) {
+						queue.add(s);
+					} else {
+						s.close();
+					}
 				}
 			}
-			if (allFinished) break;
-			for (int i=0;i<csvFiles.length;i++) {
-				if (currentRow[i][0] == averageRow[0] && fileStatus[i] != EOF) {
-					fileStatus[i] = CONTINUE;
-					for (int j=1;j<currentRow[i].length;j++) {
-						averageRow[j] += currentRow[i][j];
-						if (computeAlsoStdDev) stdDevRow[j] += currentRow[i][j] * currentRow[i][j];
+		} finally {
+			for (RowSource s : sources) { //closing twice does no harm
+				s.close();
+			}
+		}
+	}
+
+	/**
+	 * A sequence of rows, sorted by time. Each row is the sum of count rows of the original files
+	 * (sums and sums of squares of the columns after the first).
+	 */
+	private abstract static class RowSource {
+		double time;
+		int count;
+		final double[] sums, sumSquares;
+
+		RowSource(int nColumns, boolean stdDev) {
+			sums = new double[nColumns - 1];
+			sumSquares = stdDev ? new double[nColumns - 1] : null;
+		}
+
+		/**
+		 * Read the next row.
+		 * @return false if there are no more rows
+		 */
+		abstract boolean next() throws IOException;
+
+		abstract void close();
+	}
+
+	/**
+	 * The rows of a csv file.
+	 */
+	private static class CsvReader extends RowSource {
+		private final File file;
+		private final BufferedReader reader;
+		private int lineNumber = 1;
+
+		CsvReader(File file, int nColumns, boolean stdDev) throws IOException {
+			super(nColumns, stdDev);
+			this.file = file;
+			this.reader = new BufferedReader(new FileReader(file), 1 << 16);
+			reader.readLine(); //the headers
+			count = 1;
+		}
+
+		@Override
+		boolean next() throws IOException {
+			String line = reader.readLine();
+			lineNumber++;
+			if (line == null || line.length() < 1) return false;
+			int start = 0, column = 0;
+			while (start <= line.length()) {
+				int end = line.indexOf(',', start);
+				if (end < 0) end = line.length();
+				if (end > start) { //empty values are skipped, as StringTokenizer did
+					if (column > sums.length) {
+						throw new IOException("Line " + lineNumber + " of " + file + " has more than " + (sums.length + 1) + " values");
 					}
-					countValid++;
-				} else {
-					fileStatus[i] = PAUSE;
+					double value = DecimalParser.parseDouble(line, start, end);
+					if (column == 0) {
+						time = value;
+					} else {
+						sums[column - 1] = value;
+						if (sumSquares != null) sumSquares[column - 1] = value * value;
+					}
+					column++;
 				}
+				start = end + 1;
+			}
+			if (column <= sums.length) {
+				throw new IOException("Line " + lineNumber + " of " + file + " has " + column + " values instead of " + (sums.length + 1));
 			}
-			
-			out.write(averageRow[0] + ",");
-			for (int i=1;i<averageRow.length-1;i++) {
-				double currAverage = averageRow[i] / countValid,
+			return true;
+		}
+
+		@Override
+		void close() {
+			try {
+				reader.close();
+			} catch (IOException ex) {
+				//nothing to do
+			}
+		}
+	}
+
+	/**
+	 * The rows of a temporary file written by a PartialWriter.
+	 */
+	private static class PartialReader extends RowSource {
+		private final DataInputStream in;
+
+		PartialReader(File file, int nColumns, boolean stdDev) throws IOException {
+			super(nColumns, stdDev);
+			this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+		}
+
+		@Override
+		boolean next() throws IOException {
+			if (!in.readBoolean()) return false;
+			time = in.readDouble();
+			count = in.readInt();
+			for (int j = 0; j < sums.length; j++) {
+				sums[j] = in.readDouble();
+			}
+			if (sumSquares != null) {
+				for (int j = 0; j < sumSquares.length; j++) {
+					sumSquares[j] = in.readDouble();
+				}
+			}
+			return true;
+		}
+
+		@Override
+		void close() {
+			try {
+				in.close();
+			} catch (IOException ex) {
+				//nothing to do
+			}
+		}
+	}
+
+	private interface RowSink {
+		void write(double time, int count, double[] sums, double[] sumSquares) throws IOException;
+	}
+
+	/**
+	 * Writes the merged rows (sums, not averages) in binary to a temporary file, to be merged again later.
+	 */
+	private static class PartialWriter implements RowSink {
+		private final DataOutputStream out;
+
+		PartialWriter(File file) throws IOException {
+			this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+		}
+
+		@Override
+		public void write(double time, int count, double[] sums, double[] sumSquares) throws IOException {
+			out.writeBoolean(true);
+			out.writeDouble(time);
+			out.writeInt(count);
+			for (double v : sums) {
+				out.writeDouble(v);
+			}
+			if (sumSquares != null) {
+				for (double v : sumSquares) {
+					out.writeDouble(v);
+				}
+			}
+		}
+
+		void close() throws IOException {
+			out.writeBoolean(false);
+			out.close();
+		}
+	}
+
+	/**
+	 * Writes the averages (and standard deviations) in the output csv file.
+	 */
+	private static class AverageWriter implements RowSink {
+		private final BufferedWriter out;
+		private final boolean computeAlsoStdDev;
+		private final DecimalFormat formatter = new DecimalFormat("#.####", new DecimalFormatSymbols(Locale.US));
+
+		AverageWriter(File outputFile, String[] columnHeaders, boolean computeAlsoStdDev) throws IOException {
+			this.out = new BufferedWriter(new FileWriter(outputFile));
+			this.computeAlsoStdDev = computeAlsoStdDev;
+			out.write(columnHeaders[0] + ",");
+			for (int i=1;i<columnHeaders.length-1;i++) {
+				out.write(columnHeaders[i] + ",");
+				if (computeAlsoStdDev) out.write(columnHeaders[i] + "_StdDev,");
+			}
+			out.write(columnHeaders[columnHeaders.length-1]);
+			if (computeAlsoStdDev) out.write("," + columnHeaders[columnHeaders.length-1] + "_StdDev");
+			out.newLine();
+		}
+
+		@Override
+		public void write(double time, int countValid, double[] sums, double[] sumSquares) throws IOException {
+			out.write(time + ",");
+			for (int i=0;i<sums.length-1;i++) {
+				double currAverage = sums[i] / countValid,
 					   currStdDev = 0;
-				if (computeAlsoStdDev) currStdDev = Math.sqrt((stdDevRow[i] - 2 * currAverage * averageRow[i] + countValid * currAverage * currAverage) / countValid);
+				if (computeAlsoStdDev) currStdDev = Math.sqrt((sumSquares[i] - 2 * currAverage * sums[i] + countValid * currAverage * currAverage) / countValid);
 				out.write("" + formatter.format(currAverage) + ",");
 				if (computeAlsoStdDev) {
 					if (currStdDev > 1e-8) out.write("" + formatter.format(currStdDev) + ",");
 					else out.write(",");
 				}
 			}
-			double lastAverage = averageRow[averageRow.length-1] / countValid,
+			int last = sums.length-1;
+			double lastAverage = sums[last] / countValid,
 				   lastStdDev = 0;
-			if (computeAlsoStdDev) lastStdDev = Math.sqrt((stdDevRow[averageRow.length-1] - 2 * lastAverage * averageRow[averageRow.length-1] + countValid * lastAverage * lastAverage) / countValid);
+			if (computeAlsoStdDev) lastStdDev = Math.sqrt((sumSquares[last] - 2 * lastAverage * sums[last] + countValid * lastAverage * lastAverage) / countValid);
 			out.write("" + formatter.format(lastAverage));
 			if (computeAlsoStdDev) {
 				if (lastStdDev > 1e-8) out.write("," + lastStdDev);
@@ -145,97 +411,22 @@ public class CSVAverager {
 			}
 			out.newLine();
 		}
-		out.close();
-	}
-	
-	//Old version: tries to do everything on the fly, but it keeps too many files open! (e.g., when asking for an average on 1000 runs, it stops because it cannot open any more files)
-	/*public void average1(String outputFileName) throws Exception {
-		File outputFile = new File(outputFileName);
-		String[] lines = new String[csvFiles.length];
-		int[] fileStatus = new int[csvFiles.length];
-		final int PAUSE = 0, //non devo leggere la prossima riga: ho ancora quella vecchia da finire
-				  CONTINUE = 1, //devo leggere la prossima riga
-				  EOF = 2; //il file  gi finito: non devo leggere proprio niente
-		BufferedReader[] readers = new BufferedReader[csvFiles.length];
-		String firstLine = null; //the first line: we copy it on our output, as it should be the same for every input file
-		double[] averageRow = null;
-		for (int i=0;i<csvFiles.length;i++) {
-			readers[i] = new BufferedReader(new FileReader(csvFiles[i]));
-			if (i == 0) {
-				firstLine = readers[i].readLine();
-				averageRow = new double[new StringTokenizer(firstLine, ",").countTokens()]; //this is the value of the current row which will be output on the file
-			} else {
-				readers[i].readLine();
-			}
-			fileStatus[i] = CONTINUE;
-		}
-		
-		BufferedWriter out = new BufferedWriter(new FileWriter(outputFile));
-		out.write(firstLine);
-		out.newLine();
-		DecimalFormat formatter = new DecimalFormat("#.####", new DecimalFormatSymbols(Locale.US));
-        
-		double[][] currentRow = new double[csvFiles.length][averageRow.length]; //this is the values of the current row of the matrix on the different files
-		boolean allFinished = false;
-		int countValid = 0;
-		while (!allFinished) { //scorriamo le righe finch non restano pi file che hanno ancora righe
-			allFinished = true;
-			countValid = 0;
-			averageRow[0] = Double.NaN;
-			for (int i=1;i<averageRow.length;i++) {
-				averageRow[i] = 0;
-			}
-			for (int i=0;i<csvFiles.length;i++) {
-				if (fileStatus[i] == EOF) continue;
-				if (fileStatus[i] == CONTINUE) {
-					lines[i] = readers[i].readLine();
-				}
-				if (lines[i] == null || lines[i].length() < 2) {
-					fileStatus[i] = EOF;
-					continue;
-				}
-				allFinished = false;
-				StringTokenizer tok = new StringTokenizer(lines[i], ",");
-				currentRow[i][0] = Double.parseDouble(tok.nextToken());
-				if (Double.isNaN(averageRow[0]) || currentRow[i][0] < averageRow[0]) {
-					averageRow[0] = currentRow[i][0];
-				}
-				for (int j=1;j<currentRow[i].length;j++) {
-					currentRow[i][j] = Double.parseDouble(tok.nextToken());
-				}
-			}
-			if (allFinished) break;
-			for (int i=0;i<csvFiles.length;i++) {
-				if (currentRow[i][0] == averageRow[0] && fileStatus[i] != EOF) {
-					fileStatus[i] = CONTINUE;
-					for (int j=1;j<currentRow[i].length;j++) {
-						averageRow[j] += currentRow[i][j];
-					}
-					countValid++;
-				} else {
-					fileStatus[i] = PAUSE;
-				}
-			}
-			
-			out.write(averageRow[0] + ",");
-			for (int i=1;i<averageRow.length-1;i++) {
-				out.write("" + formatter.format(averageRow[i] / countValid) + ",");
-			}
-			out.write("" + formatter.format(averageRow[averageRow.length-1] / countValid));
-			out.newLine();
+
+		void close() throws IOException {
+			out.close();
 		}
-		out.close();
-	}*/
-	
+	}
+
 	public static void main(String[] args) throws Exception {
 		if (args.length >= 2) {
 			CSVAverager av = new CSVAverager(args[0]);
-			av.average(args[1], false);
+			av.average(args[1], args.length >= 3 && args[2].equals("stddev"));
 			System.out.println("Ok, written file " + args[1]);
 		} else {
 			System.out.println("Expected 2 parameters:");
 			System.out.println(" (1) directory with only .csv files inside it"); //you can explain me why in the 9 hells the File.listFiles method does *not* accept a FileFilter argument, even if it is in the documentation. Is it a problem of my JDK??
 			System.out.println(" (2) output .csv files with all the averages");
+			System.out.println(" (3) optional: stddev to add the standard deviation of each column");
 		}
 	}
 }
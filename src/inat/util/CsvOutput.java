@@ -0,0 +1,168 @@
+package inat.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+
+/**
+ * Writes a csv file quickly: the text goes into a large buffer, which is written to the
+ * file channel only when it is full, and numbers are formatted directly into the buffer
+ * without creating any object. Numbers are written as DecimalFormat("#.####") would write
+ * them (which is how the csv files of the program have always been written).
+ */
+public class CsvOutput {
+	private static final int BUFFER_SIZE = 1 << 20,
+							 DECIMALS = 4; //The maximum number of decimals written
+	private static final long SCALE = 10000; //10^DECIMALS
+	private static final double MAX_FAST_VALUE = 1e9; //Larger numbers (and NaN, infinity) are left to DecimalFormat, as multiplying them by SCALE is not precise enough
+	private static final byte[] NEW_LINE = System.getProperty("line.separator").getBytes();
+
+	private final FileOutputStream stream;
+	private final FileChannel channel;
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+	private final ByteBuffer wrapper = ByteBuffer.wrap(buffer);
+	private int position = 0;
+	private DecimalFormat formatter = null; //Only for the numbers we do not format ourselves
+
+	/**
+	 * Create (or overwrite) a csv file.
+	 *
+	 * @param file the file
+	 * @throws IOException if the file cannot be created
+	 */
+	public CsvOutput(File file) throws IOException {
+		this.stream = new FileOutputStream(file);
+		this.channel = stream.getChannel();
+	}
+
+	private void ensure(int bytes) throws IOException {
+		if (position + bytes > buffer.length) {
+			flush();
+		}
+	}
+
+	/**
+	 * Write the buffer to the file.
+	 */
+	public void flush() throws IOException {
+		wrapper.clear();
+		wrapper.limit(position);
+		while (wrapper.hasRemaining()) {
+			channel.write(wrapper);
+		}
+		position = 0;
+	}
+
+	/**
+	 * Write a piece of text (in the default charset, as a FileWriter does).
+	 */
+	public CsvOutput write(String s) throws IOException {
+		int length = s.length();
+		for (int i = 0; i < length; i++) {
+			if (s.charAt(i) >= 128) {
+				byte[] bytes = s.getBytes(Charset.defaultCharset());
+				for (int written = 0; written < bytes.length;) {
+					ensure(1);
+					int n = Math.min(bytes.length - written, buffer.length - position);
+					System.arraycopy(bytes, written, buffer, position, n);
+					position += n;
+					written += n;
+				}
+				return this;
+			}
+		}
+		for (int start = 0; start < length;) { //plain ASCII: copied directly
+			ensure(1);
+			int n = Math.min(length - start, buffer.length - position);
+			for (int i = 0; i < n; i++) {
+				buffer[position++] = (byte) s.charAt(start + i);
+			}
+			start += n;
+		}
+		return this;
+	}
+
+	public CsvOutput write(char c) throws IOException {
+		if (c >= 128) {
+			return write(String.valueOf(c));
+		}
+		ensure(1);
+		buffer[position++] = (byte) c;
+		return this;
+	}
+
+	public CsvOutput newLine() throws IOException {
+		ensure(NEW_LINE.length);
+		for (byte b : NEW_LINE) {
+			buffer[position++] = b;
+		}
+		return this;
+	}
+
+	/**
+	 * Write a number with at most 4 decimals (without trailing zeros), as DecimalFormat("#.####") does:
+	 * e.g., 2 is "2", 0.5 is "0.5", -3.14159 is "-3.1416".
+	 */
+	public CsvOutput write(double value) throws IOException {
+		double scaledValue = Math.abs(value) * SCALE,
+			   half = scaledValue - Math.floor(scaledValue) - 0.5;
+		if (!(Math.abs(value) < MAX_FAST_VALUE) || Math.abs(half) < 1e-6) {
+			//Too large, not a number, or (nearly) half way between two results, where the multiplication may have rounded it on the wrong side
+			if (formatter == null) {
+				formatter = new DecimalFormat("#.####", new DecimalFormatSymbols(Locale.US));
+			}
+			return write(formatter.format(value));
+		}
+		ensure(32);
+		if (value < 0 || (value == 0 && 1 / value < 0)) { //DecimalFormat keeps the sign also when the number is rounded to 0
+			buffer[position++] = '-';
+		}
+		long scaled = (long) Math.rint(scaledValue), //not a tie, so rint rounds as DecimalFormat
+			 integer = scaled / SCALE;
+		int fraction = (int) (scaled % SCALE);
+		writeDigits(integer);
+		if (fraction != 0) {
+			int digits = DECIMALS;
+			while (fraction % 10 == 0) { //no trailing zeros
+				fraction /= 10;
+				digits--;
+			}
+			buffer[position++] = '.';
+			for (int i = position + digits - 1; i >= position; i--) {
+				buffer[i] = (byte) ('0' + fraction % 10);
+				fraction /= 10;
+			}
+			position += digits;
+		}
+		return this;
+	}
+
+	private void writeDigits(long n) {
+		int digits = 1;
+		for (long limit = 10; limit <= n && digits < 19; limit *= 10) {
+			digits++;
+		}
+		for (int i = position + digits - 1; i >= position; i--) {
+			buffer[i] = (byte) ('0' + n % 10);
+			n /= 10;
+		}
+		position += digits;
+	}
+
+	/**
+	 * Write what is left in the buffer and close the file.
+	 */
+	public void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			stream.close();
+		}
+	}
+}
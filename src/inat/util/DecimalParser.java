@@ -0,0 +1,94 @@
+package inat.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Parses the numbers of the csv files without creating a string for each of them.
+ * Plain decimal numbers like -12.345 (up to 15 digits) are computed directly, and are
+ * exact as with Double.parseDouble (an exact integer divided by an exact power of ten):
+ * the others are given to Double.parseDouble.
+ */
+public class DecimalParser {
+	private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15 };
+
+	/**
+	 * Parse a decimal number in a part of a text. Blanks around the number are ignored.
+	 *
+	 * @param s the text
+	 * @param start the index of the first character of the number
+	 * @param end the index after the last character of the number
+	 * @return the number
+	 * @throws NumberFormatException if the text is not a number
+	 */
+	public static double parseDouble(CharSequence s, int start, int end) {
+		int i = start;
+		while (i < end && s.charAt(i) <= ' ') i++;
+		while (end > i && s.charAt(end - 1) <= ' ') end--;
+		boolean negative = false;
+		if (i < end && (s.charAt(i) == '-' || s.charAt(i) == '+')) {
+			negative = s.charAt(i) == '-';
+			i++;
+		}
+		long mantissa = 0;
+		int digits = 0, decimals = -1;
+		boolean plain = i < end;
+		for (; i < end; i++) {
+			char c = s.charAt(i);
+			if (c >= '0' && c <= '9') {
+				mantissa = mantissa * 10 + (c - '0');
+				digits++;
+				if (decimals >= 0) decimals++;
+			} else if (c == '.' && decimals < 0) {
+				decimals = 0;
+			} else {
+				plain = false;
+				break;
+			}
+		}
+		if (!plain || digits == 0 || digits > 15) {
+			return Double.parseDouble(s.subSequence(start, end).toString());
+		}
+		double value = decimals > 0 ? mantissa / POWERS_OF_TEN[decimals] : mantissa;
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Returns the given bytes (ASCII text, from index 0 to the limit) seen as characters,
+	 * without copying them, so that numbers can be parsed from them.
+	 *
+	 * @param bytes the bytes
+	 * @return the text
+	 */
+	public static CharSequence asText(ByteBuffer bytes) {
+		return new ByteText(bytes);
+	}
+
+	private static final class ByteText implements CharSequence {
+		private final ByteBuffer bytes;
+
+		ByteText(ByteBuffer bytes) {
+			this.bytes = bytes;
+		}
+
+		public char charAt(int index) {
+			return (char) (bytes.get(index) & 0xFF);
+		}
+
+		public int length() {
+			return bytes.limit();
+		}
+
+		public CharSequence subSequence(int start, int end) {
+			StringBuilder text = new StringBuilder(end - start);
+			for (int i = start; i < end; i++) {
+				text.append(charAt(i));
+			}
+			return text;
+		}
+
+		@Override
+		public String toString() {
+			return subSequence(0, length()).toString();
+		}
+	}
+}
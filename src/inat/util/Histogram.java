@@ -0,0 +1,142 @@
+package inat.util;
+
+import java.io.Serializable;
+
+/**
+ * A histogram of non-negative values (e.g., durations in microseconds) with a fixed
+ * relative precision, in the style of HdrHistogram: values below 64 have their own
+ * bucket, and larger values are grouped in buckets whose width is about 3% of the
+ * value. In this way a few hundred counters cover any range of values, and the
+ * percentiles are accurate within 3% however long the tail is.
+ * The methods are synchronized, so that a histogram can be updated by more threads.
+ */
+public class Histogram implements Serializable {
+	private static final long serialVersionUID = -5186630184725389440L;
+	private static final int SUB_BUCKET_BITS = 6, //Values below 2^SUB_BUCKET_BITS are counted exactly
+							 SUB_BUCKETS = 1 << SUB_BUCKET_BITS,
+							 HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+
+	private long[] counts = new long[SUB_BUCKETS]; //Grows when larger values are recorded
+	private long totalCount = 0, min = Long.MAX_VALUE, max = 0;
+	private double sum = 0;
+
+	/**
+	 * Returns the bucket in which the given value is counted.
+	 */
+	private static int bucketOf(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int shift = (63 - Long.numberOfLeadingZeros(value)) - (SUB_BUCKET_BITS - 1);
+		int subBucket = (int) (value >>> shift); //in [HALF_SUB_BUCKETS, SUB_BUCKETS)
+		return SUB_BUCKETS + (shift - 1) * HALF_SUB_BUCKETS + (subBucket - HALF_SUB_BUCKETS);
+	}
+
+	/**
+	 * Returns the largest value counted in the given bucket.
+	 */
+	private static long highestValueIn(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int shift = (bucket - SUB_BUCKETS) / HALF_SUB_BUCKETS + 1;
+		long subBucket = (bucket - SUB_BUCKETS) % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS;
+		return ((subBucket + 1) << shift) - 1;
+	}
+
+	/**
+	 * Count a value.
+	 *
+	 * @param value the value (negative values are counted as 0)
+	 */
+	public synchronized void record(long value) {
+		value = Math.max(0, value);
+		int bucket = bucketOf(value);
+		if (bucket >= counts.length) {
+			long[] larger = new long[bucket + HALF_SUB_BUCKETS];
+			System.arraycopy(counts, 0, larger, 0, counts.length);
+			counts = larger;
+		}
+		counts[bucket]++;
+		totalCount++;
+		sum += value;
+		min = Math.min(min, value);
+		max = Math.max(max, value);
+	}
+
+	/**
+	 * Add all the values counted by another histogram.
+	 *
+	 * @param other the other histogram
+	 */
+	public void add(Histogram other) {
+		Histogram copy = other.copy(); //so that we never hold the locks of both histograms
+		synchronized (this) {
+			if (copy.counts.length > counts.length) {
+				long[] larger = new long[copy.counts.length];
+				System.arraycopy(counts, 0, larger, 0, counts.length);
+				counts = larger;
+			}
+			for (int i = 0; i < copy.counts.length; i++) {
+				counts[i] += copy.counts[i];
+			}
+			totalCount += copy.totalCount;
+			sum += copy.sum;
+			min = Math.min(min, copy.min);
+			max = Math.max(max, copy.max);
+		}
+	}
+
+	public synchronized Histogram copy() {
+		Histogram copy = new Histogram();
+		copy.counts = counts.clone();
+		copy.totalCount = totalCount;
+		copy.sum = sum;
+		copy.min = min;
+		copy.max = max;
+		return copy;
+	}
+
+	public synchronized long getCount() {
+		return totalCount;
+	}
+
+	public synchronized long getMin() {
+		return totalCount == 0 ? 0 : min;
+	}
+
+	public synchronized long getMax() {
+		return max;
+	}
+
+	public synchronized double getMean() {
+		return totalCount == 0 ? 0 : sum / totalCount;
+	}
+
+	/**
+	 * Returns the value below which the given percentage of the values falls
+	 * (within the precision of the histogram).
+	 *
+	 * @param percentile the percentage, in [0, 100]
+	 * @return the value at the given percentile, 0 if no value was recorded
+	 */
+	public synchronized long getValueAtPercentile(double percentile) {
+		if (totalCount == 0) return 0;
+		long wanted = Math.max(1, (long) Math.ceil(Math.min(100, percentile) / 100.0 * totalCount));
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= wanted) {
+				return Math.min(max, Math.max(min, highestValueIn(i)));
+			}
+		}
+		return max;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "count=" + totalCount + " min=" + getMin() + " mean=" + Math.round(getMean())
+				+ " p50=" + getValueAtPercentile(50) + " p90=" + getValueAtPercentile(90)
+				+ " p99=" + getValueAtPercentile(99) + " p99.9=" + getValueAtPercentile(99.9) + " max=" + max;
+	}
+}
@@ -0,0 +1,205 @@
+package inat.util;
+
+import java.io.Serializable;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects the measurements of the program, to see where the time goes and how
+ * the load changes: histograms of the durations of each phase of the analyses
+ * (in microseconds), counters of events (e.g., cache hits) and gauges, which are
+ * read only when a snapshot is taken (e.g., the length of the queue of a server).
+ * There is a single collection for the whole program (see get()).
+ */
+public class Metrics {
+	//Durations (in microseconds) of the phases of an analysis
+	public static final String QUEUE_WAIT = "queue wait", //From the submission of a job to the server to its start
+							   JOB_TIME = "job time", //From the start of a job on the server to its end
+							   MODEL_TRANSFORM = "model transform", //Translating a model into a UPPAAL model
+							   MODEL_FILE_WRITE = "model file write", //Writing the UPPAAL model to a file
+							   VERIFYTA_WALL_TIME = "verifyta wall time", //From the start of verifyta to its end
+							   VERIFYTA_CPU_TIME = "verifyta CPU time", //The processor time used by verifyta
+							   TRACE_PARSE = "trace parse", //Reading the output of verifyta (for simulations, this happens while verifyta runs)
+							   AVERAGING = "averaging"; //Computing the average of the runs
+	//Sizes (the unit is part of the name)
+	public static final String VERIFYTA_PEAK_MEMORY = "verifyta peak memory (KB)", //The largest resident set of a verifyta process
+							   VERIFYTA_IO = "verifyta I/O (KB)", //Read + written by a verifyta process
+							   MODEL_TABLE_CELLS = "model table cells (cells)"; //The size of the analysed models
+	//Counters
+	public static final String MODEL_CACHE_HITS = "model cache hits",
+							   MODEL_CACHE_MISSES = "model cache misses",
+							   SMC_CACHE_HITS = "SMC cache hits",
+							   SMC_CACHE_MISSES = "SMC cache misses",
+							   JOBS_SUBMITTED = "jobs submitted",
+							   JOBS_DONE = "jobs done",
+							   JOBS_FAILED = "jobs failed",
+							   JOBS_CANCELLED = "jobs cancelled",
+							   JOBS_REJECTED = "jobs rejected", //Expected to take too long (see JobScheduler.setCostLimits)
+							   JOBS_DEFERRED = "jobs deferred",
+							   JOBS_PREEMPTED = "jobs preempted", //How many times a job gave its slot to a more urgent one
+							   VERIFYTA_LIMITS_EXCEEDED = "verifyta runs over the limits", //Killed for using too much time or memory
+							   MODELS_UPLOADED = "models uploaded",
+							   MODEL_STORE_MISSES = "model store misses";
+
+	/**
+	 * A value which is read when a snapshot is taken.
+	 */
+	public interface Gauge {
+		long getValue();
+	}
+
+	private static final Metrics instance = new Metrics();
+
+	private final long startTime = System.currentTimeMillis();
+	private final Map<String, Histogram> histograms = new TreeMap<String, Histogram>();
+	private final Map<String, AtomicLong> counters = new TreeMap<String, AtomicLong>();
+	private final Map<String, Gauge> gauges = new TreeMap<String, Gauge>();
+
+	public static Metrics get() {
+		return instance;
+	}
+
+	/**
+	 * Returns the microseconds passed since the given time.
+	 *
+	 * @param startNanos a time obtained from System.nanoTime()
+	 * @return the microseconds passed since then
+	 */
+	public static long microsSince(long startNanos) {
+		return (System.nanoTime() - startNanos) / 1000;
+	}
+
+	/**
+	 * Returns the histogram with the given name, creating it if needed.
+	 */
+	public synchronized Histogram getHistogram(String name) {
+		Histogram histogram = histograms.get(name);
+		if (histogram == null) {
+			histogram = new Histogram();
+			histograms.put(name, histogram);
+		}
+		return histogram;
+	}
+
+	/**
+	 * Record a value (usually a duration in microseconds) in the histogram with the given name.
+	 */
+	public void record(String name, long value) {
+		getHistogram(name).record(value);
+	}
+
+	private synchronized AtomicLong getCounter(String name) {
+		AtomicLong counter = counters.get(name);
+		if (counter == null) {
+			counter = new AtomicLong();
+			counters.put(name, counter);
+		}
+		return counter;
+	}
+
+	public void increment(String counter) {
+		getCounter(counter).incrementAndGet();
+	}
+
+	public void add(String counter, long amount) {
+		getCounter(counter).addAndGet(amount);
+	}
+
+	/**
+	 * Register a gauge, replacing the one with the same name (if any).
+	 */
+	public synchronized void registerGauge(String name, Gauge gauge) {
+		gauges.put(name, gauge);
+	}
+
+	/**
+	 * Returns a copy of all the measurements taken so far.
+	 */
+	public Snapshot snapshot() {
+		Map<String, Histogram> histogramsCopy = new TreeMap<String, Histogram>();
+		Map<String, Long> countersCopy = new TreeMap<String, Long>();
+		Map<String, Gauge> gaugesCopy;
+		synchronized (this) {
+			for (Map.Entry<String, Histogram> h : histograms.entrySet()) {
+				histogramsCopy.put(h.getKey(), h.getValue().copy());
+			}
+			for (Map.Entry<String, AtomicLong> c : counters.entrySet()) {
+				countersCopy.put(c.getKey(), c.getValue().get());
+			}
+			gaugesCopy = new TreeMap<String, Gauge>(gauges);
+		}
+		Map<String, Long> gaugeValues = new TreeMap<String, Long>();
+		for (Map.Entry<String, Gauge> g : gaugesCopy.entrySet()) { //gauges are read outside our lock: they may need other locks
+			try {
+				gaugeValues.put(g.getKey(), g.getValue().getValue());
+			} catch (Exception ex) {
+				gaugeValues.put(g.getKey(), -1L);
+			}
+		}
+		return new Snapshot(System.currentTimeMillis(), startTime, histogramsCopy, countersCopy, gaugeValues);
+	}
+
+	/**
+	 * The measurements at a given moment. It can be sent to a client.
+	 */
+	public static class Snapshot implements Serializable {
+		private static final long serialVersionUID = 3390520791640437465L;
+		private final long time, startTime;
+		private final Map<String, Histogram> histograms;
+		private final Map<String, Long> counters, gauges;
+
+		Snapshot(long time, long startTime, Map<String, Histogram> histograms, Map<String, Long> counters, Map<String, Long> gauges) {
+			this.time = time;
+			this.startTime = startTime;
+			this.histograms = histograms;
+			this.counters = counters;
+			this.gauges = gauges;
+		}
+
+		public long getTime() {
+			return time;
+		}
+
+		/**
+		 * Returns since when (ms) the measurements are being taken.
+		 */
+		public long getStartTime() {
+			return startTime;
+		}
+
+		public Map<String, Histogram> getHistograms() {
+			return histograms;
+		}
+
+		public Map<String, Long> getCounters() {
+			return counters;
+		}
+
+		public Map<String, Long> getGauges() {
+			return gauges;
+		}
+
+		/**
+		 * A report with a line for each measurement (durations in microseconds, unless another unit is in the name).
+		 */
+		@Override
+		public String toString() {
+			StringBuilder report = new StringBuilder();
+			String newLine = System.getProperty("line.separator");
+			report.append("Metrics at " + new SimpleDateFormat("dd/MM/yyyy HH:mm:ss").format(new Date(time)) + " (uptime " + ((time - startTime) / 1000) + " s)" + newLine);
+			for (Map.Entry<String, Long> g : gauges.entrySet()) {
+				report.append("  " + g.getKey() + ": " + g.getValue() + newLine);
+			}
+			for (Map.Entry<String, Long> c : counters.entrySet()) {
+				report.append("  " + c.getKey() + ": " + c.getValue() + newLine);
+			}
+			for (Map.Entry<String, Histogram> h : histograms.entrySet()) {
+				report.append("  " + h.getKey() + (h.getKey().endsWith(")") ? "" : " (us)") + ": " + h.getValue() + newLine);
+			}
+			return report.toString();
+		}
+	}
+}
@@ -48,6 +48,95 @@ public class XmlConfiguration {
 	 * The configuration key for the tracer path property.
 	 */
 	public static final String TRACER_KEY = "/Inat/UppaalInvoker/tracer";
+
+	/**
+	 * The configuration key for the directory in which the working directories
+	 * of the analyses are created.
+	 */
+	public static final String WORKSPACE_KEY = "/Inat/UppaalInvoker/workspace";
+
+	/**
+	 * The configuration key for the maximum size (in MB) of all the working
+	 * directories of the analyses together.
+	 */
+	public static final String WORKSPACE_MAX_SIZE_KEY = "/Inat/UppaalInvoker/workspaceMaxSize";
+
+	/**
+	 * The configuration key for the number of generated UPPAAL models kept in memory.
+	 */
+	public static final String MODEL_CACHE_ENTRIES_KEY = "/Inat/UppaalInvoker/modelCacheEntries";
+
+	/**
+	 * The configuration key for the maximum size (in MB) of the generated UPPAAL
+	 * model files kept on disk.
+	 */
+	public static final String MODEL_CACHE_SIZE_KEY = "/Inat/UppaalInvoker/modelCacheSize";
+
+	/**
+	 * The configuration key for the directory in which the results of the SMC
+	 * queries are kept, to be reused when the same query is asked on the same model.
+	 */
+	public static final String SMC_CACHE_KEY = "/Inat/UppaalInvoker/smcCache";
+
+	/**
+	 * The configuration key for the maximum size (in KB) of the SMC results
+	 * kept on disk.
+	 */
+	public static final String SMC_CACHE_SIZE_KEY = "/Inat/UppaalInvoker/smcCacheSize";
+
+	/**
+	 * The configuration key for the longest time (in seconds) a verifyta
+	 * process can run before it is killed (0 for no limit).
+	 */
+	public static final String VERIFYTA_TIME_LIMIT_KEY = "/Inat/UppaalInvoker/timeLimit";
+
+	/**
+	 * The configuration key for the maximum memory (in MB) a verifyta
+	 * process can use before it is killed (0 for no limit).
+	 */
+	public static final String VERIFYTA_MEMORY_LIMIT_KEY = "/Inat/UppaalInvoker/memoryLimit";
+
+	/**
+	 * The configuration key for the number of analyses the server runs
+	 * at the same time.
+	 */
+	public static final String SERVER_SLOTS_KEY = "/Inat/UppaalServer/slots";
+
+	/**
+	 * The configuration key for the policy (FIFO or FAIR) used by the server
+	 * to choose the next analysis to run.
+	 */
+	public static final String SERVER_QUEUE_POLICY_KEY = "/Inat/UppaalServer/queuePolicy";
+
+	/**
+	 * The configuration key for the maximum size (in MB) of the models
+	 * uploaded to the server by the clients and kept to be reused.
+	 */
+	public static final String SERVER_MODEL_STORE_SIZE_KEY = "/Inat/UppaalServer/modelStoreSize";
+
+	/**
+	 * The configuration key for the interval (in seconds) between two reports
+	 * of the metrics of the server in its log (0 to never write them).
+	 */
+	public static final String SERVER_METRICS_INTERVAL_KEY = "/Inat/UppaalServer/metricsInterval";
+
+	/**
+	 * The configuration key for the maximum number of analyses of the same client
+	 * the server runs at the same time while other clients are waiting (0 for no limit).
+	 */
+	public static final String SERVER_CLIENT_QUOTA_KEY = "/Inat/UppaalServer/clientQuota";
+
+	/**
+	 * The configuration key for the expected duration (in minutes) over which
+	 * an analysis is run only when the server has nothing else to do (0 for no limit).
+	 */
+	public static final String SERVER_DEFER_COST_KEY = "/Inat/UppaalServer/deferCost";
+
+	/**
+	 * The configuration key for the expected duration (in minutes) over which
+	 * an analysis is refused by the server (0 for no limit).
+	 */
+	public static final String SERVER_MAX_COST_KEY = "/Inat/UppaalServer/maxCost";
 	
 	
 	/**
@@ -0,0 +1,82 @@
+package nl.utwente.exbio.brend;
+
+import inat.exceptions.SerializationException;
+import inat.model.Model;
+import inat.serializer.BinaryModelSerializer;
+import inat.serializer.ModelConverter;
+import inat.util.Table;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Save/load round-trip test of the binary model files ({@link BinaryModelSerializer}), with a model
+ * shaped like the ones built by the Cytoscape plugin (see {@link ModelCodecTest#buildModel()}).
+ */
+public class BinaryModelSerializerTest {
+	/**
+	 * Program entry point.
+	 * 
+	 * @param args the command line arguments
+	 * @throws Exception if the test fails
+	 */
+	public static void main(String[] args) throws Exception {
+		Model m = ModelCodecTest.buildModel();
+		Table big = new Table(101, 101); //large enough to be compressed
+		for (int row = 0; row < big.getRowCount(); row++) {
+			for (int col = 0; col < big.getColumnCount(); col++) {
+				big.set(row, col, row * col % 97);
+			}
+		}
+		m.getReaction("node1 (pp) node2").let("big").be(big);
+
+		File f = File.createTempFile("model", BinaryModelSerializer.EXTENSION);
+		try {
+			ModelConverter converter = new ModelConverter(); //what the "save model" action uses
+			converter.save(m, f);
+			if (!BinaryModelSerializer.isBinaryModel(f)) {
+				throw new IOException("The saved file is not recognised as a binary model");
+			}
+			ModelCodecTest.compare(m, converter.load(f));
+			System.out.println("Compressed save/load (" + f.length() + " bytes): OK");
+
+			new BinaryModelSerializer(false).serializeModel(m, f);
+			ModelCodecTest.compare(m, new BinaryModelSerializer().deserializeModel(f));
+			System.out.println("Uncompressed save/load (" + f.length() + " bytes): OK");
+
+			RandomAccessFile damage = new RandomAccessFile(f, "rw");
+			damage.seek(f.length() / 2);
+			int b = damage.read();
+			damage.seek(f.length() / 2);
+			damage.write(b ^ 0x10);
+			damage.close();
+			try {
+				new BinaryModelSerializer().deserializeModel(f);
+				throw new IOException("A damaged file was read without errors");
+			} catch (SerializationException e) {
+				System.out.println("Damaged file rejected (" + e.getMessage() + "): OK");
+			}
+
+			byte[][] wrongLengths = { { 0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F }, //a plain block of length -1
+					{ 0, (byte) 0xFE, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07 }, //a plain block longer than the file
+					{ 1, 100, (byte) 0xFE, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07 } }; //compressed data longer than the file
+			for (byte[] block : wrongLengths) {
+				damage = new RandomAccessFile(f, "rw");
+				damage.setLength(0);
+				damage.write(new byte[] { 'I', 'N', 'A', 'T', 'M', 1 });
+				damage.write(block);
+				damage.close();
+				try {
+					new BinaryModelSerializer().deserializeModel(f);
+					throw new IOException("A file with a wrong block length was read without errors");
+				} catch (SerializationException e) {
+					//expected: not a NegativeArraySizeException or an OutOfMemoryError
+				}
+			}
+			System.out.println("Wrong block lengths rejected: OK");
+		} finally {
+			f.delete();
+		}
+	}
+}
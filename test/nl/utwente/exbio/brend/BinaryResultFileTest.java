@@ -0,0 +1,137 @@
+package nl.utwente.exbio.brend;
+
+import inat.serializer.BinaryResultFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Round-trip test of the {@link BinaryResultFile}: the series read back from a file must be
+ * exactly the written ones, for each kind of column (the piecewise constant levels of a simulation,
+ * an average with its standard deviation, sparse experimental data, values which must be written
+ * as doubles and an empty series). The series must also survive the conversion to csv and back,
+ * and damaged files (wrong checksum, unknown version, not a result file) must be rejected.
+ */
+public class BinaryResultFileTest {
+	/**
+	 * Program entry point.
+	 *
+	 * @param args the command line arguments
+	 * @throws Exception if the test fails
+	 */
+	public static void main(String[] args) throws Exception {
+		Random random = new Random(13);
+		int nTimes = 20000;
+		double[] times = new double[nTimes], levels = new double[nTimes], averages = new double[nTimes], stdDevs = new double[nTimes];
+		int level = 20;
+		for (int t = 0; t < nTimes; t++) {
+			times[t] = t;
+			if (random.nextInt(10) == 0) level = Math.max(0, level + random.nextInt(3) - 1);
+			levels[t] = level;
+			averages[t] = random.nextInt(100000) / 1000.0;
+			stdDevs[t] = random.nextInt(1000) / 100.0;
+		}
+		double[] sparseTimes = { 0, 12.5, 100, 7000.25, 19999 },
+				 sparseValues = { 1, 0.5, 3, 2.125, 8 },
+				 oddTimes = { 1, 2, 3, 4, 5 },
+				 oddValues = { -0.0, Double.NaN, 1e300, Math.PI, -7 };
+		String[] names = { "node0", "node1", "node1_stddev", "experiment", "odd \u00e8", "empty" };
+		int[] masters = { -1, -1, 1, -1, -1, -1 };
+		double[][] xs = { times, times, times, sparseTimes, oddTimes, {} },
+				   ys = { levels, averages, stdDevs, sparseValues, oddValues, {} };
+		BinaryResultFile result = new BinaryResultFile("Time (min)", names, masters, xs, ys);
+
+		File file = File.createTempFile("binaryresult", BinaryResultFile.EXTENSION),
+			 csv = File.createTempFile("binaryresult", ".csv");
+		try {
+			result.write(file);
+			if (!BinaryResultFile.isResultFile(file)) {
+				throw new IOException("The written file is not recognized as a result file");
+			}
+			compare(BinaryResultFile.read(file), names, masters, xs, ys, names.length);
+			System.out.println("write/read (" + file.length() + " bytes for " + nTimes + " times): OK");
+
+			//in a csv file the series with the odd values would lose their precision, and empty columns are lost
+			BinaryResultFile plain = new BinaryResultFile("Time (min)", Arrays.copyOf(names, 4), Arrays.copyOf(masters, 4), Arrays.copyOf(xs, 4), Arrays.copyOf(ys, 4));
+			plain.writeCsv(csv);
+			if (BinaryResultFile.isResultFile(csv)) {
+				throw new IOException("A csv file is recognized as a result file");
+			}
+			compare(BinaryResultFile.fromCsv(csv), Arrays.copyOf(names, 4), Arrays.copyOf(masters, 4), xs, ys, 4);
+			System.out.println("writeCsv/fromCsv: OK");
+
+			byte[] original = readAll(file), bytes = original.clone();
+			bytes[bytes.length / 2] ^= 1;
+			expectRejected(file, bytes, "A damaged file");
+			bytes = original.clone();
+			bytes[5] = 99; //the version
+			expectRejected(file, bytes, "A file with an unknown version");
+			expectRejected(file, Arrays.copyOf(original, 3), "A truncated file");
+			System.out.println("Damaged files rejected: OK");
+
+			boolean rejected = false;
+			try {
+				new BinaryResultFile("Time", new String[] { "a" }, new int[] { -1 }, new double[][] { { 0, 2, 1 } }, new double[][] { { 0, 0, 0 } });
+			} catch (IllegalArgumentException ex) {
+				rejected = true;
+			}
+			if (!rejected) {
+				throw new IOException("Decreasing x values were accepted");
+			}
+			System.out.println("Decreasing x values rejected: OK");
+		} finally {
+			file.delete();
+			csv.delete();
+		}
+	}
+
+	private static void compare(BinaryResultFile actual, String[] names, int[] masters, double[][] xs, double[][] ys, int nSeries) throws IOException {
+		check("x name", "Time (min)", actual.getXSeriesName());
+		check("names", Arrays.toString(names), Arrays.toString(actual.getNames()));
+		for (int i = 0; i < nSeries; i++) {
+			check("master of " + names[i], masters[i], actual.getMaster(i));
+			if (!Arrays.equals(xs[i], actual.getX(i))) { //Arrays.equals compares the bits, so also -0.0 and NaN are checked
+				throw new IOException("The x values of " + names[i] + " differ from the original ones");
+			}
+			if (!Arrays.equals(ys[i], actual.getY(i))) {
+				throw new IOException("The y values of " + names[i] + " differ from the original ones");
+			}
+		}
+	}
+
+	private static void expectRejected(File file, byte[] bytes, String what) throws IOException {
+		RandomAccessFile out = new RandomAccessFile(file, "rw");
+		try {
+			out.setLength(0);
+			out.write(bytes);
+		} finally {
+			out.close();
+		}
+		try {
+			BinaryResultFile.read(file);
+		} catch (IOException ex) {
+			return;
+		}
+		throw new IOException(what + " was accepted");
+	}
+
+	private static byte[] readAll(File file) throws IOException {
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			byte[] bytes = new byte[(int) in.length()];
+			in.readFully(bytes);
+			return bytes;
+		} finally {
+			in.close();
+		}
+	}
+
+	private static void check(String what, Object expected, Object actual) throws IOException {
+		if (!expected.equals(actual)) {
+			throw new IOException(what + ": expected " + expected + ", found " + actual);
+		}
+	}
+}
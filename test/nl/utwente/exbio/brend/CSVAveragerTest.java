@@ -0,0 +1,149 @@
+package nl.utwente.exbio.brend;
+
+import inat.util.CSVAverager;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Test of the {@link CSVAverager}: the averages and standard deviations it writes are compared
+ * with the ones computed directly from the values of the files, both with few files (merged
+ * directly) and with more files than are merged together (merged in groups through temporary
+ * files). The rows of the files are at different times, so each row of the output is the average
+ * of only the files which have a row at that time.
+ */
+public class CSVAveragerTest {
+	private static final String[] HEADERS = { "Time", "A", "B" };
+
+	/**
+	 * Program entry point.
+	 *
+	 * @param args the command line arguments
+	 * @throws Exception if the test fails
+	 */
+	public static void main(String[] args) throws Exception {
+		File directory = File.createTempFile("csvaverager", "");
+		directory.delete();
+		directory.mkdir();
+		try {
+			Random random = new Random(11);
+			check(directory, random, 5, true);
+			check(directory, random, 5, false);
+			System.out.println("Average of 5 files: OK");
+			check(directory, random, 150, true); //two levels of merge: 3 groups, then their temporary files
+			System.out.println("Average of 150 files (merged in groups): OK");
+
+			File bad = new File(directory, "bad.csv");
+			Writer out = new FileWriter(bad);
+			out.write("Time,A,B\n0,1,2\n1,3\n");
+			out.close();
+			boolean rejected = false;
+			try {
+				new CSVAverager(new File[] { bad, bad }).average(new File(directory, "bad-average.csv").getPath(), true);
+			} catch (IOException ex) {
+				rejected = true;
+			}
+			if (!rejected) {
+				throw new IOException("A line with fewer values than the headers was accepted");
+			}
+			System.out.println("Wrong number of values rejected: OK");
+		} finally {
+			for (File f : directory.listFiles()) {
+				f.delete();
+			}
+			directory.delete();
+		}
+	}
+
+	/**
+	 * Writes the given number of random csv files, averages them and compares the result
+	 * with the averages computed here.
+	 */
+	private static void check(File directory, Random random, int nFiles, boolean stdDev) throws Exception {
+		//for each time, the values of the files with a row at that time (one list per column)
+		SortedMap<Double, List<List<Double>>> values = new TreeMap<Double, List<List<Double>>>();
+		File[] files = new File[nFiles];
+		for (int f = 0; f < nFiles; f++) {
+			files[f] = new File(directory, "run" + f + ".csv");
+			Writer out = new FileWriter(files[f]);
+			out.write("Time,A,B\n");
+			for (int t = 0; t < 200; t++) {
+				if (random.nextInt(5) == 0) continue; //not all files have all the times
+				double time = t * 0.5,
+					   a = random.nextInt(2000) / 100.0 - 10,
+					   b = t % 7 == 0 ? 3 : random.nextInt(100); //some rows have the same value in all files
+				out.write(time + "," + a + "," + b + "\n");
+				List<List<Double>> columns = values.get(time);
+				if (columns == null) {
+					columns = new ArrayList<List<Double>>();
+					columns.add(new ArrayList<Double>());
+					columns.add(new ArrayList<Double>());
+					values.put(time, columns);
+				}
+				columns.get(0).add(a);
+				columns.get(1).add(b);
+			}
+			out.close();
+		}
+
+		File output = new File(directory, "average.csv");
+		new CSVAverager(files).average(output.getPath(), stdDev);
+
+		BufferedReader in = new BufferedReader(new FileReader(output));
+		try {
+			String expectedHeaders = stdDev ? "Time,A,A_StdDev,B,B_StdDev" : "Time,A,B";
+			String headers = in.readLine();
+			if (!expectedHeaders.equals(headers)) {
+				throw new IOException("Headers: expected " + expectedHeaders + ", found " + headers);
+			}
+			for (Double time : values.keySet()) {
+				String line = in.readLine();
+				if (line == null) {
+					throw new IOException("The average ends before time " + time);
+				}
+				String[] cells = line.split(",", -1);
+				if (cells.length != (stdDev ? 5 : 3) || Double.parseDouble(cells[0]) != time) {
+					throw new IOException("Expected a row at time " + time + ", found " + line);
+				}
+				int cell = 1;
+				for (List<Double> column : values.get(time)) {
+					double sum = 0;
+					for (double v : column) sum += v;
+					double average = sum / column.size(), squares = 0;
+					for (double v : column) squares += (v - average) * (v - average);
+					compare(line, average, cells[cell++]);
+					if (stdDev) {
+						compare(line, Math.sqrt(squares / column.size()), cells[cell++]);
+					}
+				}
+			}
+			String extra = in.readLine();
+			if (extra != null && extra.length() > 0) {
+				throw new IOException("Unexpected row " + extra);
+			}
+		} finally {
+			in.close();
+		}
+		for (File f : files) {
+			f.delete();
+		}
+		output.delete();
+	}
+
+	//the values are written with at most 4 decimals, and a standard deviation of 0 is left empty
+	private static void compare(String line, double expected, String cell) throws IOException {
+		double actual = cell.length() == 0 ? 0 : Double.parseDouble(cell);
+		if (Math.abs(expected - actual) > 0.5e-4 + 1e-9) {
+			throw new IOException("Expected " + expected + ", found " + cell + " in the row " + line);
+		}
+	}
+}
@@ -0,0 +1,132 @@
+package nl.utwente.exbio.brend;
+
+import inat.graph.CsvLoader;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Test of the {@link CsvLoader}: the series it loads are compared with the ones read line by line
+ * (as the csv files were read before). The large file is split in more chunks, which are parsed in
+ * parallel; the files contain empty and blank cells, \r\n line endings, a last line without line
+ * terminator, and lines after the end of the data (a line shorter than 2 characters).
+ */
+public class CsvLoaderTest {
+	/**
+	 * Program entry point.
+	 *
+	 * @param args the command line arguments
+	 * @throws Exception if the test fails
+	 */
+	public static void main(String[] args) throws Exception {
+		File file = File.createTempFile("csvloader", ".csv");
+		try {
+			Random random = new Random(5);
+			Writer out = new BufferedWriter(new FileWriter(file));
+			out.write("Time,\"node0\",node1,,node2\r\n"); //the empty name is skipped
+			for (int i = 0; i < 600000; i++) {
+				out.write(i * 0.25 + "," + random.nextInt(100) + "," + (i % 3 == 0 ? "" : String.valueOf(random.nextInt(10000) / 100.0)) + "," + (i % 5 == 0 ? "  " : String.valueOf(-random.nextDouble())) + "\r\n");
+			}
+			out.write("\r\n"); //the end of the data: the next lines are not read
+			for (int i = 0; i < 200000; i++) {
+				out.write(i + ",1,2,3\r\n");
+			}
+			out.close();
+			compare(file, 3);
+			System.out.println("File of " + file.length() + " bytes in more chunks, with \\r\\n and empty cells: OK");
+
+			out = new FileWriter(file);
+			out.write("x,a,b,c\n");
+			out.write(",0, 1.5 ,2\n"); //as with StringTokenizer, the empty field before the x value is skipped
+			out.write("1,1e3,,\n");
+			out.write("2,-0.0,NaN,-7");
+			out.close();
+			compare(file, 3);
+			System.out.println("Small file without final line terminator: OK");
+
+			out = new FileWriter(file);
+			out.close();
+			boolean rejected = false;
+			try {
+				new CsvLoader(file);
+			} catch (IOException ex) {
+				rejected = true;
+			}
+			if (!rejected) {
+				throw new IOException("An empty file was accepted");
+			}
+			System.out.println("Empty file rejected: OK");
+		} finally {
+			file.delete();
+		}
+	}
+
+	/**
+	 * Loads the file with the CsvLoader and line by line, and checks that the series are the same.
+	 */
+	private static void compare(File file, int nSeries) throws IOException {
+		CsvLoader csv = new CsvLoader(file);
+		BufferedReader in = new BufferedReader(new FileReader(file));
+		try {
+			List<String> headers = new ArrayList<String>();
+			for (String h : in.readLine().split(",")) {
+				if (h.length() > 0) headers.add(h.replace('\"', ' '));
+			}
+			check("x series name", headers.get(0), csv.getXSeriesName());
+			check("names", headers.subList(1, headers.size()).toString(), Arrays.toString(csv.getNames()));
+			if (csv.getNames().length != nSeries) {
+				throw new IOException("Expected " + nSeries + " series, found " + csv.getNames().length);
+			}
+
+			List<List<Double>> xs = new ArrayList<List<Double>>(), ys = new ArrayList<List<Double>>();
+			for (int i = 0; i < nSeries; i++) {
+				xs.add(new ArrayList<Double>());
+				ys.add(new ArrayList<Double>());
+			}
+			String line;
+			while ((line = in.readLine()) != null && line.length() >= 2) {
+				String[] fields = line.split(",", -1);
+				int first = 0;
+				while (fields[first].length() == 0) first++;
+				double x = Double.parseDouble(fields[first]);
+				for (int i = first + 1; i < fields.length; i++) {
+					if (fields[i].trim().length() == 0) continue;
+					xs.get(i - first - 1).add(x);
+					ys.get(i - first - 1).add(Double.parseDouble(fields[i].trim()));
+				}
+			}
+			for (int i = 0; i < nSeries; i++) {
+				check("x values of " + headers.get(i + 1), xs.get(i), csv.getX(i));
+				check("y values of " + headers.get(i + 1), ys.get(i), csv.getY(i));
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	private static void check(String what, List<Double> expected, double[] actual) throws IOException {
+		if (expected.size() != actual.length) {
+			throw new IOException(what + ": expected " + expected.size() + " points, found " + actual.length);
+		}
+		for (int i = 0; i < actual.length; i++) {
+			if (!expected.get(i).equals(actual[i])) { //the same bits, so also -0.0 and NaN are checked
+				throw new IOException(what + ", point " + i + ": expected " + expected.get(i) + ", found " + actual[i]);
+			}
+		}
+	}
+
+	private static void check(String what, Object expected, Object actual) throws IOException {
+		if (!expected.equals(actual)) {
+			throw new IOException(what + ": expected " + expected + ", found " + actual);
+		}
+	}
+}
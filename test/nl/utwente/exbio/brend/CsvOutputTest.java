@@ -0,0 +1,96 @@
+package nl.utwente.exbio.brend;
+
+import inat.util.CsvOutput;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Test of the {@link CsvOutput}: the numbers it writes must be exactly the ones
+ * DecimalFormat("#.####") writes, also for the values where the fast formatting is not used
+ * (very large numbers, NaN, infinities, ties between two results). The file is longer than
+ * the buffer, so that it is written in more pieces.
+ */
+public class CsvOutputTest {
+	/**
+	 * Program entry point.
+	 *
+	 * @param args the command line arguments
+	 * @throws Exception if the test fails
+	 */
+	public static void main(String[] args) throws Exception {
+		DecimalFormat formatter = new DecimalFormat("#.####", new DecimalFormatSymbols(Locale.US));
+		double[] special = { 0, -0.0, 1, -1, 0.5, 0.00004, -0.00004, 0.00005, 0.00015, 2.00025, -3.14159, 1234.56789,
+				999999999.99999, 1e9, -1e9, 1e15, 1e300, Long.MAX_VALUE, Double.MAX_VALUE, Double.MIN_VALUE,
+				Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY };
+		Random random = new Random(3);
+		double[] values = Arrays.copyOf(special, special.length + 300000);
+		for (int i = special.length; i < values.length; i++) {
+			switch (i % 4) {
+			case 0: //any magnitude
+				values[i] = (random.nextBoolean() ? 1 : -1) * Math.pow(10, random.nextDouble() * 24 - 8);
+				break;
+			case 1: //the levels and times of a run
+				values[i] = random.nextInt(100000);
+				break;
+			case 2: //averages of a few levels
+				values[i] = random.nextInt(1000) / (double) (1 + random.nextInt(30));
+				break;
+			default: //ties (in decimal) between two results with 4 decimals
+				values[i] = (random.nextInt(2000000) * 2 + 1) / 20000.0 - 100;
+			}
+		}
+
+		File file = File.createTempFile("csvoutput", ".csv");
+		try {
+			StringBuilder expected = new StringBuilder();
+			String newLine = System.getProperty("line.separator");
+			CsvOutput out = new CsvOutput(file);
+			out.write("Time,Concentrazione \u00e0").newLine();
+			expected.append("Time,Concentrazione \u00e0").append(newLine);
+			for (int i = 0; i < values.length; i++) {
+				out.write(i).write(',').write(values[i]).newLine();
+				expected.append(formatter.format(i)).append(',').append(formatter.format(values[i])).append(newLine);
+			}
+			out.close();
+
+			String actual = read(file), //compared after encoding both, as not all charsets can write the accented letter
+				   expectedText = new String(expected.toString().getBytes(Charset.defaultCharset()), Charset.defaultCharset());
+			if (!actual.equals(expectedText)) {
+				String[] actualLines = actual.split(newLine, -1), expectedLines = expectedText.split(newLine, -1);
+				for (int i = 0; i < Math.min(actualLines.length, expectedLines.length); i++) {
+					if (!actualLines[i].equals(expectedLines[i])) {
+						throw new IOException("Line " + (i + 1) + ": expected " + expectedLines[i] + ", found " + actualLines[i]);
+					}
+				}
+				throw new IOException("Expected " + expectedLines.length + " lines, found " + actualLines.length);
+			}
+			System.out.println(values.length + " numbers (" + file.length() + " bytes) written as DecimalFormat(\"#.####\"): OK");
+		} finally {
+			file.delete();
+		}
+	}
+
+	private static String read(File file) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			byte[] buffer = new byte[1 << 16];
+			for (int n; (n = in.read(buffer)) > 0;) {
+				bytes.write(buffer, 0, n);
+			}
+			return new String(bytes.toByteArray(), Charset.defaultCharset());
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,119 @@
+package nl.utwente.exbio.brend;
+
+import inat.util.Histogram;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Test of the {@link Histogram} used by the Metrics: small values are counted exactly,
+ * the percentiles of values spread over many orders of magnitude are within the promised
+ * precision, and histograms can be added, copied, serialized and updated by more threads.
+ */
+public class HistogramTest {
+	/**
+	 * Program entry point.
+	 *
+	 * @param args the command line arguments
+	 * @throws Exception if the test fails
+	 */
+	public static void main(String[] args) throws Exception {
+		Histogram empty = new Histogram();
+		check("empty count", 0, empty.getCount());
+		check("empty min", 0, empty.getMin());
+		check("empty p50", 0, empty.getValueAtPercentile(50));
+
+		Histogram small = new Histogram();
+		for (int i = 0; i < 64; i++) {
+			small.record(i);
+		}
+		small.record(-5); //counted as 0
+		for (int k = 1; k <= 65; k++) { //the k-th of the 65 sorted values is 0, 0, 1, 2, ..., 63
+			check("small values, value number " + k, Math.max(0, k - 2), small.getValueAtPercentile(100.0 * (k - 0.5) / 65));
+		}
+		check("small min", 0, small.getMin());
+		check("small max", 63, small.getMax());
+		System.out.println("Values below 64 are exact: OK");
+
+		Random random = new Random(7);
+		long[] values = new long[100000];
+		Histogram large = new Histogram(), first = new Histogram(), second = new Histogram();
+		double sum = 0;
+		for (int i = 0; i < values.length; i++) {
+			values[i] = (long) Math.exp(random.nextDouble() * Math.log(1e12)); //from 1 to 10^12, as many per order of magnitude
+			large.record(values[i]);
+			(values[i] < 1000000 ? first : second).record(values[i]); //the two halves need arrays of different sizes
+			sum += values[i];
+		}
+		long[] sorted = values.clone();
+		Arrays.sort(sorted);
+		for (double percentile : new double[] { 1, 10, 25, 50, 75, 90, 99, 99.9, 99.99, 100 }) {
+			long exact = sorted[(int) Math.ceil(percentile / 100 * values.length) - 1];
+			long estimate = large.getValueAtPercentile(percentile);
+			if (estimate < exact || estimate - exact > exact / 32) {
+				throw new IOException("Percentile " + percentile + ": expected " + exact + " (within 1/32), found " + estimate);
+			}
+		}
+		check("count", values.length, large.getCount());
+		check("min", sorted[0], large.getMin());
+		check("max", sorted[sorted.length - 1], large.getMax());
+		if (Math.abs(large.getMean() - sum / values.length) > 1e-6 * large.getMean()) {
+			throw new IOException("Mean: expected " + sum / values.length + ", found " + large.getMean());
+		}
+		System.out.println("Percentiles of " + values.length + " values from 1 to 10^12 within 1/32: OK");
+
+		Histogram sumOfHalves = new Histogram();
+		sumOfHalves.add(first);
+		sumOfHalves.add(second);
+		check("sum of the halves", large.toString(), sumOfHalves.toString());
+		Histogram copy = large.copy();
+		large.record(Long.MAX_VALUE);
+		check("copy", sumOfHalves.toString(), copy.toString());
+		check("largest value", Long.MAX_VALUE, large.getValueAtPercentile(100));
+		System.out.println("add and copy: OK");
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(large);
+		out.close();
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		Histogram deserialized = (Histogram) in.readObject();
+		in.close();
+		check("serialization", large.toString(), deserialized.toString());
+		System.out.println("Java serialization (" + bytes.size() + " bytes): OK");
+
+		final Histogram shared = new Histogram();
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < 100000; i++) {
+						shared.record(i % 1000);
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		check("count with " + threads.length + " threads", threads.length * 100000, shared.getCount());
+		System.out.println("Updates from more threads: OK");
+	}
+
+	private static void check(String what, Object expected, Object actual) throws IOException {
+		if (!expected.equals(actual)) {
+			throw new IOException(what + ": expected " + expected + ", found " + actual);
+		}
+	}
+
+	private static void check(String what, long expected, long actual) throws IOException {
+		check(what, Long.valueOf(expected), Long.valueOf(actual));
+	}
+}
@@ -0,0 +1,119 @@
+package nl.utwente.exbio.brend;
+
+import inat.graph.Scale;
+import inat.graph.Series;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Test of the drawing of a series through its min/max pyramid (MinMaxPyramid, used by
+ * {@link Series#plot(Graphics2D, Rectangle)}): the image must be the one obtained drawing
+ * a line between each two consecutive points, except that the lines falling in two adjacent
+ * pixel columns may be drawn in only one of them. The series are drawn whole and zoomed in,
+ * after points are appended to them, and with x values which are not increasing.
+ */
+public class MinMaxPyramidTest {
+	private static final int WIDTH = 800, HEIGHT = 400;
+	private static final Rectangle BOUNDS = new Rectangle(20, 10, WIDTH - 40, HEIGHT - 30);
+
+	/**
+	 * Program entry point.
+	 *
+	 * @param args the command line arguments
+	 * @throws Exception if the test fails
+	 */
+	public static void main(String[] args) throws Exception {
+		Random random = new Random(17);
+		int n = 1000000;
+		double[] xs = new double[n], ys = new double[n];
+		double level = 50;
+		for (int i = 0; i < n; i++) {
+			xs[i] = i < n / 2 ? i : n / 2 + (i - n / 2) * 0.01; //the second half is much denser than the first
+			level = Math.max(0, Math.min(100, level + random.nextGaussian()));
+			ys[i] = level;
+		}
+		Series series = new Series(xs, ys, new Scale(), "dense");
+		compare("all the points", series);
+		System.out.println("Series of " + n + " points: OK");
+
+		Scale zoomed = new Scale();
+		Series zoomedSeries = new Series(xs, ys, zoomed, "zoomed");
+		zoomed.setMinX(xs[n / 2] - 1234.5);
+		zoomed.setMaxX(xs[n / 2] + 567.8);
+		compare("zoomed in", zoomedSeries);
+		System.out.println("Zoomed in: OK");
+
+		Series growing = new Series(Arrays.copyOf(xs, 1000), Arrays.copyOf(ys, 1000), new Scale(), "growing");
+		compare("first points", growing);
+		for (int from = 1000; from < n; from += from / 2) {
+			int to = Math.min(n, from + from / 2);
+			growing.appendData(Arrays.copyOfRange(xs, from, to), Arrays.copyOfRange(ys, from, to));
+			compare(to + " points", growing); //only the new part of the pyramid is computed
+		}
+		System.out.println("Points appended to the series: OK");
+
+		double[] backAndForth = new double[200000], backAndForthYs = new double[backAndForth.length];
+		for (int i = 0; i < backAndForth.length; i++) {
+			boolean away = i % 20000 == 10001; //a few points are on the other side of the graph
+			backAndForth[i] = away ? backAndForth.length - i : i;
+			backAndForthYs[i] = away ? 100 : random.nextInt(10);
+		}
+		compare("x values not increasing", new Series(backAndForth, backAndForthYs, new Scale(), "unsorted"));
+		System.out.println("Series with x values not increasing: OK");
+	}
+
+	/**
+	 * Draws the series with Series.plot and line by line, and checks that each pixel drawn in
+	 * one of the images has a pixel drawn in the other at the same height in the same column
+	 * or in one next to it (only inside the bounds of the graph).
+	 */
+	private static void compare(String what, Series series) throws IOException {
+		BufferedImage plotted = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = plotted.createGraphics();
+		g.setColor(Color.WHITE);
+		series.plot(g, BOUNDS);
+		g.dispose();
+
+		Scale scale = series.getScale(); //plot has computed the scale for the bounds
+		BufferedImage expected = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+		g = expected.createGraphics();
+		g.setColor(Color.WHITE);
+		double[] xs = series.getXs(), ys = series.getYs();
+		for (int i = 1; i < series.size(); i++) {
+			g.drawLine(pixelX(scale, xs[i - 1]), pixelY(scale, ys[i - 1]), pixelX(scale, xs[i]), pixelY(scale, ys[i]));
+		}
+		g.dispose();
+
+		checkCovered(what + ", drawn with the pyramid", plotted, expected);
+		checkCovered(what + ", drawn line by line", expected, plotted);
+	}
+
+	private static void checkCovered(String what, BufferedImage image, BufferedImage other) throws IOException {
+		for (int x = BOUNDS.x; x < BOUNDS.x + BOUNDS.width; x++) { //outside the bounds, only the lines to the first point before and after them are drawn
+			for (int y = BOUNDS.y; y < BOUNDS.y + BOUNDS.height; y++) {
+				if (!isDrawn(image, x, y)) continue;
+				if (!isDrawn(other, x, y) && !isDrawn(other, x - 1, y) && !isDrawn(other, x + 1, y)) {
+					throw new IOException(what + ": the pixel (" + x + ", " + y + ") is not drawn in the other image");
+				}
+			}
+		}
+	}
+
+	private static boolean isDrawn(BufferedImage image, int x, int y) {
+		return (image.getRGB(x, y) & 0xFFFFFF) != 0;
+	}
+
+	private static int pixelX(Scale scale, double x) {
+		return (int)(BOUNDS.x + scale.getXScale() * (x - scale.getMinX()));
+	}
+
+	private static int pixelY(Scale scale, double y) {
+		return (int)(BOUNDS.y + BOUNDS.height - scale.getYScale() * (y - scale.getMinY()));
+	}
+}
@@ -0,0 +1,181 @@
+package nl.utwente.exbio.brend;
+
+import inat.model.Model;
+import inat.model.ModelCodec;
+import inat.model.Property;
+import inat.model.PropertyBag;
+import inat.model.Reactant;
+import inat.model.Reaction;
+import inat.util.Table;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Iterator;
+
+/**
+ * Round-trip test of the compact model encoding ({@link ModelCodec}), both directly and
+ * through the standard Java serialization (which is how models travel over RMI).
+ * The model has the same shape as the ones built by the Cytoscape plugin, including the
+ * properties stored as Double.
+ */
+public class ModelCodecTest {
+	/**
+	 * Program entry point.
+	 * 
+	 * @param args the command line arguments
+	 * @throws Exception if the test fails
+	 */
+	public static void main(String[] args) throws Exception {
+		Model m = buildModel();
+
+		Model decoded = ModelCodec.decode(ModelCodec.encode(m));
+		compare(m, decoded);
+		System.out.println("ModelCodec.encode/decode: OK");
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(m);
+		out.close();
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		Model deserialized = (Model) in.readObject();
+		in.close();
+		compare(m, deserialized);
+		System.out.println("Java serialization (" + bytes.size() + " bytes): OK");
+
+		boolean rejected = false;
+		try {
+			m.getProperties().let("unexpected").be(Long.valueOf(1L << 40));
+		} catch (IllegalArgumentException e) {
+			rejected = true;
+		}
+		if (!rejected) {
+			throw new IOException("A property value of a type which is not accepted was set");
+		}
+		byte[] serializedValue = { 3, 1, 0, 1, 'x', 1, 1, 8, 0 }; //version 3, the string "x", one property named "x", of type SERIALIZED
+		rejected = false;
+		try {
+			ModelCodec.decode(serializedValue);
+		} catch (IOException e) {
+			rejected = true;
+		}
+		if (!rejected) {
+			throw new IOException("A property value written with the Java serialization was read");
+		}
+		System.out.println("Values of other types rejected: OK");
+	}
+
+	/**
+	 * Builds a model shaped like the ones built by RunAction: global properties with the
+	 * number of levels (Integer) and the seconds per point and time scale factor (Double),
+	 * reactants with strings, booleans and integers, mono- and bi-reactions with time tables.
+	 * 
+	 * @return the model
+	 */
+	public static Model buildModel() {
+		Model m = new Model();
+		m.getProperties().let(Model.Properties.NUMBER_OF_LEVELS).be(15);
+		m.getProperties().let(Model.Properties.SECONDS_PER_POINT).be(4.7);
+		m.getProperties().let(Model.Properties.SECS_POINT_SCALE_FACTOR).be(1.0);
+
+		for (int i = 0; i < 4; i++) {
+			Reactant r = new Reactant("node" + i);
+			r.let(Model.Properties.CYTOSCAPE_ID).be("node" + i);
+			r.let(Model.Properties.REACTANT_NAME).be("node" + i);
+			r.let(Model.Properties.ALIAS).be("Protein " + i);
+			r.let(Model.Properties.NUMBER_OF_LEVELS).be(15);
+			r.let(Model.Properties.GROUP).be(null);
+			r.let(Model.Properties.ENABLED).be(i != 3);
+			r.let(Model.Properties.PLOTTED).be(true);
+			r.let(Model.Properties.INITIAL_LEVEL).be(i * 2);
+			r.let(Model.Properties.LEVELS_SCALE_FACTOR).be(0.75 * (i + 1));
+			m.add(r);
+		}
+
+		Reaction mono = new Reaction("node0 (DimerizationInv) node0");
+		mono.let(Model.Properties.ENABLED).be(true);
+		mono.let(Model.Properties.INCREMENT).be(-1);
+		mono.let(Model.Properties.REACTION_TYPE).be(Model.Properties.MONO_REACTION);
+		mono.let(Model.Properties.REACTANT).be("node0");
+		mono.let(Model.Properties.TIMES_LOWER).be(table(16, 1, 3));
+		mono.let(Model.Properties.TIMES_UPPER).be(table(16, 1, 5));
+		m.add(mono);
+
+		Reaction bi = new Reaction("node1 (pp) node2");
+		bi.let(Model.Properties.ENABLED).be(true);
+		bi.let(Model.Properties.INCREMENT).be(1);
+		bi.let(Model.Properties.REACTION_TYPE).be(Model.Properties.BI_REACTION);
+		bi.let(Model.Properties.REACTANT).be("node2");
+		bi.let(Model.Properties.CATALYST).be("node1");
+		bi.let(Model.Properties.SCENARIO_PARAMETER_K2_KM).be(0.0173);
+		bi.let(Model.Properties.TIMES_LOWER).be(table(16, 16, 7));
+		bi.let(Model.Properties.TIMES_UPPER).be(table(16, 16, 11));
+		m.add(bi);
+		return m;
+	}
+
+	private static Table table(int rows, int cols, int seed) {
+		Table t = new Table(rows, cols);
+		for (int row = 0; row < rows; row++) {
+			for (int col = 0; col < cols; col++) {
+				t.set(row, col, row == 0 ? -1 : (row * 37 + col * seed) % 1000 + seed); //-1 stands for infinite time
+			}
+		}
+		return t;
+	}
+
+	/**
+	 * Checks that two models have the same entities, with the same properties and values.
+	 * 
+	 * @param expected the original model
+	 * @param actual the model to check
+	 * @throws IOException if the models differ
+	 */
+	public static void compare(Model expected, Model actual) throws IOException {
+		compare("the model", expected.getProperties(), actual.getProperties());
+		if (expected.getReactants().size() != actual.getReactants().size() || expected.getReactions().size() != actual.getReactions().size()) {
+			throw new IOException("Different number of reactants or reactions");
+		}
+		for (Reactant r : expected.getReactants()) {
+			if (actual.getReactant(r.getId()) == null) {
+				throw new IOException("Missing reactant " + r.getId());
+			}
+			compare(r.getId(), r.getProperties(), actual.getReactant(r.getId()).getProperties());
+		}
+		for (Reaction r : expected.getReactions()) {
+			if (actual.getReaction(r.getId()) == null) {
+				throw new IOException("Missing reaction " + r.getId());
+			}
+			compare(r.getId(), r.getProperties(), actual.getReaction(r.getId()).getProperties());
+		}
+	}
+
+	private static void compare(String owner, PropertyBag expected, PropertyBag actual) throws IOException {
+		int count = 0;
+		for (Iterator<Property> it = actual.iterator(); it.hasNext(); it.next()) {
+			count++;
+		}
+		for (Property p : expected) {
+			count--;
+			Property q = actual.get(p.getName());
+			if (q == null) {
+				throw new IOException("Missing property " + p.getName() + " of " + owner);
+			}
+			Object v1 = p.isNull() ? null : p.as(Object.class), v2 = q.isNull() ? null : q.as(Object.class);
+			boolean same;
+			if (v1 instanceof Table && v2 instanceof Table) { //Table does not define equals
+				same = v1.toString().equals(v2.toString());
+			} else {
+				same = v1 == null ? v2 == null : v1.equals(v2);
+			}
+			if (!same) {
+				throw new IOException("Property " + p.getName() + " of " + owner + ": expected " + v1 + ", found " + v2);
+			}
+		}
+		if (count != 0) {
+			throw new IOException("Extra properties in " + owner);
+		}
+	}
+}
@@ -0,0 +1,130 @@
+package nl.utwente.exbio.brend;
+
+import inat.analyser.LevelResult;
+import inat.analyser.ResourceUsage;
+import inat.analyser.uppaal.ResultCodec;
+import inat.analyser.uppaal.SimpleLevelResult;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Round-trip test of the compact result encoding ({@link ResultCodec}), both directly and
+ * through the standard Java serialization of a SimpleLevelResult (which is how results
+ * travel over RMI). The series cover the cases the encoding treats differently: integer
+ * times and levels (a simulation run), doubles (an average) and values which cannot be
+ * written as integers (-0.0, NaN, very large numbers).
+ */
+public class ResultCodecTest {
+	/**
+	 * Program entry point.
+	 *
+	 * @param args the command line arguments
+	 * @throws Exception if the test fails
+	 */
+	public static void main(String[] args) throws Exception {
+		Map<String, SortedMap<Double, Double>> levels = buildLevels();
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		ResultCodec.write(levels, out);
+		out.close();
+		Map<String, SortedMap<Double, Double>> decoded = ResultCodec.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+		if (!decoded.equals(levels)) { //Double.equals compares the bits, so also -0.0 and NaN are checked
+			throw new IOException("The decoded series differ from the original ones");
+		}
+		System.out.println("ResultCodec.write/read (" + bytes.size() + " bytes): OK");
+
+		SimpleLevelResult result = new SimpleLevelResult(levels);
+		ResourceUsage usage = new ResourceUsage(ModelCodecTest.buildModel());
+		usage.addRun(1234, 1000, 20480, 4096, 65536);
+		result.setResourceUsage(usage);
+		ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+		ObjectOutputStream objectOut = new ObjectOutputStream(serialized);
+		objectOut.writeObject(result);
+		objectOut.close();
+		ObjectInputStream objectIn = new ObjectInputStream(new ByteArrayInputStream(serialized.toByteArray()));
+		LevelResult deserialized = (LevelResult) objectIn.readObject();
+		objectIn.close();
+		compare(levels, deserialized);
+		if (deserialized.getResourceUsage() == null || !usage.toString().equals(deserialized.getResourceUsage().toString())) {
+			throw new IOException("Resource usage: expected " + usage + ", found " + deserialized.getResourceUsage());
+		}
+		System.out.println("Java serialization of a SimpleLevelResult (" + serialized.size() + " bytes): OK");
+
+		byte[] wrongVersion = bytes.toByteArray();
+		wrongVersion[0] = 99;
+		boolean rejected = false;
+		try {
+			ResultCodec.read(new DataInputStream(new ByteArrayInputStream(wrongVersion)));
+		} catch (IOException ex) {
+			rejected = true;
+		}
+		if (!rejected) {
+			throw new IOException("An unknown encoding version was accepted");
+		}
+		System.out.println("Unknown version rejected: OK");
+	}
+
+	/**
+	 * Builds the series of a result: a simulation run, an average with its standard deviation,
+	 * a series with unusual values and an empty one. The result is large enough to be compressed.
+	 *
+	 * @return the series, divided by reactant
+	 */
+	public static Map<String, SortedMap<Double, Double>> buildLevels() {
+		Map<String, SortedMap<Double, Double>> levels = new HashMap<String, SortedMap<Double, Double>>();
+		Random random = new Random(42);
+		SortedMap<Double, Double> run = new TreeMap<Double, Double>(), average = new TreeMap<Double, Double>(), stdDev = new TreeMap<Double, Double>();
+		int level = 7;
+		for (int time = 0; time < 5000; time += 1 + random.nextInt(3)) {
+			level = Math.max(0, Math.min(15, level + random.nextInt(3) - 1));
+			run.put((double) time, (double) level);
+			average.put((double) time, level / 3.0);
+			stdDev.put(time + 0.5, random.nextDouble());
+		}
+		levels.put("node0", run);
+		levels.put("node1", average);
+		levels.put("node1_StdDev", stdDev);
+
+		SortedMap<Double, Double> odd = new TreeMap<Double, Double>();
+		odd.put(0.0, -0.0);
+		odd.put(1.0, -12.0);
+		odd.put(2.0, Double.NaN);
+		odd.put(3.0, (double) (1L << 60));
+		odd.put(4.0, Double.MAX_VALUE);
+		odd.put(1e12, 3.0);
+		levels.put("node2", odd);
+		levels.put("node3", new TreeMap<Double, Double>());
+		return levels;
+	}
+
+	/**
+	 * Checks that a result contains exactly the given series.
+	 *
+	 * @param expected the series, divided by reactant
+	 * @param actual the result to check
+	 * @throws IOException if the result differs
+	 */
+	public static void compare(Map<String, SortedMap<Double, Double>> expected, LevelResult actual) throws IOException {
+		if (!expected.keySet().equals(actual.getReactantIds())) {
+			throw new IOException("Reactants: expected " + expected.keySet() + ", found " + actual.getReactantIds());
+		}
+		String text = actual.toString(); //the only way to see the exact points: one line per series
+		for (Map.Entry<String, SortedMap<Double, Double>> series : expected.entrySet()) {
+			if (!text.contains(series.getKey() + ": " + series.getValue() + "\n")) {
+				throw new IOException("The series " + series.getKey() + " differs from the original one");
+			}
+		}
+	}
+}
@@ -53,6 +53,7 @@ public class SerializationTest {
 		r1.let("from").be("s0");
 		r1.let("to").be("s0");
 		r1.let("active").be(true);
+		r1.let("rate").be(0.1);
 
 		m1.getReactant("s0").let("test").be(new Table(5, 5));
 		Table t = m1.getReactant("s0").get("test").as(Table.class);